@@ -0,0 +1,127 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.plan;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+
+import net.sviglas.meridian.storage.ColumnStore;
+import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.task.DatasetConstructor;
+import net.sviglas.meridian.task.JoinTask;
+import net.sviglas.meridian.task.KeyRange;
+import net.sviglas.meridian.task.ListRange;
+import net.sviglas.meridian.task.MergeTask;
+import net.sviglas.meridian.task.Pipeline;
+import net.sviglas.meridian.task.ReduceTask;
+
+/**
+ * Evaluates optimized plans with the tasks of the task package. Each run of
+ * maps and filters becomes a single {@link Pipeline} over the dataset its
+ * bottom node produces, so that only joins, merges, and partitioning
+ * materialize intermediate datasets.
+ */
+final class Evaluator {
+    // the pool running the tasks
+    private final ForkJoinPool pool;
+    // the dataset constructor
+    private final DatasetConstructor ctor;
+
+    /**
+     * Constructs a new evaluator.
+     *
+     * @param p the pool running the tasks.
+     * @param dc the dataset constructor.
+     */
+    Evaluator(ForkJoinPool p, DatasetConstructor dc) {
+        pool = p;
+        ctor = dc;
+    }
+
+    /**
+     * Evaluates a plan into a dataset.
+     *
+     * @param n the root of the plan.
+     * @param <T> the type of the output records.
+     * @return the output dataset.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    <T> Dataset<T> evaluate(PlanNode<T> n) {
+        if (n instanceof PlanNode.ScanNode) {
+            PlanNode.ScanNode<T> s = (PlanNode.ScanNode<T>) n;
+            return s.getFields() == null ? s.getDataset()
+                    : ((ColumnStore<T>) s.getDataset()).project(
+                            s.getFields());
+        }
+        if (n instanceof PlanNode.MapNode || n instanceof PlanNode.FilterNode) {
+            return pool.invoke(pipeline(n).collect(ctor));
+        }
+        if (n instanceof PlanNode.JoinNode) {
+            PlanNode.JoinNode j = (PlanNode.JoinNode) n;
+            return (Dataset<T>) pool.invoke(new JoinTask(
+                    Collections.singletonList(evaluate(j.getLeft())),
+                    Collections.singletonList(evaluate(j.getRight())),
+                    new ListRange(0, 1), j.getJoiner(), ctor));
+        }
+        if (n instanceof PlanNode.MergeNode) {
+            PlanNode.MergeNode<T> m = (PlanNode.MergeNode<T>) n;
+            return pool.invoke(new MergeTask<>(
+                    Collections.singletonList(evaluate(m.getLeft())),
+                    Collections.singletonList(evaluate(m.getRight())),
+                    new ListRange(0, 1), m.getMerger(), ctor));
+        }
+        return reduce((PlanNode.PartitionReduceNode) n);
+    }
+
+    /**
+     * Builds the pipeline of a run of maps and filters.
+     *
+     * @param n the top node of the run.
+     * @param <T> the type of the output records.
+     * @return the pipeline.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    <T> Pipeline<?, T> pipeline(PlanNode<T> n) {
+        if (n instanceof PlanNode.MapNode) {
+            PlanNode.MapNode m = (PlanNode.MapNode) n;
+            return pipeline(m.getInput()).map(m.getMapper());
+        }
+        if (n instanceof PlanNode.FilterNode) {
+            PlanNode.FilterNode<T> f = (PlanNode.FilterNode<T>) n;
+            return pipeline(f.getInput()).filter(f.getFilter());
+        }
+        return Pipeline.over(evaluate(n));
+    }
+
+    /**
+     * Internal method to partition the input of a node and reduce each
+     * partition.
+     *
+     * @param n the node.
+     * @param <TIn> the input type.
+     * @param <K> the key type.
+     * @param <V> the type of the partitioned values.
+     * @param <T> the output type.
+     * @return the reduced records, in key order.
+     */
+    private <TIn, K extends Comparable<? super K>, V, T> Dataset<T> reduce(
+            PlanNode.PartitionReduceNode<TIn, K, V, T> n) {
+        SortedMap<K, Dataset<V>> partitions = pool.invoke(
+                pipeline(n.getInput()).partition(n.getPartitioner(), ctor));
+        Dataset<T> output = ctor.constructDataset(n.getType());
+        if (partitions.isEmpty()) return output;
+        SortedMap<K, T> reduced = pool.invoke(new ReduceTask<>(partitions,
+                new KeyRange<>((SortedSet<K>) partitions.keySet()),
+                n.getReducer()));
+        for (T t : reduced.values()) output.add(t);
+        return output;
+    }
+}
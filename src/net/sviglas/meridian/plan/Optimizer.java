@@ -0,0 +1,281 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.plan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.sviglas.meridian.storage.ColumnStore;
+import net.sviglas.meridian.task.FilterFunction;
+import net.sviglas.meridian.task.JoinFunction;
+import net.sviglas.meridian.task.RangeFilterFunction;
+
+/**
+ * Rule-based rewriting of logical plans. The rules rely on functions being
+ * free of side effects, so that filters can be evaluated in any order and
+ * on fewer records, and apply in turn:
+ * <ol>
+ * <li>predicate pushdown: a filter over a join moves to the join input its
+ * join function equates it to (see {@link JoinFunction#leftFilter}), and a
+ * filter over a merge moves to both inputs, since merging keeps every
+ * record;</li>
+ * <li>filter reordering: in a run of consecutive filters, the plain
+ * {@link RangeFilterFunction}s are combined into one and evaluated first,
+ * as they are cheap and let stores skip containers and test fields where
+ * they are stored;</li>
+ * <li>projection pruning: a column store read only by filters and maps
+ * that name the fields they read (see
+ * {@link net.sviglas.meridian.task.MapFunction#getReadFields}) is scanned
+ * through a projection on those fields, unless it is first filtered on
+ * ranges, which the store evaluates before reading any record.</li>
+ * </ol>
+ * Fusing the runs of maps and filters into single passes is left to the
+ * evaluation of the plan.
+ */
+final class Optimizer {
+    /**
+     * Not to be instantiated.
+     */
+    private Optimizer() { }
+
+    /**
+     * Optimizes a plan.
+     *
+     * @param plan the plan.
+     * @param fields the fields of the output records that are read, or null
+     * if any may be.
+     * @param <T> the type of the output records.
+     * @return the optimized plan.
+     */
+    static <T> PlanNode<T> optimize(PlanNode<T> plan, String [] fields) {
+        PlanNode<T> p = pushDown(plan);
+        p = reorder(p);
+        return prune(p, fields == null ? null
+                : new TreeSet<>(Arrays.asList(fields)));
+    }
+
+    /**
+     * Internal method to push the filters of a plan towards its scans.
+     *
+     * @param n the root of the plan.
+     * @param <T> the type of the output records.
+     * @return the rewritten plan.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> PlanNode<T> pushDown(PlanNode<T> n) {
+        if (n instanceof PlanNode.FilterNode) {
+            PlanNode.FilterNode<T> f = (PlanNode.FilterNode<T>) n;
+            return pushFilter(pushDown(f.getInput()), f.getFilter());
+        }
+        return rebuild(n, Optimizer::pushDown);
+    }
+
+    /**
+     * Internal method to place a filter over an already rewritten plan as
+     * far down as it goes.
+     *
+     * @param n the root of the plan.
+     * @param f the filter.
+     * @param <T> the type of the records.
+     * @return the filtered plan.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> PlanNode<T> pushFilter(PlanNode<T> n,
+                                              FilterFunction<T> f) {
+        if (n instanceof PlanNode.JoinNode) {
+            PlanNode.JoinNode j = (PlanNode.JoinNode) n;
+            JoinFunction joiner = j.getJoiner();
+            FilterFunction left = joiner.leftFilter(f);
+            if (left != null) {
+                return new PlanNode.JoinNode(pushFilter(j.getLeft(), left),
+                        j.getRight(), joiner);
+            }
+            FilterFunction right = joiner.rightFilter(f);
+            if (right != null) {
+                return new PlanNode.JoinNode(j.getLeft(),
+                        pushFilter(j.getRight(), right), joiner);
+            }
+        }
+        else if (n instanceof PlanNode.MergeNode) {
+            PlanNode.MergeNode<T> m = (PlanNode.MergeNode<T>) n;
+            return new PlanNode.MergeNode<>(pushFilter(m.getLeft(), f),
+                    pushFilter(m.getRight(), f), m.getMerger());
+        }
+        else if (n instanceof PlanNode.FilterNode) {
+            // filters commute, so this one may still reach a join below
+            PlanNode.FilterNode<T> g = (PlanNode.FilterNode<T>) n;
+            PlanNode<T> below = pushFilter(g.getInput(), f);
+            if (! (below instanceof PlanNode.FilterNode)
+                    || ((PlanNode.FilterNode<T>) below).getFilter() != f) {
+                return new PlanNode.FilterNode<>(below, g.getFilter());
+            }
+        }
+        return new PlanNode.FilterNode<>(n, f);
+    }
+
+    /**
+     * Internal method to reorder the runs of consecutive filters of a plan.
+     *
+     * @param n the root of the plan.
+     * @param <T> the type of the output records.
+     * @return the rewritten plan.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> PlanNode<T> reorder(PlanNode<T> n) {
+        if (! (n instanceof PlanNode.FilterNode)) {
+            return rebuild(n, Optimizer::reorder);
+        }
+        // the filters of the run, from the top down
+        List<FilterFunction<T>> filters = new ArrayList<>();
+        PlanNode<T> below = n;
+        while (below instanceof PlanNode.FilterNode) {
+            PlanNode.FilterNode<T> f = (PlanNode.FilterNode<T>) below;
+            filters.add(f.getFilter());
+            below = f.getInput();
+        }
+        Collections.reverse(filters);
+        RangeFilterFunction<T> ranges = null;
+        List<FilterFunction<T>> others = new ArrayList<>();
+        for (FilterFunction<T> f : filters) {
+            // subclasses may test more than their ranges
+            if (f.getClass() == RangeFilterFunction.class) {
+                RangeFilterFunction<T> r = (RangeFilterFunction<T>) f;
+                ranges = ranges == null ? r : ranges.and(r);
+            }
+            else others.add(f);
+        }
+        PlanNode<T> p = reorder(below);
+        if (ranges != null) p = new PlanNode.FilterNode<>(p, ranges);
+        for (FilterFunction<T> f : others) p = new PlanNode.FilterNode<>(p, f);
+        return p;
+    }
+
+    /**
+     * Internal method to restrict the scans of column stores to the fields
+     * that are read.
+     *
+     * @param n the root of the plan.
+     * @param needed the fields of the output records that are read, or null
+     * if any may be.
+     * @param <T> the type of the output records.
+     * @return the rewritten plan.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> PlanNode<T> prune(PlanNode<T> n, Set<String> needed) {
+        if (n instanceof PlanNode.ScanNode) {
+            PlanNode.ScanNode<T> s = (PlanNode.ScanNode<T>) n;
+            if (needed == null || s.getFields() != null
+                    || ! (s.getDataset() instanceof ColumnStore)) {
+                return n;
+            }
+            return new PlanNode.ScanNode<>(s.getDataset(),
+                    needed.toArray(new String [needed.size()]));
+        }
+        if (n instanceof PlanNode.MapNode) {
+            PlanNode.MapNode<Object, T> m = (PlanNode.MapNode<Object, T>) n;
+            return new PlanNode.MapNode<>(prune(m.getInput(),
+                    union(Collections.emptySet(),
+                            m.getMapper().getReadFields())),
+                    m.getMapper());
+        }
+        if (n instanceof PlanNode.FilterNode) {
+            PlanNode.FilterNode<T> f = (PlanNode.FilterNode<T>) n;
+            if (f.getFilter() instanceof RangeFilterFunction
+                    && f.getInput() instanceof PlanNode.ScanNode) {
+                // the store selects the matches itself, and only they are
+                // read in full
+                return n;
+            }
+            return new PlanNode.FilterNode<>(prune(f.getInput(),
+                    union(needed, f.getFilter().getReadFields())),
+                    f.getFilter());
+        }
+        return rebuild(n, Optimizer::pruneAll);
+    }
+
+    /**
+     * Internal method to prune a plan whose output is read in full.
+     *
+     * @param n the root of the plan.
+     * @param <T> the type of the output records.
+     * @return the rewritten plan.
+     */
+    private static <T> PlanNode<T> pruneAll(PlanNode<T> n) {
+        return prune(n, null);
+    }
+
+    /**
+     * Internal method to add fields to a set of fields.
+     *
+     * @param fields the set of fields, or null for all.
+     * @param more the fields to add, or null for all.
+     * @return the union, or null for all.
+     */
+    private static Set<String> union(Set<String> fields, String [] more) {
+        if (fields == null || more == null) return null;
+        Set<String> u = new TreeSet<>(fields);
+        u.addAll(Arrays.asList(more));
+        return u;
+    }
+
+    /**
+     * Internal function that rewrites a plan.
+     */
+    private interface Rewrite {
+        /**
+         * Rewrites a plan.
+         *
+         * @param n the root of the plan.
+         * @param <T> the type of the output records.
+         * @return the rewritten plan.
+         */
+        <T> PlanNode<T> apply(PlanNode<T> n);
+    }
+
+    /**
+     * Internal method to rebuild a node over its rewritten inputs.
+     *
+     * @param n the node.
+     * @param r the rewrite of the inputs.
+     * @param <T> the type of the output records.
+     * @return the rebuilt node.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> PlanNode<T> rebuild(PlanNode<T> n, Rewrite r) {
+        if (n instanceof PlanNode.MapNode) {
+            PlanNode.MapNode m = (PlanNode.MapNode) n;
+            return new PlanNode.MapNode(r.apply(m.getInput()), m.getMapper());
+        }
+        if (n instanceof PlanNode.FilterNode) {
+            PlanNode.FilterNode<T> f = (PlanNode.FilterNode<T>) n;
+            return new PlanNode.FilterNode<>(r.apply(f.getInput()),
+                    f.getFilter());
+        }
+        if (n instanceof PlanNode.JoinNode) {
+            PlanNode.JoinNode j = (PlanNode.JoinNode) n;
+            return new PlanNode.JoinNode(r.apply(j.getLeft()),
+                    r.apply(j.getRight()), j.getJoiner());
+        }
+        if (n instanceof PlanNode.MergeNode) {
+            PlanNode.MergeNode<T> m = (PlanNode.MergeNode<T>) n;
+            return new PlanNode.MergeNode<>(r.apply(m.getLeft()),
+                    r.apply(m.getRight()), m.getMerger());
+        }
+        if (n instanceof PlanNode.PartitionReduceNode) {
+            PlanNode.PartitionReduceNode p = (PlanNode.PartitionReduceNode) n;
+            return new PlanNode.PartitionReduceNode(r.apply(p.getInput()),
+                    p.getPartitioner(), p.getReducer());
+        }
+        return n;
+    }
+}
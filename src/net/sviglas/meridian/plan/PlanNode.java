@@ -0,0 +1,426 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.plan;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.task.FilterFunction;
+import net.sviglas.meridian.task.JoinFunction;
+import net.sviglas.meridian.task.MapFunction;
+import net.sviglas.meridian.task.MergeFunction;
+import net.sviglas.meridian.task.PartitionFunction;
+import net.sviglas.meridian.task.RangeFilterFunction;
+import net.sviglas.meridian.task.ReduceFunction;
+
+/**
+ * A node of a logical plan: an operation over the datasets its inputs
+ * produce. Nodes are immutable; the optimizer rewrites a plan by building
+ * new nodes.
+ *
+ * @param <T> the type of the records the node produces.
+ */
+abstract class PlanNode<T> {
+    // the type of the records the node produces
+    private final Class<T> type;
+
+    /**
+     * Constructs a new node.
+     *
+     * @param t the type of the records the node produces.
+     */
+    PlanNode(Class<T> t) {
+        type = t;
+    }
+
+    /**
+     * Returns the type of the records this node produces.
+     *
+     * @return the record type.
+     */
+    Class<T> getType() { return type; }
+
+    /**
+     * Returns the inputs of this node.
+     *
+     * @return the inputs, left to right.
+     */
+    abstract List<PlanNode<?>> getInputs();
+
+    /**
+     * Describes this node, without its inputs.
+     *
+     * @return a one-line description.
+     */
+    abstract String describe();
+
+    /**
+     * Describes the plan rooted at this node, one node per line, inputs
+     * indented below the nodes that consume them.
+     *
+     * @return the description of the plan.
+     */
+    String explain() {
+        StringBuilder sb = new StringBuilder();
+        explain(sb, 0);
+        return sb.toString();
+    }
+
+    /**
+     * Internal method to describe the plan rooted at this node.
+     *
+     * @param sb the description so far.
+     * @param depth the depth of this node.
+     */
+    private void explain(StringBuilder sb, int depth) {
+        for (int d = 0; d < depth; d++) sb.append("  ");
+        sb.append(describe()).append('\n');
+        for (PlanNode<?> input : getInputs()) input.explain(sb, depth + 1);
+    }
+
+    /**
+     * Reads a dataset, or the given fields of a column store.
+     *
+     * @param <T> the record type.
+     */
+    static final class ScanNode<T> extends PlanNode<T> {
+        // the dataset
+        private final Dataset<T> dataset;
+        // the fields to read, or null for all
+        private final String [] fields;
+
+        /**
+         * Constructs a new scan reading all fields.
+         *
+         * @param d the dataset.
+         */
+        ScanNode(Dataset<T> d) { this(d, null); }
+
+        /**
+         * Constructs a new scan reading the given fields.
+         *
+         * @param d the dataset.
+         * @param fs the fields to read, or null for all.
+         */
+        ScanNode(Dataset<T> d, String [] fs) {
+            super(d.getRecordType());
+            dataset = d;
+            fields = fs;
+        }
+
+        /**
+         * Returns the dataset.
+         *
+         * @return the dataset.
+         */
+        Dataset<T> getDataset() { return dataset; }
+
+        /**
+         * Returns the fields to read.
+         *
+         * @return the names of the fields, or null for all.
+         */
+        String [] getFields() { return fields; }
+
+        @Override
+        List<PlanNode<?>> getInputs() { return Collections.emptyList(); }
+
+        @Override
+        String describe() {
+            return "Scan " + dataset.getClass().getSimpleName() + "<"
+                    + getType().getSimpleName() + ">"
+                    + (fields != null ? " " + Arrays.toString(fields) : "");
+        }
+    }
+
+    /**
+     * Maps each record of its input.
+     *
+     * @param <TIn> the input type.
+     * @param <T> the output type.
+     */
+    static final class MapNode<TIn, T> extends PlanNode<T> {
+        // the input
+        private final PlanNode<TIn> input;
+        // the mapping function
+        private final MapFunction<TIn, T> mapper;
+
+        /**
+         * Constructs a new map node.
+         *
+         * @param i the input.
+         * @param f the mapping function.
+         */
+        MapNode(PlanNode<TIn> i, MapFunction<TIn, T> f) {
+            super(f.getOutputType());
+            input = i;
+            mapper = f;
+        }
+
+        /**
+         * Returns the input.
+         *
+         * @return the input.
+         */
+        PlanNode<TIn> getInput() { return input; }
+
+        /**
+         * Returns the mapping function.
+         *
+         * @return the mapping function.
+         */
+        MapFunction<TIn, T> getMapper() { return mapper; }
+
+        @Override
+        List<PlanNode<?>> getInputs() {
+            return Collections.<PlanNode<?>>singletonList(input);
+        }
+
+        @Override
+        String describe() {
+            String [] fs = mapper.getReadFields();
+            return "Map to " + getType().getSimpleName()
+                    + (fs != null ? " reading " + Arrays.toString(fs) : "");
+        }
+    }
+
+    /**
+     * Keeps the records of its input that pass a filter.
+     *
+     * @param <T> the record type.
+     */
+    static final class FilterNode<T> extends PlanNode<T> {
+        // the input
+        private final PlanNode<T> input;
+        // the filtering function
+        private final FilterFunction<T> filter;
+
+        /**
+         * Constructs a new filter node.
+         *
+         * @param i the input.
+         * @param f the filtering function.
+         */
+        FilterNode(PlanNode<T> i, FilterFunction<T> f) {
+            super(i.getType());
+            input = i;
+            filter = f;
+        }
+
+        /**
+         * Returns the input.
+         *
+         * @return the input.
+         */
+        PlanNode<T> getInput() { return input; }
+
+        /**
+         * Returns the filtering function.
+         *
+         * @return the filtering function.
+         */
+        FilterFunction<T> getFilter() { return filter; }
+
+        @Override
+        List<PlanNode<?>> getInputs() {
+            return Collections.<PlanNode<?>>singletonList(input);
+        }
+
+        @Override
+        String describe() {
+            return filter instanceof RangeFilterFunction
+                    ? "Filter " + ((RangeFilterFunction<T>) filter).getRanges()
+                    : "Filter";
+        }
+    }
+
+    /**
+     * Joins the records of two inputs.
+     *
+     * @param <Tl> the left input type.
+     * @param <Tr> the right input type.
+     * @param <T> the output type.
+     */
+    static final class JoinNode<Tl, Tr, T> extends PlanNode<T> {
+        // the left input
+        private final PlanNode<Tl> left;
+        // the right input
+        private final PlanNode<Tr> right;
+        // the join function
+        private final JoinFunction<Tl, Tr, T> joiner;
+
+        /**
+         * Constructs a new join node.
+         *
+         * @param l the left input.
+         * @param r the right input.
+         * @param j the join function.
+         */
+        JoinNode(PlanNode<Tl> l, PlanNode<Tr> r, JoinFunction<Tl, Tr, T> j) {
+            super(j.getOutputValueType());
+            left = l;
+            right = r;
+            joiner = j;
+        }
+
+        /**
+         * Returns the left input.
+         *
+         * @return the left input.
+         */
+        PlanNode<Tl> getLeft() { return left; }
+
+        /**
+         * Returns the right input.
+         *
+         * @return the right input.
+         */
+        PlanNode<Tr> getRight() { return right; }
+
+        /**
+         * Returns the join function.
+         *
+         * @return the join function.
+         */
+        JoinFunction<Tl, Tr, T> getJoiner() { return joiner; }
+
+        @Override
+        List<PlanNode<?>> getInputs() { return Arrays.asList(left, right); }
+
+        @Override
+        String describe() {
+            return "Join to " + getType().getSimpleName();
+        }
+    }
+
+    /**
+     * Merges the records of two sorted inputs.
+     *
+     * @param <T> the record type.
+     */
+    static final class MergeNode<T> extends PlanNode<T> {
+        // the left input
+        private final PlanNode<T> left;
+        // the right input
+        private final PlanNode<T> right;
+        // the merging function
+        private final MergeFunction<T> merger;
+
+        /**
+         * Constructs a new merge node.
+         *
+         * @param l the left input.
+         * @param r the right input.
+         * @param m the merging function.
+         */
+        MergeNode(PlanNode<T> l, PlanNode<T> r, MergeFunction<T> m) {
+            super(l.getType());
+            left = l;
+            right = r;
+            merger = m;
+        }
+
+        /**
+         * Returns the left input.
+         *
+         * @return the left input.
+         */
+        PlanNode<T> getLeft() { return left; }
+
+        /**
+         * Returns the right input.
+         *
+         * @return the right input.
+         */
+        PlanNode<T> getRight() { return right; }
+
+        /**
+         * Returns the merging function.
+         *
+         * @return the merging function.
+         */
+        MergeFunction<T> getMerger() { return merger; }
+
+        @Override
+        List<PlanNode<?>> getInputs() { return Arrays.asList(left, right); }
+
+        @Override
+        String describe() { return "Merge"; }
+    }
+
+    /**
+     * Partitions the records of its input by key and reduces each partition
+     * to a record; the records are produced in key order.
+     *
+     * @param <TIn> the input type.
+     * @param <K> the key type.
+     * @param <V> the type of the partitioned values.
+     * @param <T> the output type.
+     */
+    static final class PartitionReduceNode<TIn,
+            K extends Comparable<? super K>, V, T> extends PlanNode<T> {
+        // the input
+        private final PlanNode<TIn> input;
+        // the partitioning function
+        private final PartitionFunction<TIn, K, V> partitioner;
+        // the reducing function
+        private final ReduceFunction<K, V, T> reducer;
+
+        /**
+         * Constructs a new partition and reduce node.
+         *
+         * @param i the input.
+         * @param p the partitioning function.
+         * @param r the reducing function.
+         */
+        PartitionReduceNode(PlanNode<TIn> i,
+                            PartitionFunction<TIn, K, V> p,
+                            ReduceFunction<K, V, T> r) {
+            super(r.getOutputValueType());
+            input = i;
+            partitioner = p;
+            reducer = r;
+        }
+
+        /**
+         * Returns the input.
+         *
+         * @return the input.
+         */
+        PlanNode<TIn> getInput() { return input; }
+
+        /**
+         * Returns the partitioning function.
+         *
+         * @return the partitioning function.
+         */
+        PartitionFunction<TIn, K, V> getPartitioner() { return partitioner; }
+
+        /**
+         * Returns the reducing function.
+         *
+         * @return the reducing function.
+         */
+        ReduceFunction<K, V, T> getReducer() { return reducer; }
+
+        @Override
+        List<PlanNode<?>> getInputs() {
+            return Collections.<PlanNode<?>>singletonList(input);
+        }
+
+        @Override
+        String describe() {
+            return "PartitionReduce by "
+                    + partitioner.getOutputKeyType().getSimpleName()
+                    + " to " + getType().getSimpleName();
+        }
+    }
+}
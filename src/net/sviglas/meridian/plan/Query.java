@@ -0,0 +1,288 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.plan;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+
+import net.sviglas.meridian.storage.ColumnStore;
+import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.task.DatasetConstructor;
+import net.sviglas.meridian.task.DefaultDatasetConstructor;
+import net.sviglas.meridian.task.FilterFunction;
+import net.sviglas.meridian.task.FoldFunction;
+import net.sviglas.meridian.task.JoinFunction;
+import net.sviglas.meridian.task.MapFunction;
+import net.sviglas.meridian.task.MergeFunction;
+import net.sviglas.meridian.task.PartitionFunction;
+import net.sviglas.meridian.task.RangeFilterFunction;
+import net.sviglas.meridian.task.ReduceFunction;
+
+/**
+ * A lazy dataset expression. Transformations only build a logical plan;
+ * the plan is optimized (see {@link #explain()}) and evaluated when an
+ * action, i.e., {@link #collect} or {@link #fold}, is called. Queries are
+ * immutable, so a query can be extended in several ways and evaluated more
+ * than once, reading its datasets anew each time.
+ * <p>
+ * The optimizer assumes the functions of a query have no side effects; it
+ * may evaluate filters in a different order, or on the inputs of a join or
+ * merge rather than its output.
+ *
+ * @param <T> the type of the records of the query.
+ */
+public final class Query<T> {
+    // the root of the logical plan
+    private final PlanNode<T> plan;
+
+    /**
+     * Internal constructor for a query over a plan.
+     *
+     * @param p the root of the plan.
+     */
+    private Query(PlanNode<T> p) {
+        plan = p;
+    }
+
+    /**
+     * Starts a query over the records of a dataset.
+     *
+     * @param d the dataset.
+     * @param <T> the record type.
+     * @return the query.
+     */
+    public static <T> Query<T> from(Dataset<T> d) {
+        return new Query<>(new PlanNode.ScanNode<>(d));
+    }
+
+    /**
+     * Maps each record of this query.
+     *
+     * @param f the mapping function.
+     * @param <U> the output type.
+     * @return the mapped query.
+     */
+    public <U> Query<U> map(MapFunction<T, U> f) {
+        return new Query<>(new PlanNode.MapNode<>(plan, f));
+    }
+
+    /**
+     * Keeps the records of this query that pass a filter.
+     *
+     * @param f the filtering function.
+     * @return the filtered query.
+     */
+    public Query<T> filter(FilterFunction<T> f) {
+        return new Query<>(new PlanNode.FilterNode<>(plan, f));
+    }
+
+    /**
+     * Joins the records of this query, on the left, with those of another.
+     *
+     * @param right the right query.
+     * @param j the join function.
+     * @param <Tr> the type of the records of the right query.
+     * @param <U> the output type.
+     * @return the joined query.
+     */
+    public <Tr, U> Query<U> join(Query<Tr> right, JoinFunction<T, Tr, U> j) {
+        return new Query<>(new PlanNode.JoinNode<>(plan, right.plan, j));
+    }
+
+    /**
+     * Merges the records of this query with those of another; both are
+     * expected to be sorted as the merging function orders them.
+     *
+     * @param other the other query.
+     * @param m the merging function.
+     * @return the merged query.
+     */
+    public Query<T> merge(Query<T> other, MergeFunction<T> m) {
+        return new Query<>(new PlanNode.MergeNode<>(plan, other.plan, m));
+    }
+
+    /**
+     * Partitions the records of this query by key and reduces each partition
+     * to a record; the resulting records are in key order.
+     *
+     * @param p the partitioning function.
+     * @param r the reducing function.
+     * @param <K> the key type.
+     * @param <V> the type of the partitioned values.
+     * @param <U> the output type.
+     * @return the reduced query.
+     */
+    public <K extends Comparable<? super K>, V, U> Query<U> partitionReduce(
+            PartitionFunction<T, K, V> p, ReduceFunction<K, V, U> r) {
+        return new Query<>(new PlanNode.PartitionReduceNode<>(plan, p, r));
+    }
+
+    /**
+     * Describes the optimized plan of this query, as {@link #collect}
+     * evaluates it.
+     *
+     * @return the optimized plan, one operation per line, inputs indented
+     * below the operations that consume them.
+     */
+    public String explain() {
+        return Optimizer.optimize(plan, null).explain();
+    }
+
+    /**
+     * Evaluates this query into a dataset, with the default dataset
+     * constructor.
+     *
+     * @param pool the pool running the evaluation.
+     * @return the records of the query.
+     */
+    public Dataset<T> collect(ForkJoinPool pool) {
+        return collect(pool, new DefaultDatasetConstructor());
+    }
+
+    /**
+     * Evaluates this query into a dataset. If the query has only maps and
+     * filters, the dataset is produced by a single pass over the input;
+     * otherwise, the result of the last join, merge or reduction is.
+     *
+     * @param pool the pool running the evaluation.
+     * @param ctor the dataset constructor.
+     * @return the records of the query.
+     */
+    public Dataset<T> collect(ForkJoinPool pool, DatasetConstructor ctor) {
+        return new Evaluator(pool, ctor).evaluate(
+                Optimizer.optimize(plan, null));
+    }
+
+    /**
+     * Evaluates this query and folds its records, in the same pass as its
+     * last maps and filters.
+     *
+     * @param pool the pool running the evaluation.
+     * @param f the folding function.
+     * @param <R> the result type.
+     * @return the folded result.
+     */
+    public <R> R fold(ForkJoinPool pool, FoldFunction<T, R> f) {
+        Evaluator e = new Evaluator(pool, new DefaultDatasetConstructor());
+        return pool.invoke(e.pipeline(
+                Optimizer.optimize(plan, f.getReadFields())).fold(f));
+    }
+
+    /**
+     * Describes the plan of this query as it was built, before optimization.
+     *
+     * @return the description of the plan.
+     */
+    @Override
+    public String toString() { return plan.explain(); }
+
+    /**
+     * Debug main: sums a field of a column store over the records that pass
+     * an opaque test, and over those that pass it and two ranges as well;
+     * checks each sum, and the records each query collects, against the
+     * query evaluated unoptimized.
+     *
+     * @param args parameters: the number of records, 100 thousand by
+     * default.
+     */
+    public static void main(String [] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        ColumnStore<Item> items = new ColumnStore<>(Item.class);
+        Item item = new Item();
+        for (int i = 0; i < n; i++) {
+            item.id = i;
+            item.price = (i * 7919L) % 1000;
+            item.weight = i % 97;
+            item.stock = i % 13;
+            items.add(item);
+        }
+        FilterFunction<Item> stocked = new FilterFunction<Item>(Item.class) {
+            @Override
+            public boolean filter(Item t) { return t.stock != 0; }
+
+            @Override
+            public String [] getReadFields() {
+                return new String [] {"stock"};
+            }
+        };
+        FoldFunction<Item, Long> total =
+                new FoldFunction<Item, Long>(Item.class, Long.class) {
+                    @Override
+                    public boolean retainsInput() { return false; }
+
+                    @Override
+                    public Long noop() { return 0L; }
+
+                    @Override
+                    public Long accumulate(Long in, Item t) {
+                        return in + t.price;
+                    }
+
+                    @Override
+                    public Long combine(Long l, Long r) { return l + r; }
+
+                    @Override
+                    public String [] getReadFields() {
+                        return new String [] {"price"};
+                    }
+                };
+        Query<Item> opaque = Query.from(items).filter(stocked);
+        Query<Item> ranged = opaque
+                .filter(new RangeFilterFunction<>(Item.class)
+                        .between("price", 100, 199))
+                .filter(new RangeFilterFunction<>(Item.class)
+                        .between("weight", 0, 10));
+        ForkJoinPool pool = new ForkJoinPool();
+        for (Query<Item> query : Arrays.asList(opaque, ranged)) {
+            System.out.print(Optimizer.optimize(query.plan,
+                    total.getReadFields()).explain());
+            Evaluator plain = new Evaluator(pool,
+                    new DefaultDatasetConstructor());
+            long optimized = query.fold(pool, total);
+            long unoptimized = pool.invoke(plain.pipeline(query.plan)
+                    .fold(total));
+            if (optimized != unoptimized) {
+                throw new IllegalStateException("Optimized total "
+                        + optimized + " but unoptimized " + unoptimized);
+            }
+            Dataset<Item> collected = query.collect(pool);
+            Iterator<Item> expected = plain.evaluate(query.plan).iterator();
+            long count = 0;
+            for (Item t : collected) {
+                if (! expected.hasNext() || expected.next().id != t.id) {
+                    throw new IllegalStateException("Optimized record "
+                            + t.id + " differs from the unoptimized one");
+                }
+                count++;
+            }
+            if (expected.hasNext()) {
+                throw new IllegalStateException("Optimized query missed "
+                        + "records after " + count);
+            }
+            System.out.println("  total " + optimized + " over " + count
+                    + " records: ok");
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Debug record type.
+     */
+    public static class Item {
+        // the identifier
+        public long id;
+        // the price
+        public long price;
+        // the weight
+        public int weight;
+        // the units in stock
+        public int stock;
+    }
+}
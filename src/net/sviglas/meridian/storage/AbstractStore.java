@@ -8,12 +8,27 @@
 
 package net.sviglas.meridian.storage;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Abstract base class for all in-memory dataset stores. These stores are
  * effectively linked lists of containers, each different store with its own
- * different kind of container.
+ * different kind of container. Next to the list, each store keeps a directory
+ * of its containers and the index of the first record in each of them, so
+ * that random access does not need to walk the list. Appending a store of
+ * the same class only splices the lists; the directory catches up with the
+ * spliced containers when it is next needed, so appends take constant time.
+ * <p>
+ * Growing through small containers or splicing leaves a store fragmented;
+ * {@link #compact()} rewrites it into full containers and swaps them in
+ * without disturbing concurrent readers.
+ * <p>
+ * A store keeps the {@link DatasetIndex indexes} over its fields current as
+ * records are added or appended to it.
  *
  * @param <T> the type of the records of the store.
  */
@@ -21,14 +36,22 @@ import java.util.Iterator;
 public abstract class AbstractStore<T> extends Dataset<T> {
     // default allocation
     public static final int DEFAULT_ALLOCATION = 1000;
-    // the number of records to allocate in each container
+    // initial number of directory slots
+    private static final int INITIAL_DIRECTORY = 4;
+    // the largest number of records to allocate in a container
     private final int allocationSize;
-    // the head of the container list
-    private AbstractStoreContainer<T> head;
-    // the tail of the container list
-    private AbstractStoreContainer<T> tail;
+    // decides the capacity of each new container
+    private final AllocationPolicy policy;
     // the size of the store in number of records
     private long size;
+    // the containers of the store; replaced as a whole by compaction
+    private volatile Layout layout;
+    // false once the containers have been spliced into another store, which
+    // then releases them
+    private boolean ownsContainers;
+    // the indexes over the fields of the store
+    private final List<DatasetIndex<T>> indexes =
+            new CopyOnWriteArrayList<>();
 
     /**
      * Constructs a dataset hosting records of the given type. The type must
@@ -55,16 +78,71 @@ public abstract class AbstractStore<T> extends Dataset<T> {
      * constructor).
      */
     public AbstractStore(Class<T> c, int da) throws BadTypeException {
+        this(c, da, false, AllocationPolicy.FIXED);
+    }
+
+    /**
+     * Constructs a dataset hosting records of the given type, whose
+     * containers are sized by the given policy up to the given allocation
+     * size. The type must have a parameter-less constructor.
+     *
+     * @param c the type of the records this dataset hosts.
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     * @throws BadTypeException if the record type is not acceptable (i.e., it
+     * does not comprise primitive types and does not have a parameter-less
+     * constructor).
+     */
+    public AbstractStore(Class<T> c, int da, AllocationPolicy p)
+            throws BadTypeException {
+        this(c, da, false, p);
+    }
+
+    /**
+     * Constructs a dataset hosting records of the given type and with the
+     * given allocation increment, which may already be aligned, e.g., when
+     * the store is being reloaded from storage.
+     *
+     * @param c the type of the records this dataset hosts.
+     * @param da the allocation increment.
+     * @param aligned true if the allocation increment is already aligned and
+     * should be used as is, false if it should go through
+     * {@link #fixAllocationSize(int)}.
+     * @throws BadTypeException if the record type is not acceptable (i.e., it
+     * does not comprise primitive types and does not have a parameter-less
+     * constructor).
+     */
+    protected AbstractStore(Class<T> c, int da, boolean aligned)
+            throws BadTypeException {
+        this(c, da, aligned, AllocationPolicy.FIXED);
+    }
+
+    /**
+     * Internal constructor given all parameters.
+     *
+     * @param c the type of the records this dataset hosts.
+     * @param da the allocation increment.
+     * @param aligned true if the allocation increment is already aligned.
+     * @param p the allocation policy.
+     * @throws BadTypeException if the record type is not acceptable.
+     */
+    private AbstractStore(Class<T> c, int da, boolean aligned,
+                          AllocationPolicy p) throws BadTypeException {
         super(c);
-        allocationSize = fixAllocationSize(da);
-        head = null;
-        tail = null;
+        // containers that grow by policy keep the requested largest size,
+        // so that small datasets are not inflated to aligned containers
+        allocationSize = aligned || p != AllocationPolicy.FIXED ? da
+                : fixAllocationSize(da);
+        policy = p;
         size = 0;
+        layout = new Layout();
+        ownsContainers = true;
     }
 
     /**
      * Called internally to potentially align the allocation size -- it depends
-     * on the actual subclasses to see if that is necessary.
+     * on the actual subclasses to see if that is necessary. Only stores with
+     * the {@link AllocationPolicy#FIXED} policy are aligned.
      *
      * @param da the original allocation size.
      * @return the fixed allocation size.
@@ -72,12 +150,20 @@ public abstract class AbstractStore<T> extends Dataset<T> {
     protected int fixAllocationSize(int da) { return da; }
 
     /**
-     * Retrieves this store's allocation size in number of records.
+     * Retrieves this store's allocation size in number of records, i.e., the
+     * capacity of its largest containers.
      *
      * @return this store's allocation size in number of records.
      */
     protected int getAllocationSize() { return allocationSize; }
 
+    /**
+     * Retrieves this store's allocation policy.
+     *
+     * @return this store's allocation policy.
+     */
+    public AllocationPolicy getAllocationPolicy() { return policy; }
+
     /**
      * The size of this store.
      *
@@ -93,31 +179,421 @@ public abstract class AbstractStore<T> extends Dataset<T> {
      */
     @Override
     public void add(T t) {
-        if (head != null) {
-            if (tail.size() == getAllocationSize()) {
-                AbstractStoreContainer<T> newTail = allocateContainer();
-                newTail.add(t);
-                tail.setNext(newTail);
-                tail = newTail;
+        AbstractStoreContainer<T> c = appendTarget();
+        c.add(t);
+        c.getStatistics().add(t);
+        appended(t);
+    }
+
+    /**
+     * Internal method to retrieve the container the next record should be
+     * added to, allocating a new tail if the current one is full. Callers must
+     * add exactly one record to the returned container, account for it in the
+     * container's statistics and then call {@link #appended(Object)}, or
+     * {@link #appended()} if they do not hold the record as an object.
+     *
+     * @return the container to add the next record to.
+     */
+    protected AbstractStoreContainer<T> appendTarget() {
+        Layout l = layout;
+        if (l.head == null) {
+            l.index();
+            l.head = newContainer(policy.nextCapacity(0, getAllocationSize()));
+            l.tail = l.head;
+            l.register(l.head, size);
+        }
+        else if (l.tail.size() == l.tail.capacity()) {
+            // containers filled short of the allocation size make locating
+            // records by division impossible
+            l.uniform = l.uniform && l.tail.size() == getAllocationSize();
+            l.index();
+            AbstractStoreContainer<T> newTail = newContainer(
+                    policy.nextCapacity(l.tail.capacity(),
+                            getAllocationSize()));
+            l.tail.setNext(newTail);
+            l.tail = newTail;
+            l.register(newTail, size);
+        }
+        else if (l.tail.getStatistics() == null) {
+            l.tail.setStatistics(summarise(l.tail));
+        }
+        return l.tail;
+    }
+
+    /**
+     * Internal method to allocate a new, empty container along with its
+     * statistics.
+     *
+     * @param capacity the capacity of the container in number of records.
+     * @return the new container.
+     */
+    private AbstractStoreContainer<T> newContainer(int capacity) {
+        AbstractStoreContainer<T> c = allocateContainer(capacity);
+        c.setStatistics(new ZoneMap(getCodec()));
+        return c;
+    }
+
+    /**
+     * Internal method to compute the statistics of an already populated
+     * container.
+     *
+     * @param c the container.
+     * @return the statistics of the container's records.
+     */
+    private ZoneMap summarise(AbstractStoreContainer<T> c) {
+        ZoneMap z = new ZoneMap(getCodec());
+        T record = null;
+        for (int i = 0; i < c.size(); i++) {
+            record = c.get(i, record);
+            z.add(record);
+        }
+        return z;
+    }
+
+    /**
+     * Internal method to attach an already populated container as the new
+     * tail of this store, e.g., when reloading a store from storage. Unless
+     * the container comes with its statistics, they are only computed when
+     * first needed.
+     *
+     * @param c the container to attach.
+     */
+    protected void attach(AbstractStoreContainer<T> c) {
+        Layout l = layout;
+        l.index();
+        l.uniform = l.uniform && (l.head == null
+                || l.tail.size() == getAllocationSize());
+        if (l.head == null) l.head = c;
+        else l.tail.setNext(c);
+        l.tail = c;
+        l.register(c, size);
+        size += c.size();
+        index(size - c.size(), size);
+    }
+
+    /**
+     * Internal method to account for a record added to the container returned
+     * by {@link #appendTarget()}; the record goes straight to the indexes.
+     *
+     * @param t the record added.
+     */
+    protected void appended(T t) {
+        size++;
+        for (DatasetIndex<T> x : indexes) x.appended(t, size - 1);
+    }
+
+    /**
+     * Internal method to account for a record added to the container returned
+     * by {@link #appendTarget()} without being held as an object, e.g., an
+     * unboxed value; the record is only read back if there are indexes.
+     */
+    protected void appended() {
+        AbstractStoreContainer<T> tail = layout.tail;
+        appended(indexes.isEmpty() ? null : tail.get(tail.size() - 1));
+    }
+
+    /**
+     * Returns the indexes over the fields of this store.
+     *
+     * @return the indexes, in the order they were created.
+     */
+    public List<DatasetIndex<T>> getIndexes() {
+        return Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Internal method to start keeping an index current.
+     *
+     * @param x the index.
+     */
+    void addIndex(DatasetIndex<T> x) { indexes.add(x); }
+
+    /**
+     * Internal method to stop keeping an index current.
+     *
+     * @param x the index.
+     */
+    void removeIndex(DatasetIndex<T> x) { indexes.remove(x); }
+
+    /**
+     * Internal method to add records to the indexes of this store.
+     *
+     * @param begin the position of the first record (inclusive).
+     * @param end the position of the last record (exclusive).
+     */
+    private void index(long begin, long end) {
+        if (indexes.isEmpty() || begin == end) return;
+        for (DatasetIndex<T> x : indexes) x.appended(begin, end);
+    }
+
+    /**
+     * Returns the current layout of this store, i.e., its containers and
+     * their positions. A layout stays valid after the store is compacted, so
+     * readers that look up a container and then read from it should do both
+     * through the same layout.
+     *
+     * @return the current layout of this store.
+     */
+    public Layout getLayout() { return layout; }
+
+    /**
+     * Returns the number of containers of this store.
+     *
+     * @return the number of containers of this store.
+     */
+    public int containerCount() { return layout.containerCount(); }
+
+    /**
+     * Returns the index of the first record of the given container.
+     *
+     * @param c the position of the container, in list order.
+     * @return the index of the container's first record in this store.
+     */
+    public long containerBegin(int c) { return layout.containerBegin(c); }
+
+    /**
+     * Returns the number of records in the given container.
+     *
+     * @param c the position of the container, in list order.
+     * @return the number of records in the container.
+     */
+    public int containerSize(int c) { return layout.containerSize(c); }
+
+    /**
+     * Returns the statistics of the records in the given container,
+     * computing them first if the container was attached already populated.
+     *
+     * @param c the position of the container, in list order.
+     * @return the statistics of the container.
+     */
+    public ZoneMap containerStatistics(int c) {
+        return layout.containerStatistics(c);
+    }
+
+    /**
+     * Returns the position of the container hosting the record at the given
+     * index.
+     *
+     * @param i the index of the record.
+     * @return the position of the container, in list order.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public int containerOf(long i) throws IndexOutOfBoundsException {
+        return layout.containerOf(i);
+    }
+
+    /**
+     * Internal method to retrieve a container by its position.
+     *
+     * @param c the position of the container, in list order.
+     * @return the container.
+     */
+    protected AbstractStoreContainer<T> getContainer(int c) {
+        return layout.getContainer(c);
+    }
+
+    /**
+     * Locates the container hosting the record at the given index. This is a
+     * division as long as the containers are uniformly filled, and a binary
+     * search over the container offsets otherwise.
+     *
+     * @param i the index of the record; it must be within bounds.
+     * @return the position of the container in the directory.
+     */
+    protected int locate(long i) { return layout.locate(i); }
+
+    /**
+     * Tests whether this store is fragmented, i.e., whether some container
+     * other than the tail holds fewer records than the allocation size. That
+     * is the case after growing through small containers or after splicing
+     * in stores with partially filled tails; records are then located by
+     * binary search rather than by division, and scans hop through more
+     * containers than necessary.
+     *
+     * @return true if compacting this store would change its layout, false
+     * otherwise.
+     */
+    public boolean isFragmented() {
+        Layout l = layout;
+        l.index();
+        return ! l.uniform;
+    }
+
+    /**
+     * Rewrites a fragmented store into densely packed containers of the full
+     * allocation size; the last container is the smallest the allocation
+     * policy offers for the remaining records. The new containers are built
+     * to the side and swapped in as a whole once complete: readers that
+     * obtained the previous layout, e.g., open cursors, keep reading the
+     * previous containers, which compaction leaves intact. The previous
+     * containers are therefore not recycled but abandoned (see
+     * {@link #abandon(AbstractStoreContainer)}), and their storage is freed
+     * once no reader holds them. Compaction must not run concurrently with
+     * additions or appends to this store.
+     *
+     * @return true if the store was compacted, false if it was not
+     * fragmented.
+     */
+    public synchronized boolean compact() {
+        Layout current = layout;
+        current.index();
+        if (current.uniform) return false;
+        Layout compacted = new Layout();
+        long remaining = size;
+        AbstractStoreContainer<T> target = null;
+        for (int c = 0; c < current.containers; c++) {
+            AbstractStoreContainer<T> source = current.directory[c];
+            int from = 0;
+            while (from < source.size()) {
+                if (target == null || target.size() == target.capacity()) {
+                    target = newContainer(compactedCapacity(remaining));
+                    if (compacted.head == null) compacted.head = target;
+                    else compacted.tail.setNext(target);
+                    compacted.tail = target;
+                    compacted.register(target, size - remaining);
+                }
+                int n = Math.min(source.size() - from,
+                        target.capacity() - target.size());
+                transfer(source, from, target, n);
+                from += n;
+                remaining -= n;
             }
-            else {
-                tail.add(t);
+        }
+        layout = compacted;
+        if (ownsContainers) {
+            for (int c = 0; c < current.containers; c++) {
+                abandon(current.directory[c]);
             }
         }
-        else {
-            head = allocateContainer();
-            head.add(t);
-            tail = head;
+        // the compacted containers are held by this store alone
+        ownsContainers = true;
+        return true;
+    }
+
+    /**
+     * Internal method to decide the capacity of a container built by
+     * compaction.
+     *
+     * @param remaining the number of records still to be placed.
+     * @return the allocation size if the records fill it, otherwise the
+     * smallest capacity of the allocation policy that holds them all.
+     */
+    private int compactedCapacity(long remaining) {
+        int alloc = getAllocationSize();
+        if (remaining >= alloc) return alloc;
+        int capacity = policy.nextCapacity(0, alloc);
+        while (capacity < remaining) {
+            int next = policy.nextCapacity(capacity, alloc);
+            if (next <= capacity) return alloc;
+            capacity = next;
         }
-        size++;
+        return capacity;
+    }
+
+    /**
+     * Internal method to copy records between containers of this store and
+     * account for them in the statistics of the destination. Subclasses
+     * whose containers hold arrays can override this to copy in bulk.
+     *
+     * @param src the container to copy from.
+     * @param from the position of the first record to copy in the source.
+     * @param dst the container to copy to, with room for all records.
+     * @param n the number of records to copy.
+     */
+    protected void transfer(AbstractStoreContainer<T> src, int from,
+                            AbstractStoreContainer<T> dst, int n) {
+        ZoneMap z = dst.getStatistics();
+        boolean reuse = copiesRecords();
+        T record = null;
+        for (int i = from; i < from + n; i++) {
+            record = reuse ? src.get(i, record) : src.get(i);
+            dst.add(record);
+            z.add(record);
+        }
+    }
+
+    /**
+     * Releases the containers of this store, recycling their storage unless
+     * the store has been appended to another store of its class, which then
+     * holds the containers; the store is left empty and can be reused, as
+     * are its indexes. The store must not be released while it is being
+     * read, and a store appended to it must not be read once it is released.
+     */
+    @Override
+    public synchronized void release() {
+        Layout l = layout;
+        if (ownsContainers) {
+            for (int c = 0; c < l.containerCount(); c++) {
+                recycle(l.directory[c]);
+            }
+        }
+        layout = new Layout();
+        size = 0;
+        ownsContainers = true;
+        for (DatasetIndex<T> x : indexes) x.released();
+    }
+
+    /**
+     * Internal method to recycle the storage of a released container. By
+     * default the container is left to the garbage collector.
+     *
+     * @param c the container.
+     */
+    protected void recycle(AbstractStoreContainer<T> c) { }
+
+    /**
+     * Internal method to give up a container replaced by compaction, which
+     * readers may still hold, so its storage must not be reused; it is left
+     * to the garbage collector. By default nothing else is done.
+     *
+     * @param c the container.
+     */
+    protected void abandon(AbstractStoreContainer<T> c) { }
+
+    /**
+     * Selects the records of a container within a range of positions that
+     * lie within all the given ranges. By default each record is read and
+     * tested in turn; stores that can test fields where they are stored
+     * override this to avoid rebuilding records.
+     *
+     * @param l the layout to read through, e.g., that the positions of
+     * containers were taken from.
+     * @param c the position of the container in the layout.
+     * @param from the position of the first record in the container
+     * (inclusive).
+     * @param to the position of the last record in the container
+     * (exclusive).
+     * @param ranges the ranges, all of which must hold.
+     * @param out the array to write the positions of the selected records
+     * to, in order; it must have room for to - from positions.
+     * @return the number of records selected.
+     */
+    public int select(Layout l, int c, int from, int to,
+                      List<FieldRange> ranges, int [] out) {
+        AbstractStoreContainer<T> container = l.getContainer(c);
+        boolean reuse = copiesRecords();
+        T record = null;
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            record = reuse ? container.get(i, record) : container.get(i);
+            boolean matches = true;
+            for (int r = 0; matches && r < ranges.size(); r++) {
+                matches = ranges.get(r).test(record);
+            }
+            if (matches) out[n++] = i;
+        }
+        return n;
     }
 
     /**
      * Internal method to allocate a container of records for this store.
      *
+     * @param capacity the number of records the container should hold; at
+     * most the allocation size.
      * @return a container of records for this store.
      */
-    protected abstract AbstractStoreContainer<T> allocateContainer();
+    protected abstract AbstractStoreContainer<T> allocateContainer(
+            int capacity);
 
     /**
      * Given an index, retrieves the record at that index.
@@ -129,23 +605,143 @@ public abstract class AbstractStore<T> extends Dataset<T> {
      */
     @Override
     public T get(long i) throws IndexOutOfBoundsException {
-        long accumulated = 0;
-        AbstractStoreContainer<T> current = head;
-        while (current != null) {
-            if (accumulated + current.size() > i) {
-                return current.get((int) (i - accumulated));
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + i + " > "
+                    + size);
+        }
+        Layout l = layout;
+        int c = l.locate(i);
+        return l.directory[c].get((int) (i - l.offsets[c]));
+    }
+
+    /**
+     * Given an index, retrieves the record at that index into the given record
+     * instance, if the store's containers allow it.
+     *
+     * @param i the index of the record to be retrieved.
+     * @param into the record instance to reuse; may be null.
+     * @return the record at the given index.
+     * @throws IndexOutOfBoundsException if the requested record is not within
+     * the boundaries of this store.
+     */
+    @Override
+    public T get(long i, T into) throws IndexOutOfBoundsException {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + i + " > "
+                    + size);
+        }
+        Layout l = layout;
+        int c = l.locate(i);
+        return l.directory[c].get((int) (i - l.offsets[c]), into);
+    }
+
+    /**
+     * Returns an iterator over the records within the given range of indexes;
+     * the iterator locates the first container once and then streams through
+     * the containers sequentially.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @return an iterator over the records in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this store.
+     */
+    @Override
+    public Iterator<T> cursor(long begin, long end)
+            throws IndexOutOfBoundsException {
+        return new RangeCursor(begin, end, false, null);
+    }
+
+    /**
+     * Returns an iterator over the records within the given range of indexes
+     * that reuses a single record instance, where the containers allow it.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @param reuse the record instance to reuse; may be null.
+     * @return an iterator over the records in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this store.
+     */
+    @Override
+    public Iterator<T> cursor(long begin, long end, T reuse)
+            throws IndexOutOfBoundsException {
+        return new RangeCursor(begin, end, true, reuse);
+    }
+
+    /**
+     * Internal iterator over a range of records; it locates the first
+     * container once and then streams through the containers sequentially.
+     */
+    private class RangeCursor implements Iterator<T> {
+        // the layout the cursor reads through
+        private final Layout layout;
+        // the index of the first record
+        private final long begin;
+        // the number of records left to return
+        private long remaining;
+        // whether to reuse the record instance
+        private final boolean reusing;
+        // the record instance to reuse
+        private T record;
+        // the current container
+        private AbstractStoreContainer<T> currentContainer;
+        // the position in the current container
+        private int currentCounter;
+
+        /**
+         * Constructs a new cursor over the given range.
+         *
+         * @param b the index of the first record (inclusive).
+         * @param e the index of the last record (exclusive).
+         * @param r whether to reuse the record instance.
+         * @param t the record instance to reuse; may be null.
+         * @throws IndexOutOfBoundsException if the range is not within the
+         * boundaries of this store.
+         */
+        RangeCursor(long b, long e, boolean r, T t)
+                throws IndexOutOfBoundsException {
+            if (b < 0 || e > size || b > e) {
+                throw new IndexOutOfBoundsException("Bad range: [" + b + ", "
+                        + e + ") for size " + size);
+            }
+            layout = getLayout();
+            begin = b;
+            remaining = e - b;
+            reusing = r;
+            record = t;
+            currentContainer = null;
+            currentCounter = 0;
+        }
+
+        @Override
+        public boolean hasNext() { return remaining > 0; }
+
+        @Override
+        public T next() {
+            if (remaining <= 0) return null;
+            if (currentContainer == null) {
+                int c = layout.locate(begin);
+                currentContainer = layout.directory[c];
+                currentCounter = (int) (begin - layout.offsets[c]);
             }
-            else {
-                accumulated += current.size();
-                current = current.getNext();
+            while (currentCounter >= currentContainer.size()) {
+                currentContainer = currentContainer.getNext();
+                currentCounter = 0;
             }
+            remaining--;
+            if (! reusing) return currentContainer.get(currentCounter++);
+            record = currentContainer.get(currentCounter++, record);
+            return record;
         }
-        throw new IndexOutOfBoundsException("Out of bounds: " + i + " > "
-                + size);
     }
 
     /**
-     * Appends a new dataset to this one.
+     * Appends a new dataset to this one. If the dataset is a store of the same
+     * class its containers are spliced into this store's list in constant
+     * time; they are only added to the directory when it is next needed.
+     * Otherwise the records are copied; see {@link CompositeDataset} to
+     * concatenate datasets of different classes without copying.
      *
      * @param d the dataset to be appended to this.
      */
@@ -153,13 +749,19 @@ public abstract class AbstractStore<T> extends Dataset<T> {
     public void append(Dataset<T> d) {
         if (d.getClass().equals(this.getClass())) {
             AbstractStore<T> ad = (AbstractStore<T>) d;
-            tail.setNext(ad.head);
-            tail = ad.tail;
-            AbstractStoreContainer<T> current = ad.head;
-            while (current != null) {
-                size += current.size();
-                current = current.getNext();
-            }
+            Layout l = layout;
+            Layout al = ad.layout;
+            if (al.head == null) return;
+            l.uniform = l.uniform && al.uniform
+                    && (l.head == null || l.tail.size() == getAllocationSize())
+                    && ad.getAllocationSize() == getAllocationSize();
+            if (l.head == null) l.head = al.head;
+            else l.tail.setNext(al.head);
+            l.tail = al.tail;
+            size += ad.size;
+            l.indexed = false;
+            ad.ownsContainers = false;
+            index(size - ad.size, size);
         }
         else {
             for (T t : d) add(t);
@@ -174,7 +776,7 @@ public abstract class AbstractStore<T> extends Dataset<T> {
     @Override
     public Iterator<T> iterator() {
         return new Iterator<T>() {
-            AbstractStoreContainer<T> currentContainer = head;
+            AbstractStoreContainer<T> currentContainer = layout.head;
             int currentCounter = 0;
 
             @Override
@@ -205,4 +807,203 @@ public abstract class AbstractStore<T> extends Dataset<T> {
             }
         };
     }
+
+    /**
+     * The containers of a store: the container list along with a directory of
+     * the containers and the index of the first record in each of them. A
+     * store replaces its layout as a whole when it is compacted, so a layout
+     * obtained through {@link #getLayout()} gives consistent positions for as
+     * long as it is used.
+     */
+    public final class Layout {
+        // the head of the container list
+        private AbstractStoreContainer<T> head;
+        // the tail of the container list
+        private AbstractStoreContainer<T> tail;
+        // the directory of containers, in list order; allocated along with
+        // the first container
+        private AbstractStoreContainer<T> [] directory;
+        // the index of the first record of each container in the directory
+        private long [] offsets;
+        // the number of containers in the directory
+        private int containers;
+        // true if every container of the list is in the directory
+        private volatile boolean indexed;
+        // true if all containers but the tail hold exactly allocationSize
+        // records
+        private boolean uniform;
+
+        /**
+         * Constructs a new, empty layout.
+         */
+        private Layout() {
+            head = null;
+            tail = null;
+            directory = null;
+            offsets = null;
+            containers = 0;
+            indexed = true;
+            uniform = true;
+        }
+
+        /**
+         * Internal method to bring the directory up to date with the
+         * container list, registering the containers spliced in by appends
+         * since the directory was last complete.
+         */
+        private void index() {
+            if (indexed) return;
+            synchronized (this) {
+                if (indexed) return;
+                AbstractStoreContainer<T> c = head;
+                long offset = 0;
+                if (containers > 0) {
+                    AbstractStoreContainer<T> last = directory[containers - 1];
+                    c = last.getNext();
+                    offset = offsets[containers - 1] + last.size();
+                }
+                while (c != null) {
+                    register(c, offset);
+                    offset += c.size();
+                    if (c == tail) break;
+                    c = c.getNext();
+                }
+                indexed = true;
+            }
+        }
+
+        /**
+         * Internal method to register a container in the directory.
+         *
+         * @param c the container to register, following all registered ones.
+         * @param offset the index of the container's first record in the
+         * store.
+         */
+        private void register(AbstractStoreContainer<T> c, long offset) {
+            if (directory == null) {
+                directory = newDirectory(INITIAL_DIRECTORY);
+                offsets = new long [INITIAL_DIRECTORY];
+            }
+            else if (containers == directory.length) {
+                AbstractStoreContainer<T> [] newDirectory =
+                        newDirectory(2 * directory.length);
+                System.arraycopy(directory, 0, newDirectory, 0, containers);
+                directory = newDirectory;
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            }
+            directory[containers] = c;
+            offsets[containers] = offset;
+            containers++;
+        }
+
+        /**
+         * Internal method to allocate a directory of the given length.
+         *
+         * @param n the length of the directory.
+         * @return a new, empty directory.
+         */
+        @SuppressWarnings("unchecked")
+        private AbstractStoreContainer<T> [] newDirectory(int n) {
+            return (AbstractStoreContainer<T> [])
+                    new AbstractStoreContainer<?>[n];
+        }
+
+        /**
+         * Returns the number of containers in this layout.
+         *
+         * @return the number of containers in this layout.
+         */
+        public int containerCount() {
+            index();
+            return containers;
+        }
+
+        /**
+         * Returns the index of the first record of the given container.
+         *
+         * @param c the position of the container, in list order.
+         * @return the index of the container's first record in the store.
+         */
+        public long containerBegin(int c) {
+            index();
+            return offsets[c];
+        }
+
+        /**
+         * Returns the number of records in the given container.
+         *
+         * @param c the position of the container, in list order.
+         * @return the number of records in the container.
+         */
+        public int containerSize(int c) {
+            index();
+            return directory[c].size();
+        }
+
+        /**
+         * Returns the statistics of the records in the given container,
+         * computing them first if the container was attached already
+         * populated.
+         *
+         * @param c the position of the container, in list order.
+         * @return the statistics of the container.
+         */
+        public ZoneMap containerStatistics(int c) {
+            index();
+            AbstractStoreContainer<T> container = directory[c];
+            ZoneMap z = container.getStatistics();
+            if (z == null) {
+                z = summarise(container);
+                container.setStatistics(z);
+            }
+            return z;
+        }
+
+        /**
+         * Returns the position of the container hosting the record at the
+         * given index.
+         *
+         * @param i the index of the record.
+         * @return the position of the container, in list order.
+         * @throws IndexOutOfBoundsException if the index is out of range.
+         */
+        public int containerOf(long i) throws IndexOutOfBoundsException {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Out of bounds: " + i
+                        + " > " + size);
+            }
+            return locate(i);
+        }
+
+        /**
+         * Internal method to retrieve a container by its position.
+         *
+         * @param c the position of the container, in list order.
+         * @return the container.
+         */
+        AbstractStoreContainer<T> getContainer(int c) {
+            index();
+            return directory[c];
+        }
+
+        /**
+         * Locates the container hosting the record at the given index; see
+         * {@link AbstractStore#locate(long)}.
+         *
+         * @param i the index of the record; it must be within bounds.
+         * @return the position of the container in the directory.
+         */
+        int locate(long i) {
+            index();
+            if (uniform) return (int) (i / getAllocationSize());
+            int low = 0;
+            int high = containers - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (offsets[mid] <= i) low = mid;
+                else high = mid - 1;
+            }
+            return low;
+        }
+    }
 }
@@ -16,11 +16,17 @@ package net.sviglas.meridian.storage;
 abstract class AbstractStoreContainer<T> {
     // the next container
     private AbstractStoreContainer<T> next;
+    // the statistics of the records; null until computed for containers
+    // attached already populated
+    private volatile ZoneMap statistics;
 
     /**
      * Constructs a new container.
      */
-    public AbstractStoreContainer() { next = null; }
+    public AbstractStoreContainer() {
+        next = null;
+        statistics = null;
+    }
 
     /**
      * Sets the next container from this one.
@@ -36,6 +42,20 @@ abstract class AbstractStoreContainer<T> {
      */
     public AbstractStoreContainer<T> getNext() { return next; }
 
+    /**
+     * Sets the statistics of the records of this container.
+     *
+     * @param z the statistics.
+     */
+    void setStatistics(ZoneMap z) { statistics = z; }
+
+    /**
+     * Retrieves the statistics of the records of this container.
+     *
+     * @return the statistics, or null if they have not been computed.
+     */
+    ZoneMap getStatistics() { return statistics; }
+
     /**
      * Returns the number of records in this container.
      *
@@ -43,6 +63,13 @@ abstract class AbstractStoreContainer<T> {
      */
     public abstract int size();
 
+    /**
+     * Returns the number of records this container can hold.
+     *
+     * @return the capacity of this container.
+     */
+    public abstract int capacity();
+
     /**
      * Retrieves the given record of this container.
      *
@@ -52,6 +79,18 @@ abstract class AbstractStoreContainer<T> {
      */
     public abstract T get(int i) throws BadAccessException;
 
+    /**
+     * Retrieves the given record of this container, reusing the given record
+     * instance if the container can. By default the instance is not reused.
+     *
+     * @param i the index of the record to be retrieved.
+     * @param into the record instance to reuse; may be null.
+     * @return the record at the given index of the container, which may or
+     * may not be the given instance.
+     * @throws BadAccessException if the record cannot be retrieved.
+     */
+    public T get(int i, T into) throws BadAccessException { return get(i); }
+
     /**
      * Adds a new record to this container.
      *
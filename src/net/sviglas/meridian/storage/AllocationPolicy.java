@@ -0,0 +1,67 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+/**
+ * Decides the capacity of each new container of a store. A store's
+ * allocation size is the largest capacity a container may have; a policy can
+ * start containers smaller, so that datasets holding a handful of records,
+ * e.g., the per-key outputs of a partitioning task, do not each allocate a
+ * full container.
+ */
+public interface AllocationPolicy {
+    // every container gets the full allocation size
+    AllocationPolicy FIXED = new AllocationPolicy() {
+        @Override
+        public int nextCapacity(int previous, int allocationSize) {
+            return allocationSize;
+        }
+
+        @Override
+        public String toString() { return "FIXED"; }
+    };
+
+    // containers start at eight records and double up to the allocation size
+    AllocationPolicy GEOMETRIC = geometric(8);
+
+    /**
+     * Returns the capacity of the next container of a store.
+     *
+     * @param previous the capacity of the store's current tail container, or
+     * 0 if the store has no containers yet.
+     * @param allocationSize the store's allocation size.
+     * @return the capacity of the next container, between 1 and the
+     * allocation size.
+     */
+    int nextCapacity(int previous, int allocationSize);
+
+    /**
+     * Returns a policy whose containers start at the given capacity and
+     * double in capacity up to the allocation size.
+     *
+     * @param initial the capacity of the first container.
+     * @return the policy.
+     */
+    static AllocationPolicy geometric(final int initial) {
+        if (initial < 1) {
+            throw new IllegalArgumentException("Initial capacity must be "
+                    + "positive: " + initial);
+        }
+        return new AllocationPolicy() {
+            @Override
+            public int nextCapacity(int previous, int allocationSize) {
+                if (previous == 0) return Math.min(initial, allocationSize);
+                return (int) Math.min(2L * previous, allocationSize);
+            }
+
+            @Override
+            public String toString() { return "GEOMETRIC(" + initial + ")"; }
+        };
+    }
+}
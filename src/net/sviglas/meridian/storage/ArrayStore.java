@@ -45,14 +45,31 @@ public class ArrayStore<T> extends AbstractStore<T> {
         super(c, da);
     }
 
+    /**
+     * Constructs a new array store given the type of its records, its
+     * largest allocation increment and its allocation policy.
+     *
+     * @param c the record type.
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public ArrayStore(Class<T> c, int da, AllocationPolicy p)
+            throws BadTypeException {
+        super(c, da, p);
+    }
+
     /**
      * Internal method to allocate containers of this store.
      *
+     * @param capacity the capacity of the container.
      * @return a new container for this store.
      */
     @Override
-    protected AbstractStoreContainer<T> allocateContainer() {
-        return new ArrayStoreContainer();
+    protected AbstractStoreContainer<T> allocateContainer(int capacity) {
+        return new ArrayStoreContainer(capacity);
     }
 
     /**
@@ -61,12 +78,17 @@ public class ArrayStore<T> extends AbstractStore<T> {
     class ArrayStoreContainer extends AbstractStoreContainer<T> {
         // the arraylist of contents
         public ArrayList<T> contents;
+        // the number of records this container holds
+        private final int capacity;
 
         /**
-         * Default constructor for an array store container.
+         * Constructs an array store container of the given capacity.
+         *
+         * @param n the capacity of the container.
          */
-        public ArrayStoreContainer() {
-            contents = new ArrayList<>();
+        public ArrayStoreContainer(int n) {
+            contents = new ArrayList<>(n);
+            capacity = n;
         }
 
         /**
@@ -77,6 +99,14 @@ public class ArrayStore<T> extends AbstractStore<T> {
         @Override
         public int size() { return contents.size(); }
 
+        /**
+         * Returns the capacity of this container.
+         *
+         * @return the capacity of this container.
+         */
+        @Override
+        public int capacity() { return capacity; }
+
         /**
          * Retrieves the record at the given index.
          *
@@ -0,0 +1,249 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of directly allocated buffers, so that stores that come and go,
+ * e.g., the intermediate outputs of tasks, do not each pay for allocating and
+ * zero-filling off-heap memory, nor wait for the garbage collector to free
+ * it. Buffers are pooled by their exact size, as stores ask for a handful
+ * of sizes, i.e., their container sizes, and rounding requests up would
+ * leave the rest of each buffer unused; a request is served with a free
+ * buffer of its size if there is one and with a newly allocated one
+ * otherwise. Released buffers go back to the pool, unless the pool already
+ * retains as many free bytes as it may, in which case they are left to the
+ * garbage collector. Requests larger than {@link #MAX_POOLED} bytes are
+ * allocated and freed outside the pool.
+ * <p>
+ * Buffers are not cleared when recycled. Buffers that may still be read,
+ * e.g., those of containers replaced by compaction, are abandoned rather
+ * than released: they are never reused, and stop being counted once the
+ * garbage collector frees them. Buffers that are dropped without being
+ * released or abandoned, e.g., those of a store that is discarded without
+ * being released, are freed by the garbage collector but stay counted as in
+ * use.
+ * The pool is safe for use by any number of threads.
+ */
+public final class BufferPool {
+    // the largest size of pooled buffers in bytes
+    public static final int MAX_POOLED = 1 << 30;
+    // the default limit on the free bytes the pool retains
+    public static final long DEFAULT_RETAINED = 1L << 28;
+    // the pool stores allocate from
+    private static final BufferPool ourInstance =
+            new BufferPool(DEFAULT_RETAINED);
+    // the free buffers of each size
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>>
+            free;
+    // the largest number of free bytes the pool retains
+    private final long maxRetained;
+    // the bytes of all pooled buffers, in use or free
+    private final AtomicLong reserved;
+    // the bytes of the pooled buffers in use
+    private final AtomicLong used;
+    // the number of requests served with a free buffer
+    private final AtomicLong hits;
+    // the number of requests served with a newly allocated buffer
+    private final AtomicLong misses;
+    // the abandoned buffers not yet garbage-collected
+    private final Set<Abandoned> abandoned;
+    // the abandoned buffers that have been garbage-collected
+    private final ReferenceQueue<ByteBuffer> collected;
+
+    /**
+     * Constructs a new, empty pool.
+     *
+     * @param r the largest number of free bytes the pool retains.
+     */
+    public BufferPool(long r) {
+        free = new ConcurrentHashMap<>();
+        maxRetained = r;
+        reserved = new AtomicLong();
+        used = new AtomicLong();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        abandoned = ConcurrentHashMap.newKeySet();
+        collected = new ReferenceQueue<>();
+    }
+
+    /**
+     * Retrieves the pool stores allocate from.
+     *
+     * @return the shared pool.
+     */
+    public static BufferPool getInstance() { return ourInstance; }
+
+    /**
+     * Internal method to retrieve the free buffers of a size.
+     *
+     * @param bytes the size of the buffers, at most {@link #MAX_POOLED}.
+     * @return the free buffers of that size.
+     */
+    private ConcurrentLinkedQueue<ByteBuffer> freeOf(int bytes) {
+        return free.computeIfAbsent(bytes, k -> new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * Acquires a direct buffer of the given size. The buffer's contents are
+     * undefined, its position is zero and its limit is its capacity.
+     *
+     * @param bytes the number of bytes needed.
+     * @return the buffer.
+     */
+    public ByteBuffer acquire(int bytes) {
+        if (bytes > MAX_POOLED) return ByteBuffer.allocateDirect(bytes);
+        expunge();
+        ByteBuffer b = freeOf(bytes).poll();
+        if (b != null) {
+            hits.incrementAndGet();
+            b.clear();
+        }
+        else {
+            misses.incrementAndGet();
+            b = ByteBuffer.allocateDirect(bytes);
+            reserved.addAndGet(bytes);
+        }
+        used.addAndGet(b.capacity());
+        return b;
+    }
+
+    /**
+     * Releases a buffer acquired from this pool; the buffer must not be used
+     * afterwards, and must only be released once.
+     *
+     * @param b the buffer.
+     */
+    public void release(ByteBuffer b) {
+        int bytes = b.capacity();
+        if (bytes > MAX_POOLED) return;
+        used.addAndGet(-bytes);
+        if (reserved.get() - used.get() + bytes > maxRetained) {
+            reserved.addAndGet(-bytes);
+            return;
+        }
+        freeOf(bytes).offer(b);
+    }
+
+    /**
+     * Abandons a buffer acquired from this pool that may still be read: the
+     * buffer is not reused, and stops being counted once it is
+     * garbage-collected. It must not also be released.
+     *
+     * @param b the buffer.
+     */
+    public void abandon(ByteBuffer b) {
+        if (b.capacity() > MAX_POOLED) return;
+        abandoned.add(new Abandoned(b, collected));
+    }
+
+    /**
+     * Internal method to stop counting the abandoned buffers that have been
+     * garbage-collected.
+     */
+    private void expunge() {
+        Reference<? extends ByteBuffer> r;
+        while ((r = collected.poll()) != null) {
+            abandoned.remove(r);
+            int bytes = ((Abandoned) r).bytes;
+            used.addAndGet(-bytes);
+            reserved.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * Drops all free buffers, leaving them to the garbage collector.
+     */
+    public void trim() {
+        for (ConcurrentLinkedQueue<ByteBuffer> q : free.values()) {
+            ByteBuffer b;
+            while ((b = q.poll()) != null) reserved.addAndGet(-b.capacity());
+        }
+    }
+
+    /**
+     * Returns the bytes of all buffers of this pool, whether in use or free.
+     *
+     * @return the bytes reserved by this pool.
+     */
+    public long getReservedBytes() {
+        expunge();
+        return reserved.get();
+    }
+
+    /**
+     * Returns the bytes of the buffers of this pool that are in use.
+     *
+     * @return the bytes in use.
+     */
+    public long getUsedBytes() {
+        expunge();
+        return used.get();
+    }
+
+    /**
+     * Returns the number of requests served with a free buffer.
+     *
+     * @return the number of hits.
+     */
+    public long getHits() { return hits.get(); }
+
+    /**
+     * Returns the number of requests served with a newly allocated buffer.
+     *
+     * @return the number of misses.
+     */
+    public long getMisses() { return misses.get(); }
+
+    /**
+     * Returns the fraction of requests served with a free buffer.
+     *
+     * @return the hit rate, or 0 if there have been no requests.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[reserved=" + getReservedBytes() + ", used="
+                + getUsedBytes() + ", hit rate=" + getHitRate() + "]";
+    }
+
+    /**
+     * Tracks an abandoned buffer until it is garbage-collected.
+     */
+    private static final class Abandoned
+            extends PhantomReference<ByteBuffer> {
+        // the size of the buffer in bytes
+        private final int bytes;
+
+        /**
+         * Constructs a new tracker for a buffer.
+         *
+         * @param b the buffer.
+         * @param q the queue to enqueue the tracker on once the buffer is
+         * collected.
+         */
+        Abandoned(ByteBuffer b, ReferenceQueue<ByteBuffer> q) {
+            super(b, q);
+            bytes = b.capacity();
+        }
+    }
+}
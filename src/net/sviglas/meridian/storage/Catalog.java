@@ -8,9 +8,12 @@
 
 package net.sviglas.meridian.storage;
 
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Initial effort from building a catalog of datasets.
@@ -18,8 +21,9 @@ import java.util.UUID;
 public class Catalog {
     // singleton
     private static Catalog ourInstance = new Catalog();
-    // map of datasets
-    private static final Map<UUID, Dataset<?>> datasets = new HashMap<>();
+    // map of datasets; concurrent, as datasets may be created by any thread
+    private static final Map<UUID, Dataset<?>> datasets =
+            new ConcurrentHashMap<>();
 
     /**
      * Retrieves the unique catalog.
@@ -67,7 +71,7 @@ public class Catalog {
     public static <T> ArrayStore<T> createArrayStore(Class<T> type,
                                                      int da)
             throws BadTypeException {
-        ArrayStore<T> as = new ArrayStore<>(type);
+        ArrayStore<T> as = new ArrayStore<>(type, da);
         datasets.put(as.getIdentifier(), as);
         return as;
     }
@@ -103,7 +107,7 @@ public class Catalog {
     public static <T> RowStore<T> createRowStore(Class<T> type,
                                                  int da)
             throws BadTypeException {
-        RowStore<T> as = new RowStore<>(type);
+        RowStore<T> as = new RowStore<>(type, da);
         datasets.put(as.getIdentifier(), as);
         return as;
     }
@@ -139,11 +143,191 @@ public class Catalog {
     public static <T> ColumnStore<T> createColumnStore(Class<T> type,
                                                        int da)
             throws BadTypeException {
-        ColumnStore<T> as = new ColumnStore<>(type);
+        ColumnStore<T> as = new ColumnStore<>(type, da);
         datasets.put(as.getIdentifier(), as);
         return as;
     }
 
+    /**
+     * Creates a new PAX store given a type.
+     *
+     * @param type the type of the dataset's records.
+     * @param <T> the generic type of records.
+     * @return a PAX store for records of the given type.
+     * @throws BadTypeException if the type is not a primitive one, or if it
+     * does not consist of primitive-typed fields, or if it does not have a
+     * parameter-less constructor.
+     */
+    public static <T> PaxStore<T> createPaxStore(Class<T> type)
+            throws BadTypeException {
+        PaxStore<T> ps = new PaxStore<>(type);
+        datasets.put(ps.getIdentifier(), ps);
+        return ps;
+    }
+
+    /**
+     * Creates a new PAX store given a type.
+     *
+     * @param type the type of the dataset's records.
+     * @param da the allocation increment.
+     * @param <T> the generic type of records.
+     * @return a PAX store for records of the given type.
+     * @throws BadTypeException if the type is not a primitive one, or if it
+     * does not consist of primitive-typed fields, or if it does not have a
+     * parameter-less constructor.
+     */
+    public static <T> PaxStore<T> createPaxStore(Class<T> type, int da)
+            throws BadTypeException {
+        PaxStore<T> ps = new PaxStore<>(type, da);
+        datasets.put(ps.getIdentifier(), ps);
+        return ps;
+    }
+
+    /**
+     * Creates a new native row store given a type; its containers are blocks
+     * of native memory and may exceed 2GB.
+     *
+     * @param type the type of the dataset's records.
+     * @param <T> the generic type of records.
+     * @return a native row store for records of the given type.
+     * @throws BadTypeException if the type is not a primitive one, or if it
+     * does not consist of primitive-typed fields, or if it does not have a
+     * parameter-less constructor.
+     */
+    public static <T> NativeRowStore<T> createNativeRowStore(Class<T> type)
+            throws BadTypeException {
+        NativeRowStore<T> ns = new NativeRowStore<>(type);
+        datasets.put(ns.getIdentifier(), ns);
+        return ns;
+    }
+
+    /**
+     * Creates a new native row store given a type; its containers are blocks
+     * of native memory and may exceed 2GB.
+     *
+     * @param type the type of the dataset's records.
+     * @param da the allocation increment.
+     * @param <T> the generic type of records.
+     * @return a native row store for records of the given type.
+     * @throws BadTypeException if the type is not a primitive one, or if it
+     * does not consist of primitive-typed fields, or if it does not have a
+     * parameter-less constructor.
+     */
+    public static <T> NativeRowStore<T> createNativeRowStore(Class<T> type,
+                                                             int da)
+            throws BadTypeException {
+        NativeRowStore<T> ns = new NativeRowStore<>(type, da);
+        datasets.put(ns.getIdentifier(), ns);
+        return ns;
+    }
+
+    /**
+     * Creates a new concurrent store given a type; any number of threads can
+     * add records to it at once.
+     *
+     * @param type the type of the dataset's records.
+     * @param <T> the generic type of records.
+     * @return a concurrent store for records of the given type.
+     * @throws BadTypeException if the type is not a primitive one, or if it
+     * does not consist of primitive-typed fields, or if it does not have a
+     * parameter-less constructor.
+     */
+    public static <T> ConcurrentStore<T> createConcurrentStore(Class<T> type)
+            throws BadTypeException {
+        ConcurrentStore<T> cs = new ConcurrentStore<>(type);
+        datasets.put(cs.getIdentifier(), cs);
+        return cs;
+    }
+
+    /**
+     * Creates a new concurrent store given a type; any number of threads can
+     * add records to it at once.
+     *
+     * @param type the type of the dataset's records.
+     * @param da the allocation increment.
+     * @param <T> the generic type of records.
+     * @return a concurrent store for records of the given type.
+     * @throws BadTypeException if the type is not a primitive one, or if it
+     * does not consist of primitive-typed fields, or if it does not have a
+     * parameter-less constructor.
+     */
+    public static <T> ConcurrentStore<T> createConcurrentStore(Class<T> type,
+                                                               int da)
+            throws BadTypeException {
+        ConcurrentStore<T> cs = new ConcurrentStore<>(type, da);
+        datasets.put(cs.getIdentifier(), cs);
+        return cs;
+    }
+
+    /**
+     * Creates a new dataset of unboxed int values.
+     *
+     * @return an int dataset.
+     */
+    public static IntDataset createIntDataset() {
+        IntDataset ds = new IntDataset();
+        datasets.put(ds.getIdentifier(), ds);
+        return ds;
+    }
+
+    /**
+     * Creates a new dataset of unboxed int values.
+     *
+     * @param da the allocation increment.
+     * @return an int dataset.
+     */
+    public static IntDataset createIntDataset(int da) {
+        IntDataset ds = new IntDataset(da);
+        datasets.put(ds.getIdentifier(), ds);
+        return ds;
+    }
+
+    /**
+     * Creates a new dataset of unboxed long values.
+     *
+     * @return a long dataset.
+     */
+    public static LongDataset createLongDataset() {
+        LongDataset ds = new LongDataset();
+        datasets.put(ds.getIdentifier(), ds);
+        return ds;
+    }
+
+    /**
+     * Creates a new dataset of unboxed long values.
+     *
+     * @param da the allocation increment.
+     * @return a long dataset.
+     */
+    public static LongDataset createLongDataset(int da) {
+        LongDataset ds = new LongDataset(da);
+        datasets.put(ds.getIdentifier(), ds);
+        return ds;
+    }
+
+    /**
+     * Creates a new dataset of unboxed double values.
+     *
+     * @return a double dataset.
+     */
+    public static DoubleDataset createDoubleDataset() {
+        DoubleDataset ds = new DoubleDataset();
+        datasets.put(ds.getIdentifier(), ds);
+        return ds;
+    }
+
+    /**
+     * Creates a new dataset of unboxed double values.
+     *
+     * @param da the allocation increment.
+     * @return a double dataset.
+     */
+    public static DoubleDataset createDoubleDataset(int da) {
+        DoubleDataset ds = new DoubleDataset(da);
+        datasets.put(ds.getIdentifier(), ds);
+        return ds;
+    }
+
     /**
      * Retrieves the dataset associated with the given identifier.
      *
@@ -154,4 +338,108 @@ public class Catalog {
         return datasets.get(uuid);
     }
 
+    /**
+     * Creates a hash index over a field of the dataset associated with the
+     * given identifier, for point lookups; the dataset keeps the index
+     * current from then on.
+     *
+     * @param uuid the identifier.
+     * @param field the name of the field.
+     * @return the index.
+     * @throws BadAccessException if there is no such dataset, if it is not a
+     * store, or if it has no such field.
+     * @throws BadTypeException if the field is not numeric.
+     */
+    public static HashIndex<?> createHashIndex(UUID uuid, String field)
+            throws BadAccessException, BadTypeException {
+        return new HashIndex<>(indexable(uuid), field);
+    }
+
+    /**
+     * Creates a sorted index over a field of the dataset associated with the
+     * given identifier, for ranges; the dataset keeps the index current from
+     * then on.
+     *
+     * @param uuid the identifier.
+     * @param field the name of the field.
+     * @return the index.
+     * @throws BadAccessException if there is no such dataset, if it is not a
+     * store, or if it has no such field.
+     * @throws BadTypeException if the field is not numeric.
+     */
+    public static SortedIndex<?> createSortedIndex(UUID uuid, String field)
+            throws BadAccessException, BadTypeException {
+        return new SortedIndex<>(indexable(uuid), field);
+    }
+
+    /**
+     * Retrieves the indexes over the fields of the dataset associated with
+     * the given identifier.
+     *
+     * @param uuid the identifier.
+     * @return the indexes, in the order they were created; empty if there is
+     * no such dataset or it is not a store.
+     */
+    public static List<? extends DatasetIndex<?>> getIndexes(UUID uuid) {
+        Dataset<?> d = datasets.get(uuid);
+        if (! (d instanceof AbstractStore)) return Collections.emptyList();
+        return ((AbstractStore<?>) d).getIndexes();
+    }
+
+    /**
+     * Internal method to retrieve a dataset that can be indexed.
+     *
+     * @param uuid the identifier of the dataset.
+     * @return the dataset.
+     * @throws BadAccessException if there is no such dataset, or if it is not
+     * a store.
+     */
+    private static AbstractStore<?> indexable(UUID uuid)
+            throws BadAccessException {
+        Dataset<?> d = datasets.get(uuid);
+        if (d == null) throw new BadAccessException("No dataset " + uuid);
+        if (! (d instanceof AbstractStore)) {
+            throw new BadAccessException("Dataset " + uuid + " of class "
+                    + d.getClass().getSimpleName() + " cannot be indexed");
+        }
+        return (AbstractStore<?>) d;
+    }
+
+    /**
+     * Saves the dataset associated with the given identifier to a directory,
+     * in the native binary format: a schema file, and the containers as they
+     * are in memory (one file for a row or PAX store, one file per column for
+     * a column store).
+     *
+     * @param uuid the identifier.
+     * @param dir the directory to save the dataset to; it is created if it
+     * does not exist.
+     * @throws BadAccessException if there is no such dataset, if it is not
+     * a row, column or PAX store, or if it cannot be written.
+     */
+    public static void save(UUID uuid, Path dir) throws BadAccessException {
+        Dataset<?> d = datasets.get(uuid);
+        if (d == null) throw new BadAccessException("No dataset " + uuid);
+        StoreFormat.save(d, dir);
+    }
+
+    /**
+     * Opens a dataset previously saved to a directory and adds it to the
+     * catalog. The saved files are mapped back into memory rather than
+     * parsed: row and PAX store containers are mapped directly, column store
+     * containers are bulk-copied from the mapped column files.
+     *
+     * @param dir the directory the dataset was saved to.
+     * @return the reopened dataset, under a new identifier.
+     * @throws BadTypeException if the record type cannot be loaded or no
+     * longer matches the saved schema.
+     * @throws BadAccessException if the dataset cannot be read.
+     */
+    public static Dataset<?> open(Path dir)
+            throws BadTypeException, BadAccessException {
+        Dataset<?> d = StoreFormat.open(dir);
+        datasets.put(d.getIdentifier(), d);
+        return d;
+    }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+/**
+ * A typed view over the values of one column in one container of a column
+ * store. The slice exposes the container's backing array directly, without
+ * copying, so that operators can scan only the fields they need in tight
+ * loops. The array must be treated as read-only, and only its first
+ * {@link #length()} values are valid. The exception are columns the store
+ * has encoded, which full containers may hold: their slices are over a
+ * decoded copy of the column, taken when the slice is created (see
+ * {@link ColumnStore#column(String, int)}).
+ */
+public class ColumnSlice {
+    // the name of the field
+    private final String name;
+    // the primitive type of the field
+    private final Class<?> type;
+    // the backing array
+    private final Object values;
+    // the number of valid values
+    private final int length;
+
+    /**
+     * Constructs a new slice.
+     *
+     * @param n the name of the field.
+     * @param t the primitive type of the field.
+     * @param v the backing array.
+     * @param l the number of valid values.
+     */
+    ColumnSlice(String n, Class<?> t, Object v, int l) {
+        name = n;
+        type = t;
+        values = v;
+        length = l;
+    }
+
+    /**
+     * Returns the name of the field of this slice.
+     *
+     * @return the name of the field.
+     */
+    public String getName() { return name; }
+
+    /**
+     * Returns the primitive type of the values of this slice.
+     *
+     * @return the primitive type of the values.
+     */
+    public Class<?> getType() { return type; }
+
+    /**
+     * Returns the number of valid values in this slice.
+     *
+     * @return the number of valid values.
+     */
+    public int length() { return length; }
+
+    /**
+     * Returns the values of this slice as a byte array.
+     *
+     * @return the backing array; only the first length() values are valid.
+     * @throws BadTypeException if the column is not of type byte.
+     */
+    public byte [] bytes() throws BadTypeException {
+        if (! (values instanceof byte [])) throw mismatch("byte");
+        return (byte []) values;
+    }
+
+    /**
+     * Returns the values of this slice as a short array.
+     *
+     * @return the backing array; only the first length() values are valid.
+     * @throws BadTypeException if the column is not of type short.
+     */
+    public short [] shorts() throws BadTypeException {
+        if (! (values instanceof short [])) throw mismatch("short");
+        return (short []) values;
+    }
+
+    /**
+     * Returns the values of this slice as a char array.
+     *
+     * @return the backing array; only the first length() values are valid.
+     * @throws BadTypeException if the column is not of type char.
+     */
+    public char [] chars() throws BadTypeException {
+        if (! (values instanceof char [])) throw mismatch("char");
+        return (char []) values;
+    }
+
+    /**
+     * Returns the values of this slice as a int array.
+     *
+     * @return the backing array; only the first length() values are valid.
+     * @throws BadTypeException if the column is not of type int.
+     */
+    public int [] ints() throws BadTypeException {
+        if (! (values instanceof int [])) throw mismatch("int");
+        return (int []) values;
+    }
+
+    /**
+     * Returns the values of this slice as a long array.
+     *
+     * @return the backing array; only the first length() values are valid.
+     * @throws BadTypeException if the column is not of type long.
+     */
+    public long [] longs() throws BadTypeException {
+        if (! (values instanceof long [])) throw mismatch("long");
+        return (long []) values;
+    }
+
+    /**
+     * Returns the values of this slice as a float array.
+     *
+     * @return the backing array; only the first length() values are valid.
+     * @throws BadTypeException if the column is not of type float.
+     */
+    public float [] floats() throws BadTypeException {
+        if (! (values instanceof float [])) throw mismatch("float");
+        return (float []) values;
+    }
+
+    /**
+     * Returns the values of this slice as a double array.
+     *
+     * @return the backing array; only the first length() values are valid.
+     * @throws BadTypeException if the column is not of type double.
+     */
+    public double [] doubles() throws BadTypeException {
+        if (! (values instanceof double [])) throw mismatch("double");
+        return (double []) values;
+    }
+
+    /**
+     * Internal method to build a type mismatch exception.
+     *
+     * @param t the requested type.
+     * @return the exception to throw.
+     */
+    private BadTypeException mismatch(String t) {
+        return new BadTypeException("Column " + name + " is of type " + type
+                + ", not " + t);
+    }
+}
@@ -8,18 +8,34 @@
 
 package net.sviglas.meridian.storage;
 
-import java.lang.reflect.Field;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 /**
  * A column store effectively decomposes the dataset into multiple columns, one
- * for each field of the record type.
+ * for each field of the record type. Records are split into and rebuilt from
+ * the columns through the dataset's record codec. Columns can also be accessed
+ * directly, either per container through column slices or as unboxed
+ * projections of the whole store on a single field, and records can be
+ * rebuilt from only some of their fields through {@link #project}.
+ * <p>
+ * Once a container is full, each of its integral columns is replaced by an
+ * {@link EncodedColumn} -- frame-of-reference bit-packing, a dictionary or
+ * runs -- if one takes less space than the column array; low-cardinality
+ * and narrow-range columns typically shrink several times over. Records are
+ * rebuilt from encoded columns value by value, projections decode them in
+ * blocks, and {@link #select} tests ranges on them without decoding.
+ * Containers are never written to once full, so encoding does not disturb
+ * concurrent readers.
  *
  * @param <T> the record type.
  */
 
 public class ColumnStore<T> extends AbstractStore<T> {
+    // the name of the single column of records of a primitive type
+    public static final String DEFAULT_COLUMN = RecordCodec.VALUE_NAME;
 
     /**
      * Constructs a new column store given the type of its records.
@@ -47,67 +63,551 @@ public class ColumnStore<T> extends AbstractStore<T> {
         super(c, da);
     }
 
+    /**
+     * Constructs a new column store given the type of its records, its
+     * largest allocation increment and its allocation policy.
+     *
+     * @param c the record type.
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public ColumnStore(Class<T> c, int da, AllocationPolicy p)
+            throws BadTypeException {
+        super(c, da, p);
+    }
+
+    /**
+     * Records are copied into the store's own storage when added.
+     *
+     * @return always true.
+     */
+    @Override
+    public boolean copiesRecords() { return true; }
+
     /**
      * Allocates a new container for this type of store.
      *
+     * @param capacity the capacity of the container.
      * @return a new container for the store.
      */
     @Override
-    protected AbstractStoreContainer<T> allocateContainer() {
-        return new ColumnStoreContainer();
+    protected AbstractStoreContainer<T> allocateContainer(int capacity) {
+        return new ColumnStoreContainer(capacity);
+    }
+
+    /**
+     * Returns the position of the given field among the columns.
+     *
+     * @param field the name of the field; for records of a primitive type the
+     * only column is named {@link #DEFAULT_COLUMN}.
+     * @return the position of the field.
+     * @throws BadAccessException if there is no such field.
+     */
+    public int fieldIndex(String field) throws BadAccessException {
+        int f = getCodec().indexOf(field);
+        if (f < 0) {
+            throw new BadAccessException("No field " + field + " in type "
+                    + getRecordType());
+        }
+        return f;
+    }
+
+    /**
+     * Returns a slice over the given column of the given container. An
+     * encoded column, i.e., an integral column of a full container, is
+     * decoded into a new array for the slice, which is then a copy of the
+     * column rather than a view over it.
+     *
+     * @param field the name of the field.
+     * @param c the position of the container, in list order.
+     * @return a slice over the container's column.
+     * @throws BadAccessException if there is no such field.
+     */
+    public ColumnSlice column(String field, int c) throws BadAccessException {
+        int f = fieldIndex(field);
+        ColumnStoreContainer container = (ColumnStoreContainer) getContainer(c);
+        FieldCodec codec = getCodec().getFields()[f];
+        return new ColumnSlice(codec.getName(), codec.getType(),
+                container.column(f), container.occupied);
+    }
+
+    /**
+     * Selects the records of a container within a range of positions that
+     * lie within all the given ranges. The ranges are tested on the columns
+     * of their fields, without rebuilding records; encoded columns are
+     * tested without being decoded.
+     *
+     * @param l the layout to read through, e.g., that the positions of
+     * containers were taken from.
+     * @param c the position of the container in the layout.
+     * @param from the position of the first record in the container
+     * (inclusive).
+     * @param to the position of the last record in the container
+     * (exclusive).
+     * @param ranges the ranges, all of which must hold.
+     * @param out the array to write the positions of the selected records
+     * to, in order; it must have room for to - from positions.
+     * @return the number of records selected.
+     */
+    @Override
+    public int select(Layout l, int c, int from, int to,
+                      List<FieldRange> ranges, int [] out) {
+        Object [] cs = ((ColumnStoreContainer) l.getContainer(c)).columns;
+        if (ranges.isEmpty()) {
+            for (int i = from; i < to; i++) out[i - from] = i;
+            return to - from;
+        }
+        int n = ranges.get(0).select(cs[ranges.get(0).getField()], from, to,
+                out);
+        for (int r = 1; r < ranges.size() && n > 0; r++) {
+            FieldRange range = ranges.get(r);
+            n = range.refine(cs[range.getField()], out, n);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the space the columns of this store take.
+     *
+     * @return the approximate size of the columns in bytes, encoded columns
+     * counted at their encoded size.
+     */
+    public long columnBytes() {
+        Layout l = getLayout();
+        FieldCodec [] fs = getCodec().getFields();
+        long bytes = 0;
+        for (int c = 0; c < l.containerCount(); c++) {
+            ColumnStoreContainer container =
+                    (ColumnStoreContainer) l.getContainer(c);
+            Object [] cs = container.columns;
+            for (int f = 0; f < fs.length; f++) {
+                bytes += cs[f] instanceof EncodedColumn
+                        ? ((EncodedColumn) cs[f]).bytes()
+                        : (long) container.capacity() * fs[f].size();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a read-only view of this store whose records are rebuilt from
+     * the given fields only, so that reading them touches only the columns
+     * of those fields; the other fields of the records are left at their
+     * initial values, or as they were in a reused record.
+     *
+     * @param fields the names of the fields to read.
+     * @return the projected view of this store.
+     * @throws BadAccessException if there is no such field.
+     */
+    public Dataset<T> project(String... fields) throws BadAccessException {
+        int [] fs = new int [fields.length];
+        for (int f = 0; f < fields.length; f++) fs[f] = fieldIndex(fields[f]);
+        return new Projection(fs);
+    }
+
+    /**
+     * Returns the projection of this store on an integral field no wider than
+     * int, as a source of unboxed int values.
+     *
+     * @param field the name of the field.
+     * @return an int source over the field.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to int.
+     */
+    public IntSource intColumn(String field)
+            throws BadAccessException, BadTypeException {
+        final int f = fieldIndex(field);
+        if (! getCodec().getFields()[f].widensToInt()) {
+            throw new BadTypeException("Field " + field + " does not widen "
+                    + "to int");
+        }
+        return new IntSource() {
+            @Override
+            public long size() { return ColumnStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfInt intCursor(long begin, long end) {
+                return new IntColumnCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Returns the projection of this store on an integral field, as a source
+     * of unboxed long values.
+     *
+     * @param field the name of the field.
+     * @return a long source over the field.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to long.
+     */
+    public LongSource longColumn(String field)
+            throws BadAccessException, BadTypeException {
+        final int f = fieldIndex(field);
+        if (! getCodec().getFields()[f].widensToLong()) {
+            throw new BadTypeException("Field " + field + " does not widen "
+                    + "to long");
+        }
+        return new LongSource() {
+            @Override
+            public long size() { return ColumnStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfLong longCursor(long begin, long end) {
+                return new LongColumnCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Returns the projection of this store on a numeric field, as a source of
+     * unboxed double values.
+     *
+     * @param field the name of the field.
+     * @return a double source over the field.
+     * @throws BadAccessException if there is no such field.
+     */
+    public DoubleSource doubleColumn(String field) throws BadAccessException {
+        final int f = fieldIndex(field);
+        return new DoubleSource() {
+            @Override
+            public long size() { return ColumnStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfDouble doubleCursor(long begin,
+                                                           long end) {
+                return new DoubleColumnCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Internal base class of cursors over a single column; it locates the
+     * first container once and then streams through the column arrays,
+     * decoding encoded columns a block at a time.
+     */
+    private abstract class ColumnCursor {
+        // the number of values decoded at a time
+        private static final int BLOCK = 256;
+        // the layout the cursor reads through
+        private final Layout layout;
+        // the position of the field
+        private final int field;
+        // the codec of the field
+        protected final FieldCodec codec;
+        // the index of the first value
+        private final long begin;
+        // the number of values left to return
+        private long remaining;
+        // the position of the current container
+        private int container;
+        // the column array of the current container, if not encoded
+        protected Object values;
+        // the encoded column of the current container, if encoded
+        protected EncodedColumn encoded;
+        // the decoded values of the current block of an encoded column
+        protected long [] block;
+        // the position in the column of the first value of the block
+        private int blockBegin;
+        // the position in the column following the block
+        private int blockEnd;
+        // the position in the current column array
+        private int position;
+        // the number of values in the current column array
+        private int limit;
+
+        /**
+         * Constructs a new cursor over the given range of a column.
+         *
+         * @param f the position of the field.
+         * @param b the index of the first value (inclusive).
+         * @param e the index of the last value (exclusive).
+         * @throws IndexOutOfBoundsException if the range is not within the
+         * boundaries of this store.
+         */
+        ColumnCursor(int f, long b, long e) throws IndexOutOfBoundsException {
+            if (b < 0 || e > size() || b > e) {
+                throw new IndexOutOfBoundsException("Bad range: [" + b + ", "
+                        + e + ") for size " + size());
+            }
+            layout = getLayout();
+            field = f;
+            codec = getCodec().getFields()[f];
+            begin = b;
+            remaining = e - b;
+            container = -1;
+        }
+
+        /**
+         * Returns whether there are more values.
+         *
+         * @return true if there are more values, false otherwise.
+         */
+        public boolean hasNext() { return remaining > 0; }
+
+        /**
+         * Internal method to move to the next value.
+         *
+         * @return the position of the next value in the current column
+         * array, or in the current block if the column is encoded.
+         */
+        protected int advance() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            if (container < 0) {
+                container = layout.locate(begin);
+                position = (int) (begin - layout.containerBegin(container));
+                load();
+            }
+            while (position >= limit) {
+                container++;
+                position = 0;
+                load();
+            }
+            remaining--;
+            if (encoded == null) return position++;
+            if (position >= blockEnd) {
+                int n = Math.min(BLOCK, limit - position);
+                encoded.decode(position, n, block);
+                blockBegin = position;
+                blockEnd = position + n;
+            }
+            return position++ - blockBegin;
+        }
+
+        /**
+         * Internal method to load the column of the current container.
+         */
+        private void load() {
+            ColumnStoreContainer c =
+                    (ColumnStoreContainer) layout.getContainer(container);
+            Object column = c.columns[field];
+            if (column instanceof EncodedColumn) {
+                encoded = (EncodedColumn) column;
+                values = null;
+                if (block == null) block = new long [BLOCK];
+                blockBegin = 0;
+                blockEnd = 0;
+            }
+            else {
+                encoded = null;
+                values = column;
+            }
+            limit = c.occupied;
+        }
+    }
+
+    /**
+     * Cursor over a column as unboxed int values.
+     */
+    private class IntColumnCursor extends ColumnCursor
+            implements PrimitiveIterator.OfInt {
+        IntColumnCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public int nextInt() {
+            int p = advance();
+            return encoded != null ? (int) block[p] : codec.loadInt(values, p);
+        }
+    }
+
+    /**
+     * Cursor over a column as unboxed long values.
+     */
+    private class LongColumnCursor extends ColumnCursor
+            implements PrimitiveIterator.OfLong {
+        LongColumnCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public long nextLong() {
+            int p = advance();
+            return encoded != null ? block[p] : codec.loadLong(values, p);
+        }
+    }
+
+    /**
+     * Cursor over a column as unboxed double values.
+     */
+    private class DoubleColumnCursor extends ColumnCursor
+            implements PrimitiveIterator.OfDouble {
+        DoubleColumnCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public double nextDouble() {
+            int p = advance();
+            return encoded != null ? block[p]
+                    : codec.loadDouble(values, p);
+        }
+    }
+
+    /**
+     * Internal class of the views that rebuild records from some of the
+     * fields only.
+     */
+    private class Projection extends Dataset<T> {
+        // the positions of the fields to read
+        private final int [] fields;
+
+        /**
+         * Constructs a new projection.
+         *
+         * @param fs the positions of the fields to read.
+         */
+        Projection(int [] fs) {
+            super(ColumnStore.this.getRecordType());
+            fields = fs;
+        }
+
+        @Override
+        public long size() { return ColumnStore.this.size(); }
+
+        @Override
+        public boolean copiesRecords() { return true; }
+
+        @Override
+        public T get(long i) throws IndexOutOfBoundsException {
+            return get(i, null);
+        }
+
+        @Override
+        public T get(long i, T into) throws IndexOutOfBoundsException {
+            Layout l = getLayout();
+            int c = l.containerOf(i);
+            return load(l, c, (int) (i - l.containerBegin(c)), into);
+        }
+
+        /**
+         * Internal method to rebuild a record from the projected fields.
+         *
+         * @param l the layout to read through.
+         * @param c the position of the container in the layout.
+         * @param i the position of the record in the container.
+         * @param into the record instance to reuse; may be null.
+         * @return the record.
+         */
+        private T load(Layout l, int c, int i, T into) {
+            Object [] cs = ((ColumnStoreContainer) l.getContainer(c)).columns;
+            return getCodec().loadFields(cs, i, into, fields);
+        }
+
+        @Override
+        public Iterator<T> cursor(long begin, long end)
+                throws IndexOutOfBoundsException {
+            return new ProjectionCursor(begin, end, false, null);
+        }
+
+        @Override
+        public Iterator<T> cursor(long begin, long end, T reuse)
+                throws IndexOutOfBoundsException {
+            return new ProjectionCursor(begin, end, true, reuse);
+        }
+
+        @Override
+        public Iterator<T> iterator() { return cursor(0, size()); }
+
+        @Override
+        public void add(T t) throws BadAccessException {
+            throw new BadAccessException("Projections are read-only");
+        }
+
+        @Override
+        public void append(Dataset<T> d) throws BadAccessException {
+            throw new BadAccessException("Projections are read-only");
+        }
+
+        /**
+         * Internal iterator over a range of the projection; it locates the
+         * first container once and then streams through the containers.
+         */
+        private class ProjectionCursor implements Iterator<T> {
+            // the layout the cursor reads through
+            private final Layout layout;
+            // whether to reuse the record instance
+            private final boolean reuse;
+            // the record instance to reuse
+            private T record;
+            // the number of records left to return
+            private long remaining;
+            // the position of the current container
+            private int container;
+            // the position in the current container
+            private int position;
+
+            /**
+             * Constructs a new cursor.
+             *
+             * @param b the index of the first record (inclusive).
+             * @param e the index of the last record (exclusive).
+             * @param r whether to reuse the record instance.
+             * @param into the record instance to reuse; may be null.
+             * @throws IndexOutOfBoundsException if the range is not within
+             * the boundaries of the store.
+             */
+            ProjectionCursor(long b, long e, boolean r, T into)
+                    throws IndexOutOfBoundsException {
+                if (b < 0 || e > size() || b > e) {
+                    throw new IndexOutOfBoundsException("Bad range: [" + b
+                            + ", " + e + ") for size " + size());
+                }
+                layout = getLayout();
+                reuse = r;
+                record = into;
+                remaining = e - b;
+                if (remaining > 0) {
+                    container = layout.containerOf(b);
+                    position = (int) (b - layout.containerBegin(container));
+                }
+            }
+
+            @Override
+            public boolean hasNext() { return remaining > 0; }
+
+            @Override
+            public T next() {
+                if (remaining == 0) throw new NoSuchElementException();
+                while (position == layout.containerSize(container)) {
+                    container++;
+                    position = 0;
+                }
+                T t = load(layout, container, position++,
+                        reuse ? record : null);
+                if (reuse) record = t;
+                remaining--;
+                return t;
+            }
+        }
     }
 
     /**
      * Internal class that encapsulates the containers of this store.
      */
     class ColumnStoreContainer extends AbstractStoreContainer<T> {
-        // default column name
-        protected static final String DEFAULT_NAME = "COLUMN";
-        // map of columns for this container
-        public Map<String, Object> columns;
+        // the columns of this container, in field order; once the container
+        // is full, each is either a column array or an encoded column
+        public volatile Object [] columns;
         // number of records occupied
         public int occupied;
+        // the number of records the container holds
+        private final int capacity;
 
         /**
-         * Default constructor for a column store container.
+         * Default constructor for a column store container, with the full
+         * allocation size.
          */
         public ColumnStoreContainer() {
-            columns = new HashMap<>();
-            if (isSupportedType(getRecordType())) {
-                columns.put(DEFAULT_NAME, makeColumn(getRecordType(),
-                        getAllocationSize()));
-            }
-            else {
-                for (Field f : getFields()) {
-                    columns.put(f.getName(), makeColumn(f.getType(),
-                            getAllocationSize()));
-                }
-            }
+            this(getAllocationSize());
         }
 
         /**
-         * Given a primitive type, return a column for elements of that type.
+         * Constructs a column store container of the given capacity.
          *
-         * @param cls the primitive type.
-         * @param alloc the number of elements to allocate.
-         * @return an array of elements of the given type.
+         * @param n the capacity of the container.
          */
-        protected Object makeColumn(Class<?> cls, int alloc) {
-            if (cls.equals(Byte.class) || cls.equals(byte.class))
-                return new byte [alloc];
-            else if (cls.equals(Short.class) || cls.equals(short.class))
-                return new short [alloc];
-            else if (cls.equals(Character.class) || cls.equals(char.class))
-                return new char [alloc];
-            else if (cls.equals(Integer.class) || cls.equals(int.class))
-                return new int [alloc];
-            else if (cls.equals(Long.class) || cls.equals(long.class))
-                return new long [alloc];
-            else if (cls.equals(Float.class) || cls.equals(float.class))
-                return new float [alloc];
-            else if (cls.equals(Double.class) || cls.equals(double.class))
-                return new double [alloc];
-            return null;
+        public ColumnStoreContainer(int n) {
+            columns = getCodec().makeColumns(n);
+            capacity = n;
         }
 
         /**
@@ -120,6 +620,14 @@ public class ColumnStore<T> extends AbstractStore<T> {
             return occupied;
         }
 
+        /**
+         * Returns the capacity of this container.
+         *
+         * @return the capacity of this container.
+         */
+        @Override
+        public int capacity() { return capacity; }
+
         /**
          * Retrieves the record at the given index.
          *
@@ -129,54 +637,24 @@ public class ColumnStore<T> extends AbstractStore<T> {
          */
         @Override
         public T get(int i) throws BadAccessException {
-            if (isSupportedType(getRecordType())) {
-                return getRecordType().cast(getField(DEFAULT_NAME,
-                        getRecordType(), i));
-            }
-            else {
-                try {
-                    T obj = getRecordType().newInstance();
-                    for (Field field : getFields()) {
-                        field.set(obj, getField(field.getName(),
-                                field.getType(), i));
-                    }
-                    return obj;
-                }
-                catch (InstantiationException e) {
-                    throw new BadAccessException("Could not instantiate type "
-                            + "through default constructor: " + e.getMessage());
-                } catch (IllegalAccessException e) {
-                    throw new BadAccessException("Could not access field: "
-                            + e.getMessage());
-                }
-            }
+            return get(i, null);
         }
 
         /**
-         * Internal method to get a single field.
+         * Loads the record at the given index into the given instance.
          *
-         * @param n the name of the field.
-         * @param cls the type of the field.
-         * @param i the index of the field.
-         * @return the value of the field.
+         * @param i the index of the record to be retrieved.
+         * @param into the record instance to reuse; may be null.
+         * @return the record at the given index.
+         * @throws BadAccessException if the record cannot be retrieved.
          */
-        protected Object getField(String n, Class<?> cls, int i) {
-            Object o = columns.get(n);
-            if (cls.equals(Byte.class) || cls.equals(byte.class))
-                return ((byte []) o)[i];
-            else if (cls.equals(Short.class) || cls.equals(short.class))
-                return ((short []) o)[i];
-            else if (cls.equals(Character.class) || cls.equals(char.class))
-                return ((char []) o)[i];
-            else if (cls.equals(Integer.class) || cls.equals(int.class))
-                return ((int []) o)[i];
-            else if (cls.equals(Long.class) || cls.equals(long.class))
-                return ((long []) o)[i];
-            else if (cls.equals(Float.class) || cls.equals(float.class))
-                return ((float []) o)[i];
-            else if (cls.equals(Double.class) || cls.equals(double.class))
-                return ((double []) o)[i];
-            return null;
+        @Override
+        public T get(int i, T into) throws BadAccessException {
+            // the columns are encoded only once the container is full; read
+            // them first, as the encoded ones are published after occupied
+            Object [] cs = columns;
+            return occupied < capacity ? getCodec().load(cs, i, into)
+                    : getCodec().loadEncoded(cs, i, into);
         }
 
         /**
@@ -187,47 +665,45 @@ public class ColumnStore<T> extends AbstractStore<T> {
          */
         @Override
         public void add(T t) throws BadAccessException {
-            if (isSupportedType(getRecordType())) {
-                addField(DEFAULT_NAME, getRecordType(), t);
-            }
-            else {
-                try {
-                    for (Field field : getFields()) {
-                        addField(field.getName(), field.getType(),
-                                field.get(t));
-                    }
-                }
-                catch (IllegalAccessException e) {
-                    throw new BadAccessException("Could not access field: "
-                            + e.getMessage(), e);
+            getCodec().store(t, columns, occupied);
+            occupied++;
+            if (occupied == capacity) seal();
+        }
+
+        /**
+         * Encodes the integral columns of this container that take less
+         * space encoded; the container must be full.
+         */
+        void seal() {
+            FieldCodec [] fs = getCodec().getFields();
+            Object [] cs = columns.clone();
+            boolean encodes = false;
+            for (int f = 0; f < fs.length; f++) {
+                if (! fs[f].widensToLong()) continue;
+                EncodedColumn e = EncodedColumn.encode(fs[f], cs[f],
+                        occupied);
+                if (e != null) {
+                    cs[f] = e;
+                    encodes = true;
                 }
             }
-            occupied++;
+            if (encodes) columns = cs;
         }
 
         /**
-         * Internal method to add a single field.
+         * Returns a column of this container as a column array, decoding it
+         * into a new array if it is encoded.
          *
-         * @param n the name of the field.
-         * @param cls the type of the field.
-         * @param v the value of the field.
+         * @param f the position of the field.
+         * @return the column array.
          */
-        protected void addField(String n, Class<?> cls, Object v) {
-            Object o = columns.get(n);
-            if (cls.equals(Byte.class) || cls.equals(byte.class))
-                ((byte []) o)[occupied] = (byte) v;
-            else if (cls.equals(Short.class) || cls.equals(short.class))
-                ((short []) o)[occupied] = (short) v;
-            else if (cls.equals(Character.class) || cls.equals(char.class))
-                ((char []) o)[occupied] = (char) v;
-            else if (cls.equals(Integer.class) || cls.equals(int.class))
-                ((int []) o)[occupied] = (int) v;
-            else if (cls.equals(Long.class) || cls.equals(long.class))
-                ((long []) o)[occupied] = (long) v;
-            else if (cls.equals(Float.class) || cls.equals(float.class))
-                ((float []) o)[occupied] = (float) v;
-            else if (cls.equals(Double.class) || cls.equals(double.class))
-                ((double []) o)[occupied] = (double) v;
+        Object column(int f) {
+            Object column = columns[f];
+            if (column instanceof EncodedColumn) {
+                return ((EncodedColumn) column).decodeAll(
+                        getCodec().getFields()[f], capacity);
+            }
+            return column;
         }
     }
 
@@ -257,6 +733,13 @@ public class ColumnStore<T> extends AbstractStore<T> {
             for (TestClass i : foo) System.out.println("foo: " + i);
             System.out.println("foosize: " + foo.size());
             System.out.println("at 150: " + foo.get(150));
+            ColumnStore<TestClass> low = new ColumnStore<>(TestClass.class);
+            for (int i = 0; i < 100000; i++) {
+                low.add(new TestClass(i % 16, i / 1000));
+            }
+            long raw = low.size() * low.getRecordSize();
+            System.out.println("low cardinality: " + raw + " bytes raw, "
+                    + low.columnBytes() + " encoded");
         }
         catch (Exception e) {
             System.err.println("Exception " + e.getMessage());
@@ -0,0 +1,349 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A dataset that is the concatenation of other datasets, its children, which
+ * may be of any class; appending a dataset adds it as a child without
+ * copying its records. Composite children are flattened, so the children are
+ * never composites themselves and random access is a binary search over the
+ * children's first indexes followed by an access to one child.
+ * <p>
+ * Children must not change once appended. Records added to a composite go
+ * to a store of its own, kept as the last child.
+ *
+ * @param <T> the type of records this dataset hosts.
+ */
+public class CompositeDataset<T> extends Dataset<T> {
+    // initial number of child slots
+    private static final int INITIAL_CHILDREN = 4;
+    // the children, in order
+    private Dataset<T> [] children;
+    // the index of the first record of each child
+    private long [] offsets;
+    // the number of children
+    private int count;
+    // the size of the dataset in number of records
+    private long size;
+    // the store records added to this dataset go to; null until the first
+    // add, or after a child is appended behind it
+    private AbstractStore<T> own;
+
+    /**
+     * Constructs a new, empty composite dataset.
+     *
+     * @param c the type of the records this dataset hosts.
+     * @throws BadTypeException if the record type is not acceptable (i.e., it
+     * does not comprise primitive types and does not have a parameter-less
+     * constructor).
+     */
+    public CompositeDataset(Class<T> c) throws BadTypeException {
+        super(c);
+        children = newChildren(INITIAL_CHILDREN);
+        offsets = new long [INITIAL_CHILDREN];
+        count = 0;
+        size = 0;
+        own = null;
+    }
+
+    /**
+     * Concatenates two datasets, reusing the first where possible: a store
+     * of the same class as the second has the second's containers spliced
+     * in, and a composite has the second added as a child. Otherwise a new
+     * composite of the two is returned. Neither dataset is copied. If both
+     * are the same dataset, e.g., a shared output that task leaves write to,
+     * it is returned as is.
+     *
+     * @param a the first dataset.
+     * @param b the second dataset.
+     * @param <T> the type of the records.
+     * @return the concatenation of the two datasets, which is either a or a
+     * new composite dataset.
+     * @throws BadAccessException if the datasets cannot be concatenated.
+     */
+    public static <T> Dataset<T> concat(Dataset<T> a, Dataset<T> b)
+            throws BadAccessException {
+        if (a == b || b.size() == 0) return a;
+        if (a.size() == 0 && ! (a instanceof CompositeDataset)) return b;
+        if (a instanceof CompositeDataset
+                || (a instanceof AbstractStore
+                    && a.getClass().equals(b.getClass()))) {
+            a.append(b);
+            return a;
+        }
+        CompositeDataset<T> c = new CompositeDataset<>(a.getRecordType());
+        c.append(a);
+        c.append(b);
+        return c;
+    }
+
+    /**
+     * Internal method to allocate an array of children.
+     *
+     * @param n the length of the array.
+     * @return a new, empty array of children.
+     */
+    @SuppressWarnings("unchecked")
+    private Dataset<T> [] newChildren(int n) {
+        return (Dataset<T> []) new Dataset<?> [n];
+    }
+
+    /**
+     * Returns the children of this dataset.
+     *
+     * @return an unmodifiable list of the children, in order.
+     */
+    public List<Dataset<T>> getChildren() {
+        return Collections.unmodifiableList(
+                Arrays.asList(children).subList(0, count));
+    }
+
+    /**
+     * The size of this dataset.
+     *
+     * @return the size of this dataset.
+     */
+    @Override
+    public long size() { return size; }
+
+    /**
+     * Adds a new record to this dataset, in a store of the dataset's own.
+     *
+     * @param t the record to be added.
+     * @throws BadAccessException if the record cannot be added.
+     */
+    @Override
+    public void add(T t) throws BadAccessException {
+        if (own == null) {
+            own = new ArrayStore<>(getRecordType(),
+                    AbstractStore.DEFAULT_ALLOCATION,
+                    AllocationPolicy.GEOMETRIC);
+            addChild(own);
+        }
+        own.add(t);
+        size++;
+    }
+
+    /**
+     * Appends a dataset to this one as a new child; the children of a
+     * composite dataset are appended one by one. No records are copied.
+     *
+     * @param d the dataset to be appended to this.
+     */
+    @Override
+    public void append(Dataset<T> d) {
+        if (d instanceof CompositeDataset) {
+            CompositeDataset<T> cd = (CompositeDataset<T>) d;
+            for (int c = 0; c < cd.count; c++) append(cd.children[c]);
+        }
+        else if (d.size() > 0) {
+            own = null;
+            addChild(d);
+            size += d.size();
+        }
+    }
+
+    /**
+     * Releases the children of this dataset and empties it.
+     */
+    @Override
+    public void release() {
+        for (int c = 0; c < count; c++) children[c].release();
+        children = newChildren(INITIAL_CHILDREN);
+        offsets = new long [INITIAL_CHILDREN];
+        count = 0;
+        size = 0;
+        own = null;
+    }
+
+    /**
+     * Internal method to add a child after all others.
+     *
+     * @param d the child.
+     */
+    private void addChild(Dataset<T> d) {
+        if (count == children.length) {
+            children = Arrays.copyOf(children, 2 * count);
+            offsets = Arrays.copyOf(offsets, 2 * count);
+        }
+        children[count] = d;
+        offsets[count] = size;
+        count++;
+    }
+
+    /**
+     * Internal method to locate the child hosting the record at the given
+     * index.
+     *
+     * @param i the index of the record; it must be within bounds.
+     * @return the position of the child.
+     */
+    private int locate(long i) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= i) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Given an index, retrieves the record at that index.
+     *
+     * @param i the index of the record to be retrieved.
+     * @return the record at the given index.
+     * @throws IndexOutOfBoundsException if the requested record is not within
+     * the boundaries of this dataset.
+     * @throws BadAccessException if the record cannot be retrieved.
+     */
+    @Override
+    public T get(long i)
+            throws IndexOutOfBoundsException, BadAccessException {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + i + " > "
+                    + size);
+        }
+        int c = locate(i);
+        return children[c].get(i - offsets[c]);
+    }
+
+    /**
+     * Given an index, retrieves the record at that index into the given record
+     * instance, if the child hosting it allows it.
+     *
+     * @param i the index of the record to be retrieved.
+     * @param into the record instance to reuse; may be null.
+     * @return the record at the given index.
+     * @throws IndexOutOfBoundsException if the requested record is not within
+     * the boundaries of this dataset.
+     * @throws BadAccessException if the record cannot be retrieved.
+     */
+    @Override
+    public T get(long i, T into)
+            throws IndexOutOfBoundsException, BadAccessException {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + i + " > "
+                    + size);
+        }
+        int c = locate(i);
+        return children[c].get(i - offsets[c], into);
+    }
+
+    /**
+     * Returns an iterator over the records within the given range of indexes;
+     * it chains the children's own cursors.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @return an iterator over the records in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset.
+     */
+    @Override
+    public Iterator<T> cursor(long begin, long end)
+            throws IndexOutOfBoundsException {
+        return new ChainCursor(begin, end, false, null);
+    }
+
+    /**
+     * Returns an iterator over the records within the given range of indexes
+     * that reuses a single record instance, where the children allow it.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @param reuse the record instance to reuse; may be null.
+     * @return an iterator over the records in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset.
+     */
+    @Override
+    public Iterator<T> cursor(long begin, long end, T reuse)
+            throws IndexOutOfBoundsException {
+        return new ChainCursor(begin, end, true, reuse);
+    }
+
+    /**
+     * Returns an iterator over the records of this dataset.
+     *
+     * @return an iterator over this dataset's records.
+     */
+    @Override
+    public Iterator<T> iterator() { return cursor(0, size); }
+
+    /**
+     * Internal iterator over a range of records that chains the cursors of
+     * the children overlapping the range.
+     */
+    private class ChainCursor implements Iterator<T> {
+        // the index of the next record
+        private long current;
+        // the index of the last record (exclusive)
+        private final long end;
+        // whether to reuse the record instance
+        private final boolean reusing;
+        // the record instance to reuse
+        private final T reuse;
+        // the position of the current child
+        private int child;
+        // the cursor over the current child
+        private Iterator<T> records;
+
+        /**
+         * Constructs a new cursor over the given range.
+         *
+         * @param b the index of the first record (inclusive).
+         * @param e the index of the last record (exclusive).
+         * @param r whether to reuse the record instance.
+         * @param t the record instance to reuse; may be null.
+         * @throws IndexOutOfBoundsException if the range is not within the
+         * boundaries of this dataset.
+         */
+        ChainCursor(long b, long e, boolean r, T t)
+                throws IndexOutOfBoundsException {
+            if (b < 0 || e > size || b > e) {
+                throw new IndexOutOfBoundsException("Bad range: [" + b + ", "
+                        + e + ") for size " + size);
+            }
+            current = b;
+            end = e;
+            reusing = r;
+            reuse = t;
+            child = -1;
+            records = null;
+        }
+
+        @Override
+        public boolean hasNext() { return current < end; }
+
+        @Override
+        public T next() {
+            if (current >= end) throw new NoSuchElementException();
+            if (records == null || ! records.hasNext()) {
+                child = child < 0 ? locate(current) : child + 1;
+                long from = current - offsets[child];
+                long to = Math.min(end - offsets[child],
+                        children[child].size());
+                records = reusing
+                        ? children[child].cursor(from, to, reuse)
+                        : children[child].cursor(from, to);
+            }
+            current++;
+            return records.next();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A store that any number of threads can add records to at the same time,
+ * without locking. Each addition claims the next index with an atomic
+ * fetch-and-add and writes the record into the slot of a pre-allocated
+ * container at that index; the thread that first needs a container installs
+ * it with a compare-and-set. Containers are kept in a spine of chunks, chunk
+ * k holding 2^k containers, so the spine never has to be copied as the
+ * store grows.
+ * <p>
+ * Like an array store, the store keeps references to the records added.
+ * Records are ordered by the index each addition claimed, which interleaves
+ * the records of concurrent producers. Slots are written and read with
+ * volatile semantics, and the size of the store is the watermark of the
+ * longest prefix of indexes whose records have all been written; an
+ * addition still in progress holds back the records claimed after it. So
+ * the store can be read while producers are running: every index below
+ * {@link #size()} holds its record.
+ *
+ * @param <T> the type of records this dataset hosts.
+ */
+public class ConcurrentStore<T> extends Dataset<T> {
+    // the number of chunks in the spine
+    private static final int SPINE = 31;
+    // the number of records in each container
+    private final int allocationSize;
+    // stands for null records in slots, as null marks unwritten slots
+    private static final Object NULL = new Object();
+    // the chunks of containers; chunk k holds 2^k containers
+    private final AtomicReferenceArray<
+            AtomicReferenceArray<AtomicReferenceArray<Object>>> spine;
+    // the number of indexes claimed by additions
+    private final AtomicLong claimed;
+    // the length of the prefix of indexes known to be written
+    private final AtomicLong published;
+
+    /**
+     * Constructs a new concurrent store given the type of its records.
+     *
+     * @param c the record type.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public ConcurrentStore(Class<T> c) throws BadTypeException {
+        this(c, AbstractStore.DEFAULT_ALLOCATION);
+    }
+
+    /**
+     * Constructs a new concurrent store given the type of its records and the
+     * number of records in each of its containers.
+     *
+     * @param c the record type.
+     * @param da the allocation increment.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public ConcurrentStore(Class<T> c, int da) throws BadTypeException {
+        super(c);
+        if (da < 1) {
+            throw new IllegalArgumentException("Allocation size must be "
+                    + "positive: " + da);
+        }
+        allocationSize = da;
+        spine = new AtomicReferenceArray<>(SPINE);
+        claimed = new AtomicLong();
+        published = new AtomicLong();
+    }
+
+    /**
+     * The size of this store, i.e., the length of the longest prefix of
+     * indexes whose records have all been written.
+     *
+     * @return the size of this store.
+     */
+    @Override
+    public long size() {
+        long w = published.get();
+        long c = claimed.get();
+        while (w < c && slot(w) != null) w++;
+        long p;
+        while ((p = published.get()) < w) published.compareAndSet(p, w);
+        return Math.max(p, w);
+    }
+
+    /**
+     * Internal method to check that an index lies within the written prefix,
+     * advancing the watermark only if it has not reached the index yet.
+     *
+     * @param i the index.
+     * @return true if the record at the index has been written.
+     */
+    private boolean written(long i) {
+        return i >= 0 && (i < published.get() || i < size());
+    }
+
+    /**
+     * Internal method to read the slot at an index.
+     *
+     * @param i the index; it must have been claimed.
+     * @return the contents of the slot, or null if it is not written yet.
+     */
+    private Object slot(long i) {
+        AtomicReferenceArray<Object> c = container(i / allocationSize, false);
+        return c == null ? null : c.get((int) (i % allocationSize));
+    }
+
+    /**
+     * Adds a new record to this store; safe to call from any number of
+     * threads at once.
+     *
+     * @param t the record to be added.
+     */
+    @Override
+    public void add(T t) {
+        long i = claimed.getAndIncrement();
+        container(i / allocationSize, true).set((int) (i % allocationSize),
+                t == null ? NULL : t);
+    }
+
+    /**
+     * Appends a dataset to this one by claiming a range of indexes for all of
+     * its records at once and copying them in; safe to call concurrently with
+     * other additions and appends.
+     *
+     * @param d the dataset to be appended to this.
+     */
+    @Override
+    public void append(Dataset<T> d) {
+        long n = d.size();
+        if (n == 0) return;
+        long i = claimed.getAndAdd(n);
+        Iterator<T> records = d.cursor(0, n);
+        AtomicReferenceArray<Object> container = null;
+        for (long end = i + n; i < end; i++) {
+            int position = (int) (i % allocationSize);
+            if (container == null || position == 0) {
+                container = container(i / allocationSize, true);
+            }
+            T t = records.next();
+            container.set(position, t == null ? NULL : t);
+        }
+    }
+
+    /**
+     * Internal method to retrieve a container, installing it first if asked
+     * to. Concurrent installations of the same container are resolved by
+     * compare-and-set, the losers adopting the winner's container.
+     *
+     * @param s the number of the container.
+     * @param create whether to install the container if it is missing.
+     * @return the container, or null if it is missing and not created.
+     */
+    private AtomicReferenceArray<Object> container(long s, boolean create) {
+        if (s >= Integer.MAX_VALUE) {
+            throw new BadAccessException("Store capacity exceeded");
+        }
+        int k = 31 - Integer.numberOfLeadingZeros((int) s + 1);
+        int p = (int) s + 1 - (1 << k);
+        AtomicReferenceArray<AtomicReferenceArray<Object>> chunk =
+                spine.get(k);
+        if (chunk == null) {
+            if (! create) return null;
+            spine.compareAndSet(k, null, new AtomicReferenceArray<>(1 << k));
+            chunk = spine.get(k);
+        }
+        AtomicReferenceArray<Object> c = chunk.get(p);
+        if (c == null && create) {
+            chunk.compareAndSet(p, null,
+                    new AtomicReferenceArray<>(allocationSize));
+            c = chunk.get(p);
+        }
+        return c;
+    }
+
+    /**
+     * Given an index, retrieves the record at that index.
+     *
+     * @param i the index of the record to be retrieved.
+     * @return the record at the given index.
+     * @throws IndexOutOfBoundsException if the requested record is not within
+     * the boundaries of this store, including records claimed by additions
+     * still in progress.
+     */
+    @Override
+    public T get(long i) throws IndexOutOfBoundsException {
+        if (! written(i)) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + i + " > "
+                    + size());
+        }
+        return unwrap(slot(i));
+    }
+
+    /**
+     * Internal method to turn the contents of a written slot into a record.
+     *
+     * @param o the contents of the slot.
+     * @return the record.
+     */
+    @SuppressWarnings("unchecked")
+    private T unwrap(Object o) { return o == NULL ? null : (T) o; }
+
+    /**
+     * Returns an iterator over the records within the given range of indexes;
+     * the iterator streams through the containers.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @return an iterator over the records in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this store.
+     */
+    @Override
+    public Iterator<T> cursor(final long begin, final long end)
+            throws IndexOutOfBoundsException {
+        if (begin < 0 || begin > end || (end > begin && ! written(end - 1))) {
+            throw new IndexOutOfBoundsException("Bad range: [" + begin + ", "
+                    + end + ") for size " + size());
+        }
+        return new Iterator<T>() {
+            long current = begin;
+            AtomicReferenceArray<Object> container = null;
+
+            @Override
+            public boolean hasNext() { return current < end; }
+
+            @Override
+            public T next() {
+                if (current >= end) throw new NoSuchElementException();
+                int position = (int) (current % allocationSize);
+                if (container == null || position == 0) {
+                    container = container(current / allocationSize, false);
+                }
+                current++;
+                return unwrap(container.get(position));
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the records of this store.
+     *
+     * @return an iterator over this store's records.
+     */
+    @Override
+    public Iterator<T> iterator() { return cursor(0, size()); }
+
+    /**
+     * Debug main: several threads add disjoint ranges of values at once, and
+     * every value must then be found exactly once; meanwhile, a reader must
+     * find a record at every index below the size of the store.
+     *
+     * @param s parameters: the number of threads and of values per thread.
+     */
+    public static void main(String [] s) {
+        final int threads = s.length > 0 ? Integer.parseInt(s[0]) : 8;
+        final int n = s.length > 1 ? Integer.parseInt(s[1]) : 100000;
+        final ConcurrentStore<Integer> store =
+                new ConcurrentStore<>(Integer.class, 100);
+        Thread [] producers = new Thread [threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t * n;
+            producers[t] = new Thread(() -> {
+                for (int i = first; i < first + n; i++) store.add(i);
+            });
+            producers[t].start();
+        }
+        long reads = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread producer : producers) running |= producer.isAlive();
+            long size = store.size();
+            if (size == 0) continue;
+            Iterator<Integer> tail = store.cursor(size - 1, size);
+            if (store.get(size - 1) == null || tail.next() == null) {
+                throw new IllegalStateException("Unwritten record at "
+                        + (size - 1));
+            }
+            reads++;
+        }
+        try {
+            for (Thread producer : producers) producer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        boolean [] seen = new boolean [threads * n];
+        for (Integer v : store) {
+            if (seen[v]) throw new IllegalStateException("Duplicate " + v);
+            seen[v] = true;
+        }
+        if (store.size() != seen.length) {
+            throw new IllegalStateException("Size " + store.size());
+        }
+        System.out.println(threads + " threads added " + store.size()
+                + " values, " + reads + " concurrent reads: ok");
+    }
+}
@@ -15,6 +15,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The base class of all in-memory datasets. As a first approximation this is
@@ -46,37 +48,73 @@ public abstract class Dataset<T> implements Iterable<T> {
         theMap.put(double.class, 8);
         SUPPORTED_TYPES = Collections.unmodifiableMap(theMap);
     }
+    // cache of validated schemas per record type
+    private final static Map<Class<?>, Schema> SCHEMAS =
+            new ConcurrentHashMap<>();
+    // the high bits of all identifiers handed out by this run, drawn once
+    private final static long SESSION =
+            UUID.randomUUID().getMostSignificantBits();
+    // the sequence of identifiers handed out by this run
+    private final static AtomicLong SEQUENCE = new AtomicLong();
     // the internal identifier of the dataset (in case we want to build a 
-    // catalog) 
-    private final UUID identifier;
+    // catalog); assigned when first asked for
+    private volatile UUID identifier;
     // the type of records
     private Class<T> recordType;
     // the size of the record in bytes
     private int recordSize;
     // the fields of the record, as returned through reflections.
     private Field [] fields;
+    // the codec of the records
+    private RecordCodec<T> codec;
 
     /**
      * Constructs a dataset with the given name, hosting record of the given
-     * type. The type must have a parameter-less constructor.
+     * type. The type must have a parameter-less constructor. The type is
+     * only validated the first time a dataset of it is constructed; later
+     * datasets share the cached schema.
      * 
      * @param c the type of the records this dataset hosts.
      * @throws BadTypeException if the record type is not acceptable (i.e., it
      * does not comprise primitive types and does not have a parameter-less
      * constructor).
      */
+    @SuppressWarnings("unchecked")
     public Dataset(Class<T> c) throws BadTypeException {
-        identifier = UUID.randomUUID();
+        identifier = null;
         recordType = c;
-        validateType();
+        Schema schema = SCHEMAS.get(c);
+        if (schema == null) {
+            validateType();
+            schema = new Schema(fields, recordSize,
+                    RecordCodec.forType(recordType, fields));
+            SCHEMAS.putIfAbsent(c, schema);
+        }
+        fields = schema.fields;
+        recordSize = schema.recordSize;
+        codec = (RecordCodec<T>) schema.codec;
     }
 
     /**
-     * Returns the identifier of this dataset.
+     * Returns the identifier of this dataset. Identifiers are only assigned
+     * when first asked for, so transient datasets, e.g., those built inside
+     * tasks, never pay for one. They are sequential within a run, under high
+     * bits drawn at random once per run.
      * 
      * @return this dataset's identifier.
      */
-    public UUID getIdentifier() { return identifier; }
+    public UUID getIdentifier() {
+        UUID id = identifier;
+        if (id == null) {
+            synchronized (this) {
+                if (identifier == null) {
+                    identifier = new UUID(SESSION, SEQUENCE.incrementAndGet());
+                }
+                id = identifier;
+            }
+        }
+        return id;
+    }
 
     /**
      * Returns the size of the dataset's records in bytes.
@@ -94,6 +132,16 @@ public abstract class Dataset<T> implements Iterable<T> {
      * @return true if the type is supported, false otherwise.
      */
     protected boolean isSupportedType(Class<?> c) {
+        return isSupported(c);
+    }
+
+    /**
+     * Checks whether a given type is supported or not.
+     *
+     * @param c the type to check.
+     * @return true if the type is supported, false otherwise.
+     */
+    static boolean isSupported(Class<?> c) {
         return SUPPORTED_TYPES.containsKey(c);
     }
 
@@ -117,6 +165,15 @@ public abstract class Dataset<T> implements Iterable<T> {
         return fields;
     }
 
+    /**
+     * Retrieves the codec of this dataset's records.
+     *
+     * @return the codec of the records of this dataset.
+     */
+    RecordCodec<T> getCodec() {
+        return codec;
+    }
+
     /**
      * Validates that the type of the dataset's records consists of
      * primitive-typed fields only.
@@ -202,6 +259,107 @@ public abstract class Dataset<T> implements Iterable<T> {
     public abstract T get(long i)
             throws IndexOutOfBoundsException, BadAccessException;
 
+    /**
+     * Retrieves the record with the given index from this dataset, reusing
+     * the given record instance if the dataset can. The default
+     * implementation does not reuse the instance. Callers must not retain the
+     * returned record past their next call with the same instance.
+     *
+     * @param i the index of the record to be retrieved.
+     * @param into the record instance to reuse; may be null.
+     * @return the record at index i, which may or may not be into.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     * @throws BadAccessException if the record cannot be retrieved.
+     */
+    public T get(long i, T into)
+            throws IndexOutOfBoundsException, BadAccessException {
+        return get(i);
+    }
+
+    /**
+     * Returns whether adding a record copies it into the dataset's own
+     * storage, so that the caller is free to modify or reuse the instance
+     * afterwards.
+     *
+     * @return true if records are copied when added, false otherwise.
+     */
+    public boolean copiesRecords() { return false; }
+
+    /**
+     * Returns an iterator over the records of this dataset within the given
+     * range of indexes. The default implementation retrieves each record by
+     * its index; datasets that can do better, e.g., by positioning once and
+     * then streaming through their storage, should override it.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @return an iterator over the records in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset.
+     */
+    public Iterator<T> cursor(final long begin, final long end)
+            throws IndexOutOfBoundsException {
+        if (begin < 0 || end > size() || begin > end) {
+            throw new IndexOutOfBoundsException("Bad range: [" + begin + ", "
+                    + end + ") for size " + size());
+        }
+        return new Iterator<T>() {
+            long current = begin;
+
+            @Override
+            public boolean hasNext() { return current < end; }
+
+            @Override
+            public T next() { return get(current++); }
+        };
+    }
+
+    /**
+     * Returns an iterator over the records of this dataset within the given
+     * range of indexes that reuses a single record instance, where the
+     * dataset allows it. Each record returned is only valid until the next
+     * call to next(); consumers must copy anything they want to keep.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @param reuse the record instance to reuse; if null, one is allocated on
+     * the first read and reused from then on.
+     * @return an iterator over the records in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset.
+     */
+    public Iterator<T> cursor(final long begin, final long end, final T reuse)
+            throws IndexOutOfBoundsException {
+        if (begin < 0 || end > size() || begin > end) {
+            throw new IndexOutOfBoundsException("Bad range: [" + begin + ", "
+                    + end + ") for size " + size());
+        }
+        return new Iterator<T>() {
+            long current = begin;
+            T record = reuse;
+
+            @Override
+            public boolean hasNext() { return current < end; }
+
+            @Override
+            public T next() {
+                record = get(current++, record);
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over all records of this dataset that reuses a
+     * single record instance, where the dataset allows it.
+     *
+     * @return a reusing iterator over this dataset's records.
+     * @see #cursor(long, long, Object)
+     */
+    public Iterator<T> reusingIterator() {
+        return cursor(0, size(), null);
+    }
+
     /**
      * Appends another dataset to this one.
      *
@@ -209,6 +367,15 @@ public abstract class Dataset<T> implements Iterable<T> {
      */
     public abstract void append(Dataset<T> d) throws BadAccessException;
 
+    /**
+     * Releases the storage of this dataset, e.g., returning off-heap buffers
+     * to their pool, and empties it. Datasets that hold nothing worth
+     * recycling leave their storage to the garbage collector, which is what
+     * the default implementation does. Records read from the dataset must not
+     * be used once it is released.
+     */
+    public void release() { }
+
     /**
      * Returns an iterator over the records of this dataset.
      *
@@ -230,4 +397,30 @@ public abstract class Dataset<T> implements Iterable<T> {
         }
         ps.print("]");
     }
+
+    /**
+     * The validated schema of a record type, shared by all datasets of the
+     * type.
+     */
+    private static final class Schema {
+        // the fields of the record, or null for a primitive record type
+        final Field [] fields;
+        // the size of the record in bytes
+        final int recordSize;
+        // the codec of the records
+        final RecordCodec<?> codec;
+
+        /**
+         * Constructs a new schema.
+         *
+         * @param f the fields of the record.
+         * @param s the size of the record in bytes.
+         * @param c the codec of the records.
+         */
+        Schema(Field [] f, int s, RecordCodec<?> c) {
+            fields = f;
+            recordSize = s;
+            codec = c;
+        }
+    }
 }
@@ -0,0 +1,411 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A secondary index over a field of a store: it maps values of the field to
+ * the positions of the records holding them, so that lookups and selective
+ * ranges need not scan the store. An index attaches itself to its store
+ * when constructed and the store keeps it current as records are added or
+ * appended; the positions of records never change, since stores only ever
+ * grow and compaction preserves the order of records.
+ * <p>
+ * Values are indexed as long keys: integral values as they are, and
+ * floating-point values by a bit pattern that orders as the values do, with
+ * the two zeros folded into one. Null records and null fields, which some
+ * stores hold, have no key and are left out of the index, so no lookup or
+ * range finds them. Indexes are built by reading the keys of the store in
+ * parallel, while records added one at a time are indexed from the record
+ * itself. Lookups may run concurrently with each other, but, as with
+ * stores, not with the writes that maintain the index.
+ *
+ * @param <T> the type of the records of the indexed store.
+ */
+public abstract class DatasetIndex<T> {
+    // the number of records whose keys are read by a single task
+    private static final int KEY_GRAIN = 1 << 16;
+    // the largest number of entries an index holds
+    protected static final int MAX_ENTRIES = Integer.MAX_VALUE - 8;
+    // the indexed store
+    private final AbstractStore<T> store;
+    // the name of the indexed field
+    private final String name;
+    // the position of the indexed field in the record
+    private final int field;
+    // the codec of the indexed field
+    private final FieldCodec codec;
+
+    /**
+     * Constructs an index over a field of a store; subclasses build the
+     * index from the keys of the records already in the store and then
+     * attach it through {@link #attach()}.
+     *
+     * @param s the store.
+     * @param n the name of the field; records of a primitive type have a
+     * single field named COLUMN.
+     * @throws BadAccessException if there is no such field, or if the store
+     * holds more records than an index can.
+     * @throws BadTypeException if the field is not numeric.
+     */
+    protected DatasetIndex(AbstractStore<T> s, String n)
+            throws BadAccessException, BadTypeException {
+        store = s;
+        name = n;
+        field = s.getCodec().indexOf(n);
+        if (field < 0) throw new BadAccessException("No field " + n);
+        codec = s.getCodec().getFields()[field];
+        if (! codec.widensToLong() && codec.getType() != float.class
+                && codec.getType() != double.class) {
+            throw new BadTypeException("Field " + n + " of type "
+                    + codec.getType() + " cannot be indexed");
+        }
+        if (s.size() > MAX_ENTRIES) {
+            throw new BadAccessException("Too many records to index: "
+                    + s.size());
+        }
+    }
+
+    /**
+     * Internal method to attach this index to its store, which keeps it
+     * current from then on.
+     */
+    protected void attach() { store.addIndex(this); }
+
+    /**
+     * Detaches this index from its store; the index is no longer kept
+     * current and should not be used afterwards.
+     */
+    public void drop() { store.removeIndex(this); }
+
+    /**
+     * Returns the indexed store.
+     *
+     * @return the indexed store.
+     */
+    public AbstractStore<T> getStore() { return store; }
+
+    /**
+     * Returns the name of the indexed field.
+     *
+     * @return the name of the field.
+     */
+    public String getName() { return name; }
+
+    /**
+     * Returns the position of the indexed field in the record.
+     *
+     * @return the position of the field.
+     */
+    public int getField() { return field; }
+
+    /**
+     * Returns the number of entries in this index, i.e., the number of
+     * records indexed.
+     *
+     * @return the number of entries.
+     */
+    public abstract long size();
+
+    /**
+     * Looks up the records whose field equals a value.
+     *
+     * @param v the value.
+     * @return the positions of the records, in ascending order.
+     */
+    public long [] lookup(long v) {
+        return find(codec.widensToLong() ? v : key((double) v));
+    }
+
+    /**
+     * Looks up the records whose field equals a value.
+     *
+     * @param v the value.
+     * @return the positions of the records, in ascending order.
+     */
+    public long [] lookup(double v) {
+        if (! codec.widensToLong()) return find(key(v));
+        // only whole values can match an integral field
+        if (v != Math.rint(v) || v < Long.MIN_VALUE || v >= 0x1p63) {
+            return new long [0];
+        }
+        return find((long) v);
+    }
+
+    /**
+     * Selects the records whose field lies within a range.
+     *
+     * @param r the range; it must be over the indexed field.
+     * @return the positions of the records, in ascending order, or null if
+     * this index cannot serve the range (see {@link #estimate(FieldRange)}).
+     * @throws BadAccessException if the range is over another field.
+     */
+    public long [] select(FieldRange r) throws BadAccessException {
+        check(r);
+        if (r.isEmpty()) return new long [0];
+        return find(r.lowKey(), r.highKey());
+    }
+
+    /**
+     * Estimates the number of records whose field lies within a range.
+     *
+     * @param r the range; it must be over the indexed field.
+     * @return the number of records, or -1 if this index cannot serve the
+     * range, e.g., a hash index given a wide range.
+     * @throws BadAccessException if the range is over another field.
+     */
+    public long estimate(FieldRange r) throws BadAccessException {
+        check(r);
+        if (r.isEmpty()) return 0;
+        return count(r.lowKey(), r.highKey());
+    }
+
+    /**
+     * Internal method to validate that a range is over the indexed field.
+     *
+     * @param r the range.
+     * @throws BadAccessException if the range is over another field.
+     */
+    private void check(FieldRange r) throws BadAccessException {
+        if (r.getField() != field) {
+            throw new BadAccessException("Range " + r + " is not over "
+                    + name);
+        }
+    }
+
+    /**
+     * Returns whether the keys of this index are the values of an integral
+     * field, so that a range of keys can be enumerated value by value.
+     *
+     * @return true for an integral field, false for a floating-point one.
+     */
+    protected boolean isIntegral() { return codec.widensToLong(); }
+
+    /**
+     * Internal method to look up the records holding a key.
+     *
+     * @param key the key.
+     * @return the positions of the records, in ascending order.
+     */
+    protected abstract long [] find(long key);
+
+    /**
+     * Internal method to look up the records whose keys lie within a range.
+     *
+     * @param low the lowest key (inclusive).
+     * @param high the highest key (inclusive); at least the lowest.
+     * @return the positions of the records, in ascending order, or null if
+     * the range cannot be served.
+     */
+    protected abstract long [] find(long low, long high);
+
+    /**
+     * Internal method to count the records whose keys lie within a range.
+     *
+     * @param low the lowest key (inclusive).
+     * @param high the highest key (inclusive); at least the lowest.
+     * @return the number of records, or -1 if the range cannot be served.
+     */
+    protected abstract long count(long low, long high);
+
+    /**
+     * Internal method to add entries in ascending order of position.
+     *
+     * @param keys the keys of the entries.
+     * @param positions the positions of the records of the entries.
+     * @throws BadAccessException if the index is full.
+     */
+    protected abstract void insert(long [] keys, long [] positions)
+            throws BadAccessException;
+
+    /**
+     * Internal method to add an entry after all others.
+     *
+     * @param key the key of the entry.
+     * @param position the position of the record of the entry.
+     * @throws BadAccessException if the index is full.
+     */
+    protected abstract void insert(long key, long position)
+            throws BadAccessException;
+
+    /**
+     * Internal method to remove all entries, when the store is released.
+     */
+    protected abstract void clear();
+
+    /**
+     * Called by the store once records have been added to it.
+     *
+     * @param begin the position of the first added record (inclusive).
+     * @param end the position of the last added record (exclusive).
+     * @throws BadAccessException if the index is full.
+     */
+    void appended(long begin, long end) throws BadAccessException {
+        if (size() + (end - begin) > MAX_ENTRIES) {
+            throw new BadAccessException("Index on " + name + " is full");
+        }
+        Entries e = entries(begin, end);
+        insert(e.keys, e.positions);
+    }
+
+    /**
+     * Called by the store once a single record has been added to it.
+     *
+     * @param r the record.
+     * @param position the position of the record.
+     * @throws BadAccessException if the index is full.
+     */
+    void appended(T r, long position) throws BadAccessException {
+        if (codec.isNull(r)) return;
+        if (size() >= MAX_ENTRIES) {
+            throw new BadAccessException("Index on " + name + " is full");
+        }
+        insert(key(r), position);
+    }
+
+    /**
+     * Called by the store once it has been released.
+     */
+    void released() { clear(); }
+
+    /**
+     * Internal method to read the entries of consecutive records of the
+     * store, in parallel unless there are few of them; records without a
+     * key are left out.
+     *
+     * @param begin the position of the first record (inclusive).
+     * @param end the position of the last record (exclusive).
+     * @return the entries of the records, in ascending order of position.
+     */
+    protected Entries entries(long begin, long end) {
+        int n = (int) (end - begin);
+        long [] keys = new long [n];
+        long [] positions = new long [n];
+        KeyTask task = new KeyTask(keys, positions, begin, begin, end);
+        if (end - begin <= KEY_GRAIN) task.compute();
+        else ForkJoinPool.commonPool().invoke(task);
+        int kept = 0;
+        for (int k = 0; k < n; k++) {
+            if (positions[k] < 0) continue;
+            keys[kept] = keys[k];
+            positions[kept++] = positions[k];
+        }
+        if (kept == n) return new Entries(keys, positions);
+        return new Entries(Arrays.copyOf(keys, kept),
+                Arrays.copyOf(positions, kept));
+    }
+
+    /**
+     * Internal method to compute the key of a record.
+     *
+     * @param r the record.
+     * @return the key of the indexed field of the record.
+     */
+    private long key(Object r) {
+        return codec.widensToLong() ? codec.getLong(r)
+                : key(codec.getDouble(r));
+    }
+
+    /**
+     * Maps a floating-point value to a key that orders as the values do:
+     * negative values have their magnitude bits flipped so that they order
+     * in reverse, negative zero is folded into zero and all NaNs into a
+     * single key above infinity.
+     *
+     * @param v the value.
+     * @return the key of the value.
+     */
+    static long key(double v) {
+        long bits = Double.doubleToLongBits(v == 0 ? 0.0 : v);
+        return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+    }
+
+    /**
+     * Entries of an index, i.e., keys alongside the positions of the
+     * records holding them.
+     */
+    protected static final class Entries {
+        // the keys
+        protected final long [] keys;
+        // the position of the record of each key
+        protected final long [] positions;
+
+        /**
+         * Constructs new entries.
+         *
+         * @param k the keys.
+         * @param p the position of the record of each key.
+         */
+        Entries(long [] k, long [] p) {
+            keys = k;
+            positions = p;
+        }
+    }
+
+    /**
+     * Internal task that reads the keys of a range of records, splitting the
+     * range between tasks while it is large.
+     */
+    private final class KeyTask extends RecursiveAction {
+        // the keys of all the records being read
+        private final long [] keys;
+        // the position of the record of each key, or -1 if it has no key
+        private final long [] positions;
+        // the position of the record of the first key
+        private final long base;
+        // the position of the first record of this task (inclusive)
+        private final long begin;
+        // the position of the last record of this task (exclusive)
+        private final long end;
+
+        /**
+         * Constructs a new task.
+         *
+         * @param k the keys of all the records being read.
+         * @param p the positions of the records of the keys.
+         * @param b the position of the record of the first key.
+         * @param from the position of the first record (inclusive).
+         * @param to the position of the last record (exclusive).
+         */
+        KeyTask(long [] k, long [] p, long b, long from, long to) {
+            keys = k;
+            positions = p;
+            base = b;
+            begin = from;
+            end = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin > KEY_GRAIN) {
+                long mid = (begin + end) >>> 1;
+                invokeAll(new KeyTask(keys, positions, base, begin, mid),
+                        new KeyTask(keys, positions, base, mid, end));
+                return;
+            }
+            Iterator<T> records = store.copiesRecords()
+                    ? store.cursor(begin, end, null)
+                    : store.cursor(begin, end);
+            for (int k = (int) (begin - base); records.hasNext(); k++) {
+                T r = records.next();
+                if (codec.isNull(r)) {
+                    positions[k] = -1;
+                }
+                else {
+                    keys[k] = key(r);
+                    positions[k] = base + k;
+                }
+            }
+        }
+    }
+}
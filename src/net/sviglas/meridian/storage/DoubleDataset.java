@@ -0,0 +1,173 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.nio.DoubleBuffer;
+import java.util.PrimitiveIterator;
+
+/**
+ * A store of double values kept unboxed in double arrays, one per container.
+ * Next to the generic dataset interface, which boxes, it offers primitive
+ * access, primitive iteration and bulk access to the containers' arrays.
+ */
+public class DoubleDataset extends PrimitiveStore<Double, double []>
+        implements DoubleSource {
+    /**
+     * Constructs a new double dataset.
+     */
+    public DoubleDataset() {
+        super(Double.class);
+    }
+
+    /**
+     * Constructs a new double dataset given its allocation increment.
+     *
+     * @param da the allocation increment.
+     */
+    public DoubleDataset(int da) {
+        super(Double.class, da);
+    }
+
+    /**
+     * Constructs a new double dataset given its largest allocation
+     * increment and its allocation policy.
+     *
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     */
+    public DoubleDataset(int da, AllocationPolicy p) {
+        super(Double.class, da, p);
+    }
+
+    @Override
+    protected double [] newArray(int n) { return new double [n]; }
+
+    @Override
+    protected Double box(double [] values, int i) { return values[i]; }
+
+    @Override
+    protected void unbox(Double t, double [] values, int i) { values[i] = t; }
+
+    @Override
+    protected void summarise(ZoneMap z, double [] values, int i) {
+        z.addDouble(values[i]);
+    }
+
+    /**
+     * Adds a new value to this dataset without boxing it.
+     *
+     * @param v the value to be added.
+     */
+    public void addDouble(double v) {
+        PrimitiveContainer c = appendContainer();
+        c.values[c.occupied++] = v;
+        c.getStatistics().addDouble(v);
+        appended();
+    }
+
+    /**
+     * Retrieves the value at the given index without boxing it.
+     *
+     * @param i the index of the value to be retrieved.
+     * @return the value at the given index, or zero if it is null.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public double getDouble(long i) throws IndexOutOfBoundsException {
+        Layout l = getLayout();
+        int c = locateChecked(l, i);
+        return containerAt(l, c).values[(int) (i - l.containerBegin(c))];
+    }
+
+    /**
+     * Copies a range of values into an array.
+     *
+     * @param begin the index of the first value to copy.
+     * @param dst the destination array.
+     * @param off the offset in the destination array.
+     * @param len the number of values to copy.
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset or of the destination array.
+     */
+    public void getDoubles(long begin, double [] dst, int off, int len)
+            throws IndexOutOfBoundsException {
+        copy(begin, dst, off, len);
+    }
+
+    /**
+     * Returns a read-only view over the values of the given container.
+     *
+     * @param c the position of the container, in list order.
+     * @return a buffer over the container's values.
+     */
+    public DoubleBuffer block(int c) {
+        Layout l = getLayout();
+        return DoubleBuffer.wrap(containerAt(l, c).values, 0,
+                l.containerSize(c)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns an unboxed iterator over all values of this dataset.
+     *
+     * @return an iterator over this dataset's values.
+     */
+    public PrimitiveIterator.OfDouble doubleIterator() {
+        return doubleCursor(0, size());
+    }
+
+    /**
+     * Returns an unboxed iterator over the values within the given range of
+     * indexes; it streams through the containers' arrays.
+     *
+     * @param begin the index of the first value (inclusive).
+     * @param end the index of the last value (exclusive).
+     * @return an iterator over the values in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset.
+     */
+    @Override
+    public PrimitiveIterator.OfDouble doubleCursor(long begin, long end)
+            throws IndexOutOfBoundsException {
+        return new DoubleCursor(begin, end);
+    }
+
+    /**
+     * Cursor over the values as unboxed doubles.
+     */
+    private class DoubleCursor extends ValueCursor
+            implements PrimitiveIterator.OfDouble {
+        DoubleCursor(long b, long e) { super(b, e); }
+
+        @Override
+        public double nextDouble() {
+            int p = advance();
+            return values[p];
+        }
+    }
+
+    /**
+     * Debug main.
+     *
+     * @param s parameters.
+     */
+    public static void main(String [] s) {
+        DoubleDataset foo = new DoubleDataset(10);
+        DoubleDataset bar = new DoubleDataset(10);
+        for (int i = 0; i < 100; i++) foo.addDouble(i);
+        for (int i = 1000; i < 1055; i++) bar.addDouble(i);
+        foo.append(bar);
+        foo.addDouble(-1);
+        PrimitiveIterator.OfDouble it = foo.doubleCursor(95, foo.size());
+        while (it.hasNext()) System.out.print(it.nextDouble() + " ");
+        System.out.println();
+        double [] some = new double [10];
+        foo.getDoubles(96, some, 0, some.length);
+        System.out.println("at 150: " + foo.getDouble(150) + ", block 10: "
+                + foo.block(10).remaining() + ", bulk: " + some[9]);
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.Arrays;
+
+/**
+ * A compressed, read-only column of integral values; column stores replace
+ * the columns of a container by their encodings once the container is full.
+ * Values are handled as longs whatever the type of the field. Three
+ * lightweight encodings are available, all with random access:
+ * <ul>
+ * <li>frame of reference: the values less their minimum, bit-packed at the
+ * width of the largest difference;</li>
+ * <li>dictionary: the distinct values, sorted, and for each value its
+ * position in the dictionary, bit-packed;</li>
+ * <li>run length: each run of equal values as the value and the position
+ * where the run ends.</li>
+ * </ul>
+ * Scans decode values in blocks, and selections test ranges on the encoded
+ * values directly: a dictionary turns a range of values into a range of
+ * codes, and runs are tested once per run.
+ */
+abstract class EncodedColumn {
+    // the number of values
+    protected final int count;
+
+    /**
+     * Constructs a new encoded column.
+     *
+     * @param n the number of values.
+     */
+    protected EncodedColumn(int n) {
+        count = n;
+    }
+
+    /**
+     * Encodes the first values of a column with the encoding that takes the
+     * least space, if any takes less space than the column itself.
+     *
+     * @param codec the codec of the field; it must widen to long.
+     * @param column the column.
+     * @param n the number of values to encode.
+     * @return the encoded column, or null if no encoding is smaller.
+     */
+    static EncodedColumn encode(FieldCodec codec, Object column, int n) {
+        if (n == 0) return null;
+        long [] values = new long [n];
+        for (int i = 0; i < n; i++) values[i] = codec.loadLong(column, i);
+        long min = values[0];
+        long max = values[0];
+        int runs = 1;
+        for (int i = 1; i < n; i++) {
+            if (values[i] < min) min = values[i];
+            if (values[i] > max) max = values[i];
+            if (values[i] != values[i - 1]) runs++;
+        }
+        long [] sorted = values.clone();
+        Arrays.sort(sorted);
+        int distinct = 1;
+        for (int i = 1; i < n; i++) {
+            if (sorted[i] != sorted[i - 1]) sorted[distinct++] = sorted[i];
+        }
+        long raw = (long) n * codec.size();
+        long reference = BitPacked.bytes(n, width(max - min));
+        long dictionary = 8L * distinct
+                + BitPacked.bytes(n, width(distinct - 1));
+        long runLength = 12L * runs;
+        long best = Math.min(reference, Math.min(dictionary, runLength));
+        if (best >= raw) return null;
+        if (best == runLength) return new RunLength(values, runs);
+        if (best == reference) {
+            return new BitPacked(values, min, width(max - min));
+        }
+        return new Dictionary(values, Arrays.copyOf(sorted, distinct));
+    }
+
+    /**
+     * Internal method to compute the number of bits needed for a value.
+     *
+     * @param v the value, taken as unsigned.
+     * @return the number of bits up to the highest set bit of the value.
+     */
+    private static int width(long v) {
+        return 64 - Long.numberOfLeadingZeros(v);
+    }
+
+    /**
+     * Returns the number of values in this column.
+     *
+     * @return the number of values.
+     */
+    int size() { return count; }
+
+    /**
+     * Retrieves a value.
+     *
+     * @param i the index of the value.
+     * @return the value.
+     */
+    abstract long get(int i);
+
+    /**
+     * Decodes consecutive values into an array.
+     *
+     * @param from the index of the first value.
+     * @param n the number of values.
+     * @param dst the array; the values go to its first n positions.
+     */
+    abstract void decode(int from, int n, long [] dst);
+
+    /**
+     * Selects the values within a range of indexes that lie within a range of
+     * values.
+     *
+     * @param from the index of the first value (inclusive).
+     * @param to the index of the last value (exclusive).
+     * @param low the lower bound (inclusive).
+     * @param high the upper bound (inclusive).
+     * @param out the array to write the indexes of the selected values to,
+     * in order; it must have room for to - from indexes.
+     * @return the number of values selected.
+     */
+    abstract int select(int from, int to, long low, long high, int [] out);
+
+    /**
+     * Returns the space this column takes.
+     *
+     * @return the approximate size of this column in bytes.
+     */
+    abstract long bytes();
+
+    /**
+     * Decodes all values into a column of the field's type.
+     *
+     * @param codec the codec of the field.
+     * @param capacity the length of the column, at least the number of
+     * values.
+     * @return the decoded column.
+     */
+    Object decodeAll(FieldCodec codec, int capacity) {
+        Object column = codec.makeColumn(capacity);
+        for (int i = 0; i < count; i++) codec.storeLong(column, i, get(i));
+        return column;
+    }
+
+    /**
+     * Frame-of-reference encoding: values less a base, bit-packed.
+     */
+    static final class BitPacked extends EncodedColumn {
+        // the base, i.e., the smallest value
+        private final long base;
+        // the number of bits per value
+        private final int width;
+        // the mask of the low width bits
+        private final long mask;
+        // the packed values
+        private final long [] words;
+
+        /**
+         * Packs the given values.
+         *
+         * @param values the values.
+         * @param b the base; no value may be less.
+         * @param w the number of bits per value.
+         */
+        BitPacked(long [] values, long b, int w) {
+            super(values.length);
+            base = b;
+            width = w;
+            mask = w == 64 ? -1L : (1L << w) - 1;
+            words = new long [words(values.length, w)];
+            for (int i = 0; i < count; i++) {
+                long p = values[i] - base;
+                long bit = (long) i * width;
+                int word = (int) (bit >>> 6);
+                int offset = (int) (bit & 63);
+                words[word] |= p << offset;
+                if (offset + width > 64) {
+                    words[word + 1] |= p >>> (64 - offset);
+                }
+            }
+        }
+
+        /**
+         * Internal method to compute the number of words for packed values.
+         *
+         * @param n the number of values.
+         * @param w the number of bits per value.
+         * @return the number of words.
+         */
+        private static int words(int n, int w) {
+            return (int) (((long) n * w + 63) >>> 6);
+        }
+
+        /**
+         * Returns the space packed values take.
+         *
+         * @param n the number of values.
+         * @param w the number of bits per value.
+         * @return the size in bytes.
+         */
+        static long bytes(int n, int w) { return 8L * words(n, w) + 16; }
+
+        /**
+         * Internal method to retrieve a packed value.
+         *
+         * @param i the index of the value.
+         * @return the value less the base.
+         */
+        long packed(int i) {
+            if (width == 0) return 0;
+            long bit = (long) i * width;
+            int word = (int) (bit >>> 6);
+            int offset = (int) (bit & 63);
+            long p = words[word] >>> offset;
+            if (offset + width > 64) p |= words[word + 1] << (64 - offset);
+            return p & mask;
+        }
+
+        @Override
+        long get(int i) { return base + packed(i); }
+
+        @Override
+        void decode(int from, int n, long [] dst) {
+            for (int k = 0; k < n; k++) dst[k] = base + packed(from + k);
+        }
+
+        @Override
+        int select(int from, int to, long low, long high, int [] out) {
+            int n = 0;
+            for (int i = from; i < to; i++) {
+                long v = base + packed(i);
+                if (v >= low && v <= high) out[n++] = i;
+            }
+            return n;
+        }
+
+        /**
+         * Selects the values whose packed form lies within a range; used by
+         * dictionaries, whose codes are packed with a zero base.
+         *
+         * @param from the index of the first value (inclusive).
+         * @param to the index of the last value (exclusive).
+         * @param low the lowest packed value (inclusive).
+         * @param high the highest packed value (inclusive).
+         * @param out the array to write the indexes of the selected values
+         * to.
+         * @return the number of values selected.
+         */
+        int selectPacked(int from, int to, long low, long high, int [] out) {
+            int n = 0;
+            for (int i = from; i < to; i++) {
+                long p = packed(i);
+                if (p >= low && p <= high) out[n++] = i;
+            }
+            return n;
+        }
+
+        @Override
+        long bytes() { return 8L * words.length + 16; }
+
+        @Override
+        public String toString() {
+            return "FOR(base=" + base + ", width=" + width + ")";
+        }
+    }
+
+    /**
+     * Dictionary encoding: the sorted distinct values, and the packed
+     * position of each value in them.
+     */
+    static final class Dictionary extends EncodedColumn {
+        // the distinct values, sorted
+        private final long [] dictionary;
+        // the position of each value in the dictionary
+        private final BitPacked codes;
+
+        /**
+         * Encodes the given values.
+         *
+         * @param values the values.
+         * @param d the distinct values, sorted.
+         */
+        Dictionary(long [] values, long [] d) {
+            super(values.length);
+            dictionary = d;
+            long [] positions = new long [count];
+            for (int i = 0; i < count; i++) {
+                positions[i] = Arrays.binarySearch(d, values[i]);
+            }
+            codes = new BitPacked(positions, 0, width(d.length - 1));
+        }
+
+        @Override
+        long get(int i) { return dictionary[(int) codes.packed(i)]; }
+
+        @Override
+        void decode(int from, int n, long [] dst) {
+            for (int k = 0; k < n; k++) {
+                dst[k] = dictionary[(int) codes.packed(from + k)];
+            }
+        }
+
+        @Override
+        int select(int from, int to, long low, long high, int [] out) {
+            // the values in range are a contiguous range of codes
+            int first = Arrays.binarySearch(dictionary, low);
+            if (first < 0) first = -first - 1;
+            int last = Arrays.binarySearch(dictionary, high);
+            if (last < 0) last = -last - 2;
+            if (low > high || first > last) return 0;
+            return codes.selectPacked(from, to, first, last, out);
+        }
+
+        @Override
+        long bytes() { return 8L * dictionary.length + codes.bytes(); }
+
+        @Override
+        public String toString() {
+            return "DICT(entries=" + dictionary.length + ")";
+        }
+    }
+
+    /**
+     * Run-length encoding: each run of equal values as the value and the
+     * index where the run ends.
+     */
+    static final class RunLength extends EncodedColumn {
+        // the value of each run
+        private final long [] values;
+        // the index following the last value of each run
+        private final int [] ends;
+
+        /**
+         * Encodes the given values.
+         *
+         * @param v the values.
+         * @param runs the number of runs in the values.
+         */
+        RunLength(long [] v, int runs) {
+            super(v.length);
+            values = new long [runs];
+            ends = new int [runs];
+            int r = 0;
+            for (int i = 1; i <= count; i++) {
+                if (i == count || v[i] != v[i - 1]) {
+                    values[r] = v[i - 1];
+                    ends[r] = i;
+                    r++;
+                }
+            }
+        }
+
+        /**
+         * Internal method to find the run holding a value.
+         *
+         * @param i the index of the value.
+         * @return the position of the run.
+         */
+        private int run(int i) {
+            int r = Arrays.binarySearch(ends, i);
+            return r < 0 ? -r - 1 : r + 1;
+        }
+
+        @Override
+        long get(int i) { return values[run(i)]; }
+
+        @Override
+        void decode(int from, int n, long [] dst) {
+            if (n == 0) return;
+            int r = run(from);
+            for (int k = 0; k < n; k++) {
+                if (from + k == ends[r]) r++;
+                dst[k] = values[r];
+            }
+        }
+
+        @Override
+        int select(int from, int to, long low, long high, int [] out) {
+            int n = 0;
+            if (from >= to) return n;
+            for (int r = run(from), i = from; i < to; r++) {
+                int end = Math.min(ends[r], to);
+                if (values[r] >= low && values[r] <= high) {
+                    while (i < end) out[n++] = i++;
+                }
+                i = end;
+            }
+            return n;
+        }
+
+        @Override
+        long bytes() { return 12L * values.length; }
+
+        @Override
+        public String toString() { return "RLE(runs=" + values.length + ")"; }
+    }
+}
@@ -0,0 +1,1198 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes a single primitive-typed field of a record. There is one
+ * subclass per primitive type, so the type dispatch happens once, when the
+ * codec is built, and not for every access. Fields are accessed through
+ * method handles adapted to the primitive type, so values are never boxed.
+ * A codec built without a field moves whole (boxed) values instead; this is
+ * used for datasets whose records are themselves of a primitive type.
+ */
+abstract class FieldCodec {
+    // the name of the field
+    private final String name;
+    // the primitive type of the field
+    private final Class<?> type;
+    // the size of the field in bytes
+    private final int size;
+    // the getter of the field, adapted to (Object) -> primitive
+    protected final MethodHandle getter;
+    // the setter of the field, adapted to (Object, primitive) -> void
+    protected final MethodHandle setter;
+    // the getter of a boxed field, adapted to (Object) -> Object; null for
+    // primitive fields and whole values
+    private final MethodHandle boxedGetter;
+
+    /**
+     * Constructs a new field codec.
+     *
+     * @param n the name of the field.
+     * @param t the primitive type of the field.
+     * @param s the size of the field in bytes.
+     * @param f the field, or null for a codec of whole values.
+     * @throws BadTypeException if the field cannot be accessed.
+     */
+    protected FieldCodec(String n, Class<?> t, int s, Field f)
+            throws BadTypeException {
+        name = n;
+        type = t;
+        size = s;
+        if (f != null) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                getter = lookup.unreflectGetter(f).asType(
+                        MethodType.methodType(t, Object.class));
+                setter = lookup.unreflectSetter(f).asType(
+                        MethodType.methodType(void.class, Object.class, t));
+                boxedGetter = f.getType().isPrimitive() ? null
+                        : lookup.unreflectGetter(f).asType(
+                                MethodType.methodType(Object.class,
+                                        Object.class));
+            }
+            catch (IllegalAccessException e) {
+                throw new BadTypeException("Could not access field: "
+                        + f.getName() + ": " + e.getMessage(), e);
+            }
+        }
+        else {
+            getter = null;
+            setter = null;
+            boxedGetter = null;
+        }
+    }
+
+    /**
+     * Builds a codec for the given field.
+     *
+     * @param f the field; it must be accessible.
+     * @return a codec for the field.
+     * @throws BadTypeException if the field is not of a supported type.
+     */
+    static FieldCodec forField(Field f) throws BadTypeException {
+        return make(f.getName(), f.getType(), f);
+    }
+
+    /**
+     * Builds a codec for whole values of the given type.
+     *
+     * @param n the name to give to the values.
+     * @param c the type of the values.
+     * @return a codec for values of the given type.
+     * @throws BadTypeException if the type is not supported.
+     */
+    static FieldCodec forValue(String n, Class<?> c) throws BadTypeException {
+        return make(n, c, null);
+    }
+
+    /**
+     * Internal factory method, dispatches on the type of the field.
+     *
+     * @param n the name of the field.
+     * @param c the type of the field.
+     * @param f the field, or null for a codec of whole values.
+     * @return the codec.
+     * @throws BadTypeException if the type is not supported.
+     */
+    private static FieldCodec make(String n, Class<?> c, Field f)
+            throws BadTypeException {
+        if (c.equals(Byte.class) || c.equals(byte.class))
+            return new ByteCodec(n, f);
+        else if (c.equals(Short.class) || c.equals(short.class))
+            return new ShortCodec(n, f);
+        else if (c.equals(Character.class) || c.equals(char.class))
+            return new CharCodec(n, f);
+        else if (c.equals(Integer.class) || c.equals(int.class))
+            return new IntCodec(n, f);
+        else if (c.equals(Long.class) || c.equals(long.class))
+            return new LongCodec(n, f);
+        else if (c.equals(Float.class) || c.equals(float.class))
+            return new FloatCodec(n, f);
+        else if (c.equals(Double.class) || c.equals(double.class))
+            return new DoubleCodec(n, f);
+        throw new BadTypeException("Type: " + c + " is not supported for "
+                + "datasets");
+    }
+
+    /**
+     * Returns the name of the field.
+     *
+     * @return the name of the field.
+     */
+    String getName() { return name; }
+
+    /**
+     * Returns the primitive type of the field.
+     *
+     * @return the primitive type of the field.
+     */
+    Class<?> getType() { return type; }
+
+    /**
+     * Returns the size of the field in bytes.
+     *
+     * @return the size of the field in bytes.
+     */
+    int size() { return size; }
+
+    /**
+     * Returns whether the field of a record has no value, i.e., whether the
+     * record is null or its field is boxed and null; such values cannot be
+     * read as primitives.
+     *
+     * @param r the record.
+     * @return true if the value is null, false otherwise.
+     */
+    boolean isNull(Object r) {
+        if (r == null) return true;
+        if (boxedGetter == null) return false;
+        try { return boxedGetter.invokeExact(r) == null; }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Internal method to wrap a failed field access.
+     *
+     * @param t the originating throwable.
+     * @return the exception to throw.
+     */
+    protected BadAccessException fail(Throwable t) {
+        return new BadAccessException("Could not access field: " + name
+                + ": " + t.getMessage(), t);
+    }
+
+    /**
+     * Writes the field of the given record at an absolute offset of a buffer.
+     *
+     * @param r the record.
+     * @param b the buffer.
+     * @param o the offset in the buffer.
+     */
+    abstract void write(Object r, ByteBuffer b, int o);
+
+    /**
+     * Reads the field from an absolute offset of a buffer into a record.
+     *
+     * @param b the buffer.
+     * @param o the offset in the buffer.
+     * @param r the record to set the field of.
+     */
+    abstract void read(ByteBuffer b, int o, Object r);
+
+    /**
+     * Writes the field of the given record at an offset of a block of native
+     * memory.
+     *
+     * @param r the record.
+     * @param m the block.
+     * @param o the offset in the block.
+     */
+    abstract void write(Object r, NativeMemory m, long o);
+
+    /**
+     * Reads the field from an offset of a block of native memory into a
+     * record.
+     *
+     * @param m the block.
+     * @param o the offset in the block.
+     * @param r the record to set the field of.
+     */
+    abstract void read(NativeMemory m, long o, Object r);
+
+    /**
+     * Allocates a column for values of this field.
+     *
+     * @param n the number of values.
+     * @return a primitive array of the given length.
+     */
+    abstract Object makeColumn(int n);
+
+    /**
+     * Stores the field of the given record in a column.
+     *
+     * @param r the record.
+     * @param c the column.
+     * @param i the index in the column.
+     */
+    abstract void store(Object r, Object c, int i);
+
+    /**
+     * Loads the field from a column into a record.
+     *
+     * @param c the column.
+     * @param i the index in the column.
+     * @param r the record to set the field of.
+     */
+    abstract void load(Object c, int i, Object r);
+
+    /**
+     * Writes a whole value at an absolute offset of a buffer.
+     *
+     * @param v the value.
+     * @param b the buffer.
+     * @param o the offset in the buffer.
+     */
+    abstract void writeValue(Object v, ByteBuffer b, int o);
+
+    /**
+     * Reads a whole value from an absolute offset of a buffer.
+     *
+     * @param b the buffer.
+     * @param o the offset in the buffer.
+     * @return the value.
+     */
+    abstract Object readValue(ByteBuffer b, int o);
+
+    /**
+     * Writes a whole value at an offset of a block of native memory.
+     *
+     * @param v the value.
+     * @param m the block.
+     * @param o the offset in the block.
+     */
+    abstract void writeValue(Object v, NativeMemory m, long o);
+
+    /**
+     * Reads a whole value from an offset of a block of native memory.
+     *
+     * @param m the block.
+     * @param o the offset in the block.
+     * @return the value.
+     */
+    abstract Object readValue(NativeMemory m, long o);
+
+    /**
+     * Stores a whole value in a column.
+     *
+     * @param v the value.
+     * @param c the column.
+     * @param i the index in the column.
+     */
+    abstract void storeValue(Object v, Object c, int i);
+
+    /**
+     * Loads a whole value from a column.
+     *
+     * @param c the column.
+     * @param i the index in the column.
+     * @return the value.
+     */
+    abstract Object loadValue(Object c, int i);
+
+    /**
+     * Copies the first values of a column into a buffer, starting at the
+     * buffer's position; the position is not modified.
+     *
+     * @param c the column.
+     * @param n the number of values to copy.
+     * @param b the buffer; it must have room for n values.
+     */
+    abstract void copyOut(Object c, int n, ByteBuffer b);
+
+    /**
+     * Copies values from a buffer into the beginning of a column, starting at
+     * the buffer's position; the position is not modified.
+     *
+     * @param b the buffer.
+     * @param c the column.
+     * @param n the number of values to copy.
+     */
+    abstract void copyIn(ByteBuffer b, Object c, int n);
+
+    /**
+     * Returns whether values of this field widen to int.
+     *
+     * @return true for byte, short, char and int fields, false otherwise.
+     */
+    boolean widensToInt() {
+        return type == byte.class || type == short.class
+                || type == char.class || type == int.class;
+    }
+
+    /**
+     * Returns whether values of this field widen to long.
+     *
+     * @return true for integral fields, false otherwise.
+     */
+    boolean widensToLong() { return widensToInt() || type == long.class; }
+
+    /**
+     * Loads a value from a column, widened to int.
+     *
+     * @param c the column.
+     * @param i the index in the column.
+     * @return the value.
+     * @throws BadTypeException if the values do not widen to int.
+     */
+    int loadInt(Object c, int i) throws BadTypeException {
+        throw new BadTypeException("Field " + name + " of type " + type
+                + " does not widen to int");
+    }
+
+    /**
+     * Loads a value from a column, widened to long.
+     *
+     * @param c the column.
+     * @param i the index in the column.
+     * @return the value.
+     * @throws BadTypeException if the values do not widen to long.
+     */
+    long loadLong(Object c, int i) throws BadTypeException {
+        throw new BadTypeException("Field " + name + " of type " + type
+                + " does not widen to long");
+    }
+
+    /**
+     * Loads a value from a column, converted to double.
+     *
+     * @param c the column.
+     * @param i the index in the column.
+     * @return the value.
+     */
+    abstract double loadDouble(Object c, int i);
+
+    /**
+     * Reads the field of a record, widened to long; for a codec of whole
+     * values the record is the value itself.
+     *
+     * @param r the record.
+     * @return the value of the field.
+     * @throws BadTypeException if the values do not widen to long.
+     */
+    long getLong(Object r) throws BadTypeException {
+        throw new BadTypeException("Field " + name + " of type " + type
+                + " does not widen to long");
+    }
+
+    /**
+     * Reads the field of a record, converted to double; for a codec of whole
+     * values the record is the value itself.
+     *
+     * @param r the record.
+     * @return the value of the field.
+     */
+    double getDouble(Object r) { return getLong(r); }
+
+    /**
+     * Reads a value from an absolute offset of a buffer, widened to long.
+     *
+     * @param b the buffer.
+     * @param o the offset in the buffer.
+     * @return the value.
+     * @throws BadTypeException if the values do not widen to long.
+     */
+    long readLong(ByteBuffer b, int o) throws BadTypeException {
+        throw new BadTypeException("Field " + name + " of type " + type
+                + " does not widen to long");
+    }
+
+    /**
+     * Reads a value from an absolute offset of a buffer, converted to double.
+     *
+     * @param b the buffer.
+     * @param o the offset in the buffer.
+     * @return the value.
+     */
+    double readDouble(ByteBuffer b, int o) { return readLong(b, o); }
+
+    /**
+     * Sets the field of a record to a value given as a long; the value must
+     * fit the field.
+     *
+     * @param r the record.
+     * @param v the value.
+     * @throws BadTypeException if the values do not widen to long.
+     */
+    void setLong(Object r, long v) throws BadTypeException {
+        throw new BadTypeException("Field " + name + " of type " + type
+                + " does not widen to long");
+    }
+
+    /**
+     * Boxes a value given as a long into a whole value; the value must fit
+     * the type.
+     *
+     * @param v the value.
+     * @return the boxed value.
+     * @throws BadTypeException if the values do not widen to long.
+     */
+    Object boxLong(long v) throws BadTypeException {
+        throw new BadTypeException("Field " + name + " of type " + type
+                + " does not widen to long");
+    }
+
+    /**
+     * Stores a value given as a long in a column; the value must fit the
+     * type.
+     *
+     * @param c the column.
+     * @param i the index in the column.
+     * @param v the value.
+     * @throws BadTypeException if the values do not widen to long.
+     */
+    void storeLong(Object c, int i, long v) throws BadTypeException {
+        throw new BadTypeException("Field " + name + " of type " + type
+                + " does not widen to long");
+    }
+
+    /**
+     * Codec for byte fields.
+     */
+    static final class ByteCodec extends FieldCodec {
+        ByteCodec(String n, Field f) { super(n, byte.class, 1, f); }
+
+        @Override
+        void write(Object r, ByteBuffer b, int o) {
+            try { b.put(o, (byte) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(ByteBuffer b, int o, Object r) {
+            try { setter.invokeExact(r, b.get(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object makeColumn(int n) { return new byte [n]; }
+
+        @Override
+        void store(Object r, Object c, int i) {
+            try { ((byte []) c)[i] = (byte) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void load(Object c, int i, Object r) {
+            try { setter.invokeExact(r, ((byte []) c)[i]); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, ByteBuffer b, int o) {
+            b.put(o, (Byte) v);
+        }
+
+        @Override
+        Object readValue(ByteBuffer b, int o) { return b.get(o); }
+
+        @Override
+        void write(Object r, NativeMemory m, long o) {
+            try { m.putByte(o, (byte) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(NativeMemory m, long o, Object r) {
+            try { setter.invokeExact(r, m.getByte(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, NativeMemory m, long o) {
+            m.putByte(o, (Byte) v);
+        }
+
+        @Override
+        Object readValue(NativeMemory m, long o) { return m.getByte(o); }
+
+        @Override
+        void storeValue(Object v, Object c, int i) {
+            ((byte []) c)[i] = (Byte) v;
+        }
+
+        @Override
+        Object loadValue(Object c, int i) { return ((byte []) c)[i]; }
+
+        @Override
+        void copyOut(Object c, int n, ByteBuffer b) {
+            b.duplicate().put((byte []) c, 0, n);
+        }
+
+        @Override
+        void copyIn(ByteBuffer b, Object c, int n) {
+            b.duplicate().get((byte []) c, 0, n);
+        }
+
+        @Override
+        int loadInt(Object c, int i) { return ((byte []) c)[i]; }
+
+        @Override
+        long loadLong(Object c, int i) { return ((byte []) c)[i]; }
+
+        @Override
+        double loadDouble(Object c, int i) { return ((byte []) c)[i]; }
+
+        @Override
+        long getLong(Object r) {
+            if (getter == null) return (Byte) r;
+            try { return (byte) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void setLong(Object r, long v) {
+            try { setter.invokeExact(r, (byte) v); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object boxLong(long v) { return (byte) v; }
+
+        @Override
+        void storeLong(Object c, int i, long v) {
+            ((byte []) c)[i] = (byte) v;
+        }
+
+        @Override
+        long readLong(ByteBuffer b, int o) { return b.get(o); }
+    }
+
+    /**
+     * Codec for short fields.
+     */
+    static final class ShortCodec extends FieldCodec {
+        ShortCodec(String n, Field f) { super(n, short.class, 2, f); }
+
+        @Override
+        void write(Object r, ByteBuffer b, int o) {
+            try { b.putShort(o, (short) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(ByteBuffer b, int o, Object r) {
+            try { setter.invokeExact(r, b.getShort(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object makeColumn(int n) { return new short [n]; }
+
+        @Override
+        void store(Object r, Object c, int i) {
+            try { ((short []) c)[i] = (short) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void load(Object c, int i, Object r) {
+            try { setter.invokeExact(r, ((short []) c)[i]); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, ByteBuffer b, int o) {
+            b.putShort(o, (Short) v);
+        }
+
+        @Override
+        Object readValue(ByteBuffer b, int o) { return b.getShort(o); }
+
+        @Override
+        void write(Object r, NativeMemory m, long o) {
+            try { m.putShort(o, (short) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(NativeMemory m, long o, Object r) {
+            try { setter.invokeExact(r, m.getShort(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, NativeMemory m, long o) {
+            m.putShort(o, (Short) v);
+        }
+
+        @Override
+        Object readValue(NativeMemory m, long o) { return m.getShort(o); }
+
+        @Override
+        void storeValue(Object v, Object c, int i) {
+            ((short []) c)[i] = (Short) v;
+        }
+
+        @Override
+        Object loadValue(Object c, int i) { return ((short []) c)[i]; }
+
+        @Override
+        void copyOut(Object c, int n, ByteBuffer b) {
+            b.asShortBuffer().put((short []) c, 0, n);
+        }
+
+        @Override
+        void copyIn(ByteBuffer b, Object c, int n) {
+            b.asShortBuffer().get((short []) c, 0, n);
+        }
+
+        @Override
+        int loadInt(Object c, int i) { return ((short []) c)[i]; }
+
+        @Override
+        long loadLong(Object c, int i) { return ((short []) c)[i]; }
+
+        @Override
+        double loadDouble(Object c, int i) { return ((short []) c)[i]; }
+
+        @Override
+        long getLong(Object r) {
+            if (getter == null) return (Short) r;
+            try { return (short) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void setLong(Object r, long v) {
+            try { setter.invokeExact(r, (short) v); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object boxLong(long v) { return (short) v; }
+
+        @Override
+        void storeLong(Object c, int i, long v) {
+            ((short []) c)[i] = (short) v;
+        }
+
+        @Override
+        long readLong(ByteBuffer b, int o) { return b.getShort(o); }
+    }
+
+    /**
+     * Codec for char fields.
+     */
+    static final class CharCodec extends FieldCodec {
+        CharCodec(String n, Field f) { super(n, char.class, 2, f); }
+
+        @Override
+        void write(Object r, ByteBuffer b, int o) {
+            try { b.putChar(o, (char) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(ByteBuffer b, int o, Object r) {
+            try { setter.invokeExact(r, b.getChar(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object makeColumn(int n) { return new char [n]; }
+
+        @Override
+        void store(Object r, Object c, int i) {
+            try { ((char []) c)[i] = (char) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void load(Object c, int i, Object r) {
+            try { setter.invokeExact(r, ((char []) c)[i]); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, ByteBuffer b, int o) {
+            b.putChar(o, (Character) v);
+        }
+
+        @Override
+        Object readValue(ByteBuffer b, int o) { return b.getChar(o); }
+
+        @Override
+        void write(Object r, NativeMemory m, long o) {
+            try { m.putChar(o, (char) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(NativeMemory m, long o, Object r) {
+            try { setter.invokeExact(r, m.getChar(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, NativeMemory m, long o) {
+            m.putChar(o, (Character) v);
+        }
+
+        @Override
+        Object readValue(NativeMemory m, long o) { return m.getChar(o); }
+
+        @Override
+        void storeValue(Object v, Object c, int i) {
+            ((char []) c)[i] = (Character) v;
+        }
+
+        @Override
+        Object loadValue(Object c, int i) { return ((char []) c)[i]; }
+
+        @Override
+        void copyOut(Object c, int n, ByteBuffer b) {
+            b.asCharBuffer().put((char []) c, 0, n);
+        }
+
+        @Override
+        void copyIn(ByteBuffer b, Object c, int n) {
+            b.asCharBuffer().get((char []) c, 0, n);
+        }
+
+        @Override
+        int loadInt(Object c, int i) { return ((char []) c)[i]; }
+
+        @Override
+        long loadLong(Object c, int i) { return ((char []) c)[i]; }
+
+        @Override
+        double loadDouble(Object c, int i) { return ((char []) c)[i]; }
+
+        @Override
+        long getLong(Object r) {
+            if (getter == null) return (Character) r;
+            try { return (char) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void setLong(Object r, long v) {
+            try { setter.invokeExact(r, (char) v); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object boxLong(long v) { return (char) v; }
+
+        @Override
+        void storeLong(Object c, int i, long v) {
+            ((char []) c)[i] = (char) v;
+        }
+
+        @Override
+        long readLong(ByteBuffer b, int o) { return b.getChar(o); }
+    }
+
+    /**
+     * Codec for int fields.
+     */
+    static final class IntCodec extends FieldCodec {
+        IntCodec(String n, Field f) { super(n, int.class, 4, f); }
+
+        @Override
+        void write(Object r, ByteBuffer b, int o) {
+            try { b.putInt(o, (int) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(ByteBuffer b, int o, Object r) {
+            try { setter.invokeExact(r, b.getInt(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object makeColumn(int n) { return new int [n]; }
+
+        @Override
+        void store(Object r, Object c, int i) {
+            try { ((int []) c)[i] = (int) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void load(Object c, int i, Object r) {
+            try { setter.invokeExact(r, ((int []) c)[i]); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, ByteBuffer b, int o) {
+            b.putInt(o, (Integer) v);
+        }
+
+        @Override
+        Object readValue(ByteBuffer b, int o) { return b.getInt(o); }
+
+        @Override
+        void write(Object r, NativeMemory m, long o) {
+            try { m.putInt(o, (int) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(NativeMemory m, long o, Object r) {
+            try { setter.invokeExact(r, m.getInt(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, NativeMemory m, long o) {
+            m.putInt(o, (Integer) v);
+        }
+
+        @Override
+        Object readValue(NativeMemory m, long o) { return m.getInt(o); }
+
+        @Override
+        void storeValue(Object v, Object c, int i) {
+            ((int []) c)[i] = (Integer) v;
+        }
+
+        @Override
+        Object loadValue(Object c, int i) { return ((int []) c)[i]; }
+
+        @Override
+        void copyOut(Object c, int n, ByteBuffer b) {
+            b.asIntBuffer().put((int []) c, 0, n);
+        }
+
+        @Override
+        void copyIn(ByteBuffer b, Object c, int n) {
+            b.asIntBuffer().get((int []) c, 0, n);
+        }
+
+        @Override
+        int loadInt(Object c, int i) { return ((int []) c)[i]; }
+
+        @Override
+        long loadLong(Object c, int i) { return ((int []) c)[i]; }
+
+        @Override
+        double loadDouble(Object c, int i) { return ((int []) c)[i]; }
+
+        @Override
+        long getLong(Object r) {
+            if (getter == null) return (Integer) r;
+            try { return (int) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void setLong(Object r, long v) {
+            try { setter.invokeExact(r, (int) v); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object boxLong(long v) { return (int) v; }
+
+        @Override
+        void storeLong(Object c, int i, long v) {
+            ((int []) c)[i] = (int) v;
+        }
+
+        @Override
+        long readLong(ByteBuffer b, int o) { return b.getInt(o); }
+    }
+
+    /**
+     * Codec for long fields.
+     */
+    static final class LongCodec extends FieldCodec {
+        LongCodec(String n, Field f) { super(n, long.class, 8, f); }
+
+        @Override
+        void write(Object r, ByteBuffer b, int o) {
+            try { b.putLong(o, (long) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(ByteBuffer b, int o, Object r) {
+            try { setter.invokeExact(r, b.getLong(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object makeColumn(int n) { return new long [n]; }
+
+        @Override
+        void store(Object r, Object c, int i) {
+            try { ((long []) c)[i] = (long) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void load(Object c, int i, Object r) {
+            try { setter.invokeExact(r, ((long []) c)[i]); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, ByteBuffer b, int o) {
+            b.putLong(o, (Long) v);
+        }
+
+        @Override
+        Object readValue(ByteBuffer b, int o) { return b.getLong(o); }
+
+        @Override
+        void write(Object r, NativeMemory m, long o) {
+            try { m.putLong(o, (long) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(NativeMemory m, long o, Object r) {
+            try { setter.invokeExact(r, m.getLong(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, NativeMemory m, long o) {
+            m.putLong(o, (Long) v);
+        }
+
+        @Override
+        Object readValue(NativeMemory m, long o) { return m.getLong(o); }
+
+        @Override
+        void storeValue(Object v, Object c, int i) {
+            ((long []) c)[i] = (Long) v;
+        }
+
+        @Override
+        Object loadValue(Object c, int i) { return ((long []) c)[i]; }
+
+        @Override
+        void copyOut(Object c, int n, ByteBuffer b) {
+            b.asLongBuffer().put((long []) c, 0, n);
+        }
+
+        @Override
+        void copyIn(ByteBuffer b, Object c, int n) {
+            b.asLongBuffer().get((long []) c, 0, n);
+        }
+
+        @Override
+        long loadLong(Object c, int i) { return ((long []) c)[i]; }
+
+        @Override
+        double loadDouble(Object c, int i) { return ((long []) c)[i]; }
+
+        @Override
+        long getLong(Object r) {
+            if (getter == null) return (Long) r;
+            try { return (long) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void setLong(Object r, long v) {
+            try { setter.invokeExact(r, v); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object boxLong(long v) { return v; }
+
+        @Override
+        void storeLong(Object c, int i, long v) {
+            ((long []) c)[i] = v;
+        }
+
+        @Override
+        long readLong(ByteBuffer b, int o) { return b.getLong(o); }
+    }
+
+    /**
+     * Codec for float fields.
+     */
+    static final class FloatCodec extends FieldCodec {
+        FloatCodec(String n, Field f) { super(n, float.class, 4, f); }
+
+        @Override
+        void write(Object r, ByteBuffer b, int o) {
+            try { b.putFloat(o, (float) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(ByteBuffer b, int o, Object r) {
+            try { setter.invokeExact(r, b.getFloat(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object makeColumn(int n) { return new float [n]; }
+
+        @Override
+        void store(Object r, Object c, int i) {
+            try { ((float []) c)[i] = (float) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void load(Object c, int i, Object r) {
+            try { setter.invokeExact(r, ((float []) c)[i]); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, ByteBuffer b, int o) {
+            b.putFloat(o, (Float) v);
+        }
+
+        @Override
+        Object readValue(ByteBuffer b, int o) { return b.getFloat(o); }
+
+        @Override
+        void write(Object r, NativeMemory m, long o) {
+            try { m.putFloat(o, (float) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(NativeMemory m, long o, Object r) {
+            try { setter.invokeExact(r, m.getFloat(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, NativeMemory m, long o) {
+            m.putFloat(o, (Float) v);
+        }
+
+        @Override
+        Object readValue(NativeMemory m, long o) { return m.getFloat(o); }
+
+        @Override
+        void storeValue(Object v, Object c, int i) {
+            ((float []) c)[i] = (Float) v;
+        }
+
+        @Override
+        Object loadValue(Object c, int i) { return ((float []) c)[i]; }
+
+        @Override
+        void copyOut(Object c, int n, ByteBuffer b) {
+            b.asFloatBuffer().put((float []) c, 0, n);
+        }
+
+        @Override
+        void copyIn(ByteBuffer b, Object c, int n) {
+            b.asFloatBuffer().get((float []) c, 0, n);
+        }
+
+        @Override
+        double loadDouble(Object c, int i) { return ((float []) c)[i]; }
+
+        @Override
+        double getDouble(Object r) {
+            if (getter == null) return (Float) r;
+            try { return (float) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        double readDouble(ByteBuffer b, int o) { return b.getFloat(o); }
+    }
+
+    /**
+     * Codec for double fields.
+     */
+    static final class DoubleCodec extends FieldCodec {
+        DoubleCodec(String n, Field f) { super(n, double.class, 8, f); }
+
+        @Override
+        void write(Object r, ByteBuffer b, int o) {
+            try { b.putDouble(o, (double) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(ByteBuffer b, int o, Object r) {
+            try { setter.invokeExact(r, b.getDouble(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        Object makeColumn(int n) { return new double [n]; }
+
+        @Override
+        void store(Object r, Object c, int i) {
+            try { ((double []) c)[i] = (double) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void load(Object c, int i, Object r) {
+            try { setter.invokeExact(r, ((double []) c)[i]); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, ByteBuffer b, int o) {
+            b.putDouble(o, (Double) v);
+        }
+
+        @Override
+        Object readValue(ByteBuffer b, int o) { return b.getDouble(o); }
+
+        @Override
+        void write(Object r, NativeMemory m, long o) {
+            try { m.putDouble(o, (double) getter.invokeExact(r)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void read(NativeMemory m, long o, Object r) {
+            try { setter.invokeExact(r, m.getDouble(o)); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        void writeValue(Object v, NativeMemory m, long o) {
+            m.putDouble(o, (Double) v);
+        }
+
+        @Override
+        Object readValue(NativeMemory m, long o) { return m.getDouble(o); }
+
+        @Override
+        void storeValue(Object v, Object c, int i) {
+            ((double []) c)[i] = (Double) v;
+        }
+
+        @Override
+        Object loadValue(Object c, int i) { return ((double []) c)[i]; }
+
+        @Override
+        void copyOut(Object c, int n, ByteBuffer b) {
+            b.asDoubleBuffer().put((double []) c, 0, n);
+        }
+
+        @Override
+        void copyIn(ByteBuffer b, Object c, int n) {
+            b.asDoubleBuffer().get((double []) c, 0, n);
+        }
+
+        @Override
+        double loadDouble(Object c, int i) { return ((double []) c)[i]; }
+
+        @Override
+        double getDouble(Object r) {
+            if (getter == null) return (Double) r;
+            try { return (double) getter.invokeExact(r); }
+            catch (Throwable t) { throw fail(t); }
+        }
+
+        @Override
+        double readDouble(ByteBuffer b, int o) { return b.getDouble(o); }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A predicate that bounds a single field of a record type: a record matches
+ * if the field's value lies within [low, high]. Bounds are kept in the
+ * field's own domain -- as longs for integral fields and as doubles for
+ * floating-point fields -- so that testing a record and testing a
+ * container's statistics always agree.
+ */
+public final class FieldRange {
+    // the name of the field
+    private final String name;
+    // the position of the field in the record
+    private final int field;
+    // the codec of the field
+    private final FieldCodec codec;
+    // the lower bound of an integral field
+    private final long longLow;
+    // the upper bound of an integral field
+    private final long longHigh;
+    // the lower bound of a floating-point field
+    private final double doubleLow;
+    // the upper bound of a floating-point field
+    private final double doubleHigh;
+
+    /**
+     * Internal constructor.
+     *
+     * @param c the codec of the record type.
+     * @param n the name of the field.
+     * @param ll the lower bound if the field is integral.
+     * @param lh the upper bound if the field is integral.
+     * @param dl the lower bound if the field is floating-point.
+     * @param dh the upper bound if the field is floating-point.
+     * @throws BadAccessException if there is no such field.
+     */
+    private FieldRange(RecordCodec<?> c, String n, long ll, long lh,
+                       double dl, double dh) throws BadAccessException {
+        name = n;
+        field = c.indexOf(n);
+        if (field < 0) throw new BadAccessException("No field " + n);
+        codec = c.getFields()[field];
+        longLow = ll;
+        longHigh = lh;
+        doubleLow = dl;
+        doubleHigh = dh;
+    }
+
+    /**
+     * Builds a range over a field of the given record type with integral
+     * bounds; the bounds are converted to doubles if the field is
+     * floating-point.
+     *
+     * @param c the record type.
+     * @param n the name of the field; records of a primitive type have a
+     * single field named COLUMN.
+     * @param low the lower bound (inclusive).
+     * @param high the upper bound (inclusive).
+     * @return the range.
+     * @throws BadTypeException if the record type is not supported.
+     * @throws BadAccessException if there is no such field.
+     */
+    public static FieldRange between(Class<?> c, String n, long low,
+                                     long high)
+            throws BadTypeException, BadAccessException {
+        return new FieldRange(RecordCodec.forType(c), n, low, high, low,
+                high);
+    }
+
+    /**
+     * Builds a range over a field of the given record type with
+     * floating-point bounds; the bounds are narrowed to the integers they
+     * enclose if the field is integral.
+     *
+     * @param c the record type.
+     * @param n the name of the field; records of a primitive type have a
+     * single field named COLUMN.
+     * @param low the lower bound (inclusive).
+     * @param high the upper bound (inclusive).
+     * @return the range.
+     * @throws BadTypeException if the record type is not supported.
+     * @throws BadAccessException if there is no such field.
+     */
+    public static FieldRange between(Class<?> c, String n, double low,
+                                     double high)
+            throws BadTypeException, BadAccessException {
+        // NaN bounds enclose nothing
+        long ll = Double.isNaN(low) ? Long.MAX_VALUE : (long) Math.ceil(low);
+        long lh = Double.isNaN(high) ? Long.MIN_VALUE
+                : (long) Math.floor(high);
+        return new FieldRange(RecordCodec.forType(c), n, ll, lh, low, high);
+    }
+
+    /**
+     * Returns the name of the field.
+     *
+     * @return the name of the field.
+     */
+    public String getName() { return name; }
+
+    /**
+     * Returns the position of the field in the record.
+     *
+     * @return the position of the field.
+     */
+    public int getField() { return field; }
+
+    /**
+     * Tests whether a record matches this range.
+     *
+     * @param r the record.
+     * @return true if the field of the record lies within the range, false
+     * otherwise, e.g., if the record or its field is null.
+     */
+    public boolean test(Object r) {
+        if (codec.isNull(r)) return false;
+        if (codec.widensToLong()) {
+            long v = codec.getLong(r);
+            return v >= longLow && v <= longHigh;
+        }
+        double v = codec.getDouble(r);
+        return v >= doubleLow && v <= doubleHigh;
+    }
+
+    /**
+     * Tests whether a container may hold a record that matches this range,
+     * given the container's statistics.
+     *
+     * @param z the statistics of the container.
+     * @return false if no record of the container matches this range, true
+     * otherwise.
+     */
+    public boolean overlaps(ZoneMap z) {
+        if (z.nonNullCount(field) == 0) return false;
+        return codec.widensToLong()
+                ? z.mayContain(field, longLow, longHigh)
+                : z.mayContain(field, doubleLow, doubleHigh);
+    }
+
+    /**
+     * Returns whether this range encloses no value, e.g., if its bounds are
+     * reversed or NaN.
+     *
+     * @return true if no value lies within the range, false otherwise.
+     */
+    boolean isEmpty() {
+        return codec.widensToLong() ? longLow > longHigh
+                : ! (doubleLow <= doubleHigh);
+    }
+
+    /**
+     * Returns the lower bound of this range as an index key (see
+     * {@link DatasetIndex}); the range must not be empty.
+     *
+     * @return the lowest key within the range.
+     */
+    long lowKey() {
+        return codec.widensToLong() ? longLow : DatasetIndex.key(doubleLow);
+    }
+
+    /**
+     * Returns the upper bound of this range as an index key (see
+     * {@link DatasetIndex}); the range must not be empty.
+     *
+     * @return the highest key within the range.
+     */
+    long highKey() {
+        return codec.widensToLong() ? longHigh
+                : DatasetIndex.key(doubleHigh);
+    }
+
+    /**
+     * Selects the values of a column within a range of indexes that lie
+     * within this range; encoded columns are tested without being decoded.
+     *
+     * @param column the column of the field, either a column array or an
+     * {@link EncodedColumn}.
+     * @param from the index of the first value (inclusive).
+     * @param to the index of the last value (exclusive).
+     * @param out the array to write the indexes of the selected values to,
+     * in order; it must have room for to - from indexes.
+     * @return the number of values selected.
+     */
+    int select(Object column, int from, int to, int [] out) {
+        if (column instanceof EncodedColumn) {
+            return ((EncodedColumn) column).select(from, to, longLow,
+                    longHigh, out);
+        }
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (test(column, i)) out[n++] = i;
+        }
+        return n;
+    }
+
+    /**
+     * Tests a value of the field stored at an absolute offset of a buffer
+     * against this range.
+     *
+     * @param b the buffer.
+     * @param o the offset of the value in the buffer.
+     * @return true if the value lies within the range, false otherwise.
+     */
+    boolean test(ByteBuffer b, int o) {
+        if (codec.widensToLong()) {
+            long v = codec.readLong(b, o);
+            return v >= longLow && v <= longHigh;
+        }
+        double v = codec.readDouble(b, o);
+        return v >= doubleLow && v <= doubleHigh;
+    }
+
+    /**
+     * Keeps the selected values of a column that lie within this range.
+     *
+     * @param column the column of the field, either a column array or an
+     * {@link EncodedColumn}.
+     * @param selected the indexes of the selected values, in order; those
+     * kept are moved to the front.
+     * @param n the number of selected values.
+     * @return the number of values kept.
+     */
+    int refine(Object column, int [] selected, int n) {
+        int kept = 0;
+        for (int k = 0; k < n; k++) {
+            if (test(column, selected[k])) selected[kept++] = selected[k];
+        }
+        return kept;
+    }
+
+    /**
+     * Internal method to test a value of a column against this range.
+     *
+     * @param column the column of the field, either a column array or an
+     * {@link EncodedColumn}.
+     * @param i the index of the value.
+     * @return true if the value lies within the range, false otherwise.
+     */
+    private boolean test(Object column, int i) {
+        if (column instanceof EncodedColumn) {
+            long v = ((EncodedColumn) column).get(i);
+            return v >= longLow && v <= longHigh;
+        }
+        if (codec.widensToLong()) {
+            long v = codec.loadLong(column, i);
+            return v >= longLow && v <= longHigh;
+        }
+        double v = codec.loadDouble(column, i);
+        return v >= doubleLow && v <= doubleHigh;
+    }
+
+    @Override
+    public String toString() {
+        return codec.widensToLong()
+                ? name + " in [" + longLow + ", " + longHigh + "]"
+                : name + " in [" + doubleLow + ", " + doubleHigh + "]";
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A hash index for point lookups. Distinct keys are kept in an
+ * open-addressing table with linear probing, at most half full; each slot
+ * heads a chain of the positions of the records holding its key, so that a
+ * lookup costs a probe or two whatever the size of the store. Keys and
+ * chains are held in primitive arrays, with no object per entry.
+ * <p>
+ * Besides points, the index serves ranges of integral fields narrow enough
+ * to be looked up value by value; it cannot serve other ranges.
+ *
+ * @param <T> the type of the records of the indexed store.
+ */
+public class HashIndex<T> extends DatasetIndex<T> {
+    // the widest range of integral keys looked up value by value
+    private static final int MAX_ENUMERATED = 64;
+    // the initial number of slots
+    private static final int INITIAL_SLOTS = 16;
+    // the multiplier that spreads keys over the slots
+    private static final long SPREAD = 0x9E3779B97F4A7C15L;
+    // the key of each slot
+    private long [] slotKeys;
+    // the newest entry of each slot, or -1 for an empty slot
+    private int [] heads;
+    // the number of entries of each slot
+    private int [] counts;
+    // the number of bits to shift a spread key by to get its slot
+    private int shift;
+    // the number of occupied slots
+    private int occupied;
+    // the position of the record of each entry
+    private long [] rows;
+    // the next older entry with the same key, or -1
+    private int [] next;
+    // the number of entries
+    private int entries;
+
+    /**
+     * Constructs a hash index over a field of a store and attaches it to
+     * the store.
+     *
+     * @param s the store.
+     * @param n the name of the field; records of a primitive type have a
+     * single field named COLUMN.
+     * @throws BadAccessException if there is no such field, or if the store
+     * holds more records than an index can.
+     * @throws BadTypeException if the field is not numeric.
+     */
+    public HashIndex(AbstractStore<T> s, String n)
+            throws BadAccessException, BadTypeException {
+        super(s, n);
+        Entries e = entries(0, s.size());
+        reset(e.keys.length);
+        insert(e.keys, e.positions);
+        attach();
+    }
+
+    /**
+     * Internal method to allocate an empty table.
+     *
+     * @param n the number of entries to make room for.
+     */
+    private void reset(int n) {
+        int slots = INITIAL_SLOTS;
+        while (slots < 2L * n && slots < (1 << 30)) slots <<= 1;
+        allocateSlots(slots);
+        rows = new long [Math.max(n, INITIAL_SLOTS)];
+        next = new int [rows.length];
+        entries = 0;
+    }
+
+    /**
+     * Internal method to allocate empty slots.
+     *
+     * @param slots the number of slots, a power of two.
+     */
+    private void allocateSlots(int slots) {
+        slotKeys = new long [slots];
+        heads = new int [slots];
+        Arrays.fill(heads, -1);
+        counts = new int [slots];
+        shift = 64 - Integer.numberOfTrailingZeros(slots);
+        occupied = 0;
+    }
+
+    /**
+     * Internal method to find the slot of a key.
+     *
+     * @param key the key.
+     * @return the slot holding the key, or the empty slot it would go to.
+     */
+    private int slot(long key) {
+        int mask = heads.length - 1;
+        int s = (int) ((key * SPREAD) >>> shift);
+        while (heads[s] >= 0 && slotKeys[s] != key) s = (s + 1) & mask;
+        return s;
+    }
+
+    @Override
+    public long size() { return entries; }
+
+    @Override
+    protected long [] find(long key) {
+        int s = slot(key);
+        long [] found = new long [counts[s]];
+        // chains run from the newest entry to the oldest
+        int k = found.length;
+        for (int e = heads[s]; e >= 0; e = next[e]) found[--k] = rows[e];
+        return found;
+    }
+
+    @Override
+    protected long [] find(long low, long high) {
+        if (low == high) return find(low);
+        long n = count(low, high);
+        if (n < 0) return null;
+        long [] found = new long [(int) n];
+        int k = 0;
+        for (long key = low; ; key++) {
+            long [] rs = find(key);
+            System.arraycopy(rs, 0, found, k, rs.length);
+            k += rs.length;
+            if (key == high) break;
+        }
+        Arrays.sort(found);
+        return found;
+    }
+
+    @Override
+    protected long count(long low, long high) {
+        if (low == high) return counts[slot(low)];
+        if (! isIntegral() || high - low >= MAX_ENUMERATED
+                || high - low < 0) {
+            return -1;
+        }
+        long n = 0;
+        for (long key = low; ; key++) {
+            n += counts[slot(key)];
+            if (key == high) break;
+        }
+        return n;
+    }
+
+    @Override
+    protected void insert(long [] keys, long [] positions)
+            throws BadAccessException {
+        reserve(keys.length);
+        for (int k = 0; k < keys.length; k++) put(keys[k], positions[k]);
+    }
+
+    @Override
+    protected void insert(long key, long position)
+            throws BadAccessException {
+        reserve(1);
+        put(key, position);
+    }
+
+    /**
+     * Internal method to make room for more entries.
+     *
+     * @param n the number of entries to make room for.
+     */
+    private void reserve(int n) {
+        if (entries + n > rows.length) {
+            int capacity = (int) Math.min(MAX_ENTRIES, Math.max(
+                    (long) entries + n, 2L * rows.length));
+            rows = Arrays.copyOf(rows, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+    }
+
+    /**
+     * Internal method to add an entry, for which there must be room.
+     *
+     * @param key the key of the entry.
+     * @param position the position of the record of the entry.
+     * @throws BadAccessException if the table cannot grow any further.
+     */
+    private void put(long key, long position) throws BadAccessException {
+        if (2L * (occupied + 1) > heads.length) grow();
+        int s = slot(key);
+        if (heads[s] < 0) {
+            slotKeys[s] = key;
+            occupied++;
+        }
+        rows[entries] = position;
+        next[entries] = heads[s];
+        heads[s] = entries;
+        counts[s]++;
+        entries++;
+    }
+
+    /**
+     * Internal method to double the number of slots, moving the chains of
+     * the occupied slots over.
+     *
+     * @throws BadAccessException if the table cannot grow any further.
+     */
+    private void grow() throws BadAccessException {
+        if (heads.length >= (1 << 30)) {
+            throw new BadAccessException("Hash index on " + getName()
+                    + " is full");
+        }
+        long [] oldKeys = slotKeys;
+        int [] oldHeads = heads;
+        int [] oldCounts = counts;
+        allocateSlots(oldHeads.length << 1);
+        for (int o = 0; o < oldHeads.length; o++) {
+            if (oldHeads[o] < 0) continue;
+            int s = slot(oldKeys[o]);
+            slotKeys[s] = oldKeys[o];
+            heads[s] = oldHeads[o];
+            counts[s] = oldCounts[o];
+            occupied++;
+        }
+    }
+
+    @Override
+    protected void clear() { reset(0); }
+
+    @Override
+    public String toString() {
+        return "HashIndex(" + getName() + ", entries=" + entries
+                + ", keys=" + occupied + ")";
+    }
+
+    /**
+     * Debug main: checks point and range lookups through the index against
+     * scanning the store, before and after adding records, and checks that
+     * null records are left out of an index.
+     *
+     * @param s parameters: the number of records, 100 thousand by default.
+     */
+    public static void main(String [] s) {
+        class Order {
+            private long customer;
+            private int quantity;
+            private double price;
+            public Order() { }
+        }
+        int n = s.length > 0 ? Integer.parseInt(s[0]) : 100000;
+        RowStore<Order> store = new RowStore<>(Order.class);
+        Order o = new Order();
+        for (int i = 0; i < n; i++) {
+            o.customer = (i * 7919L) % (n / 4);
+            o.quantity = i % 10;
+            o.price = i / 100.0;
+            store.add(o);
+        }
+        HashIndex<Order> index = new HashIndex<>(store, "customer");
+        long customer = 4242 % (n / 4);
+        for (int i = 0; i < 10; i++) {
+            o.customer = customer;
+            store.add(o);
+        }
+        for (long low = customer - 2; low <= customer; low++) {
+            long [] expected = new long [(int) store.size()];
+            int matches = 0;
+            Order reuse = null;
+            Iterator<Order> it = store.cursor(0, store.size(), null);
+            for (long i = 0; it.hasNext(); i++) {
+                reuse = it.next();
+                if (reuse.customer >= low && reuse.customer <= customer) {
+                    expected[matches++] = i;
+                }
+            }
+            long [] found = index.select(FieldRange.between(Order.class,
+                    "customer", low, customer));
+            if (! Arrays.equals(found, Arrays.copyOf(expected, matches))) {
+                throw new IllegalStateException("Bad matches for [" + low
+                        + ", " + customer + "]: " + found.length + " found, "
+                        + matches + " expected");
+            }
+        }
+        ArrayStore<Order> sparse = new ArrayStore<>(Order.class);
+        sparse.add(null);
+        HashIndex<Order> nulls = new HashIndex<>(sparse, "customer");
+        sparse.add(o);
+        sparse.add(null);
+        if (nulls.size() != 1 || nulls.lookup(customer)[0] != 1) {
+            throw new IllegalStateException("Nulls indexed: " + nulls);
+        }
+        System.out.println(index + ": ok");
+    }
+}
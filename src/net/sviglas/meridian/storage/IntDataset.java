@@ -0,0 +1,175 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.nio.IntBuffer;
+import java.util.PrimitiveIterator;
+
+/**
+ * A store of int values kept unboxed in int arrays, one per container.
+ * Next to the generic dataset interface, which boxes, it offers primitive
+ * access, primitive iteration and bulk access to the containers' arrays.
+ */
+public class IntDataset extends PrimitiveStore<Integer, int []>
+        implements IntSource {
+    /**
+     * Constructs a new int dataset.
+     */
+    public IntDataset() {
+        super(Integer.class);
+    }
+
+    /**
+     * Constructs a new int dataset given its allocation increment.
+     *
+     * @param da the allocation increment.
+     */
+    public IntDataset(int da) {
+        super(Integer.class, da);
+    }
+
+    /**
+     * Constructs a new int dataset given its largest allocation
+     * increment and its allocation policy.
+     *
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     */
+    public IntDataset(int da, AllocationPolicy p) {
+        super(Integer.class, da, p);
+    }
+
+    @Override
+    protected int [] newArray(int n) { return new int [n]; }
+
+    @Override
+    protected Integer box(int [] values, int i) { return values[i]; }
+
+    @Override
+    protected void unbox(Integer t, int [] values, int i) { values[i] = t; }
+
+    @Override
+    protected void summarise(ZoneMap z, int [] values, int i) {
+        z.addLong(values[i]);
+    }
+
+    /**
+     * Adds a new value to this dataset without boxing it.
+     *
+     * @param v the value to be added.
+     */
+    public void addInt(int v) {
+        PrimitiveContainer c = appendContainer();
+        c.values[c.occupied++] = v;
+        c.getStatistics().addLong(v);
+        appended();
+    }
+
+    /**
+     * Retrieves the value at the given index without boxing it.
+     *
+     * @param i the index of the value to be retrieved.
+     * @return the value at the given index, or zero if it is null.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public int getInt(long i) throws IndexOutOfBoundsException {
+        Layout l = getLayout();
+        int c = locateChecked(l, i);
+        return containerAt(l, c).values[(int) (i - l.containerBegin(c))];
+    }
+
+    /**
+     * Copies a range of values into an array.
+     *
+     * @param begin the index of the first value to copy.
+     * @param dst the destination array.
+     * @param off the offset in the destination array.
+     * @param len the number of values to copy.
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset or of the destination array.
+     */
+    public void getInts(long begin, int [] dst, int off, int len)
+            throws IndexOutOfBoundsException {
+        copy(begin, dst, off, len);
+    }
+
+    /**
+     * Returns a read-only view over the values of the given container.
+     *
+     * @param c the position of the container, in list order.
+     * @return a buffer over the container's values.
+     */
+    public IntBuffer block(int c) {
+        Layout l = getLayout();
+        return IntBuffer.wrap(containerAt(l, c).values, 0,
+                l.containerSize(c)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns an unboxed iterator over all values of this dataset.
+     *
+     * @return an iterator over this dataset's values.
+     */
+    public PrimitiveIterator.OfInt intIterator() {
+        return intCursor(0, size());
+    }
+
+    /**
+     * Returns an unboxed iterator over the values within the given range of
+     * indexes; it streams through the containers' arrays.
+     *
+     * @param begin the index of the first value (inclusive).
+     * @param end the index of the last value (exclusive).
+     * @return an iterator over the values in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset.
+     */
+    @Override
+    public PrimitiveIterator.OfInt intCursor(long begin, long end)
+            throws IndexOutOfBoundsException {
+        return new IntCursor(begin, end);
+    }
+
+    /**
+     * Cursor over the values as unboxed ints.
+     */
+    private class IntCursor extends ValueCursor
+            implements PrimitiveIterator.OfInt {
+        IntCursor(long b, long e) { super(b, e); }
+
+        @Override
+        public int nextInt() {
+            int p = advance();
+            return values[p];
+        }
+    }
+
+    /**
+     * Debug main.
+     *
+     * @param s parameters.
+     */
+    public static void main(String [] s) {
+        IntDataset foo = new IntDataset(10);
+        IntDataset bar = new IntDataset(10);
+        for (int i = 0; i < 100; i++) foo.addInt(i);
+        for (int i = 1000; i < 1055; i++) bar.addInt(i);
+        foo.append(bar);
+        foo.addInt(-1);
+        foo.add(null);
+        PrimitiveIterator.OfInt it = foo.intCursor(95, foo.size());
+        while (it.hasNext()) System.out.print(it.nextInt() + " ");
+        System.out.println();
+        int [] some = new int [10];
+        foo.getInts(96, some, 0, some.length);
+        System.out.println("at 150: " + foo.getInt(150) + ", block 10: "
+                + foo.block(10).remaining() + ", bulk: " + some[9]
+                + ", last: " + foo.get(foo.size() - 1));
+    }
+}
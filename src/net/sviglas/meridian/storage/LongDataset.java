@@ -0,0 +1,173 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.nio.LongBuffer;
+import java.util.PrimitiveIterator;
+
+/**
+ * A store of long values kept unboxed in long arrays, one per container.
+ * Next to the generic dataset interface, which boxes, it offers primitive
+ * access, primitive iteration and bulk access to the containers' arrays.
+ */
+public class LongDataset extends PrimitiveStore<Long, long []>
+        implements LongSource {
+    /**
+     * Constructs a new long dataset.
+     */
+    public LongDataset() {
+        super(Long.class);
+    }
+
+    /**
+     * Constructs a new long dataset given its allocation increment.
+     *
+     * @param da the allocation increment.
+     */
+    public LongDataset(int da) {
+        super(Long.class, da);
+    }
+
+    /**
+     * Constructs a new long dataset given its largest allocation
+     * increment and its allocation policy.
+     *
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     */
+    public LongDataset(int da, AllocationPolicy p) {
+        super(Long.class, da, p);
+    }
+
+    @Override
+    protected long [] newArray(int n) { return new long [n]; }
+
+    @Override
+    protected Long box(long [] values, int i) { return values[i]; }
+
+    @Override
+    protected void unbox(Long t, long [] values, int i) { values[i] = t; }
+
+    @Override
+    protected void summarise(ZoneMap z, long [] values, int i) {
+        z.addLong(values[i]);
+    }
+
+    /**
+     * Adds a new value to this dataset without boxing it.
+     *
+     * @param v the value to be added.
+     */
+    public void addLong(long v) {
+        PrimitiveContainer c = appendContainer();
+        c.values[c.occupied++] = v;
+        c.getStatistics().addLong(v);
+        appended();
+    }
+
+    /**
+     * Retrieves the value at the given index without boxing it.
+     *
+     * @param i the index of the value to be retrieved.
+     * @return the value at the given index, or zero if it is null.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public long getLong(long i) throws IndexOutOfBoundsException {
+        Layout l = getLayout();
+        int c = locateChecked(l, i);
+        return containerAt(l, c).values[(int) (i - l.containerBegin(c))];
+    }
+
+    /**
+     * Copies a range of values into an array.
+     *
+     * @param begin the index of the first value to copy.
+     * @param dst the destination array.
+     * @param off the offset in the destination array.
+     * @param len the number of values to copy.
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset or of the destination array.
+     */
+    public void getLongs(long begin, long [] dst, int off, int len)
+            throws IndexOutOfBoundsException {
+        copy(begin, dst, off, len);
+    }
+
+    /**
+     * Returns a read-only view over the values of the given container.
+     *
+     * @param c the position of the container, in list order.
+     * @return a buffer over the container's values.
+     */
+    public LongBuffer block(int c) {
+        Layout l = getLayout();
+        return LongBuffer.wrap(containerAt(l, c).values, 0,
+                l.containerSize(c)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns an unboxed iterator over all values of this dataset.
+     *
+     * @return an iterator over this dataset's values.
+     */
+    public PrimitiveIterator.OfLong longIterator() {
+        return longCursor(0, size());
+    }
+
+    /**
+     * Returns an unboxed iterator over the values within the given range of
+     * indexes; it streams through the containers' arrays.
+     *
+     * @param begin the index of the first value (inclusive).
+     * @param end the index of the last value (exclusive).
+     * @return an iterator over the values in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset.
+     */
+    @Override
+    public PrimitiveIterator.OfLong longCursor(long begin, long end)
+            throws IndexOutOfBoundsException {
+        return new LongCursor(begin, end);
+    }
+
+    /**
+     * Cursor over the values as unboxed longs.
+     */
+    private class LongCursor extends ValueCursor
+            implements PrimitiveIterator.OfLong {
+        LongCursor(long b, long e) { super(b, e); }
+
+        @Override
+        public long nextLong() {
+            int p = advance();
+            return values[p];
+        }
+    }
+
+    /**
+     * Debug main.
+     *
+     * @param s parameters.
+     */
+    public static void main(String [] s) {
+        LongDataset foo = new LongDataset(10);
+        LongDataset bar = new LongDataset(10);
+        for (int i = 0; i < 100; i++) foo.addLong(i);
+        for (int i = 1000; i < 1055; i++) bar.addLong(i);
+        foo.append(bar);
+        foo.addLong(-1);
+        PrimitiveIterator.OfLong it = foo.longCursor(95, foo.size());
+        while (it.hasNext()) System.out.print(it.nextLong() + " ");
+        System.out.println();
+        long [] some = new long [10];
+        foo.getLongs(96, some, 0, some.length);
+        System.out.println("at 150: " + foo.getLong(150) + ", block 10: "
+                + foo.block(10).remaining() + ", bulk: " + some[9]);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * A sequence of unboxed long values that can be scanned by range, e.g., a
+ * long dataset or a projection of a column store on a single field.
+ */
+public interface LongSource {
+    /**
+     * Returns the number of values in this source.
+     *
+     * @return the number of values.
+     */
+    long size();
+
+    /**
+     * Returns an unboxed iterator over the values within the given range of
+     * indexes.
+     *
+     * @param begin the index of the first value (inclusive).
+     * @param end the index of the last value (exclusive).
+     * @return an iterator over the values in [begin, end).
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this source.
+     */
+    PrimitiveIterator.OfLong longCursor(long begin, long end)
+            throws IndexOutOfBoundsException;
+}
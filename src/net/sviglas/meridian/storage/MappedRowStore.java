@@ -0,0 +1,401 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A row store whose containers are consecutive regions of a memory-mapped
+ * file rather than direct buffers. Records use the same fixed-width layout as
+ * in a row store; reads and writes go through the operating system's page
+ * cache, so the store is not bounded by direct memory and can be reopened
+ * later without reparsing.
+ * <p>
+ * The file starts with a header page recording the record type, record size,
+ * allocation increment and number of records; container i then occupies the
+ * region starting at HEADER_SIZE + i * getAllocationSize() * getRecordSize().
+ *
+ * @param <T> the type of records this dataset hosts.
+ */
+public class MappedRowStore<T> extends RowStore<T> implements Closeable {
+    // magic number identifying mapped row store files
+    private static final int MAGIC = 0x4d525331;
+    // the size of the header; keeps container regions page-aligned
+    private static final int HEADER_SIZE = 4096;
+    // offset of the record size in the header
+    private static final int RECORD_SIZE_OFFSET = 4;
+    // offset of the requested allocation increment in the header
+    private static final int ALLOCATION_OFFSET = 8;
+    // offset of the number of records in the header
+    private static final int SIZE_OFFSET = 16;
+    // offset of the record type name in the header
+    private static final int TYPE_OFFSET = 24;
+    // the backing file
+    private final Path file;
+    // the channel to the backing file
+    private final FileChannel channel;
+    // the mapped header
+    private final MappedByteBuffer header;
+    // the mapped container regions, in list order
+    private final List<MappedByteBuffer> regions;
+
+    /**
+     * Constructs a new mapped row store over the given file; an existing file
+     * is truncated.
+     *
+     * @param c the record type.
+     * @param f the backing file.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     * @throws BadAccessException if the file cannot be created.
+     */
+    public MappedRowStore(Class<T> c, Path f)
+            throws BadTypeException, BadAccessException {
+        this(c, f, DEFAULT_ALLOCATION);
+    }
+
+    /**
+     * Constructs a new mapped row store over the given file and with the given
+     * allocation increment; an existing file is truncated.
+     *
+     * @param c the record type.
+     * @param f the backing file.
+     * @param da the allocation increment.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     * @throws BadAccessException if the file cannot be created.
+     */
+    public MappedRowStore(Class<T> c, Path f, int da)
+            throws BadTypeException, BadAccessException {
+        this(c, f, da, create(c, f));
+        byte [] name = typeName(c);
+        header.putInt(0, MAGIC);
+        header.putInt(RECORD_SIZE_OFFSET, getRecordSize());
+        header.putInt(ALLOCATION_OFFSET, da);
+        header.putLong(SIZE_OFFSET, 0);
+        header.putInt(TYPE_OFFSET, name.length);
+        for (int b = 0; b < name.length; b++) {
+            header.put(TYPE_OFFSET + 4 + b, name[b]);
+        }
+    }
+
+    /**
+     * Internal constructor over an open channel.
+     *
+     * @param c the record type.
+     * @param f the backing file.
+     * @param da the allocation increment, as originally requested.
+     * @param ch the channel to the backing file.
+     * @throws BadAccessException if the header cannot be mapped.
+     */
+    private MappedRowStore(Class<T> c, Path f, int da, FileChannel ch)
+            throws BadAccessException {
+        super(c, da);
+        file = f;
+        channel = ch;
+        try {
+            header = map(0, HEADER_SIZE);
+        }
+        catch (BadAccessException e) {
+            closeAfterFailure(ch, e);
+            throw e;
+        }
+        regions = new ArrayList<>();
+    }
+
+    /**
+     * Reopens a mapped row store from its backing file.
+     *
+     * @param c the record type; it must be the type the store was created
+     * with.
+     * @param f the backing file.
+     * @param <T> the record type.
+     * @return the reopened store, holding all records previously added.
+     * @throws BadTypeException if the file was created for a different type.
+     * @throws BadAccessException if the file cannot be read or is not a
+     * mapped row store file.
+     */
+    public static <T> MappedRowStore<T> open(Class<T> c, Path f)
+            throws BadTypeException, BadAccessException {
+        FileChannel ch = openChannel(f, false);
+        try {
+            MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_SIZE);
+            if (h.getInt(0) != MAGIC) {
+                throw new BadAccessException("Not a mapped row store: " + f);
+            }
+            byte [] name = new byte [h.getInt(TYPE_OFFSET)];
+            for (int b = 0; b < name.length; b++) {
+                name[b] = h.get(TYPE_OFFSET + 4 + b);
+            }
+            String type = new String(name, StandardCharsets.UTF_8);
+            if (! type.equals(c.getName())) {
+                throw new BadTypeException("File " + f + " holds records of "
+                        + "type " + type + ", not " + c.getName());
+            }
+            int da = h.getInt(ALLOCATION_OFFSET);
+            MappedRowStore<T> store = new MappedRowStore<>(c, f, da, ch);
+            int size = store.header.getInt(RECORD_SIZE_OFFSET);
+            if (size != store.getRecordSize()) {
+                throw new BadTypeException("File " + f + " has records of "
+                        + size + " bytes, type " + c.getName() + " has "
+                        + store.getRecordSize());
+            }
+            long remaining = store.header.getLong(SIZE_OFFSET);
+            while (remaining > 0) {
+                int occupied = (int) Math.min(remaining,
+                        store.getAllocationSize());
+                store.attach(store.new RowStoreContainer(
+                        store.mapNextRegion(), occupied));
+                remaining -= occupied;
+            }
+            return store;
+        }
+        catch (IOException e) {
+            BadAccessException failure = new BadAccessException(
+                    "Could not read header of " + f + ": " + e.getMessage(),
+                    e);
+            closeAfterFailure(ch, failure);
+            throw failure;
+        }
+        catch (RuntimeException e) {
+            closeAfterFailure(ch, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Internal method to close the channel of a store that could not be
+     * opened; a failure to close is recorded on the original failure.
+     *
+     * @param ch the channel.
+     * @param failure the failure to open the store.
+     */
+    private static void closeAfterFailure(FileChannel ch,
+                                          RuntimeException failure) {
+        try {
+            ch.close();
+        }
+        catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Returns the backing file of this store.
+     *
+     * @return the backing file.
+     */
+    public Path getFile() { return file; }
+
+    /**
+     * Allocates the next region of the file as a new container; containers
+     * always span the full allocation size, so that their regions can be
+     * found again when the file is reopened.
+     *
+     * @param capacity ignored.
+     * @return a new container for this store.
+     */
+    @Override
+    protected AbstractStoreContainer<T> allocateContainer(int capacity) {
+        return new RowStoreContainer(mapNextRegion(), 0);
+    }
+
+    /**
+     * Accounts for an added record and records the new size in the header.
+     *
+     * @param t the record added.
+     */
+    @Override
+    protected void appended(T t) {
+        super.appended(t);
+        header.putLong(SIZE_OFFSET, size());
+    }
+
+    /**
+     * Appends a dataset to this one by copying its records into the file;
+     * containers of other stores are never spliced in.
+     *
+     * @param d the dataset to be appended to this.
+     */
+    @Override
+    public void append(Dataset<T> d) {
+        for (T t : d) add(t);
+    }
+
+    /**
+     * Mapped stores are not released, as their containers are regions of the
+     * file; see {@link #close()}.
+     */
+    @Override
+    public void release() { }
+
+    /**
+     * Mapped stores are never compacted: their containers are regions of the
+     * file at fixed positions, and they always fill each container before
+     * moving on to the next.
+     *
+     * @return always false.
+     */
+    @Override
+    public boolean compact() { return false; }
+
+    /**
+     * Forces all changes to the store out to the backing file.
+     *
+     * @throws BadAccessException if the changes cannot be written.
+     */
+    public void force() throws BadAccessException {
+        for (MappedByteBuffer region : regions) region.force();
+        header.force();
+    }
+
+    /**
+     * Forces all changes out to the backing file and closes it; no more
+     * records can be added. Closing the channel does not unmap the file:
+     * the mapped regions stay valid, and records remain readable through
+     * them, until the store is garbage-collected.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Internal method to map the region of the next container.
+     *
+     * @return the mapped region.
+     * @throws BadAccessException if the region cannot be mapped.
+     */
+    private MappedByteBuffer mapNextRegion() throws BadAccessException {
+        long bytes = (long) getAllocationSize() * getRecordSize();
+        MappedByteBuffer region = map(HEADER_SIZE + regions.size() * bytes,
+                bytes);
+        regions.add(region);
+        return region;
+    }
+
+    /**
+     * Internal method to map a region of the backing file.
+     *
+     * @param offset the offset of the region.
+     * @param bytes the size of the region.
+     * @return the mapped region.
+     * @throws BadAccessException if the region cannot be mapped.
+     */
+    private MappedByteBuffer map(long offset, long bytes)
+            throws BadAccessException {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+        }
+        catch (IOException e) {
+            throw new BadAccessException("Could not map " + bytes
+                    + " bytes at " + offset + " of " + file + ": "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Internal method to create the backing file of a new store, once the
+     * name of the record type is known to fit the header.
+     *
+     * @param c the record type.
+     * @param f the backing file.
+     * @return the channel to the file.
+     * @throws BadTypeException if the type name is too long.
+     * @throws BadAccessException if the file cannot be created.
+     */
+    private static FileChannel create(Class<?> c, Path f)
+            throws BadTypeException, BadAccessException {
+        typeName(c);
+        return openChannel(f, true);
+    }
+
+    /**
+     * Internal method to encode the name of a record type for the header.
+     *
+     * @param c the record type.
+     * @return the encoded name.
+     * @throws BadTypeException if the name does not fit the header.
+     */
+    private static byte [] typeName(Class<?> c) throws BadTypeException {
+        byte [] name = c.getName().getBytes(StandardCharsets.UTF_8);
+        if (TYPE_OFFSET + 4 + name.length > HEADER_SIZE) {
+            throw new BadTypeException("Type name too long for header: "
+                    + c.getName());
+        }
+        return name;
+    }
+
+    /**
+     * Internal method to open the channel to a backing file.
+     *
+     * @param f the backing file.
+     * @param create whether to create (or truncate) the file.
+     * @return the channel.
+     * @throws BadAccessException if the file cannot be opened.
+     */
+    private static FileChannel openChannel(Path f, boolean create)
+            throws BadAccessException {
+        try {
+            if (create) {
+                return FileChannel.open(f, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return FileChannel.open(f, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        catch (IOException e) {
+            throw new BadAccessException("Could not open " + f + ": "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Debug main.
+     *
+     * @param s parameters.
+     */
+    public static void main(String [] s) {
+        try {
+            Path f = Files.createTempFile("meridian", ".rows");
+            MappedRowStore<Long> foo = new MappedRowStore<>(Long.class, f, 10);
+            for (long i = 0; i < 10000; i++) foo.add(i * i);
+            System.out.println("foo size: " + foo.size());
+            foo.close();
+            MappedRowStore<Long> bar = MappedRowStore.open(Long.class, f);
+            System.out.println("bar size: " + bar.size());
+            System.out.println("at 150: " + bar.get(150));
+            bar.add(-1L);
+            System.out.println("at " + (bar.size() - 1) + ": "
+                    + bar.get(bar.size() - 1));
+            bar.close();
+            Files.delete(f);
+        }
+        catch (Exception e) {
+            System.err.println("Exception " + e.getMessage());
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Field;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A block of native memory addressed by long offsets, for stores whose
+ * containers outgrow what a buffer can index. Accesses are not bounds
+ * checked: callers validate indexes once, at the boundary of a container,
+ * and the accessors compile down to plain loads and stores. Values are in
+ * the platform's byte order, and multi-byte values should be at offsets
+ * aligned to their size.
+ * <p>
+ * Memory is obtained from sun.misc.Unsafe, through method handles so that
+ * the class compiles without access to the platform's internal classes.
+ * Blocks are freed explicitly; a block that becomes unreachable without
+ * having been freed is freed when a later block is allocated.
+ */
+final class NativeMemory {
+    // the accessors of sun.misc.Unsafe; all null if it is not available
+    private static final MethodHandle ALLOCATE;
+    private static final MethodHandle FREE;
+    private static final MethodHandle COPY;
+    private static final MethodHandle GET_BYTE;
+    private static final MethodHandle PUT_BYTE;
+    private static final MethodHandle GET_SHORT;
+    private static final MethodHandle PUT_SHORT;
+    private static final MethodHandle GET_CHAR;
+    private static final MethodHandle PUT_CHAR;
+    private static final MethodHandle GET_INT;
+    private static final MethodHandle PUT_INT;
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle PUT_LONG;
+    private static final MethodHandle GET_FLOAT;
+    private static final MethodHandle PUT_FLOAT;
+    private static final MethodHandle GET_DOUBLE;
+    private static final MethodHandle PUT_DOUBLE;
+    // the blocks allocated and not yet freed
+    private static final Set<Deallocator> live =
+            ConcurrentHashMap.newKeySet();
+    // the blocks that became unreachable
+    private static final ReferenceQueue<NativeMemory> collected =
+            new ReferenceQueue<>();
+
+    static {
+        MethodHandle [] h = new MethodHandle [17];
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> [] types = { byte.class, short.class, char.class,
+                    int.class, long.class, float.class, double.class };
+            String [] names = { "Byte", "Short", "Char", "Int", "Long",
+                    "Float", "Double" };
+            h[0] = lookup.findVirtual(c, "allocateMemory",
+                    MethodType.methodType(long.class, long.class))
+                    .bindTo(unsafe);
+            h[1] = lookup.findVirtual(c, "freeMemory",
+                    MethodType.methodType(void.class, long.class))
+                    .bindTo(unsafe);
+            h[2] = lookup.findVirtual(c, "copyMemory",
+                    MethodType.methodType(void.class, long.class, long.class,
+                            long.class)).bindTo(unsafe);
+            for (int t = 0; t < types.length; t++) {
+                h[3 + 2 * t] = lookup.findVirtual(c, "get" + names[t],
+                        MethodType.methodType(types[t], long.class))
+                        .bindTo(unsafe);
+                h[4 + 2 * t] = lookup.findVirtual(c, "put" + names[t],
+                        MethodType.methodType(void.class, long.class,
+                                types[t])).bindTo(unsafe);
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            h = new MethodHandle [h.length];
+        }
+        ALLOCATE = h[0];
+        FREE = h[1];
+        COPY = h[2];
+        GET_BYTE = h[3];
+        PUT_BYTE = h[4];
+        GET_SHORT = h[5];
+        PUT_SHORT = h[6];
+        GET_CHAR = h[7];
+        PUT_CHAR = h[8];
+        GET_INT = h[9];
+        PUT_INT = h[10];
+        GET_LONG = h[11];
+        PUT_LONG = h[12];
+        GET_FLOAT = h[13];
+        PUT_FLOAT = h[14];
+        GET_DOUBLE = h[15];
+        PUT_DOUBLE = h[16];
+    }
+
+    // the address of the block
+    private final long address;
+    // the size of the block in bytes
+    private final long size;
+    // frees the block, explicitly or once the block is unreachable
+    private final Deallocator deallocator;
+
+    /**
+     * Internal constructor given an allocated block.
+     *
+     * @param a the address of the block.
+     * @param n the size of the block in bytes.
+     */
+    private NativeMemory(long a, long n) {
+        address = a;
+        size = n;
+        deallocator = new Deallocator(this, a);
+        live.add(deallocator);
+    }
+
+    /**
+     * Returns whether native memory can be allocated on this platform.
+     *
+     * @return true if native memory is available, false otherwise.
+     */
+    static boolean isAvailable() { return ALLOCATE != null; }
+
+    /**
+     * Allocates a block of native memory; its contents are undefined.
+     *
+     * @param bytes the size of the block.
+     * @return the block.
+     * @throws BadAccessException if the size is not positive, if native
+     * memory is not available, or if the block cannot be allocated.
+     */
+    static NativeMemory allocate(long bytes) throws BadAccessException {
+        if (bytes <= 0) {
+            throw new BadAccessException("Bad native allocation: " + bytes);
+        }
+        if (! isAvailable()) {
+            throw new BadAccessException("Native memory is not available");
+        }
+        Reference<? extends NativeMemory> r;
+        while ((r = collected.poll()) != null) ((Deallocator) r).free();
+        try {
+            return new NativeMemory((long) ALLOCATE.invokeExact(bytes), bytes);
+        }
+        catch (Throwable t) {
+            throw new BadAccessException("Could not allocate " + bytes
+                    + " bytes of native memory: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Returns the size of this block.
+     *
+     * @return the size in bytes.
+     */
+    long size() { return size; }
+
+    /**
+     * Frees this block; it must not be accessed afterwards. Freeing a block
+     * more than once has no effect.
+     */
+    void free() { deallocator.free(); }
+
+    /**
+     * Copies bytes from this block to another.
+     *
+     * @param from the offset in this block.
+     * @param dst the other block.
+     * @param to the offset in the other block.
+     * @param n the number of bytes.
+     */
+    void copy(long from, NativeMemory dst, long to, long n) {
+        try { COPY.invokeExact(address + from, dst.address + to, n); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Reads a byte at an offset of this block.
+     *
+     * @param o the offset.
+     * @return the value.
+     */
+    byte getByte(long o) {
+        try { return (byte) GET_BYTE.invokeExact(address + o); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Writes a byte at an offset of this block.
+     *
+     * @param o the offset.
+     * @param v the value.
+     */
+    void putByte(long o, byte v) {
+        try { PUT_BYTE.invokeExact(address + o, v); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Reads a short at an offset of this block.
+     *
+     * @param o the offset.
+     * @return the value.
+     */
+    short getShort(long o) {
+        try { return (short) GET_SHORT.invokeExact(address + o); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Writes a short at an offset of this block.
+     *
+     * @param o the offset.
+     * @param v the value.
+     */
+    void putShort(long o, short v) {
+        try { PUT_SHORT.invokeExact(address + o, v); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Reads a char at an offset of this block.
+     *
+     * @param o the offset.
+     * @return the value.
+     */
+    char getChar(long o) {
+        try { return (char) GET_CHAR.invokeExact(address + o); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Writes a char at an offset of this block.
+     *
+     * @param o the offset.
+     * @param v the value.
+     */
+    void putChar(long o, char v) {
+        try { PUT_CHAR.invokeExact(address + o, v); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Reads a int at an offset of this block.
+     *
+     * @param o the offset.
+     * @return the value.
+     */
+    int getInt(long o) {
+        try { return (int) GET_INT.invokeExact(address + o); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Writes a int at an offset of this block.
+     *
+     * @param o the offset.
+     * @param v the value.
+     */
+    void putInt(long o, int v) {
+        try { PUT_INT.invokeExact(address + o, v); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Reads a long at an offset of this block.
+     *
+     * @param o the offset.
+     * @return the value.
+     */
+    long getLong(long o) {
+        try { return (long) GET_LONG.invokeExact(address + o); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Writes a long at an offset of this block.
+     *
+     * @param o the offset.
+     * @param v the value.
+     */
+    void putLong(long o, long v) {
+        try { PUT_LONG.invokeExact(address + o, v); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Reads a float at an offset of this block.
+     *
+     * @param o the offset.
+     * @return the value.
+     */
+    float getFloat(long o) {
+        try { return (float) GET_FLOAT.invokeExact(address + o); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Writes a float at an offset of this block.
+     *
+     * @param o the offset.
+     * @param v the value.
+     */
+    void putFloat(long o, float v) {
+        try { PUT_FLOAT.invokeExact(address + o, v); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Reads a double at an offset of this block.
+     *
+     * @param o the offset.
+     * @return the value.
+     */
+    double getDouble(long o) {
+        try { return (double) GET_DOUBLE.invokeExact(address + o); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Writes a double at an offset of this block.
+     *
+     * @param o the offset.
+     * @param v the value.
+     */
+    void putDouble(long o, double v) {
+        try { PUT_DOUBLE.invokeExact(address + o, v); }
+        catch (Throwable t) { throw fail(t); }
+    }
+
+    /**
+     * Internal method to wrap a failed access.
+     *
+     * @param t the cause of the failure.
+     * @return an exception to throw.
+     */
+    private static BadAccessException fail(Throwable t) {
+        return new BadAccessException("Native memory access failed: "
+                + t.getMessage(), t);
+    }
+
+    /**
+     * Frees a block once, whether explicitly or after the block became
+     * unreachable.
+     */
+    private static final class Deallocator
+            extends PhantomReference<NativeMemory> {
+        // the address of the block; 0 once freed
+        private long address;
+
+        /**
+         * Constructs a new deallocator for a block.
+         *
+         * @param m the block.
+         * @param a the address of the block.
+         */
+        Deallocator(NativeMemory m, long a) {
+            super(m, collected);
+            address = a;
+        }
+
+        /**
+         * Frees the block unless it has already been freed.
+         */
+        synchronized void free() {
+            if (address == 0) return;
+            live.remove(this);
+            try { FREE.invokeExact(address); }
+            catch (Throwable t) { throw fail(t); }
+            address = 0;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * A row store whose containers are blocks of native memory addressed by
+ * long offsets, rather than buffers addressed by int offsets, so that a
+ * container can hold more than 2GB of records. A few very large containers
+ * cut the per-container costs of locating records and of iterating, which
+ * dominate when a dataset is spread over millions of small containers.
+ * <p>
+ * Records are laid out with their fields at naturally aligned offsets: the
+ * fields are placed in decreasing order of size and the record is padded to
+ * a multiple of its widest field, so records may take more space than their
+ * packed size (see {@link #getStride()}). Indexes, and that the container's
+ * block has not been freed, are validated once per access, at the
+ * container; reading the fields is not bounds checked.
+ * <p>
+ * Blocks are freed when the store is released, including the blocks of
+ * stores appended to it; blocks of a store that is dropped without being
+ * released are freed once the garbage collector finds them unreachable.
+ * Reading a store whose blocks have been freed, e.g., a store appended to
+ * one that has since been released, throws a {@link BadAccessException}.
+ * Reads do not modify the store, so any number of threads can read it at
+ * once; writers must be exclusive.
+ *
+ * @param <T> the type of records this dataset hosts.
+ */
+public class NativeRowStore<T> extends AbstractStore<T> {
+    // the default allocation size, in records
+    public static final int LARGE_ALLOCATION = 1 << 24;
+    // the offset of each field within a record
+    private final int [] offsets;
+    // the number of bytes between consecutive records
+    private final int stride;
+
+    /**
+     * Constructs a new native row store given the type of its records; its
+     * containers start small and double up to {@link #LARGE_ALLOCATION}
+     * records.
+     *
+     * @param c the record type.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public NativeRowStore(Class<T> c) throws BadTypeException {
+        this(c, LARGE_ALLOCATION, AllocationPolicy.GEOMETRIC);
+    }
+
+    /**
+     * Constructs a new native row store given the type of its records and its
+     * allocation increment.
+     *
+     * @param c the record type.
+     * @param da the allocation increment.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public NativeRowStore(Class<T> c, int da) throws BadTypeException {
+        super(c, da);
+        offsets = alignedOffsets(getCodec().getFields());
+        stride = alignedStride(getCodec().getFields());
+    }
+
+    /**
+     * Constructs a new native row store given the type of its records, its
+     * largest allocation increment and its allocation policy.
+     *
+     * @param c the record type.
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public NativeRowStore(Class<T> c, int da, AllocationPolicy p)
+            throws BadTypeException {
+        super(c, da, p);
+        offsets = alignedOffsets(getCodec().getFields());
+        stride = alignedStride(getCodec().getFields());
+    }
+
+    /**
+     * Internal method to place fields at naturally aligned offsets, widest
+     * field first.
+     *
+     * @param fs the fields.
+     * @return the offset of each field within a record.
+     */
+    private static int [] alignedOffsets(final FieldCodec [] fs) {
+        Integer [] order = new Integer [fs.length];
+        for (int f = 0; f < fs.length; f++) order[f] = f;
+        Arrays.sort(order, Comparator.comparingInt(
+                (Integer f) -> fs[f].size()).reversed());
+        int [] o = new int [fs.length];
+        int offset = 0;
+        for (int f : order) {
+            o[f] = offset;
+            offset += fs[f].size();
+        }
+        return o;
+    }
+
+    /**
+     * Internal method to compute the size of a record padded to a multiple
+     * of its widest field.
+     *
+     * @param fs the fields.
+     * @return the number of bytes between consecutive records.
+     */
+    private static int alignedStride(FieldCodec [] fs) {
+        int size = 0;
+        int widest = 1;
+        for (FieldCodec f : fs) {
+            size += f.size();
+            widest = Math.max(widest, f.size());
+        }
+        return (size + widest - 1) / widest * widest;
+    }
+
+    /**
+     * Returns the number of bytes between consecutive records, i.e., the
+     * record size padded for alignment.
+     *
+     * @return the stride of records in bytes.
+     */
+    public int getStride() { return stride; }
+
+    /**
+     * Records are copied into the store's own storage when added.
+     *
+     * @return always true.
+     */
+    @Override
+    public boolean copiesRecords() { return true; }
+
+    /**
+     * Internal method to allocate containers of this store.
+     *
+     * @param capacity the capacity of the container.
+     * @return a new container for this store.
+     */
+    @Override
+    protected AbstractStoreContainer<T> allocateContainer(int capacity) {
+        return new NativeRowStoreContainer(capacity);
+    }
+
+    /**
+     * Frees the memory of a released container.
+     *
+     * @param c the container.
+     */
+    @Override
+    protected void recycle(AbstractStoreContainer<T> c) {
+        NativeRowStoreContainer container = (NativeRowStoreContainer) c;
+        container.freed = true;
+        container.memory.free();
+    }
+
+    /**
+     * Internal class that encapsulates the containers of this store.
+     */
+    class NativeRowStoreContainer extends AbstractStoreContainer<T> {
+        // the contents of the container
+        private final NativeMemory memory;
+        // the number of occupied records
+        private int occupied;
+        // the number of records the container holds
+        private final int capacity;
+        // whether the memory has been freed; set before freeing it
+        private volatile boolean freed;
+
+        /**
+         * Constructs a native row store container of the given capacity.
+         *
+         * @param n the capacity of the container.
+         * @throws BadAccessException if the memory cannot be allocated.
+         */
+        public NativeRowStoreContainer(int n) throws BadAccessException {
+            memory = NativeMemory.allocate((long) n * stride);
+            occupied = 0;
+            capacity = n;
+        }
+
+        /**
+         * Returns the size of this container.
+         *
+         * @return the size of this container.
+         */
+        @Override
+        public int size() {
+            return occupied;
+        }
+
+        /**
+         * Returns the capacity of this container.
+         *
+         * @return the capacity of this container.
+         */
+        @Override
+        public int capacity() { return capacity; }
+
+        /**
+         * Retrieves the record at the given index.
+         *
+         * @param i the index of the record to be retrieved.
+         * @return the record at the given index.
+         * @throws IndexOutOfBoundsException if the index is out of range.
+         * @throws BadAccessException if the record cannot be retrieved.
+         */
+        @Override
+        public T get(int i) throws BadAccessException {
+            return get(i, null);
+        }
+
+        /**
+         * Reads the record at the given index into the given instance.
+         *
+         * @param i the index of the record to be retrieved.
+         * @param into the record instance to reuse; may be null.
+         * @return the record at the given index.
+         * @throws IndexOutOfBoundsException if the index is out of range.
+         * @throws BadAccessException if the record cannot be retrieved, e.g.,
+         * because the container's memory has been freed.
+         */
+        @Override
+        public T get(int i, T into) throws BadAccessException {
+            if (i < 0 || i >= occupied) {
+                throw new IndexOutOfBoundsException("Out of bounds: " + i
+                        + " in container of " + occupied);
+            }
+            checkLive();
+            return getCodec().read(memory, (long) i * stride, offsets, into);
+        }
+
+        /**
+         * Adds a new record to this container.
+         *
+         * @param t the record to be added.
+         * @throws BadAccessException whenever the record cannot be added.
+         */
+        @Override
+        public void add(T t) throws BadAccessException {
+            if (occupied >= capacity) {
+                throw new BadAccessException("Container full: " + capacity);
+            }
+            checkLive();
+            getCodec().write(t, memory, (long) occupied * stride, offsets);
+            occupied++;
+        }
+
+        /**
+         * Internal method to check that the memory of this container has not
+         * been freed.
+         *
+         * @throws BadAccessException if the memory has been freed.
+         */
+        private void checkLive() throws BadAccessException {
+            if (freed) {
+                throw new BadAccessException("Container of a released "
+                        + "store accessed");
+            }
+        }
+    }
+
+    /**
+     * Debug main: fills a single container and reads it back; then checks
+     * that reading a released store, and a store appended to it, fails. Past
+     * 67 million records (e.g., 80 million), the container exceeds 2GB.
+     *
+     * @param s parameters: the number of records, 1 million by default.
+     */
+    public static void main(String [] s) {
+        class TestClass {
+            private byte flag;
+            private long key;
+            private int count;
+            private double value;
+            private long sum;
+            public TestClass() { }
+        }
+        int n = s.length > 0 ? Integer.parseInt(s[0]) : 1000000;
+        NativeRowStore<TestClass> store =
+                new NativeRowStore<>(TestClass.class, n);
+        try {
+            TestClass t = new TestClass();
+            for (long k = 0; k < n; k++) {
+                t.flag = (byte) k;
+                t.key = k;
+                t.count = (int) k;
+                t.value = k / 2.0;
+                t.sum = 3 * k;
+                store.add(t);
+            }
+            System.out.println(store.containerCount() + " container(s) of "
+                    + (long) n * store.getStride() + " bytes");
+            long k = 0;
+            TestClass reuse = null;
+            for (Iterator<TestClass> it = store.cursor(0, n, null);
+                 it.hasNext(); k++) {
+                reuse = it.next();
+                if (reuse.key != k || reuse.flag != (byte) k
+                        || reuse.count != (int) k || reuse.value != k / 2.0
+                        || reuse.sum != 3 * k) {
+                    throw new IllegalStateException("Bad record at " + k);
+                }
+            }
+            System.out.println("last: " + store.get(n - 1).key);
+            NativeRowStore<TestClass> spliced =
+                    new NativeRowStore<>(TestClass.class, 10);
+            spliced.add(t);
+            store.append(spliced);
+            AbstractStoreContainer<TestClass> first = store.getContainer(0);
+            store.release();
+            for (AbstractStoreContainer<TestClass> freed
+                    : Arrays.asList(first, spliced.getContainer(0))) {
+                try {
+                    freed.get(0);
+                    throw new IllegalStateException("Read freed memory");
+                }
+                catch (BadAccessException e) {
+                    System.out.println("after release: " + e.getMessage());
+                }
+            }
+        }
+        finally {
+            store.release();
+        }
+    }
+}
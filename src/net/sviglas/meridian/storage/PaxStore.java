@@ -0,0 +1,583 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A PAX store (partition attributes across) lays out each container as a
+ * single directly allocated page that is split into mini-pages, one for each
+ * field of the record type: mini-page f holds field f of all the records of
+ * the container, contiguously. Scanning a single field streams through one
+ * mini-page per container, as in a column store, while rebuilding a record
+ * touches a single page, as in a row store; one copy of a dataset serves
+ * both kinds of access. Mini-pages start at 8-byte boundaries of the page.
+ * <p>
+ * Pages are taken from the shared {@link BufferPool} and go back to it when
+ * the store is released. As with row stores, reads never move a page's
+ * position, so any number of threads can read a PAX store at once; writers
+ * must be exclusive.
+ *
+ * @param <T> the type of records this dataset hosts.
+ */
+public class PaxStore<T> extends AbstractStore<T> {
+    // the name of the single field of records of a primitive type
+    public static final String DEFAULT_COLUMN = RecordCodec.VALUE_NAME;
+
+    /**
+     * Constructs a new PAX store given the type of its records.
+     *
+     * @param c the record type.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public PaxStore(Class<T> c) throws BadTypeException {
+        super(c);
+    }
+
+    /**
+     * Constructs a new PAX store given the type of its records and its
+     * allocation increment.
+     *
+     * @param c the record type.
+     * @param da the allocation increment.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public PaxStore(Class<T> c, int da) throws BadTypeException {
+        super(c, da);
+    }
+
+    /**
+     * Constructs a new PAX store given the type of its records, its largest
+     * allocation increment and its allocation policy.
+     *
+     * @param c the record type.
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public PaxStore(Class<T> c, int da, AllocationPolicy p)
+            throws BadTypeException {
+        super(c, da, p);
+    }
+
+    /**
+     * Records are copied into the store's own storage when added.
+     *
+     * @return always true.
+     */
+    @Override
+    public boolean copiesRecords() { return true; }
+
+    /**
+     * Computes the offset of each mini-page in the page of a container.
+     *
+     * @param capacity the capacity of the container.
+     * @return the offset of each field's mini-page, followed by the size of
+     * the page.
+     */
+    int [] pageLayout(int capacity) {
+        FieldCodec [] fs = getCodec().getFields();
+        int [] starts = new int [fs.length + 1];
+        int offset = 0;
+        for (int f = 0; f < fs.length; f++) {
+            starts[f] = offset;
+            offset += capacity * fs[f].size();
+            offset = (offset + 7) & ~7;
+        }
+        starts[fs.length] = offset;
+        return starts;
+    }
+
+    /**
+     * Returns a read-only view over the occupied part of a mini-page.
+     *
+     * @param c the position of the container, in list order.
+     * @param f the position of the field.
+     * @return a buffer over the field's values in the container.
+     */
+    ByteBuffer miniPage(int c, int f) {
+        PaxStoreContainer container = (PaxStoreContainer) getContainer(c);
+        ByteBuffer b = container.page.asReadOnlyBuffer();
+        b.position(container.starts[f]);
+        b.limit(container.starts[f]
+                + container.occupied * getCodec().getFields()[f].size());
+        return b;
+    }
+
+    /**
+     * Internal method to allocate containers of this store.
+     *
+     * @param capacity the capacity of the container.
+     * @return a new container for this store.
+     */
+    @Override
+    protected AbstractStoreContainer<T> allocateContainer(int capacity) {
+        return new PaxStoreContainer(capacity);
+    }
+
+    /**
+     * Returns the page of a released container to the buffer pool, if it was
+     * taken from there.
+     *
+     * @param c the container.
+     */
+    @Override
+    protected void recycle(AbstractStoreContainer<T> c) {
+        PaxStoreContainer container = (PaxStoreContainer) c;
+        if (container.pooled) {
+            BufferPool.getInstance().release(container.page);
+        }
+    }
+
+    /**
+     * Hands the page of a container replaced by compaction to the buffer
+     * pool to account for once it is garbage-collected.
+     *
+     * @param c the container.
+     */
+    @Override
+    protected void abandon(AbstractStoreContainer<T> c) {
+        PaxStoreContainer container = (PaxStoreContainer) c;
+        if (container.pooled) {
+            BufferPool.getInstance().abandon(container.page);
+        }
+    }
+
+    /**
+     * Returns the position of the given field among the mini-pages.
+     *
+     * @param field the name of the field; for records of a primitive type the
+     * only field is named {@link #DEFAULT_COLUMN}.
+     * @return the position of the field.
+     * @throws BadAccessException if there is no such field.
+     */
+    public int fieldIndex(String field) throws BadAccessException {
+        int f = getCodec().indexOf(field);
+        if (f < 0) {
+            throw new BadAccessException("No field " + field + " in type "
+                    + getRecordType());
+        }
+        return f;
+    }
+
+    /**
+     * Returns the projection of this store on an integral field no wider than
+     * int, as a source of unboxed int values.
+     *
+     * @param field the name of the field.
+     * @return an int source over the field.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to int.
+     */
+    public IntSource intColumn(String field)
+            throws BadAccessException, BadTypeException {
+        final int f = fieldIndex(field);
+        if (! getCodec().getFields()[f].widensToInt()) {
+            throw new BadTypeException("Field " + field + " does not widen "
+                    + "to int");
+        }
+        return new IntSource() {
+            @Override
+            public long size() { return PaxStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfInt intCursor(long begin, long end) {
+                return new IntPageCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Returns the projection of this store on an integral field, as a source
+     * of unboxed long values.
+     *
+     * @param field the name of the field.
+     * @return a long source over the field.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to long.
+     */
+    public LongSource longColumn(String field)
+            throws BadAccessException, BadTypeException {
+        final int f = fieldIndex(field);
+        if (! getCodec().getFields()[f].widensToLong()) {
+            throw new BadTypeException("Field " + field + " does not widen "
+                    + "to long");
+        }
+        return new LongSource() {
+            @Override
+            public long size() { return PaxStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfLong longCursor(long begin, long end) {
+                return new LongPageCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Returns the projection of this store on a numeric field, as a source of
+     * unboxed double values.
+     *
+     * @param field the name of the field.
+     * @return a double source over the field.
+     * @throws BadAccessException if there is no such field.
+     */
+    public DoubleSource doubleColumn(String field) throws BadAccessException {
+        final int f = fieldIndex(field);
+        return new DoubleSource() {
+            @Override
+            public long size() { return PaxStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfDouble doubleCursor(long begin,
+                                                           long end) {
+                return new DoublePageCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Selects the records of a container within a range of positions that
+     * lie within all the given ranges, testing the fields in their
+     * mini-pages without rebuilding records.
+     *
+     * @param l the layout to read through, e.g., that the positions of
+     * containers were taken from.
+     * @param c the position of the container in the layout.
+     * @param from the position of the first record in the container
+     * (inclusive).
+     * @param to the position of the last record in the container
+     * (exclusive).
+     * @param ranges the ranges, all of which must hold.
+     * @param out the array to write the positions of the selected records
+     * to, in order; it must have room for to - from positions.
+     * @return the number of records selected.
+     */
+    @Override
+    public int select(Layout l, int c, int from, int to,
+                      List<FieldRange> ranges, int [] out) {
+        PaxStoreContainer container = (PaxStoreContainer) l.getContainer(c);
+        FieldCodec [] fs = getCodec().getFields();
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            boolean matches = true;
+            for (int r = 0; matches && r < ranges.size(); r++) {
+                int f = ranges.get(r).getField();
+                matches = ranges.get(r).test(container.page,
+                        container.starts[f] + i * fs[f].size());
+            }
+            if (matches) out[n++] = i;
+        }
+        return n;
+    }
+
+    /**
+     * Internal base class of cursors over a single field; it locates the
+     * first container once and then streams through the field's mini-pages.
+     */
+    private abstract class PageCursor {
+        // the layout the cursor reads through
+        private final Layout layout;
+        // the position of the field
+        private final int field;
+        // the codec of the field
+        protected final FieldCodec codec;
+        // the index of the first value
+        private final long begin;
+        // the number of values left to return
+        private long remaining;
+        // the position of the current container
+        private int container;
+        // the page of the current container
+        protected ByteBuffer page;
+        // the offset of the field's mini-page in the current page
+        private int start;
+        // the position in the current mini-page
+        private int position;
+        // the number of values in the current mini-page
+        private int limit;
+
+        /**
+         * Constructs a new cursor over the given range of a field.
+         *
+         * @param f the position of the field.
+         * @param b the index of the first value (inclusive).
+         * @param e the index of the last value (exclusive).
+         * @throws IndexOutOfBoundsException if the range is not within the
+         * boundaries of this store.
+         */
+        PageCursor(int f, long b, long e) throws IndexOutOfBoundsException {
+            if (b < 0 || e > size() || b > e) {
+                throw new IndexOutOfBoundsException("Bad range: [" + b + ", "
+                        + e + ") for size " + size());
+            }
+            layout = getLayout();
+            field = f;
+            codec = getCodec().getFields()[f];
+            begin = b;
+            remaining = e - b;
+            container = -1;
+        }
+
+        /**
+         * Returns whether there are more values.
+         *
+         * @return true if there are more values, false otherwise.
+         */
+        public boolean hasNext() { return remaining > 0; }
+
+        /**
+         * Internal method to move to the next value.
+         *
+         * @return the offset of the next value in the current page.
+         */
+        protected int advance() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            if (container < 0) {
+                container = layout.locate(begin);
+                position = (int) (begin - layout.containerBegin(container));
+                load();
+            }
+            while (position >= limit) {
+                container++;
+                position = 0;
+                load();
+            }
+            remaining--;
+            return start + position++ * codec.size();
+        }
+
+        /**
+         * Internal method to load the mini-page of the current container.
+         */
+        private void load() {
+            PaxStoreContainer c =
+                    (PaxStoreContainer) layout.getContainer(container);
+            page = c.page;
+            start = c.starts[field];
+            limit = c.occupied;
+        }
+    }
+
+    /**
+     * Cursor over a field as unboxed int values.
+     */
+    private class IntPageCursor extends PageCursor
+            implements PrimitiveIterator.OfInt {
+        IntPageCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public int nextInt() {
+            int o = advance();
+            return (int) codec.readLong(page, o);
+        }
+    }
+
+    /**
+     * Cursor over a field as unboxed long values.
+     */
+    private class LongPageCursor extends PageCursor
+            implements PrimitiveIterator.OfLong {
+        LongPageCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public long nextLong() {
+            int o = advance();
+            return codec.readLong(page, o);
+        }
+    }
+
+    /**
+     * Cursor over a field as unboxed double values.
+     */
+    private class DoublePageCursor extends PageCursor
+            implements PrimitiveIterator.OfDouble {
+        DoublePageCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public double nextDouble() {
+            int o = advance();
+            return codec.readDouble(page, o);
+        }
+    }
+
+    /**
+     * Internal class that encapsulates the containers of this store.
+     */
+    class PaxStoreContainer extends AbstractStoreContainer<T> {
+        // the page of the container
+        private final ByteBuffer page;
+        // the offset of each field's mini-page in the page
+        private final int [] starts;
+        // the number of occupied records
+        private int occupied;
+        // the number of records the container holds
+        private final int capacity;
+        // whether the page comes from the buffer pool
+        private final boolean pooled;
+
+        /**
+         * Constructs a PAX store container of the given capacity, over a page
+         * from the buffer pool.
+         *
+         * @param n the capacity of the container.
+         */
+        public PaxStoreContainer(int n) {
+            this(pageLayout(n), n);
+        }
+
+        /**
+         * Internal constructor given the layout of the page.
+         *
+         * @param l the offsets of the mini-pages and the size of the page.
+         * @param n the capacity of the container.
+         */
+        private PaxStoreContainer(int [] l, int n) {
+            this(BufferPool.getInstance().acquire(l[l.length - 1]), l, 0, n,
+                    true);
+        }
+
+        /**
+         * Constructs a container over an existing page, e.g., a region of a
+         * mapped file, that already holds the given number of records.
+         *
+         * @param b the page; it must be laid out for getAllocationSize()
+         * records.
+         * @param o the number of records already in the page.
+         */
+        public PaxStoreContainer(ByteBuffer b, int o) {
+            this(b, pageLayout(getAllocationSize()), o, getAllocationSize(),
+                    false);
+        }
+
+        /**
+         * Internal constructor given all parameters.
+         *
+         * @param b the page; it must be laid out for n records.
+         * @param l the offsets of the mini-pages.
+         * @param o the number of records already in the page.
+         * @param n the capacity of the container.
+         * @param p whether the page comes from the buffer pool.
+         */
+        private PaxStoreContainer(ByteBuffer b, int [] l, int o, int n,
+                                  boolean p) {
+            page = b;
+            starts = l;
+            occupied = o;
+            capacity = n;
+            pooled = p;
+        }
+
+        /**
+         * Returns the size of this container.
+         *
+         * @return the size of this container.
+         */
+        @Override
+        public int size() {
+            return occupied;
+        }
+
+        /**
+         * Returns the capacity of this container.
+         *
+         * @return the capacity of this container.
+         */
+        @Override
+        public int capacity() { return capacity; }
+
+        /**
+         * Retrieves the record at the given index.
+         *
+         * @param i the index of the record to be retrieved.
+         * @return the record at the given index.
+         * @throws BadAccessException if the record cannot be retrieved.
+         */
+        @Override
+        public T get(int i) throws BadAccessException {
+            return getCodec().readColumns(page, starts, i, null);
+        }
+
+        /**
+         * Reads the record at the given index into the given instance.
+         *
+         * @param i the index of the record to be retrieved.
+         * @param into the record instance to reuse; may be null.
+         * @return the record at the given index.
+         * @throws BadAccessException if the record cannot be retrieved.
+         */
+        @Override
+        public T get(int i, T into) throws BadAccessException {
+            return getCodec().readColumns(page, starts, i, into);
+        }
+
+        /**
+         * Adds a new record to this container.
+         *
+         * @param t the record to be added.
+         * @throws BadAccessException whenever the record cannot be added.
+         */
+        @Override
+        public void add(T t) throws BadAccessException {
+            getCodec().writeColumns(t, page, starts, occupied);
+            occupied++;
+        }
+    }
+
+    /**
+     * Debug main.
+     *
+     * @param s parameters.
+     */
+    public static void main(String [] s) {
+        class TestClass {
+            private byte flag;
+            private int key;
+            private long value;
+            public TestClass() { this(0, 0); }
+            public TestClass(int k, long v) {
+                flag = (byte) (k % 3);
+                key = k;
+                value = v;
+            }
+            public String toString() {
+                return "<" + flag + ", " + key + ", " + value + ">";
+            }
+        }
+        try {
+            PaxStore<TestClass> foo = new PaxStore<>(TestClass.class, 10);
+            PaxStore<TestClass> bar = new PaxStore<>(TestClass.class, 10);
+            for (int i = 0; i < 100; i++) foo.add(new TestClass(i, i*i));
+            for (int i = 1000; i < 1100; i++) bar.add(new TestClass(i, i*i));
+            for (TestClass i : foo) System.out.println("foo: " + i);
+            System.out.println("foo size: " + foo.size());
+            foo.append(bar);
+            System.out.println("foo size: " + foo.size());
+            System.out.println("at 150: " + foo.get(150));
+            PrimitiveIterator.OfLong values =
+                    foo.longColumn("value").longCursor(95, 105);
+            while (values.hasNext()) {
+                System.out.println("value: " + values.nextLong());
+            }
+        }
+        catch (Exception e) {
+            System.err.println("Exception " + e.getMessage());
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.lang.reflect.Array;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+
+/**
+ * A store of values of a primitive type kept unboxed, in one array per
+ * container. It holds the containers, bulk copies and the walk over the
+ * arrays; subclasses fix the element type and add unboxed access on top.
+ * <p>
+ * The store accepts null values, e.g., from mapping functions that return
+ * null: the positions of nulls are kept apart from the array, so boxed
+ * access returns them as null, while unboxed access reads them as zero
+ * (see {@link #isNull(long)}). Nulls are left out of the statistics, as
+ * they match no range.
+ *
+ * @param <T> the boxed type of the values.
+ * @param <A> the array type of the values, e.g., int [].
+ */
+public abstract class PrimitiveStore<T, A> extends AbstractStore<T> {
+    /**
+     * Constructs a new store given the type of its values.
+     *
+     * @param c the boxed type of the values.
+     */
+    protected PrimitiveStore(Class<T> c) {
+        super(c);
+    }
+
+    /**
+     * Constructs a new store given the type of its values and its
+     * allocation increment.
+     *
+     * @param c the boxed type of the values.
+     * @param da the allocation increment.
+     */
+    protected PrimitiveStore(Class<T> c, int da) {
+        super(c, da);
+    }
+
+    /**
+     * Constructs a new store given the type of its values, its largest
+     * allocation increment and its allocation policy.
+     *
+     * @param c the boxed type of the values.
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     */
+    protected PrimitiveStore(Class<T> c, int da, AllocationPolicy p) {
+        super(c, da, p);
+    }
+
+    /**
+     * Allocates an array of values.
+     *
+     * @param n the length of the array.
+     * @return a new array.
+     */
+    protected abstract A newArray(int n);
+
+    /**
+     * Boxes a value of an array.
+     *
+     * @param values the array.
+     * @param i the index of the value.
+     * @return the boxed value.
+     */
+    protected abstract T box(A values, int i);
+
+    /**
+     * Stores a (non-null) boxed value in an array.
+     *
+     * @param t the value.
+     * @param values the array.
+     * @param i the index to store the value at.
+     */
+    protected abstract void unbox(T t, A values, int i);
+
+    /**
+     * Accounts for a value of an array in the statistics of its container.
+     *
+     * @param z the statistics.
+     * @param values the array.
+     * @param i the index of the value.
+     */
+    protected abstract void summarise(ZoneMap z, A values, int i);
+
+    /**
+     * Internal method to allocate containers of this store.
+     *
+     * @param capacity the capacity of the container.
+     * @return a new container for this store.
+     */
+    @Override
+    protected AbstractStoreContainer<T> allocateContainer(int capacity) {
+        return new PrimitiveContainer(capacity);
+    }
+
+    /**
+     * Values are copied into the store's arrays when added.
+     *
+     * @return always true.
+     */
+    @Override
+    public boolean copiesRecords() { return true; }
+
+    /**
+     * Internal method to retrieve the container the next value should be
+     * stored in; the caller stores it at the container's occupied position,
+     * then proceeds as for {@link #appendTarget()}.
+     *
+     * @return the container to add the next value to.
+     */
+    @SuppressWarnings("unchecked")
+    protected PrimitiveContainer appendContainer() {
+        return (PrimitiveContainer) appendTarget();
+    }
+
+    /**
+     * Returns whether the value at the given index is null.
+     *
+     * @param i the index of the value.
+     * @return true if the value is null, false otherwise.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public boolean isNull(long i) throws IndexOutOfBoundsException {
+        Layout l = getLayout();
+        int c = locateChecked(l, i);
+        return containerAt(l, c).isNull((int) (i - l.containerBegin(c)));
+    }
+
+    /**
+     * Internal method to copy values between containers in bulk during
+     * compaction.
+     *
+     * @param src the container to copy from.
+     * @param from the position of the first value to copy in the source.
+     * @param dst the container to copy to, with room for all values.
+     * @param n the number of values to copy.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void transfer(AbstractStoreContainer<T> src, int from,
+                            AbstractStoreContainer<T> dst, int n) {
+        PrimitiveContainer source = (PrimitiveContainer) src;
+        PrimitiveContainer destination = (PrimitiveContainer) dst;
+        int begin = destination.occupied;
+        System.arraycopy(source.values, from, destination.values, begin, n);
+        ZoneMap z = destination.getStatistics();
+        for (int i = 0; i < n; i++) {
+            if (source.isNull(from + i)) {
+                destination.setNull(begin + i);
+                z.add(null);
+            }
+            else {
+                summarise(z, destination.values, begin + i);
+            }
+        }
+        destination.occupied = begin + n;
+    }
+
+    /**
+     * Internal method to locate the container of a value, checking that the
+     * value exists.
+     *
+     * @param l the layout to read through.
+     * @param i the index of the value.
+     * @return the position of the container in the layout.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    protected int locateChecked(Layout l, long i)
+            throws IndexOutOfBoundsException {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + i + " > "
+                    + size());
+        }
+        return l.locate(i);
+    }
+
+    /**
+     * Internal method to retrieve a container through a layout.
+     *
+     * @param l the layout.
+     * @param c the position of the container in the layout.
+     * @return the container.
+     */
+    @SuppressWarnings("unchecked")
+    protected PrimitiveContainer containerAt(Layout l, int c) {
+        return (PrimitiveContainer) l.getContainer(c);
+    }
+
+    /**
+     * Copies a range of values into an array; nulls are copied as zero.
+     *
+     * @param begin the index of the first value to copy.
+     * @param dst the destination array.
+     * @param off the offset in the destination array.
+     * @param len the number of values to copy.
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * boundaries of this dataset or of the destination array.
+     */
+    protected void copy(long begin, A dst, int off, int len)
+            throws IndexOutOfBoundsException {
+        if (begin < 0 || begin + len > size() || off < 0
+                || off + len > Array.getLength(dst)) {
+            throw new IndexOutOfBoundsException("Bad range: [" + begin + ", "
+                    + (begin + len) + ") for size " + size());
+        }
+        if (len == 0) return;
+        Layout l = getLayout();
+        int c = l.locate(begin);
+        int position = (int) (begin - l.containerBegin(c));
+        while (len > 0) {
+            PrimitiveContainer container = containerAt(l, c);
+            int n = Math.min(len, container.occupied - position);
+            System.arraycopy(container.values, position, dst, off, n);
+            off += n;
+            len -= n;
+            position = 0;
+            c++;
+        }
+    }
+
+    /**
+     * Internal class that encapsulates the containers of this store.
+     */
+    protected class PrimitiveContainer extends AbstractStoreContainer<T> {
+        // the values of this container
+        final A values;
+        // the length of the array of values
+        private final int capacity;
+        // the positions of null values; null if there are none
+        private BitSet nulls;
+        // number of values occupied
+        int occupied;
+
+        /**
+         * Constructs a container of the given capacity.
+         *
+         * @param n the capacity of the container.
+         */
+        PrimitiveContainer(int n) {
+            values = newArray(n);
+            capacity = n;
+            nulls = null;
+            occupied = 0;
+        }
+
+        /**
+         * Returns the size of this container.
+         *
+         * @return the size of this container.
+         */
+        @Override
+        public int size() { return occupied; }
+
+        /**
+         * Returns the capacity of this container.
+         *
+         * @return the capacity of this container.
+         */
+        @Override
+        public int capacity() { return capacity; }
+
+        /**
+         * Retrieves the value at the given index, boxed.
+         *
+         * @param i the index of the value to be retrieved.
+         * @return the value at the given index, or null.
+         */
+        @Override
+        public T get(int i) { return isNull(i) ? null : box(values, i); }
+
+        /**
+         * Adds a new (boxed) value to this container.
+         *
+         * @param t the value to be added; may be null.
+         */
+        @Override
+        public void add(T t) {
+            if (t == null) setNull(occupied);
+            else unbox(t, values, occupied);
+            occupied++;
+        }
+
+        /**
+         * Returns whether the value at the given index is null.
+         *
+         * @param i the index of the value.
+         * @return true if the value is null, false otherwise.
+         */
+        boolean isNull(int i) { return nulls != null && nulls.get(i); }
+
+        /**
+         * Internal method to mark the value at the given index as null.
+         *
+         * @param i the index of the value.
+         */
+        private void setNull(int i) {
+            if (nulls == null) nulls = new BitSet();
+            nulls.set(i);
+        }
+    }
+
+    /**
+     * Internal class for unboxed cursors: walks the containers' arrays over
+     * a range of indexes; subclasses read the value at each position.
+     */
+    protected abstract class ValueCursor {
+        // the layout the cursor reads through
+        private final Layout layout;
+        // the index of the first value
+        private final long begin;
+        // the number of values left to return
+        private long remaining;
+        // the position of the current container; -1 before the first value
+        private int container;
+        // the position in the current container
+        private int position;
+        // the number of values in the current container
+        private int limit;
+        // the values of the current container
+        protected A values;
+
+        /**
+         * Constructs a new cursor over the given range of indexes.
+         *
+         * @param b the index of the first value (inclusive).
+         * @param e the index of the last value (exclusive).
+         * @throws IndexOutOfBoundsException if the range is not within the
+         * boundaries of this store.
+         */
+        protected ValueCursor(long b, long e)
+                throws IndexOutOfBoundsException {
+            if (b < 0 || e > size() || b > e) {
+                throw new IndexOutOfBoundsException("Bad range: [" + b + ", "
+                        + e + ") for size " + size());
+            }
+            layout = getLayout();
+            begin = b;
+            remaining = e - b;
+            container = -1;
+        }
+
+        /**
+         * Returns whether there are more values.
+         *
+         * @return true if there are more values, false otherwise.
+         */
+        public boolean hasNext() { return remaining > 0; }
+
+        /**
+         * Internal method to move to the next value.
+         *
+         * @return the index of the next value in the current array.
+         */
+        protected int advance() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            if (container < 0) {
+                container = layout.locate(begin);
+                position = (int) (begin - layout.containerBegin(container));
+                load();
+            }
+            while (position >= limit) {
+                container++;
+                position = 0;
+                load();
+            }
+            remaining--;
+            return position++;
+        }
+
+        /**
+         * Internal method to load the array of the current container.
+         */
+        private void load() {
+            values = containerAt(layout, container).values;
+            limit = layout.containerSize(container);
+        }
+    }
+}
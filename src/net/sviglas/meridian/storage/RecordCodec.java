@@ -0,0 +1,572 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and writes whole records of a given type, either to a fixed-width
+ * slot of a byte buffer or to a set of columns. A codec is built once per
+ * record type from the dataset's field metadata and is shared by all datasets
+ * of that type.
+ *
+ * @param <T> the record type.
+ */
+abstract class RecordCodec<T> {
+    // the name given to the single column of primitive-typed records
+    static final String VALUE_NAME = "COLUMN";
+    // cache of codecs per record type
+    private static final Map<Class<?>, RecordCodec<?>> CODECS =
+            new ConcurrentHashMap<>();
+    // the field codecs, in field order
+    private final FieldCodec [] fields;
+    // the offset of each field within a serialized record
+    private final int [] offsets;
+    // the size of a serialized record in bytes
+    private final int size;
+
+    /**
+     * Constructs a new codec for the given field codecs.
+     *
+     * @param fs the field codecs, in field order.
+     */
+    protected RecordCodec(FieldCodec [] fs) {
+        fields = fs;
+        offsets = new int [fs.length];
+        int s = 0;
+        for (int f = 0; f < fs.length; f++) {
+            offsets[f] = s;
+            s += fs[f].size();
+        }
+        size = s;
+    }
+
+    /**
+     * Retrieves the codec for the given record type, building it if this is
+     * the first time the type is seen.
+     *
+     * @param c the record type.
+     * @param fs the (accessible) fields of the record type, or null if the
+     * record type is itself a primitive type.
+     * @param <T> the record type.
+     * @return the codec for the record type.
+     * @throws BadTypeException if the record type cannot be encoded.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> RecordCodec<T> forType(Class<T> c, Field [] fs)
+            throws BadTypeException {
+        RecordCodec<?> codec = CODECS.get(c);
+        if (codec == null) {
+            codec = fs == null ? new ValueCodec<>(c) : new FieldsCodec<>(c, fs);
+            RecordCodec<?> previous = CODECS.putIfAbsent(c, codec);
+            if (previous != null) codec = previous;
+        }
+        return (RecordCodec<T>) codec;
+    }
+
+    /**
+     * Retrieves the codec for the given record type, resolving its fields
+     * the same way datasets do if this is the first time the type is seen.
+     *
+     * @param c the record type.
+     * @param <T> the record type.
+     * @return the codec for the record type.
+     * @throws BadTypeException if the record type cannot be encoded.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> RecordCodec<T> forType(Class<T> c) throws BadTypeException {
+        RecordCodec<?> codec = CODECS.get(c);
+        if (codec != null) return (RecordCodec<T>) codec;
+        if (Dataset.isSupported(c)) return forType(c, null);
+        Field [] fs = c.getDeclaredFields();
+        try {
+            for (Field f : fs) f.setAccessible(true);
+        }
+        catch (SecurityException e) {
+            throw new BadTypeException("Could not access fields of type " + c
+                    + ": " + e.getMessage(), e);
+        }
+        return forType(c, fs);
+    }
+
+    /**
+     * Returns the field codecs of this codec, in field order.
+     *
+     * @return the field codecs.
+     */
+    FieldCodec [] getFields() { return fields; }
+
+    /**
+     * Returns the position of the field with the given name.
+     *
+     * @param n the name of the field.
+     * @return the position of the field, or -1 if there is no such field.
+     */
+    int indexOf(String n) {
+        for (int f = 0; f < fields.length; f++) {
+            if (fields[f].getName().equals(n)) return f;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the given field within a serialized record.
+     *
+     * @param f the position of the field.
+     * @return the offset of the field in bytes.
+     */
+    int offset(int f) { return offsets[f]; }
+
+    /**
+     * Returns the size of a serialized record.
+     *
+     * @return the size of a serialized record in bytes.
+     */
+    int size() { return size; }
+
+    /**
+     * Allocates one column per field.
+     *
+     * @param n the number of values per column.
+     * @return the columns, in field order.
+     */
+    Object [] makeColumns(int n) {
+        Object [] columns = new Object [fields.length];
+        for (int f = 0; f < fields.length; f++) {
+            columns[f] = fields[f].makeColumn(n);
+        }
+        return columns;
+    }
+
+    /**
+     * Reads a record from an absolute offset of a buffer.
+     *
+     * @param b the buffer.
+     * @param o the offset of the record in the buffer.
+     * @return the record.
+     * @throws BadAccessException if the record cannot be read.
+     */
+    abstract T read(ByteBuffer b, int o) throws BadAccessException;
+
+    /**
+     * Reads a record from an absolute offset of a buffer into the given
+     * record, if the record type allows it.
+     *
+     * @param b the buffer.
+     * @param o the offset of the record in the buffer.
+     * @param into the record to read into; if null, a new one is allocated.
+     * @return the record read, which is into unless into is null or the
+     * records are of a primitive type.
+     * @throws BadAccessException if the record cannot be read.
+     */
+    abstract T read(ByteBuffer b, int o, T into) throws BadAccessException;
+
+    /**
+     * Writes a record at an absolute offset of a buffer.
+     *
+     * @param t the record.
+     * @param b the buffer.
+     * @param o the offset of the record in the buffer.
+     * @throws BadAccessException if the record cannot be written.
+     */
+    abstract void write(T t, ByteBuffer b, int o) throws BadAccessException;
+
+    /**
+     * Reads a record from columns laid out in a buffer, the value of field f
+     * of record i at starts[f] + i times the field's size.
+     *
+     * @param b the buffer.
+     * @param starts the offset of each field's column in the buffer.
+     * @param i the index of the record in the columns.
+     * @param into the record to read into; if null, a new one is allocated.
+     * @return the record read, which is into unless into is null or the
+     * records are of a primitive type.
+     * @throws BadAccessException if the record cannot be read.
+     */
+    abstract T readColumns(ByteBuffer b, int [] starts, int i, T into)
+            throws BadAccessException;
+
+    /**
+     * Writes a record into columns laid out in a buffer, the value of field
+     * f of record i at starts[f] + i times the field's size.
+     *
+     * @param t the record.
+     * @param b the buffer.
+     * @param starts the offset of each field's column in the buffer.
+     * @param i the index of the record in the columns.
+     * @throws BadAccessException if the record cannot be written.
+     */
+    abstract void writeColumns(T t, ByteBuffer b, int [] starts, int i)
+            throws BadAccessException;
+
+    /**
+     * Reads a record from an offset of a block of native memory, field f at
+     * the record's offset plus offsets[f].
+     *
+     * @param m the block.
+     * @param o the offset of the record in the block.
+     * @param offsets the offset of each field within the record.
+     * @param into the record to read into; if null, a new one is allocated.
+     * @return the record read, which is into unless into is null or the
+     * records are of a primitive type.
+     * @throws BadAccessException if the record cannot be read.
+     */
+    abstract T read(NativeMemory m, long o, int [] offsets, T into)
+            throws BadAccessException;
+
+    /**
+     * Writes a record at an offset of a block of native memory, field f at
+     * the record's offset plus offsets[f].
+     *
+     * @param t the record.
+     * @param m the block.
+     * @param o the offset of the record in the block.
+     * @param offsets the offset of each field within the record.
+     * @throws BadAccessException if the record cannot be written.
+     */
+    abstract void write(T t, NativeMemory m, long o, int [] offsets)
+            throws BadAccessException;
+
+    /**
+     * Loads a record from a set of columns.
+     *
+     * @param c the columns, in field order.
+     * @param i the index of the record in the columns.
+     * @return the record.
+     * @throws BadAccessException if the record cannot be loaded.
+     */
+    abstract T load(Object [] c, int i) throws BadAccessException;
+
+    /**
+     * Loads a record from a set of columns into the given record, if the
+     * record type allows it.
+     *
+     * @param c the columns, in field order.
+     * @param i the index of the record in the columns.
+     * @param into the record to load into; if null, a new one is allocated.
+     * @return the record loaded, which is into unless into is null or the
+     * records are of a primitive type.
+     * @throws BadAccessException if the record cannot be loaded.
+     */
+    abstract T load(Object [] c, int i, T into) throws BadAccessException;
+
+    /**
+     * Loads a record from a set of columns, some of which may be encoded,
+     * into the given record, if the record type allows it.
+     *
+     * @param c the columns, in field order; each is either a column array or
+     * an {@link EncodedColumn}.
+     * @param i the index of the record in the columns.
+     * @param into the record to load into; if null, a new one is allocated.
+     * @return the record loaded, which is into unless into is null or the
+     * records are of a primitive type.
+     * @throws BadAccessException if the record cannot be loaded.
+     */
+    abstract T loadEncoded(Object [] c, int i, T into)
+            throws BadAccessException;
+
+    /**
+     * Loads some of the fields of a record from a set of columns, some of
+     * which may be encoded, into the given record; the other fields of the
+     * record are left as they are.
+     *
+     * @param c the columns, in field order; each is either a column array or
+     * an {@link EncodedColumn}.
+     * @param i the index of the record in the columns.
+     * @param into the record to load into; if null, a new one is allocated.
+     * @param fields the positions of the fields to load.
+     * @return the record loaded, which is into unless into is null or the
+     * records are of a primitive type.
+     * @throws BadAccessException if the record cannot be loaded.
+     */
+    abstract T loadFields(Object [] c, int i, T into, int [] fields)
+            throws BadAccessException;
+
+    /**
+     * Stores a record in a set of columns.
+     *
+     * @param t the record.
+     * @param c the columns, in field order.
+     * @param i the index of the record in the columns.
+     * @throws BadAccessException if the record cannot be stored.
+     */
+    abstract void store(T t, Object [] c, int i) throws BadAccessException;
+
+    /**
+     * Codec for records that are themselves of a primitive type.
+     *
+     * @param <T> the record type.
+     */
+    static final class ValueCodec<T> extends RecordCodec<T> {
+        // the codec of the single value
+        private final FieldCodec value;
+
+        /**
+         * Constructs a new codec for the given primitive type.
+         *
+         * @param c the record type.
+         * @throws BadTypeException if the type is not supported.
+         */
+        ValueCodec(Class<T> c) throws BadTypeException {
+            this(FieldCodec.forValue(VALUE_NAME, c));
+        }
+
+        /**
+         * Internal constructor given the codec of the single value.
+         *
+         * @param v the value codec.
+         */
+        private ValueCodec(FieldCodec v) {
+            super(new FieldCodec [] { v });
+            value = v;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T read(ByteBuffer b, int o) { return (T) value.readValue(b, o); }
+
+        @Override
+        T read(ByteBuffer b, int o, T into) { return read(b, o); }
+
+        @Override
+        void write(T t, ByteBuffer b, int o) { value.writeValue(t, b, o); }
+
+        @Override
+        T readColumns(ByteBuffer b, int [] starts, int i, T into) {
+            return read(b, starts[0] + i * value.size());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T read(NativeMemory m, long o, int [] offsets, T into) {
+            return (T) value.readValue(m, o + offsets[0]);
+        }
+
+        @Override
+        void write(T t, NativeMemory m, long o, int [] offsets) {
+            value.writeValue(t, m, o + offsets[0]);
+        }
+
+        @Override
+        void writeColumns(T t, ByteBuffer b, int [] starts, int i) {
+            write(t, b, starts[0] + i * value.size());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T load(Object [] c, int i) { return (T) value.loadValue(c[0], i); }
+
+        @Override
+        T load(Object [] c, int i, T into) { return load(c, i); }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T loadEncoded(Object [] c, int i, T into) {
+            if (! (c[0] instanceof EncodedColumn)) return load(c, i);
+            return (T) value.boxLong(((EncodedColumn) c[0]).get(i));
+        }
+
+        @Override
+        T loadFields(Object [] c, int i, T into, int [] fields) {
+            return loadEncoded(c, i, into);
+        }
+
+        @Override
+        void store(T t, Object [] c, int i) { value.storeValue(t, c[0], i); }
+    }
+
+    /**
+     * Codec for records consisting of primitive-typed fields.
+     *
+     * @param <T> the record type.
+     */
+    static final class FieldsCodec<T> extends RecordCodec<T> {
+        // the record type
+        private final Class<T> type;
+        // the parameter-less constructor, adapted to () -> Object
+        private final MethodHandle constructor;
+
+        /**
+         * Constructs a new codec for the given record type and fields.
+         *
+         * @param c the record type.
+         * @param fs the accessible fields of the record type.
+         * @throws BadTypeException if the record type cannot be instantiated
+         * or its fields cannot be accessed.
+         */
+        FieldsCodec(Class<T> c, Field [] fs) throws BadTypeException {
+            super(fieldCodecs(fs));
+            type = c;
+            try {
+                Constructor<T> ctor = c.getDeclaredConstructor();
+                ctor.setAccessible(true);
+                constructor = MethodHandles.lookup().unreflectConstructor(ctor)
+                        .asType(MethodType.methodType(Object.class));
+            }
+            catch (NoSuchMethodException | IllegalAccessException
+                    | SecurityException e) {
+                throw new BadTypeException("Could not access default "
+                        + "constructor of type " + c + ": " + e.getMessage(),
+                        e);
+            }
+        }
+
+        /**
+         * Internal method to build the codecs of a list of fields.
+         *
+         * @param fs the fields.
+         * @return the field codecs.
+         * @throws BadTypeException if a field is not of a supported type.
+         */
+        private static FieldCodec [] fieldCodecs(Field [] fs)
+                throws BadTypeException {
+            FieldCodec [] codecs = new FieldCodec [fs.length];
+            for (int f = 0; f < fs.length; f++) {
+                codecs[f] = FieldCodec.forField(fs[f]);
+            }
+            return codecs;
+        }
+
+        /**
+         * Internal method to instantiate a new record.
+         *
+         * @return a new record.
+         * @throws BadAccessException if the record cannot be instantiated.
+         */
+        private T instantiate() throws BadAccessException {
+            try {
+                return type.cast(constructor.invokeExact());
+            }
+            catch (Throwable t) {
+                throw new BadAccessException("Could not instantiate type "
+                        + "through default constructor: " + t.getMessage(), t);
+            }
+        }
+
+        @Override
+        T read(ByteBuffer b, int o) throws BadAccessException {
+            return read(b, o, null);
+        }
+
+        @Override
+        T read(ByteBuffer b, int o, T into) throws BadAccessException {
+            T t = into != null ? into : instantiate();
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) {
+                fs[f].read(b, o + offset(f), t);
+            }
+            return t;
+        }
+
+        @Override
+        void write(T t, ByteBuffer b, int o) throws BadAccessException {
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) {
+                fs[f].write(t, b, o + offset(f));
+            }
+        }
+
+        @Override
+        T read(NativeMemory m, long o, int [] offsets, T into)
+                throws BadAccessException {
+            T t = into != null ? into : instantiate();
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) {
+                fs[f].read(m, o + offsets[f], t);
+            }
+            return t;
+        }
+
+        @Override
+        void write(T t, NativeMemory m, long o, int [] offsets)
+                throws BadAccessException {
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) {
+                fs[f].write(t, m, o + offsets[f]);
+            }
+        }
+
+        @Override
+        T readColumns(ByteBuffer b, int [] starts, int i, T into)
+                throws BadAccessException {
+            T t = into != null ? into : instantiate();
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) {
+                fs[f].read(b, starts[f] + i * fs[f].size(), t);
+            }
+            return t;
+        }
+
+        @Override
+        void writeColumns(T t, ByteBuffer b, int [] starts, int i)
+                throws BadAccessException {
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) {
+                fs[f].write(t, b, starts[f] + i * fs[f].size());
+            }
+        }
+
+        @Override
+        T load(Object [] c, int i) throws BadAccessException {
+            return load(c, i, null);
+        }
+
+        @Override
+        T load(Object [] c, int i, T into) throws BadAccessException {
+            T t = into != null ? into : instantiate();
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) fs[f].load(c[f], i, t);
+            return t;
+        }
+
+        @Override
+        T loadEncoded(Object [] c, int i, T into) throws BadAccessException {
+            T t = into != null ? into : instantiate();
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) {
+                if (c[f] instanceof EncodedColumn) {
+                    fs[f].setLong(t, ((EncodedColumn) c[f]).get(i));
+                }
+                else {
+                    fs[f].load(c[f], i, t);
+                }
+            }
+            return t;
+        }
+
+        @Override
+        T loadFields(Object [] c, int i, T into, int [] fields)
+                throws BadAccessException {
+            T t = into != null ? into : instantiate();
+            FieldCodec [] fs = getFields();
+            for (int f : fields) {
+                if (c[f] instanceof EncodedColumn) {
+                    fs[f].setLong(t, ((EncodedColumn) c[f]).get(i));
+                }
+                else {
+                    fs[f].load(c[f], i, t);
+                }
+            }
+            return t;
+        }
+
+        @Override
+        void store(T t, Object [] c, int i) throws BadAccessException {
+            FieldCodec [] fs = getFields();
+            for (int f = 0; f < fs.length; f++) fs[f].store(t, c[f], i);
+        }
+    }
+}
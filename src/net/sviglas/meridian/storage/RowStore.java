@@ -8,16 +8,34 @@
 
 package net.sviglas.meridian.storage;
 
-import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 /**
  * A row store lays out the records contiguously in a directly allocated array
- * of bytes.
+ * of bytes. Records are encoded through the dataset's record codec, at
+ * absolute offsets of each container's buffer. Buffers are taken from the
+ * shared {@link BufferPool} and go back to it when the store is released.
+ * <p>
+ * Reads never move a buffer's position, so any number of threads can read a
+ * row store at once, e.g., the workers of a fork/join pool scanning disjoint
+ * or overlapping ranges, without locking or copying the store; writers must
+ * still be exclusive. Views handed out over a container's records are
+ * independent buffers that each reader can position freely.
+ * <p>
+ * Single fields can be read straight from the buffers, at the field's offset
+ * within the record, without rebuilding records: one field of one record,
+ * unboxed projections of the store on a field, and selections on ranges of
+ * fields.
  *
  * @param <T> the type of records this dataset hosts.
  */
 public class RowStore<T> extends AbstractStore<T> {
+    // the name of the single field of records of a primitive type
+    public static final String DEFAULT_COLUMN = RecordCodec.VALUE_NAME;
     // the default chunk size for an allocation
     private static final int CHUNK_SIZE = 4096;
 
@@ -47,6 +65,37 @@ public class RowStore<T> extends AbstractStore<T> {
         super(c, da);
     }
 
+    /**
+     * Constructs a new row store given the type of its records, its
+     * largest allocation increment and its allocation policy.
+     *
+     * @param c the record type.
+     * @param da the largest allocation increment.
+     * @param p the allocation policy.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    public RowStore(Class<T> c, int da, AllocationPolicy p)
+            throws BadTypeException {
+        super(c, da, p);
+    }
+
+    /**
+     * Constructs a new row store given the type of its records and an already
+     * aligned allocation increment.
+     *
+     * @param c the record type.
+     * @param da the aligned allocation increment.
+     * @param aligned whether the allocation increment is already aligned.
+     * @throws BadTypeException if the type does not have a parameter-less
+     * constructor, or if the type is not a primitive type, or if its fields are
+     * not primitive-typed.
+     */
+    RowStore(Class<T> c, int da, boolean aligned) throws BadTypeException {
+        super(c, da, aligned);
+    }
+
     /**
      * Aligns the allocation size to the size of an operating system page.
      *
@@ -58,14 +107,437 @@ public class RowStore<T> extends AbstractStore<T> {
         return ((da * getRecordSize()) / CHUNK_SIZE + 1) * CHUNK_SIZE;
     }
 
+    /**
+     * Records are copied into the store's own storage when added.
+     *
+     * @return always true.
+     */
+    @Override
+    public boolean copiesRecords() { return true; }
+
+    /**
+     * Returns a read-only view over the occupied part of a container's buffer.
+     *
+     * @param c the position of the container, in list order.
+     * @return a buffer over the container's records.
+     */
+    ByteBuffer containerBuffer(int c) {
+        RowStoreContainer container = (RowStoreContainer) getContainer(c);
+        ByteBuffer b = container.contents.asReadOnlyBuffer();
+        b.position(0);
+        b.limit(container.occupied * getRecordSize());
+        return b;
+    }
+
+    /**
+     * Returns the position of the given field within the records.
+     *
+     * @param field the name of the field; for records of a primitive type the
+     * only field is named {@link #DEFAULT_COLUMN}.
+     * @return the position of the field.
+     * @throws BadAccessException if there is no such field.
+     */
+    public int fieldIndex(String field) throws BadAccessException {
+        int f = getCodec().indexOf(field);
+        if (f < 0) {
+            throw new BadAccessException("No field " + field + " in type "
+                    + getRecordType());
+        }
+        return f;
+    }
+
+    /**
+     * Reads an integral field no wider than int of a record, without
+     * rebuilding the record.
+     *
+     * @param row the index of the record.
+     * @param field the name of the field.
+     * @return the value of the field.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to int.
+     */
+    public int getIntField(long row, String field)
+            throws IndexOutOfBoundsException, BadAccessException,
+            BadTypeException {
+        return getIntField(row, fieldIndex(field));
+    }
+
+    /**
+     * Reads an integral field no wider than int of a record, given the
+     * position of the field, without rebuilding the record.
+     *
+     * @param row the index of the record.
+     * @param f the position of the field.
+     * @return the value of the field.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     * @throws BadTypeException if the field does not widen to int.
+     */
+    public int getIntField(long row, int f)
+            throws IndexOutOfBoundsException, BadTypeException {
+        if (! getCodec().getFields()[f].widensToInt()) {
+            throw new BadTypeException("Field "
+                    + getCodec().getFields()[f].getName()
+                    + " does not widen to int");
+        }
+        return (int) getLongField(row, f);
+    }
+
+    /**
+     * Reads an integral field of a record, without rebuilding the record.
+     *
+     * @param row the index of the record.
+     * @param field the name of the field.
+     * @return the value of the field.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to long.
+     */
+    public long getLongField(long row, String field)
+            throws IndexOutOfBoundsException, BadAccessException,
+            BadTypeException {
+        return getLongField(row, fieldIndex(field));
+    }
+
+    /**
+     * Reads an integral field of a record, given the position of the field,
+     * without rebuilding the record.
+     *
+     * @param row the index of the record.
+     * @param f the position of the field.
+     * @return the value of the field.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     * @throws BadTypeException if the field does not widen to long.
+     */
+    public long getLongField(long row, int f)
+            throws IndexOutOfBoundsException, BadTypeException {
+        if (row < 0 || row >= size()) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + row
+                    + " > " + size());
+        }
+        Layout l = getLayout();
+        int c = l.locate(row);
+        RowStoreContainer container = (RowStoreContainer) l.getContainer(c);
+        int o = (int) (row - l.containerBegin(c)) * getRecordSize()
+                + getCodec().offset(f);
+        return getCodec().getFields()[f].readLong(container.contents, o);
+    }
+
+    /**
+     * Reads a numeric field of a record, without rebuilding the record.
+     *
+     * @param row the index of the record.
+     * @param field the name of the field.
+     * @return the value of the field.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     * @throws BadAccessException if there is no such field.
+     */
+    public double getDoubleField(long row, String field)
+            throws IndexOutOfBoundsException, BadAccessException {
+        return getDoubleField(row, fieldIndex(field));
+    }
+
+    /**
+     * Reads a numeric field of a record, given the position of the field,
+     * without rebuilding the record.
+     *
+     * @param row the index of the record.
+     * @param f the position of the field.
+     * @return the value of the field.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public double getDoubleField(long row, int f)
+            throws IndexOutOfBoundsException {
+        if (row < 0 || row >= size()) {
+            throw new IndexOutOfBoundsException("Out of bounds: " + row
+                    + " > " + size());
+        }
+        Layout l = getLayout();
+        int c = l.locate(row);
+        RowStoreContainer container = (RowStoreContainer) l.getContainer(c);
+        int o = (int) (row - l.containerBegin(c)) * getRecordSize()
+                + getCodec().offset(f);
+        return getCodec().getFields()[f].readDouble(container.contents, o);
+    }
+
+    /**
+     * Returns the projection of this store on an integral field no wider than
+     * int, as a source of unboxed int values read straight from the buffers.
+     *
+     * @param field the name of the field.
+     * @return an int source over the field.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to int.
+     */
+    public IntSource intColumn(String field)
+            throws BadAccessException, BadTypeException {
+        final int f = fieldIndex(field);
+        if (! getCodec().getFields()[f].widensToInt()) {
+            throw new BadTypeException("Field " + field + " does not widen "
+                    + "to int");
+        }
+        return new IntSource() {
+            @Override
+            public long size() { return RowStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfInt intCursor(long begin, long end) {
+                return new IntFieldCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Returns the projection of this store on an integral field, as a source
+     * of unboxed long values read straight from the buffers.
+     *
+     * @param field the name of the field.
+     * @return a long source over the field.
+     * @throws BadAccessException if there is no such field.
+     * @throws BadTypeException if the field does not widen to long.
+     */
+    public LongSource longColumn(String field)
+            throws BadAccessException, BadTypeException {
+        final int f = fieldIndex(field);
+        if (! getCodec().getFields()[f].widensToLong()) {
+            throw new BadTypeException("Field " + field + " does not widen "
+                    + "to long");
+        }
+        return new LongSource() {
+            @Override
+            public long size() { return RowStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfLong longCursor(long begin, long end) {
+                return new LongFieldCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Returns the projection of this store on a numeric field, as a source of
+     * unboxed double values read straight from the buffers.
+     *
+     * @param field the name of the field.
+     * @return a double source over the field.
+     * @throws BadAccessException if there is no such field.
+     */
+    public DoubleSource doubleColumn(String field) throws BadAccessException {
+        final int f = fieldIndex(field);
+        return new DoubleSource() {
+            @Override
+            public long size() { return RowStore.this.size(); }
+
+            @Override
+            public PrimitiveIterator.OfDouble doubleCursor(long begin,
+                                                           long end) {
+                return new DoubleFieldCursor(f, begin, end);
+            }
+        };
+    }
+
+    /**
+     * Selects the records of a container within a range of positions that
+     * lie within all the given ranges, testing the fields in the container's
+     * buffer without rebuilding records.
+     *
+     * @param l the layout to read through, e.g., that the positions of
+     * containers were taken from.
+     * @param c the position of the container in the layout.
+     * @param from the position of the first record in the container
+     * (inclusive).
+     * @param to the position of the last record in the container
+     * (exclusive).
+     * @param ranges the ranges, all of which must hold.
+     * @param out the array to write the positions of the selected records
+     * to, in order; it must have room for to - from positions.
+     * @return the number of records selected.
+     */
+    @Override
+    public int select(Layout l, int c, int from, int to,
+                      List<FieldRange> ranges, int [] out) {
+        ByteBuffer b = ((RowStoreContainer) l.getContainer(c)).contents;
+        int size = getRecordSize();
+        int [] offsets = new int [ranges.size()];
+        for (int r = 0; r < offsets.length; r++) {
+            offsets[r] = getCodec().offset(ranges.get(r).getField());
+        }
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            boolean matches = true;
+            for (int r = 0; matches && r < offsets.length; r++) {
+                matches = ranges.get(r).test(b, i * size + offsets[r]);
+            }
+            if (matches) out[n++] = i;
+        }
+        return n;
+    }
+
+    /**
+     * Internal base class of cursors over a single field; it locates the
+     * first container once and then steps through the buffers a record at a
+     * time.
+     */
+    private abstract class FieldCursor {
+        // the layout the cursor reads through
+        private final Layout layout;
+        // the codec of the field
+        protected final FieldCodec codec;
+        // the offset of the field within a record
+        private final int offset;
+        // the index of the first value
+        private final long begin;
+        // the number of values left to return
+        private long remaining;
+        // the position of the current container
+        private int container;
+        // the buffer of the current container
+        protected ByteBuffer contents;
+        // the position in the current container
+        private int position;
+        // the number of records in the current container
+        private int limit;
+
+        /**
+         * Constructs a new cursor over the given range of a field.
+         *
+         * @param f the position of the field.
+         * @param b the index of the first value (inclusive).
+         * @param e the index of the last value (exclusive).
+         * @throws IndexOutOfBoundsException if the range is not within the
+         * boundaries of this store.
+         */
+        FieldCursor(int f, long b, long e) throws IndexOutOfBoundsException {
+            if (b < 0 || e > size() || b > e) {
+                throw new IndexOutOfBoundsException("Bad range: [" + b + ", "
+                        + e + ") for size " + size());
+            }
+            layout = getLayout();
+            codec = getCodec().getFields()[f];
+            offset = getCodec().offset(f);
+            begin = b;
+            remaining = e - b;
+            container = -1;
+        }
+
+        /**
+         * Returns whether there are more values.
+         *
+         * @return true if there are more values, false otherwise.
+         */
+        public boolean hasNext() { return remaining > 0; }
+
+        /**
+         * Internal method to move to the next value.
+         *
+         * @return the offset of the next value in the current buffer.
+         */
+        protected int advance() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            if (container < 0) {
+                container = layout.locate(begin);
+                position = (int) (begin - layout.containerBegin(container));
+                load();
+            }
+            while (position >= limit) {
+                container++;
+                position = 0;
+                load();
+            }
+            remaining--;
+            return position++ * getRecordSize() + offset;
+        }
+
+        /**
+         * Internal method to load the buffer of the current container.
+         */
+        private void load() {
+            RowStoreContainer c =
+                    (RowStoreContainer) layout.getContainer(container);
+            contents = c.contents;
+            limit = c.occupied;
+        }
+    }
+
+    /**
+     * Cursor over a field as unboxed int values.
+     */
+    private class IntFieldCursor extends FieldCursor
+            implements PrimitiveIterator.OfInt {
+        IntFieldCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public int nextInt() {
+            int o = advance();
+            return (int) codec.readLong(contents, o);
+        }
+    }
+
+    /**
+     * Cursor over a field as unboxed long values.
+     */
+    private class LongFieldCursor extends FieldCursor
+            implements PrimitiveIterator.OfLong {
+        LongFieldCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public long nextLong() {
+            int o = advance();
+            return codec.readLong(contents, o);
+        }
+    }
+
+    /**
+     * Cursor over a field as unboxed double values.
+     */
+    private class DoubleFieldCursor extends FieldCursor
+            implements PrimitiveIterator.OfDouble {
+        DoubleFieldCursor(int f, long b, long e) { super(f, b, e); }
+
+        @Override
+        public double nextDouble() {
+            int o = advance();
+            return codec.readDouble(contents, o);
+        }
+    }
+
     /**
      * Internal method to allocate containers of this store.
      *
+     * @param capacity the capacity of the container.
      * @return a new container for this store.
      */
     @Override
-    protected AbstractStoreContainer<T> allocateContainer() {
-        return new RowStoreContainer();
+    protected AbstractStoreContainer<T> allocateContainer(int capacity) {
+        return new RowStoreContainer(capacity);
+    }
+
+    /**
+     * Returns the buffer of a released container to the buffer pool, if it
+     * was taken from there.
+     *
+     * @param c the container.
+     */
+    @Override
+    protected void recycle(AbstractStoreContainer<T> c) {
+        RowStoreContainer container = (RowStoreContainer) c;
+        if (container.pooled) {
+            BufferPool.getInstance().release(container.contents);
+        }
+    }
+
+    /**
+     * Hands the buffer of a container replaced by compaction to the buffer
+     * pool to account for once it is garbage-collected.
+     *
+     * @param c the container.
+     */
+    @Override
+    protected void abandon(AbstractStoreContainer<T> c) {
+        RowStoreContainer container = (RowStoreContainer) c;
+        if (container.pooled) {
+            BufferPool.getInstance().abandon(container.contents);
+        }
     }
 
     /**
@@ -76,14 +548,47 @@ public class RowStore<T> extends AbstractStore<T> {
         private final ByteBuffer contents;
         // the number of occupied records
         private int occupied;
+        // the number of records the container holds
+        private final int capacity;
+        // whether the buffer comes from the buffer pool
+        private final boolean pooled;
+
+        /**
+         * Constructs a row store container of the given capacity, over a
+         * buffer from the buffer pool.
+         *
+         * @param n the capacity of the container.
+         */
+        public RowStoreContainer(int n) {
+            this(BufferPool.getInstance().acquire(n * getRecordSize()), 0, n,
+                    true);
+        }
+
+        /**
+         * Constructs a container over an existing buffer, e.g., a region of a
+         * mapped file, that already holds the given number of records.
+         *
+         * @param b the buffer; it must have room for getAllocationSize()
+         * records.
+         * @param o the number of records already in the buffer.
+         */
+        public RowStoreContainer(ByteBuffer b, int o) {
+            this(b, o, getAllocationSize(), false);
+        }
 
         /**
-         * Default constructor for a column store container.
+         * Internal constructor given all parameters.
+         *
+         * @param b the buffer; it must have room for n records.
+         * @param o the number of records already in the buffer.
+         * @param n the capacity of the container.
+         * @param p whether the buffer comes from the buffer pool.
          */
-        public RowStoreContainer() {
-            contents = ByteBuffer.allocateDirect(
-                    getAllocationSize()* getRecordSize());
-            occupied = 0;
+        private RowStoreContainer(ByteBuffer b, int o, int n, boolean p) {
+            contents = b;
+            occupied = o;
+            capacity = n;
+            pooled = p;
         }
 
         /**
@@ -96,6 +601,14 @@ public class RowStore<T> extends AbstractStore<T> {
             return occupied;
         }
 
+        /**
+         * Returns the capacity of this container.
+         *
+         * @return the capacity of this container.
+         */
+        @Override
+        public int capacity() { return capacity; }
+
         /**
          * Retrieves the record at the given index.
          *
@@ -105,60 +618,20 @@ public class RowStore<T> extends AbstractStore<T> {
          */
         @Override
         public T get(int i) throws BadAccessException {
-            contents.position(i* getRecordSize());
-            return read();
-        }
-
-        /**
-         * Reads a record from the current position of the byte buffer.
-         *
-         * @return the record read.
-         * @throws BadAccessException if the record cannot be properly read.
-         */
-        protected T read() throws BadAccessException {
-            if (isSupportedType(getRecordType())) {
-                return getRecordType().cast(readField(getRecordType()));
-            }
-            else {
-                try {
-                    T obj = getRecordType().newInstance();
-                    for (Field field : getFields())
-                        field.set(obj, readField(field.getType()));
-                    return obj;
-                }
-                catch (InstantiationException e) {
-                    throw new BadAccessException("Could not instantiate type "
-                            + "through default constructor: " + e.getMessage());
-                }
-                catch (IllegalAccessException e) {
-                    throw new BadAccessException("Could not access field: "
-                            + e.getMessage());
-                }
-            }
+            return getCodec().read(contents, i * getRecordSize());
         }
 
         /**
-         * Reads a single field for this class.
+         * Reads the record at the given index into the given instance.
          *
-         * @param cls the primitive type of field to be read.
-         * @return the field's value.
+         * @param i the index of the record to be retrieved.
+         * @param into the record instance to reuse; may be null.
+         * @return the record at the given index.
+         * @throws BadAccessException if the record cannot be retrieved.
          */
-        protected Object readField(Class<?> cls) {
-            if (cls.equals(Byte.class) || cls.equals(byte.class))
-                return contents.get();
-            else if (cls.equals(Short.class) || cls.equals(short.class))
-                return contents.getShort();
-            else if (cls.equals(Character.class) || cls.equals(char.class))
-                return contents.getChar();
-            else if (cls.equals(Integer.class) || cls.equals(int.class))
-                return contents.getInt();
-            else if (cls.equals(Long.class) || cls.equals(long.class))
-                return contents.getLong();
-            else if (cls.equals(Float.class) || cls.equals(float.class))
-                return contents.getLong();
-            else if (cls.equals(Double.class) || cls.equals(double.class))
-                return contents.getDouble();
-            else return null;
+        @Override
+        public T get(int i, T into) throws BadAccessException {
+            return getCodec().read(contents, i * getRecordSize(), into);
         }
 
         /**
@@ -169,64 +642,9 @@ public class RowStore<T> extends AbstractStore<T> {
          */
         @Override
         public void add(T t) throws BadAccessException {
-            contents.position(occupied* getRecordSize());
-            write(t);
+            getCodec().write(t, contents, occupied * getRecordSize());
             occupied++;
         }
-
-        /**
-         * Writes the given record at the current position in the container's
-         * buffer.
-         *
-         * @param t the record to be written.
-         * @throws BadAccessException whenever the record cannot be read.
-         */
-        protected void write(T t) throws BadAccessException {
-            if (isSupportedType(t.getClass())) {
-                writeField(t);
-            }
-            else {
-                try {
-                    for (Field field : getFields()) {
-                        writeField(field.get(t));
-                    }
-                }
-                catch (IllegalAccessException e) {
-                    throw new BadAccessException("Could not access field: "
-                            + e.getMessage(), e);
-                }
-            }
-        }
-
-        /**
-         * Writes a single field.
-         *
-         * @param t the field to be written.
-         */
-        protected void writeField(Object t) {
-            // this is probably nonsensical
-            if (t.getClass().equals(Byte.class)
-                    || t.getClass().equals(byte.class))
-                contents.put((byte) t);
-            else if (t.getClass().equals(Short.class)
-                    || t.getClass().equals(short.class))
-                contents.putShort((short) t);
-            else if (t.getClass().equals(Character.class)
-                    || t.getClass().equals(char.class))
-                contents.putChar((char) t);
-            else if (t.getClass().equals(Integer.class)
-                    || t.getClass().equals(int.class))
-                contents.putInt((int) t);
-            else if (t.getClass().equals(Long.class)
-                    || t.getClass().equals(long.class))
-                contents.putLong((long) t);
-            else if (t.getClass().equals(Float.class)
-                    || t.getClass().equals(float.class))
-                contents.putFloat((float) t);
-            else if (t.getClass().equals(Double.class)
-                    || t.getClass().equals(double.class))
-                contents.putDouble((double) t);
-        }
     }
 
     /**
@@ -255,8 +673,31 @@ public class RowStore<T> extends AbstractStore<T> {
             for (TestClass i : foo) System.out.println("foo: " + i);
             System.out.println("foo size: " + foo.size());
             System.out.println("at 150: " + foo.get(150));
+            System.out.println("value at 150: "
+                    + foo.getLongField(150, "value"));
+            // reads must leave the shared buffers' positions alone, or
+            // concurrent readers would corrupt each other's records
+            ByteBuffer first =
+                    ((RowStore<TestClass>.RowStoreContainer)
+                            foo.getContainer(0)).contents;
+            first.position(1);
+            Iterator<TestClass> reused = foo.cursor(0, foo.size(), null);
+            for (long i = 0; i < foo.size(); i++) {
+                TestClass t = foo.get(i);
+                TestClass r = reused.next();
+                if (t.key != r.key || t.value != (long) t.key * t.key) {
+                    throw new IllegalStateException("Bad record at " + i
+                            + ": " + t + ", reused " + r);
+                }
+            }
+            if (first.position() != 1) {
+                throw new IllegalStateException("Reads moved the buffer "
+                        + "position to " + first.position());
+            }
+            first.position(0);
+            System.out.println("reads leave buffer positions alone: ok");
         }
-        catch (Exception e) {
+        catch (BadAccessException e) {
             System.err.println("Exception " + e.getMessage());
             e.printStackTrace(System.err);
         }
@@ -0,0 +1,339 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A sorted index for ranges: the keys of the records, sorted, alongside the
+ * positions of the records holding them, i.e., a sorted permutation of the
+ * store. A range is located by two binary searches and its records are a
+ * contiguous run of the permutation. The permutation is sorted in parallel
+ * when the index is built.
+ * <p>
+ * Records added afterwards go to a separate run, which is sorted and merged
+ * into the permutation when the index is next read, so that a stream of
+ * additions costs a merge per lookup rather than per addition.
+ *
+ * @param <T> the type of the records of the indexed store.
+ */
+public class SortedIndex<T> extends DatasetIndex<T> {
+    // runs at most this long are sorted by insertion
+    private static final int INSERTION_SORT = 32;
+    // runs at most this long are sorted by a single task
+    private static final int SORT_GRAIN = 1 << 15;
+    // the sorted entries; replaced as a whole by merges
+    private volatile Run sorted;
+    // the keys of the entries added since the last merge
+    private long [] pendingKeys;
+    // the positions of the records of the entries added since the last merge
+    private long [] pendingRows;
+    // the number of entries added since the last merge
+    private volatile int pending;
+
+    /**
+     * Constructs a sorted index over a field of a store and attaches it to
+     * the store.
+     *
+     * @param s the store.
+     * @param n the name of the field; records of a primitive type have a
+     * single field named COLUMN.
+     * @throws BadAccessException if there is no such field, or if the store
+     * holds more records than an index can.
+     * @throws BadTypeException if the field is not numeric.
+     */
+    public SortedIndex(AbstractStore<T> s, String n)
+            throws BadAccessException, BadTypeException {
+        super(s, n);
+        Entries e = entries(0, s.size());
+        sort(e.keys, e.positions);
+        sorted = new Run(e.keys, e.positions, e.keys.length);
+        clearPending();
+        attach();
+    }
+
+    /**
+     * Internal method to empty the run of added entries.
+     */
+    private void clearPending() {
+        pendingKeys = new long [0];
+        pendingRows = new long [0];
+        pending = 0;
+    }
+
+    /**
+     * Internal method to sort entries by key and then by position, in
+     * parallel if there are many of them.
+     *
+     * @param keys the keys of the entries.
+     * @param rows the positions of the records of the entries.
+     */
+    private static void sort(long [] keys, long [] rows) {
+        SortTask task = new SortTask(keys, rows, new long [keys.length],
+                new long [rows.length], 0, keys.length);
+        if (keys.length <= SORT_GRAIN) task.compute();
+        else ForkJoinPool.commonPool().invoke(task);
+    }
+
+    /**
+     * Internal method to retrieve the sorted entries, first merging in any
+     * added since the last merge.
+     *
+     * @return the sorted entries.
+     */
+    private Run entries() {
+        if (pending > 0) merge();
+        return sorted;
+    }
+
+    /**
+     * Internal method to merge the added entries into the sorted ones.
+     */
+    private synchronized void merge() {
+        int n = pending;
+        if (n == 0) return;
+        long [] keys = Arrays.copyOf(pendingKeys, n);
+        long [] rows = Arrays.copyOf(pendingRows, n);
+        sort(keys, rows);
+        Run old = sorted;
+        long [] mergedKeys = new long [old.size + n];
+        long [] mergedRows = new long [old.size + n];
+        // added records come after all the indexed ones, so on equal keys
+        // the sorted entries go first
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < mergedKeys.length; k++) {
+            if (j == n || (i < old.size && old.keys[i] <= keys[j])) {
+                mergedKeys[k] = old.keys[i];
+                mergedRows[k] = old.rows[i++];
+            }
+            else {
+                mergedKeys[k] = keys[j];
+                mergedRows[k] = rows[j++];
+            }
+        }
+        sorted = new Run(mergedKeys, mergedRows, mergedKeys.length);
+        clearPending();
+    }
+
+    @Override
+    public long size() { return sorted.size + pending; }
+
+    @Override
+    protected long [] find(long key) { return find(key, key); }
+
+    @Override
+    protected long [] find(long low, long high) {
+        Run r = entries();
+        int from = r.lowerBound(low);
+        int to = high == Long.MAX_VALUE ? r.size : r.lowerBound(high + 1);
+        long [] found = Arrays.copyOfRange(r.rows, from, Math.max(from, to));
+        // positions are only in order among equal keys
+        if (found.length > 1 && r.keys[from] != r.keys[to - 1]) {
+            Arrays.sort(found);
+        }
+        return found;
+    }
+
+    @Override
+    protected long count(long low, long high) {
+        Run r = entries();
+        int to = high == Long.MAX_VALUE ? r.size : r.lowerBound(high + 1);
+        return Math.max(0, to - r.lowerBound(low));
+    }
+
+    @Override
+    protected synchronized void insert(long [] keys, long [] positions) {
+        int n = pending;
+        reserve(keys.length);
+        System.arraycopy(keys, 0, pendingKeys, n, keys.length);
+        System.arraycopy(positions, 0, pendingRows, n, keys.length);
+        pending = n + keys.length;
+    }
+
+    @Override
+    protected synchronized void insert(long key, long position) {
+        int n = pending;
+        reserve(1);
+        pendingKeys[n] = key;
+        pendingRows[n] = position;
+        pending = n + 1;
+    }
+
+    /**
+     * Internal method to make room for more added entries.
+     *
+     * @param n the number of entries to make room for.
+     */
+    private void reserve(int n) {
+        if (pending + n > pendingKeys.length) {
+            int capacity = (int) Math.min(MAX_ENTRIES, Math.max(
+                    (long) pending + n, 2L * pendingKeys.length));
+            pendingKeys = Arrays.copyOf(pendingKeys, capacity);
+            pendingRows = Arrays.copyOf(pendingRows, capacity);
+        }
+    }
+
+    @Override
+    protected synchronized void clear() {
+        sorted = new Run(new long [0], new long [0], 0);
+        clearPending();
+    }
+
+    @Override
+    public String toString() {
+        return "SortedIndex(" + getName() + ", entries=" + size() + ")";
+    }
+
+    /**
+     * Internal class holding sorted entries, so that they are published to
+     * readers at once.
+     */
+    private static final class Run {
+        // the keys, in ascending order
+        private final long [] keys;
+        // the position of the record of each key
+        private final long [] rows;
+        // the number of entries
+        private final int size;
+
+        /**
+         * Constructs a new run.
+         *
+         * @param k the keys, in ascending order.
+         * @param r the position of the record of each key.
+         * @param n the number of entries.
+         */
+        Run(long [] k, long [] r, int n) {
+            keys = k;
+            rows = r;
+            size = n;
+        }
+
+        /**
+         * Finds the first entry whose key is not less than a key.
+         *
+         * @param key the key.
+         * @return the position of the entry, or the size of the run if
+         * every key is less.
+         */
+        int lowerBound(long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Internal task that merge sorts entries by key and then by position,
+     * sorting the two halves of a large run in parallel.
+     */
+    private static final class SortTask extends RecursiveAction {
+        // the keys of the entries
+        private final long [] keys;
+        // the positions of the records of the entries
+        private final long [] rows;
+        // scratch space for the keys
+        private final long [] auxKeys;
+        // scratch space for the positions
+        private final long [] auxRows;
+        // the first entry to sort (inclusive)
+        private final int from;
+        // the last entry to sort (exclusive)
+        private final int to;
+
+        /**
+         * Constructs a new task.
+         *
+         * @param k the keys of the entries.
+         * @param r the positions of the records of the entries.
+         * @param ak scratch space for the keys, as long as the keys.
+         * @param ar scratch space for the positions, as long as the keys.
+         * @param f the first entry to sort (inclusive).
+         * @param t the last entry to sort (exclusive).
+         */
+        SortTask(long [] k, long [] r, long [] ak, long [] ar, int f,
+                 int t) {
+            keys = k;
+            rows = r;
+            auxKeys = ak;
+            auxRows = ar;
+            from = f;
+            to = t;
+        }
+
+        /**
+         * Internal method to compare two entries.
+         *
+         * @param a the first entry.
+         * @param b the second entry.
+         * @return true if the first entry goes before the second.
+         */
+        private boolean before(int a, int b) {
+            return keys[a] < keys[b]
+                    || (keys[a] == keys[b] && rows[a] < rows[b]);
+        }
+
+        @Override
+        protected void compute() {
+            int n = to - from;
+            if (n <= INSERTION_SORT) {
+                for (int i = from + 1; i < to; i++) {
+                    long k = keys[i];
+                    long r = rows[i];
+                    int j = i - 1;
+                    while (j >= from && (keys[j] > k
+                            || (keys[j] == k && rows[j] > r))) {
+                        keys[j + 1] = keys[j];
+                        rows[j + 1] = rows[j];
+                        j--;
+                    }
+                    keys[j + 1] = k;
+                    rows[j + 1] = r;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            SortTask left = new SortTask(keys, rows, auxKeys, auxRows, from,
+                    mid);
+            SortTask right = new SortTask(keys, rows, auxKeys, auxRows, mid,
+                    to);
+            if (n > SORT_GRAIN) invokeAll(left, right);
+            else {
+                left.compute();
+                right.compute();
+            }
+            // the halves may already be in order, e.g., for a sorted field
+            if (! before(mid, mid - 1)) return;
+            System.arraycopy(keys, from, auxKeys, from, n);
+            System.arraycopy(rows, from, auxRows, from, n);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j == to || (i < mid && (auxKeys[i] < auxKeys[j]
+                        || (auxKeys[i] == auxKeys[j]
+                        && auxRows[i] < auxRows[j])))) {
+                    keys[k] = auxKeys[i];
+                    rows[k] = auxRows[i++];
+                }
+                else {
+                    keys[k] = auxKeys[j];
+                    rows[k] = auxRows[j++];
+                }
+            }
+        }
+    }
+}
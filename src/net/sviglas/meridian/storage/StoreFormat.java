@@ -0,0 +1,427 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The native on-disk format of row, column and PAX stores. A saved store is
+ * a directory holding a schema file and the store's containers as they are in
+ * memory: a single rows file for a row store, a single pages file for a PAX
+ * store, and one file per field for a column store. Container i of a file
+ * starts at i times the container's capacity in bytes, so no offsets need to
+ * be stored besides the number of records in each container. PAX pages are
+ * saved laid out for the full allocation size, whatever the capacity of
+ * their container in memory.
+ * <p>
+ * Row and PAX stores are reopened by privately mapping their file, so their
+ * containers are the file's pages; nothing is decoded, and changes to the
+ * reopened store are copied on write and never reach the file. Column stores
+ * keep their columns in Java arrays, which cannot be backed by a mapping, so
+ * each column region is bulk-copied from the mapped file into its array.
+ */
+final class StoreFormat {
+    // magic number identifying schema files
+    private static final int MAGIC = 0x4d534348;
+    // the version of the format
+    private static final int VERSION = 1;
+    // the name of the schema file
+    private static final String SCHEMA = "schema";
+    // the name of the rows file
+    private static final String ROWS = "rows";
+    // the name of the pages file
+    private static final String PAGES = "pages";
+    // the prefix of column files
+    private static final String COLUMN = "column.";
+    // store kind tag for row stores
+    private static final String ROW_STORE = "row";
+    // store kind tag for column stores
+    private static final String COLUMN_STORE = "column";
+    // store kind tag for PAX stores
+    private static final String PAX_STORE = "pax";
+
+    /**
+     * Not to be instantiated.
+     */
+    private StoreFormat() {
+    }
+
+    /**
+     * Saves a store to the given directory, creating it if necessary.
+     *
+     * @param d the store; it must be a row, column or PAX store.
+     * @param dir the directory.
+     * @throws BadAccessException if the store cannot be saved.
+     */
+    static void save(Dataset<?> d, Path dir) throws BadAccessException {
+        try {
+            Files.createDirectories(dir);
+            if (d instanceof RowStore) {
+                RowStore<?> rs = (RowStore<?>) d;
+                writeSchema(rs, ROW_STORE, dir);
+                saveRows(rs, dir);
+            }
+            else if (d instanceof ColumnStore) {
+                ColumnStore<?> cs = (ColumnStore<?>) d;
+                writeSchema(cs, COLUMN_STORE, dir);
+                saveColumns(cs, dir);
+            }
+            else if (d instanceof PaxStore) {
+                PaxStore<?> ps = (PaxStore<?>) d;
+                writeSchema(ps, PAX_STORE, dir);
+                savePages(ps, dir);
+            }
+            else {
+                throw new BadAccessException("Only row, column and PAX stores "
+                        + "can be saved, not " + d.getClass().getName());
+            }
+        }
+        catch (IOException e) {
+            throw new BadAccessException("Could not save dataset to " + dir
+                    + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens a store previously saved to the given directory.
+     *
+     * @param dir the directory.
+     * @return the reopened store.
+     * @throws BadTypeException if the record type cannot be loaded or no
+     * longer matches the saved schema.
+     * @throws BadAccessException if the store cannot be read.
+     */
+    static Dataset<?> open(Path dir)
+            throws BadTypeException, BadAccessException {
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(dir.resolve(SCHEMA)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new BadAccessException("Not a saved dataset: " + dir);
+            }
+            String kind = in.readUTF();
+            Class<?> type = loadType(in.readUTF());
+            int allocation = in.readInt();
+            AbstractStore<?> store;
+            if (ROW_STORE.equals(kind)) {
+                store = new RowStore<>(type, allocation, true);
+            }
+            else if (COLUMN_STORE.equals(kind)) {
+                store = new ColumnStore<>(type, allocation);
+            }
+            else if (PAX_STORE.equals(kind)) {
+                store = new PaxStore<>(type, allocation);
+            }
+            else {
+                throw new BadAccessException("Unknown store kind " + kind
+                        + " in " + dir);
+            }
+            checkFields(store, in, dir);
+            int [] occupied = new int [in.readInt()];
+            for (int c = 0; c < occupied.length; c++) {
+                occupied[c] = in.readInt();
+            }
+            if (store instanceof RowStore) {
+                openRows((RowStore<?>) store, occupied, dir);
+            }
+            else if (store instanceof PaxStore) {
+                openPages((PaxStore<?>) store, occupied, dir);
+            }
+            else {
+                openColumns((ColumnStore<?>) store, occupied, dir);
+            }
+            return store;
+        }
+        catch (IOException e) {
+            throw new BadAccessException("Could not open dataset in " + dir
+                    + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Internal method to write the schema file of a store.
+     *
+     * @param store the store.
+     * @param kind the store kind tag.
+     * @param dir the directory.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeSchema(AbstractStore<?> store, String kind,
+                                    Path dir) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                Files.newOutputStream(dir.resolve(SCHEMA)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(kind);
+            out.writeUTF(store.getRecordType().getName());
+            out.writeInt(store.getAllocationSize());
+            FieldCodec [] fields = store.getCodec().getFields();
+            out.writeInt(fields.length);
+            for (FieldCodec field : fields) {
+                out.writeUTF(field.getName());
+                out.writeUTF(field.getType().getName());
+            }
+            out.writeInt(store.containerCount());
+            for (int c = 0; c < store.containerCount(); c++) {
+                out.writeInt(store.containerSize(c));
+            }
+        }
+    }
+
+    /**
+     * Internal method to check the saved fields against the record type.
+     *
+     * @param store the store being reopened.
+     * @param in the schema input, positioned at the fields.
+     * @param dir the directory.
+     * @throws IOException if the schema cannot be read.
+     * @throws BadTypeException if the fields do not match.
+     */
+    private static void checkFields(AbstractStore<?> store,
+                                    DataInputStream in, Path dir)
+            throws IOException, BadTypeException {
+        FieldCodec [] fields = store.getCodec().getFields();
+        int n = in.readInt();
+        boolean matches = n == fields.length;
+        for (int f = 0; f < n; f++) {
+            String name = in.readUTF();
+            String type = in.readUTF();
+            matches = matches && fields[f].getName().equals(name)
+                    && fields[f].getType().getName().equals(type);
+        }
+        if (! matches) {
+            throw new BadTypeException("Fields of " + store.getRecordType()
+                    + " do not match those saved in " + dir);
+        }
+    }
+
+    /**
+     * Internal method to load a record type by name.
+     *
+     * @param name the name of the type.
+     * @return the type.
+     * @throws BadTypeException if the type cannot be loaded.
+     */
+    private static Class<?> loadType(String name) throws BadTypeException {
+        try {
+            return Class.forName(name, true,
+                    Thread.currentThread().getContextClassLoader());
+        }
+        catch (ClassNotFoundException e) {
+            throw new BadTypeException("Could not load record type " + name
+                    + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Internal method to write the containers of a row store.
+     *
+     * @param store the store.
+     * @param dir the directory.
+     * @throws IOException if the rows file cannot be written.
+     */
+    private static void saveRows(RowStore<?> store, Path dir)
+            throws IOException {
+        long stride = (long) store.getAllocationSize() * store.getRecordSize();
+        try (FileChannel ch = create(dir.resolve(ROWS))) {
+            for (int c = 0; c < store.containerCount(); c++) {
+                writeFully(ch, store.containerBuffer(c), c * stride);
+            }
+            // extends the file to whole containers, so that every container
+            // can be mapped at its full capacity when reopened
+            long length = store.containerCount() * stride;
+            if (length > ch.size()) {
+                writeFully(ch, ByteBuffer.allocate(1), length - 1);
+            }
+        }
+    }
+
+    /**
+     * Internal method to write the columns of a column store.
+     *
+     * @param store the store.
+     * @param dir the directory.
+     * @throws IOException if a column file cannot be written.
+     */
+    private static void saveColumns(ColumnStore<?> store, Path dir)
+            throws IOException {
+        FieldCodec [] fields = store.getCodec().getFields();
+        for (int f = 0; f < fields.length; f++) {
+            long stride = (long) store.getAllocationSize() * fields[f].size();
+            try (FileChannel ch = create(
+                    dir.resolve(COLUMN + fields[f].getName()))) {
+                for (int c = 0; c < store.containerCount(); c++) {
+                    ColumnStore<?>.ColumnStoreContainer container =
+                            (ColumnStore<?>.ColumnStoreContainer)
+                                    store.getContainer(c);
+                    ByteBuffer b = ByteBuffer.allocate(
+                            container.occupied * fields[f].size());
+                    fields[f].copyOut(container.column(f),
+                            container.occupied, b);
+                    writeFully(ch, b, c * stride);
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method to write the containers of a PAX store; each mini-page
+     * goes to its place in a page laid out for the full allocation size.
+     *
+     * @param store the store.
+     * @param dir the directory.
+     * @throws IOException if the pages file cannot be written.
+     */
+    private static void savePages(PaxStore<?> store, Path dir)
+            throws IOException {
+        int [] layout = store.pageLayout(store.getAllocationSize());
+        long stride = layout[layout.length - 1];
+        try (FileChannel ch = create(dir.resolve(PAGES))) {
+            for (int c = 0; c < store.containerCount(); c++) {
+                for (int f = 0; f < layout.length - 1; f++) {
+                    writeFully(ch, store.miniPage(c, f),
+                            c * stride + layout[f]);
+                }
+            }
+            // extends the file to whole pages, so that every page can be
+            // mapped at its full size when reopened
+            long length = store.containerCount() * stride;
+            if (length > ch.size()) {
+                writeFully(ch, ByteBuffer.allocate(1), length - 1);
+            }
+        }
+    }
+
+    /**
+     * Internal method to reattach the containers of a row store as private
+     * mappings of its rows file.
+     *
+     * @param store the store being reopened.
+     * @param occupied the number of records in each container.
+     * @param dir the directory.
+     * @param <T> the record type.
+     * @throws IOException if the rows file cannot be mapped.
+     */
+    private static <T> void openRows(RowStore<T> store, int [] occupied,
+                                     Path dir) throws IOException {
+        long stride = (long) store.getAllocationSize() * store.getRecordSize();
+        // private mappings need a writable channel, although nothing is
+        // ever written back through it
+        try (FileChannel ch = FileChannel.open(dir.resolve(ROWS),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int c = 0; c < occupied.length; c++) {
+                MappedByteBuffer region = ch.map(FileChannel.MapMode.PRIVATE,
+                        c * stride, stride);
+                store.attach(store.new RowStoreContainer(region,
+                        occupied[c]));
+            }
+        }
+    }
+
+    /**
+     * Internal method to reattach the containers of a PAX store as private
+     * mappings of its pages file.
+     *
+     * @param store the store being reopened.
+     * @param occupied the number of records in each container.
+     * @param dir the directory.
+     * @param <T> the record type.
+     * @throws IOException if the pages file cannot be mapped.
+     */
+    private static <T> void openPages(PaxStore<T> store, int [] occupied,
+                                      Path dir) throws IOException {
+        int [] layout = store.pageLayout(store.getAllocationSize());
+        long stride = layout[layout.length - 1];
+        // private mappings need a writable channel, although nothing is
+        // ever written back through it
+        try (FileChannel ch = FileChannel.open(dir.resolve(PAGES),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int c = 0; c < occupied.length; c++) {
+                MappedByteBuffer region = ch.map(FileChannel.MapMode.PRIVATE,
+                        c * stride, stride);
+                store.attach(store.new PaxStoreContainer(region,
+                        occupied[c]));
+            }
+        }
+    }
+
+    /**
+     * Internal method to reload the containers of a column store from the
+     * mapped column files.
+     *
+     * @param store the store being reopened.
+     * @param occupied the number of records in each container.
+     * @param dir the directory.
+     * @param <T> the record type.
+     * @throws IOException if a column file cannot be mapped.
+     */
+    private static <T> void openColumns(ColumnStore<T> store, int [] occupied,
+                                        Path dir) throws IOException {
+        FieldCodec [] fields = store.getCodec().getFields();
+        @SuppressWarnings("unchecked")
+        ColumnStore<T>.ColumnStoreContainer [] containers =
+                (ColumnStore<T>.ColumnStoreContainer [])
+                        new ColumnStore<?>.ColumnStoreContainer [
+                                occupied.length];
+        for (int c = 0; c < occupied.length; c++) {
+            containers[c] = store.new ColumnStoreContainer();
+            containers[c].occupied = occupied[c];
+        }
+        for (int f = 0; f < fields.length; f++) {
+            long stride = (long) store.getAllocationSize() * fields[f].size();
+            try (FileChannel ch = FileChannel.open(
+                    dir.resolve(COLUMN + fields[f].getName()),
+                    StandardOpenOption.READ)) {
+                for (int c = 0; c < occupied.length; c++) {
+                    MappedByteBuffer region = ch.map(
+                            FileChannel.MapMode.READ_ONLY, c * stride,
+                            (long) occupied[c] * fields[f].size());
+                    fields[f].copyIn(region, containers[c].columns[f],
+                            occupied[c]);
+                }
+            }
+        }
+        for (ColumnStore<T>.ColumnStoreContainer container : containers) {
+            if (container.occupied == container.capacity()) container.seal();
+            store.attach(container);
+        }
+    }
+
+    /**
+     * Internal method to create (or truncate) a file for writing.
+     *
+     * @param f the file.
+     * @return a channel to the file.
+     * @throws IOException if the file cannot be created.
+     */
+    private static FileChannel create(Path f) throws IOException {
+        return FileChannel.open(f, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Internal method to write a buffer at the given position of a file.
+     *
+     * @param ch the channel to the file.
+     * @param b the buffer.
+     * @param position the position in the file.
+     * @throws IOException if the buffer cannot be written.
+     */
+    private static void writeFully(FileChannel ch, ByteBuffer b, long position)
+            throws IOException {
+        while (b.hasRemaining()) position += ch.write(b, position);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.storage;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of the records of a single container: the number of records
+ * and, for each field, the number of records with a non-null value and the
+ * smallest and largest value. Integral fields are summarised as longs and
+ * floating-point fields as doubles, so the bounds are exact. Stores that
+ * keep records as objects, e.g., an {@link ArrayStore}, may hold null
+ * records or null boxed fields, as may primitive stores; these are counted
+ * as records but not as values of their fields, and are left out of the
+ * bounds, as no range matches them.
+ * <p>
+ * The statistics are maintained as records are added and let scans with
+ * range predicates skip containers that cannot hold a match.
+ */
+public final class ZoneMap {
+    // the field codecs of the records, in field order
+    private final FieldCodec [] fields;
+    // whether each field is integral
+    private final boolean [] integral;
+    // the smallest value of each integral field
+    private final long [] longMin;
+    // the largest value of each integral field
+    private final long [] longMax;
+    // the smallest value of each floating-point field
+    private final double [] doubleMin;
+    // the largest value of each floating-point field
+    private final double [] doubleMax;
+    // the number of records summarised
+    private int count;
+    // the number of records with a non-null value of each field
+    private final int [] nonNull;
+
+    /**
+     * Constructs empty statistics for records of the given codec.
+     *
+     * @param codec the codec of the records.
+     */
+    ZoneMap(RecordCodec<?> codec) {
+        fields = codec.getFields();
+        integral = new boolean [fields.length];
+        for (int f = 0; f < fields.length; f++) {
+            integral[f] = fields[f].widensToLong();
+        }
+        longMin = new long [fields.length];
+        longMax = new long [fields.length];
+        doubleMin = new double [fields.length];
+        doubleMax = new double [fields.length];
+        Arrays.fill(longMin, Long.MAX_VALUE);
+        Arrays.fill(longMax, Long.MIN_VALUE);
+        Arrays.fill(doubleMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(doubleMax, Double.NEGATIVE_INFINITY);
+        count = 0;
+        nonNull = new int [fields.length];
+    }
+
+    /**
+     * Accounts for a record added to the container.
+     *
+     * @param r the record.
+     */
+    void add(Object r) {
+        count++;
+        if (r == null) return;
+        for (int f = 0; f < fields.length; f++) {
+            if (fields[f].isNull(r)) continue;
+            nonNull[f]++;
+            if (integral[f]) include(f, fields[f].getLong(r));
+            else include(f, fields[f].getDouble(r));
+        }
+    }
+
+    /**
+     * Accounts for a record of a primitive type added to the container,
+     * without boxing it; the type must be integral.
+     *
+     * @param v the value of the record.
+     */
+    void addLong(long v) {
+        include(0, v);
+        nonNull[0]++;
+        count++;
+    }
+
+    /**
+     * Accounts for a record of a primitive type added to the container,
+     * without boxing it; the type must be floating-point.
+     *
+     * @param v the value of the record.
+     */
+    void addDouble(double v) {
+        include(0, v);
+        nonNull[0]++;
+        count++;
+    }
+
+    /**
+     * Internal method to widen the bounds of an integral field.
+     *
+     * @param f the position of the field.
+     * @param v the value.
+     */
+    private void include(int f, long v) {
+        if (v < longMin[f]) longMin[f] = v;
+        if (v > longMax[f]) longMax[f] = v;
+    }
+
+    /**
+     * Internal method to widen the bounds of a floating-point field; NaN
+     * values match no range, so they are left out.
+     *
+     * @param f the position of the field.
+     * @param v the value.
+     */
+    private void include(int f, double v) {
+        if (v < doubleMin[f]) doubleMin[f] = v;
+        if (v > doubleMax[f]) doubleMax[f] = v;
+    }
+
+    /**
+     * Returns the number of records summarised.
+     *
+     * @return the number of records in the container.
+     */
+    public int count() { return count; }
+
+    /**
+     * Returns the number of records summarised whose given field is not
+     * null; it falls short of {@link #count()} only on stores that hold
+     * null records or null fields.
+     *
+     * @param f the position of the field.
+     * @return the number of non-null values of the field in the container.
+     */
+    public int nonNullCount(int f) { return nonNull[f]; }
+
+    /**
+     * Returns whether the given field is integral, i.e., whether its bounds
+     * are kept as longs rather than doubles.
+     *
+     * @param f the position of the field.
+     * @return true if the field is integral, false otherwise.
+     */
+    public boolean isIntegral(int f) { return integral[f]; }
+
+    /**
+     * Returns the smallest value of an integral field.
+     *
+     * @param f the position of the field.
+     * @return the smallest value, or Long.MAX_VALUE if there are no records.
+     * @throws BadTypeException if the field is not integral.
+     */
+    public long getLongMin(int f) throws BadTypeException {
+        checkIntegral(f, true);
+        return longMin[f];
+    }
+
+    /**
+     * Returns the largest value of an integral field.
+     *
+     * @param f the position of the field.
+     * @return the largest value, or Long.MIN_VALUE if there are no records.
+     * @throws BadTypeException if the field is not integral.
+     */
+    public long getLongMax(int f) throws BadTypeException {
+        checkIntegral(f, true);
+        return longMax[f];
+    }
+
+    /**
+     * Returns the smallest value of a floating-point field.
+     *
+     * @param f the position of the field.
+     * @return the smallest value, or positive infinity if there are no
+     * records.
+     * @throws BadTypeException if the field is integral.
+     */
+    public double getDoubleMin(int f) throws BadTypeException {
+        checkIntegral(f, false);
+        return doubleMin[f];
+    }
+
+    /**
+     * Returns the largest value of a floating-point field.
+     *
+     * @param f the position of the field.
+     * @return the largest value, or negative infinity if there are no
+     * records.
+     * @throws BadTypeException if the field is integral.
+     */
+    public double getDoubleMax(int f) throws BadTypeException {
+        checkIntegral(f, false);
+        return doubleMax[f];
+    }
+
+    /**
+     * Returns whether the container may hold a record whose integral field
+     * lies within the given bounds.
+     *
+     * @param f the position of the field; it must be integral.
+     * @param low the lower bound (inclusive).
+     * @param high the upper bound (inclusive).
+     * @return false if no record of the container lies within the bounds,
+     * true otherwise.
+     */
+    public boolean mayContain(int f, long low, long high) {
+        return longMin[f] <= high && longMax[f] >= low;
+    }
+
+    /**
+     * Returns whether the container may hold a record whose floating-point
+     * field lies within the given bounds.
+     *
+     * @param f the position of the field; it must be floating-point.
+     * @param low the lower bound (inclusive).
+     * @param high the upper bound (inclusive).
+     * @return false if no record of the container lies within the bounds,
+     * true otherwise.
+     */
+    public boolean mayContain(int f, double low, double high) {
+        return doubleMin[f] <= high && doubleMax[f] >= low;
+    }
+
+    /**
+     * Internal method to check the kind of a field.
+     *
+     * @param f the position of the field.
+     * @param i true if the field should be integral, false otherwise.
+     * @throws BadTypeException if the field is not of the expected kind.
+     */
+    private void checkIntegral(int f, boolean i) throws BadTypeException {
+        if (integral[f] != i) {
+            throw new BadTypeException("Field " + fields[f].getName()
+                    + " is " + (integral[f] ? "" : "not ") + "integral");
+        }
+    }
+}
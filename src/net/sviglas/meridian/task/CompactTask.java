@@ -0,0 +1,87 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import net.sviglas.meridian.storage.AbstractStore;
+import net.sviglas.meridian.storage.CompositeDataset;
+import net.sviglas.meridian.storage.Dataset;
+
+/**
+ * A task that compacts the dataset produced by another task once that task
+ * completes. The outputs of tasks are assembled by appending the outputs of
+ * their leaves, which leaves stores as chains of partially filled
+ * containers; compaction rewrites them into full containers. The task can
+ * also compact an existing dataset, e.g., when forked to run in the
+ * background, as readers are not disturbed by compaction.
+ *
+ * @param <T> the type of records of the dataset.
+ */
+public class CompactTask<T> extends Task<Dataset<T>> {
+    // the task producing the dataset; null if the dataset is given
+    private Task<Dataset<T>> producer;
+    // the dataset to compact; null until produced
+    private Dataset<T> dataset;
+
+    /**
+     * Constructs a new task that runs the given task and compacts its
+     * output.
+     *
+     * @param t the task producing the dataset.
+     */
+    public CompactTask(Task<Dataset<T>> t) {
+        super(t.getDatasetConstructor());
+        producer = t;
+        dataset = null;
+    }
+
+    /**
+     * Constructs a new task that compacts the given dataset.
+     *
+     * @param d the dataset.
+     */
+    public CompactTask(Dataset<T> d) {
+        super();
+        producer = null;
+        dataset = d;
+    }
+
+    /**
+     * Invokes the task's computation: runs the producing task, if any, and
+     * compacts the stores of its output; the children of a composite dataset
+     * are compacted one by one.
+     *
+     * @return the compacted dataset.
+     */
+    @Override
+    public Dataset<T> compute() {
+        if (producer != null) dataset = producer.invoke();
+        if (dataset instanceof CompositeDataset) {
+            for (Dataset<T> child
+                    : ((CompositeDataset<T>) dataset).getChildren()) {
+                compact(child);
+            }
+        }
+        else {
+            compact(dataset);
+        }
+        return dataset;
+    }
+
+    /**
+     * Internal method to compact a dataset if it is a fragmented store.
+     *
+     * @param d the dataset.
+     */
+    private void compact(Dataset<T> d) {
+        if (d instanceof AbstractStore) {
+            AbstractStore<T> store = (AbstractStore<T>) d;
+            if (store.isFragmented()) store.compact();
+        }
+    }
+}
@@ -8,17 +8,53 @@
 
 package net.sviglas.meridian.task;
 
+import net.sviglas.meridian.storage.AbstractStore;
+import net.sviglas.meridian.storage.AllocationPolicy;
 import net.sviglas.meridian.storage.ArrayStore;
 import net.sviglas.meridian.storage.BadTypeException;
 import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.storage.DoubleDataset;
+import net.sviglas.meridian.storage.IntDataset;
+import net.sviglas.meridian.storage.LongDataset;
 
 /**
- * Default dataset constructor; returns an array store.
+ * Default dataset constructor; returns an unboxed dataset for int, long and
+ * double records and an array store otherwise. The datasets it constructs
+ * are task outputs, often small ones, so by default their containers start
+ * small and grow geometrically.
  */
 public class DefaultDatasetConstructor implements DatasetConstructor {
+    // the allocation policy of the constructed datasets
+    private final AllocationPolicy policy;
+
+    /**
+     * Constructs a dataset constructor whose datasets grow geometrically.
+     */
+    public DefaultDatasetConstructor() {
+        this(AllocationPolicy.GEOMETRIC);
+    }
+
+    /**
+     * Constructs a dataset constructor whose datasets follow the given
+     * allocation policy.
+     *
+     * @param p the allocation policy.
+     */
+    public DefaultDatasetConstructor(AllocationPolicy p) {
+        policy = p;
+    }
+
+    /**
+     * Returns the allocation policy of the constructed datasets.
+     *
+     * @return the allocation policy.
+     */
+    public AllocationPolicy getAllocationPolicy() { return policy; }
+
     /**
-     * Given a type, construct a dataset for that type; the default type
-     * of dataset is an array store.
+     * Given a type, construct a dataset for that type; int, long and double
+     * records (primitive or boxed) get the corresponding unboxed dataset,
+     * all other types get an array store.
      *
      * @param type the dataset type.
      * @param <T> the type of dataset records.
@@ -29,8 +65,16 @@ public class DefaultDatasetConstructor implements DatasetConstructor {
      * constructor.
      */
     @Override
+    @SuppressWarnings("unchecked")
     public <T> Dataset<T> constructDataset(Class<T> type)
             throws BadTypeException {
-        return new ArrayStore<>(type);
+        int da = AbstractStore.DEFAULT_ALLOCATION;
+        if (type.equals(Integer.class) || type.equals(int.class))
+            return (Dataset<T>) new IntDataset(da, policy);
+        else if (type.equals(Long.class) || type.equals(long.class))
+            return (Dataset<T>) new LongDataset(da, policy);
+        else if (type.equals(Double.class) || type.equals(double.class))
+            return (Dataset<T>) new DoubleDataset(da, policy);
+        return new ArrayStore<>(type, da, policy);
     }
 }
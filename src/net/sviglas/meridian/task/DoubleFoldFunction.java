@@ -0,0 +1,41 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+/**
+ * Basic encapsulation of a functional fold operation over unboxed double
+ * values, with a double accumulator.
+ */
+public abstract class DoubleFoldFunction {
+    /**
+     * The no-operation; basically the neutral value of the fold.
+     *
+     * @return the neutral value of the fold.
+     */
+    public abstract double noop();
+
+    /**
+     * The accumulator for the fold; given a formed output, accumulates an input
+     * to it.
+     *
+     * @param in the accumulated value.
+     * @param n the input value.
+     * @return the new output value.
+     */
+    public abstract double accumulate(double in, double n);
+
+    /**
+     * Combines two output values into a single one.
+     *
+     * @param l the left input value.
+     * @param r the right input value.
+     * @return the combined output.
+     */
+    public abstract double combine(double l, double r);
+}
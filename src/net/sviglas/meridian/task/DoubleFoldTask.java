@@ -0,0 +1,72 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import java.util.PrimitiveIterator;
+
+import net.sviglas.meridian.storage.DoubleSource;
+import net.sviglas.util.Pair;
+
+/**
+ * Folding task over a source of double values; both the input values and the
+ * accumulator stay unboxed in the leaves of the computation.
+ */
+public class DoubleFoldTask extends Task<Double> {
+    // the input values
+    private DoubleSource input;
+    // the enumerating range
+    private Range<Long> range;
+    // the folding function
+    private DoubleFoldFunction folder;
+
+    /**
+     * Constructs a new task given input parameters and folding function.
+     *
+     * @param i the input values, e.g., a dataset or a column projection.
+     * @param r the enumerating range.
+     * @param f the folding function.
+     */
+    public DoubleFoldTask(DoubleSource i, Range<Long> r,
+                          DoubleFoldFunction f) {
+        super();
+        input = i;
+        range = r;
+        folder = f;
+    }
+
+    /**
+     * Invokes the folding computation by continuously folding the values of
+     * the input dataset into a fixed-point.
+     *
+     * @return the output of the fold.
+     */
+    @Override
+    public Double compute() {
+        if (range.smallEnough()) {
+            double localOutput = folder.noop();
+            PrimitiveIterator.OfDouble values =
+                    input.doubleCursor(range.begin(), range.end());
+            while (values.hasNext()) {
+                localOutput = folder.accumulate(localOutput,
+                        values.nextDouble());
+            }
+            return localOutput;
+        }
+        else {
+            Pair<Range<Long>, Range<Long>> ranges = range.split();
+            DoubleFoldTask left =
+                    new DoubleFoldTask(input, ranges.first, folder);
+            DoubleFoldTask right =
+                    new DoubleFoldTask(input, ranges.second, folder);
+            left.fork();
+            right.fork();
+            return folder.combine(left.join(), right.join());
+        }
+    }
+}
@@ -33,6 +33,24 @@ public abstract class FilterFunction<T> {
      */
     public Class<T> getInputType() { return inputType; }
 
+    /**
+     * Returns whether this function may keep a reference to its input past
+     * the call (see {@link MapFunction#retainsInput()}); input records are
+     * only reused if the output dataset also copies the records it is given.
+     *
+     * @return true if the input may be retained, false otherwise.
+     */
+    public boolean retainsInput() { return true; }
+
+    /**
+     * Returns the fields of the input records this function tests, if it is
+     * known; queries use it to leave the other columns of a column store
+     * unread (see {@link net.sviglas.meridian.plan.Query}).
+     *
+     * @return the names of the fields tested, or null if any field may be.
+     */
+    public String [] getReadFields() { return null; }
+
     /**
      * Filtering function, returns true of the filtering predicate is true,
      * false otherwise.
@@ -8,22 +8,40 @@
 
 package net.sviglas.meridian.task;
 
+import java.util.Iterator;
+
+import net.sviglas.meridian.storage.AbstractStore;
+import net.sviglas.meridian.storage.CompositeDataset;
 import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.storage.DatasetIndex;
+import net.sviglas.meridian.storage.FieldRange;
 import net.sviglas.util.Pair;
 
 /**
  * Basic encapsulation of a filtering task, filters a dataset according to
- * a filtering predicate.
+ * a filtering predicate. If the predicate is a {@link RangeFilterFunction}
+ * and the input a store, containers whose statistics rule out a match are
+ * skipped without being read, and the ranges are tested through the store's
+ * selection, which row, column and PAX stores evaluate on the stored fields,
+ * so that only the matching records are rebuilt. If the store has an index
+ * over the field of one of the ranges and the index expects few enough
+ * matches, the task fetches the records the index selects instead of
+ * scanning; the index is considered once, by the task over the whole range,
+ * and not again by the tasks it splits into.
  *
  * @param <T> the input type.
  */
 public class FilterTask<T> extends Task<Dataset<T>> {
+    // an index is used if it selects at most this fraction of the range
+    private static final int INDEX_SELECTIVITY = 8;
     // the input dataset
     private Dataset<T> input;
     // the enumerating range
     private Range<Long> range;
     // the filtering function
     private FilterFunction<T> filter;
+    // true if the task may filter through an index; false for split tasks
+    private boolean considerIndexes;
 
     /**
      * Constructs a new filtering task for the given types and with a default
@@ -48,10 +66,26 @@ public class FilterTask<T> extends Task<Dataset<T>> {
      */
     public FilterTask(Dataset<T> i, Range<Long> r,
                       FilterFunction<T> f, DatasetConstructor ctor) {
+        this(i, r, f, ctor, true);
+    }
+
+    /**
+     * Internal constructor for a filtering task that may or may not
+     * consider filtering through an index.
+     *
+     * @param i the input dataset.
+     * @param r the input range.
+     * @param f the filtering function.
+     * @param ctor the dataset constructor.
+     * @param ci true if the task may filter through an index.
+     */
+    private FilterTask(Dataset<T> i, Range<Long> r, FilterFunction<T> f,
+                       DatasetConstructor ctor, boolean ci) {
         super(ctor);
         input = i;
         range = r;
         filter = f;
+        considerIndexes = ci;
     }
 
     /**
@@ -62,26 +96,148 @@ public class FilterTask<T> extends Task<Dataset<T>> {
      */
     @Override
     protected Dataset<T> compute() {
+        if (considerIndexes && filter instanceof RangeFilterFunction
+                && input instanceof AbstractStore) {
+            Dataset<T> indexed = filterIndexed((AbstractStore<T>) input,
+                    (RangeFilterFunction<T>) filter);
+            if (indexed != null) return indexed;
+        }
         if (range.smallEnough()) {
             Dataset<T> localOutput = getDatasetConstructor().constructDataset(
                     filter.getInputType());
-            for (long index = range.begin(); index < range.end(); index++) {
-                T t = input.get(index);
-                if (filter.filter(t)) localOutput.add(t);
+            boolean reuse = ! filter.retainsInput()
+                    && localOutput.copiesRecords();
+            if (filter instanceof RangeFilterFunction
+                    && input instanceof AbstractStore) {
+                filterContainers((AbstractStore<T>) input,
+                        (RangeFilterFunction<T>) filter, reuse, localOutput);
+            }
+            else {
+                filterRange(range.begin(), range.end(), reuse, localOutput);
             }
             return localOutput;
         }
         else {
             Pair<Range<Long>, Range<Long>> pair = range.split();
+            // the index was ruled out for the whole range
             FilterTask<T> left = new FilterTask<>(input, pair.first,
-                    filter, getDatasetConstructor());
+                    filter, getDatasetConstructor(), false);
             FilterTask<T> right = new FilterTask<>(input, pair.second,
-                    filter, getDatasetConstructor());
+                    filter, getDatasetConstructor(), false);
             left.fork();
             right.fork();
-            Dataset<T> localOutput = left.join();
-            localOutput.append(right.join());
-            return localOutput;
+            return CompositeDataset.concat(left.join(), right.join());
+        }
+    }
+
+    /**
+     * Internal method to filter the range through the most selective index
+     * over the fields of the ranges, if any index is selective enough.
+     *
+     * @param store the input store.
+     * @param f the range filtering function.
+     * @return the filtered dataset, or null if no index should be used.
+     */
+    private Dataset<T> filterIndexed(AbstractStore<T> store,
+                                     RangeFilterFunction<T> f) {
+        DatasetIndex<T> best = null;
+        FieldRange bestRange = null;
+        long bestEstimate = (range.end() - range.begin()) / INDEX_SELECTIVITY;
+        for (DatasetIndex<T> x : store.getIndexes()) {
+            for (FieldRange r : f.getRanges()) {
+                if (r.getField() != x.getField()) continue;
+                long estimate = x.estimate(r);
+                if (estimate >= 0 && estimate <= bestEstimate) {
+                    best = x;
+                    bestRange = r;
+                    bestEstimate = estimate;
+                }
+            }
+        }
+        if (best == null) return null;
+        Dataset<T> output = getDatasetConstructor().constructDataset(
+                filter.getInputType());
+        boolean reuse = ! filter.retainsInput() && output.copiesRecords();
+        T t = null;
+        for (long row : best.select(bestRange)) {
+            if (row < range.begin() || row >= range.end()) continue;
+            t = store.get(row, reuse ? t : null);
+            if (filter.filter(t)) output.add(t);
+        }
+        return output;
+    }
+
+    /**
+     * Internal method to filter the range container by container, skipping
+     * the containers whose statistics rule out a match.
+     *
+     * @param store the input store.
+     * @param f the range filtering function.
+     * @param reuse whether to read into a reused record instance.
+     * @param output the dataset to add the matching records to.
+     */
+    private void filterContainers(AbstractStore<T> store,
+                                  RangeFilterFunction<T> f, boolean reuse,
+                                  Dataset<T> output) {
+        AbstractStore<T>.Layout layout = store.getLayout();
+        long begin = range.begin();
+        while (begin < range.end()) {
+            int c = layout.containerOf(begin);
+            long end = Math.min(range.end(),
+                    layout.containerBegin(c) + layout.containerSize(c));
+            if (f.mayMatch(layout.containerStatistics(c))) {
+                filterSelected(store, layout, c, begin, end, f, reuse,
+                        output);
+            }
+            begin = end;
+        }
+    }
+
+    /**
+     * Internal method to filter a range of a container through the store's
+     * selection; only the selected records are rebuilt.
+     *
+     * @param store the input store.
+     * @param layout the layout of the store the container belongs to.
+     * @param c the position of the container in the layout.
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @param f the range filtering function.
+     * @param reuse whether to read into a reused record instance.
+     * @param output the dataset to add the matching records to.
+     */
+    private void filterSelected(AbstractStore<T> store,
+                                AbstractStore<T>.Layout layout, int c,
+                                long begin, long end,
+                                RangeFilterFunction<T> f, boolean reuse,
+                                Dataset<T> output) {
+        long first = layout.containerBegin(c);
+        int [] selected = new int [(int) (end - begin)];
+        int n = store.select(layout, c, (int) (begin - first),
+                (int) (end - first), f.getRanges(), selected);
+        T t = null;
+        for (int k = 0; k < n; k++) {
+            t = store.get(first + selected[k], reuse ? t : null);
+            // subclasses of range filters may test more than the ranges
+            if (filter.filter(t)) output.add(t);
+        }
+    }
+
+    /**
+     * Internal method to filter a range of the input record by record.
+     *
+     * @param begin the index of the first record (inclusive).
+     * @param end the index of the last record (exclusive).
+     * @param reuse whether to read into a reused record instance.
+     * @param output the dataset to add the matching records to.
+     */
+    private void filterRange(long begin, long end, boolean reuse,
+                             Dataset<T> output) {
+        Iterator<T> records = reuse ? input.cursor(begin, end, null)
+                : input.cursor(begin, end);
+        while (records.hasNext()) {
+            T t = records.next();
+            if (filter.filter(t)) output.add(t);
         }
     }
 }
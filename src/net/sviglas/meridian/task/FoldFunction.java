@@ -45,6 +45,23 @@ public abstract class FoldFunction<TIn, TOut> {
      */
     public Class<TOut> getOutputType() { return outputType; }
 
+    /**
+     * Returns whether this function may keep a reference to its input past
+     * the call, e.g., by returning it as the accumulated value (see
+     * {@link MapFunction#retainsInput()}).
+     *
+     * @return true if the input may be retained, false otherwise.
+     */
+    public boolean retainsInput() { return true; }
+
+    /**
+     * Returns the fields of the input records this function accumulates, if
+     * it is known (see {@link MapFunction#getReadFields()}).
+     *
+     * @return the names of the fields read, or null if any field may be.
+     */
+    public String [] getReadFields() { return null; }
+
     /**
      * The no-operation; basically the neutral value of the fold.
      *
@@ -11,6 +11,7 @@ package net.sviglas.meridian.task;
 import net.sviglas.meridian.storage.Dataset;
 import net.sviglas.util.Pair;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.RecursiveTask;
 
@@ -53,9 +54,11 @@ public class FoldTask<TIn, TOut> extends Task<TOut> {
     public TOut compute() {
         if (range.smallEnough()) {
             TOut localOutput = folder.noop();
-            long index = range.begin();
-            while (index < range.end()) {
-                TIn rin = input.get(index);
+            Iterator<TIn> records = folder.retainsInput()
+                    ? input.cursor(range.begin(), range.end())
+                    : input.cursor(range.begin(), range.end(), null);
+            while (records.hasNext()) {
+                TIn rin = records.next();
                 localOutput = folder.accumulate(localOutput, rin);
             }
             return localOutput;
@@ -9,28 +9,59 @@
 package net.sviglas.meridian.task;
 
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import net.sviglas.meridian.storage.AbstractStore;
+import net.sviglas.meridian.storage.Dataset;
 import net.sviglas.util.Pair;
 
 /**
  * A basic index-based range enumeration.
+ * <p>
+ * Unless given a threshold, a range sizes its leaves adaptively: the first
+ * time it is tested, inside the pool that runs the task, it aims for a few
+ * leaves per worker thread of the pool, and never for leaves of fewer than
+ * {@link #MIN_LEAF} indexes. A task holding a range up to a few times the
+ * leaf size also stops splitting while its worker has enough queued tasks
+ * for idle workers to steal, so that splitting stays lazy once all workers
+ * are busy. A range over a store (see {@link #over(Dataset)}) moves its
+ * split points to container boundaries where that keeps the halves
+ * balanced, so that leaves read whole containers.
  */
 public class IndexRange extends Range<Long> {
+    // the fewest indexes an adaptive range leaves to a task
+    public static final long MIN_LEAF = 4096;
+    // the number of leaves an adaptive range aims for per worker thread
+    private static final int LEAVES_PER_WORKER = 4;
+    // how many times its leaf size a range may be and still not be split
+    // while its worker has surplus tasks
+    private static final int LAZY_LEAVES = 4;
+    // the number of queued tasks a worker keeps for others to steal
+    private static final int SURPLUS_TASKS = 2;
     // low key
     private long low;
     // high key
     private long high;
-    // threshold for small enough
+    // threshold for small enough; 0 until chosen for an adaptive range
     private long threshold;
+    // whether the threshold is chosen from the pool and the range size
+    private final boolean adaptive;
+    // the layout of the store whose container boundaries splits align to,
+    // or null
+    private final AbstractStore<?>.Layout layout;
+    // the number of indexes covered by the layout
+    private final long covered;
 
     /**
-     * Constructs a new index range for the given low and high key values.
+     * Constructs a new index range for the given low and high key values,
+     * with leaves sized adaptively.
      *
      * @param l the low value.
      * @param h the high value.
      */
     public IndexRange(long l, long h) {
-        this(l, h, 1);
+        this(l, h, 0, true, null);
     }
 
     /**
@@ -42,9 +73,42 @@ public class IndexRange extends Range<Long> {
      * @param t the threshold, less than which the range is small enough.
      */
     public IndexRange(long l, long h, long t) {
+        this(l, h, t, false, null);
+    }
+
+    /**
+     * Internal constructor given all parameters.
+     *
+     * @param l the low value.
+     * @param h the high value.
+     * @param t the threshold; 0 if it is yet to be chosen.
+     * @param a whether the threshold is chosen adaptively.
+     * @param ly the layout to align splits to, or null.
+     */
+    private IndexRange(long l, long h, long t, boolean a,
+                       AbstractStore<?>.Layout ly) {
         low = l;
         high = h;
         threshold = t;
+        adaptive = a;
+        layout = ly;
+        covered = ly == null || ly.containerCount() == 0 ? 0
+                : ly.containerBegin(ly.containerCount() - 1)
+                + ly.containerSize(ly.containerCount() - 1);
+    }
+
+    /**
+     * Constructs a range over all the records of a dataset, with leaves
+     * sized adaptively and, if the dataset is a store, split points aligned
+     * to its containers.
+     *
+     * @param d the dataset.
+     * @return a range over the dataset.
+     */
+    public static IndexRange over(Dataset<?> d) {
+        AbstractStore<?>.Layout ly = d instanceof AbstractStore
+                ? ((AbstractStore<?>) d).getLayout() : null;
+        return new IndexRange(0, d.size(), 0, true, ly);
     }
 
     /**
@@ -54,7 +118,29 @@ public class IndexRange extends Range<Long> {
      * @return true of the range is small enough, false otherwise.
      */
     public boolean smallEnough() {
-        return high - low <= threshold;
+        long n = high - low;
+        if (n <= threshold()) return true;
+        return adaptive && n <= LAZY_LEAVES * threshold
+                && ForkJoinTask.inForkJoinPool()
+                && ForkJoinTask.getSurplusQueuedTaskCount() > SURPLUS_TASKS;
+    }
+
+    /**
+     * Internal method to retrieve the threshold, choosing it from the size
+     * of the range and the parallelism of the current pool if it is yet to
+     * be chosen.
+     *
+     * @return the threshold.
+     */
+    private long threshold() {
+        if (threshold == 0 && adaptive) {
+            int workers = ForkJoinTask.inForkJoinPool()
+                    ? ForkJoinTask.getPool().getParallelism()
+                    : ForkJoinPool.getCommonPoolParallelism();
+            threshold = Math.max(MIN_LEAF,
+                    (high - low) / ((long) workers * LEAVES_PER_WORKER));
+        }
+        return threshold;
     }
 
     /**
@@ -63,9 +149,43 @@ public class IndexRange extends Range<Long> {
      * @return a pair of ranges.
      */
     public Pair<Range<Long>, Range<Long>> split() {
-        long mid = (low + high) / 2;
-        return new Pair<>(new IndexRange(low, mid, threshold),
-                new IndexRange(mid, high, threshold));
+        long mid = align((low + high) / 2);
+        long t = threshold();
+        return new Pair<>(new IndexRange(low, mid, t, adaptive, layout),
+                new IndexRange(mid, high, t, adaptive, layout));
+    }
+
+    /**
+     * Internal method to move a split point to the nearest container
+     * boundary, unless that unbalances the halves by more than a quarter of
+     * the range.
+     *
+     * @param mid the split point.
+     * @return the aligned split point, or the given one if there is no
+     * layout or no suitable boundary.
+     */
+    private long align(long mid) {
+        if (layout == null || mid >= covered) return mid;
+        int c = layout.containerOf(mid);
+        long begin = layout.containerBegin(c);
+        long end = begin + layout.containerSize(c);
+        long nearest = mid - begin <= end - mid ? begin : end;
+        long farthest = nearest == begin ? end : begin;
+        if (balanced(nearest)) return nearest;
+        if (balanced(farthest)) return farthest;
+        return mid;
+    }
+
+    /**
+     * Internal method to check whether a split point leaves each half with
+     * at least a quarter of the range.
+     *
+     * @param b the split point.
+     * @return true if both halves are large enough, false otherwise.
+     */
+    private boolean balanced(long b) {
+        long least = Math.max(1, (high - low) / 4);
+        return b - low >= least && high - b >= least;
     }
 
     /**
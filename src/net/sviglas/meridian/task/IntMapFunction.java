@@ -0,0 +1,23 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+/**
+ * Abstraction for a mapping function over unboxed int values, to be used by
+ * int mapping tasks.
+ */
+public abstract class IntMapFunction {
+    /**
+     * Maps an input value to an output one.
+     *
+     * @param t the input value.
+     * @return the mapping function applied on the input.
+     */
+    public abstract int map(int t);
+}
@@ -0,0 +1,71 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import java.util.PrimitiveIterator;
+
+import net.sviglas.meridian.storage.IntDataset;
+import net.sviglas.meridian.storage.IntSource;
+import net.sviglas.util.Pair;
+
+/**
+ * Mapping task from a source of int values to a new int dataset of the same
+ * size; values are never boxed.
+ */
+public class IntMapTask extends Task<IntDataset> {
+    // the input values
+    private IntSource input;
+    // the enumerating range
+    private Range<Long> range;
+    // the mapping function
+    private IntMapFunction mapper;
+
+    /**
+     * Constructs a new mapping task for the given parameters.
+     *
+     * @param in the input values, e.g., a dataset or a column projection.
+     * @param r the input range splitter.
+     * @param f the mapping function.
+     */
+    public IntMapTask(IntSource in, Range<Long> r, IntMapFunction f) {
+        super();
+        input = in;
+        range = r;
+        mapper = f;
+    }
+
+    /**
+     * Invokes the mapping computation: for each value of the input, it
+     * applies the mapping function generating a new dataset.
+     *
+     * @return the resulting dataset.
+     */
+    @Override
+    protected IntDataset compute() {
+        if (range.smallEnough()) {
+            IntDataset localOutput = new IntDataset();
+            PrimitiveIterator.OfInt values =
+                    input.intCursor(range.begin(), range.end());
+            while (values.hasNext()) {
+                localOutput.addInt(mapper.map(values.nextInt()));
+            }
+            return localOutput;
+        }
+        else {
+            Pair<Range<Long>, Range<Long>> ranges = range.split();
+            IntMapTask left = new IntMapTask(input, ranges.first, mapper);
+            IntMapTask right = new IntMapTask(input, ranges.second, mapper);
+            left.fork();
+            right.fork();
+            IntDataset localOutput = left.join();
+            localOutput.append(right.join());
+            return localOutput;
+        }
+    }
+}
@@ -73,4 +73,32 @@ public abstract class JoinFunction<Tl, Tr, TOut> {
      * @return the left and right inputs combined into an output one.
      */
     public abstract TOut combine(Tl l, Tr r);
+
+    /**
+     * Returns a filter over left inputs equivalent to a filter over the
+     * outputs: an output passes the given filter if and only if its left
+     * input passes the returned one, whatever the right input. Functions
+     * that can tell may override this, so that queries can filter the left
+     * input before joining (see {@link net.sviglas.meridian.plan.Query}).
+     *
+     * @param f the filter over outputs.
+     * @return the equivalent filter over left inputs, or null if there is
+     * none.
+     */
+    public FilterFunction<Tl> leftFilter(FilterFunction<TOut> f) {
+        return null;
+    }
+
+    /**
+     * Returns a filter over right inputs equivalent to a filter over the
+     * outputs: an output passes the given filter if and only if its right
+     * input passes the returned one, whatever the left input.
+     *
+     * @param f the filter over outputs.
+     * @return the equivalent filter over right inputs, or null if there is
+     * none.
+     */
+    public FilterFunction<Tr> rightFilter(FilterFunction<TOut> f) {
+        return null;
+    }
 }
@@ -8,7 +8,11 @@
 
 package net.sviglas.meridian.task;
 
+import net.sviglas.meridian.storage.AbstractStore;
+import net.sviglas.meridian.storage.CompositeDataset;
 import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.storage.DatasetIndex;
+import net.sviglas.meridian.storage.HashIndex;
 import net.sviglas.util.Pair;
 
 import java.util.HashMap;
@@ -16,7 +20,10 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Abstraction of a join task between lists of datasets.
+ * Abstraction of a join task between lists of datasets. If the join function
+ * is a {@link KeyJoinFunction} and a right dataset is a store with an index
+ * over the join field, each left record looks its matches up through the
+ * index instead of both datasets being hashed.
  *
  * @param <Tl> the type of the left input dataset records.
  * @param <Tr> the type of the right input dataset records.
@@ -95,9 +102,7 @@ public class JoinTask<Tl, Tr, TOut> extends Task<Dataset<TOut>> {
                             ranges.second, joiner, getDatasetConstructor());
             left.fork();
             right.fork();
-            Dataset<TOut> localOut = left.join();
-            localOut.append(right.join());
-            return localOut;
+            return CompositeDataset.concat(left.join(), right.join());
         }
     }
 
@@ -109,6 +114,16 @@ public class JoinTask<Tl, Tr, TOut> extends Task<Dataset<TOut>> {
      * @param out the output dataset.
      */
     protected void localJoin(Dataset<Tl> l, Dataset<Tr> r, Dataset<TOut> out) {
+        if (joiner instanceof KeyJoinFunction && r instanceof AbstractStore) {
+            KeyJoinFunction<Tl, Tr, TOut> kj =
+                    (KeyJoinFunction<Tl, Tr, TOut>) joiner;
+            AbstractStore<Tr> store = (AbstractStore<Tr>) r;
+            DatasetIndex<Tr> index = pointIndex(store, kj.getRightField());
+            if (index != null) {
+                indexJoin(l, store, index, kj, out);
+                return;
+            }
+        }
         Map<Integer, Dataset<Tl>> leftMap = new HashMap<>();
         for (Tl lr : l) {
             int hash = lr.hashCode();
@@ -132,6 +147,47 @@ public class JoinTask<Tl, Tr, TOut> extends Task<Dataset<TOut>> {
         }
     }
 
+    /**
+     * Internal method to find an index over a field of a store, preferring
+     * hash indexes, which are meant for point lookups.
+     *
+     * @param store the store.
+     * @param field the name of the field.
+     * @return the index, or null if the field is not indexed.
+     */
+    private DatasetIndex<Tr> pointIndex(AbstractStore<Tr> store,
+                                        String field) {
+        DatasetIndex<Tr> found = null;
+        for (DatasetIndex<Tr> x : store.getIndexes()) {
+            if (! x.getName().equals(field)) continue;
+            if (x instanceof HashIndex) return x;
+            found = x;
+        }
+        return found;
+    }
+
+    /**
+     * Internal method to join datasets by looking the key of each left record
+     * up in an index over the right one.
+     *
+     * @param l the left input.
+     * @param r the right input.
+     * @param index the index over the join field of the right input.
+     * @param kj the join function.
+     * @param out the output dataset.
+     */
+    private void indexJoin(Dataset<Tl> l, AbstractStore<Tr> r,
+                           DatasetIndex<Tr> index,
+                           KeyJoinFunction<Tl, Tr, TOut> kj,
+                           Dataset<TOut> out) {
+        for (Tl lr : l) {
+            for (long row : index.lookup(kj.leftKey(lr))) {
+                Tr rr = r.get(row);
+                if (kj.equal(lr, rr)) out.add(kj.combine(lr, rr));
+            }
+        }
+    }
+
     /**
      * Debug main.
      *
@@ -0,0 +1,57 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+/**
+ * A join function for equi-joins on a field of the right input: it exposes
+ * the key each left record joins on, so that a join can look the matching
+ * right records up through an index over that field (see
+ * {@link net.sviglas.meridian.storage.DatasetIndex}) rather than hash both
+ * inputs. Two records must only be {@link #equal(Object, Object) equal} if
+ * the key of the left one is the value of the field of the right one.
+ *
+ * @param <Tl> the left input type.
+ * @param <Tr> the right input type.
+ * @param <TOut> the output type.
+ */
+public abstract class KeyJoinFunction<Tl, Tr, TOut>
+        extends JoinFunction<Tl, Tr, TOut> {
+    // the name of the field of the right input
+    private final String rightField;
+
+    /**
+     * Constructs a new key join function given input types and the field
+     * of the right input to join on.
+     *
+     * @param tl the left input type.
+     * @param tr the right input type.
+     * @param tout the output type.
+     * @param rf the name of the field of the right input.
+     */
+    public KeyJoinFunction(Class<Tl> tl, Class<Tr> tr, Class<TOut> tout,
+                           String rf) {
+        super(tl, tr, tout);
+        rightField = rf;
+    }
+
+    /**
+     * Returns the name of the field of the right input to join on.
+     *
+     * @return the name of the field.
+     */
+    public String getRightField() { return rightField; }
+
+    /**
+     * Returns the key a left record joins on.
+     *
+     * @param l the left record.
+     * @return the value the field of matching right records holds.
+     */
+    public abstract long leftKey(Tl l);
+}
@@ -0,0 +1,95 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import net.sviglas.util.Pair;
+
+/**
+ * A range over the positions of a list, e.g., the lists of datasets that
+ * join and merge tasks pair up; each position is processed by a task of its
+ * own.
+ */
+public class ListRange extends Range<Integer> {
+    // the first position
+    private final int low;
+    // the position following the last
+    private final int high;
+
+    /**
+     * Constructs a new range over the given positions.
+     *
+     * @param l the first position (inclusive).
+     * @param h the last position (exclusive).
+     */
+    public ListRange(int l, int h) {
+        low = l;
+        high = h;
+    }
+
+    /**
+     * Checks whether the range is small enough to be processed by a single
+     * task, i.e., whether it holds at most one position.
+     *
+     * @return true of the range is small enough, false otherwise.
+     */
+    @Override
+    public boolean smallEnough() { return high - low <= 1; }
+
+    /**
+     * Splits this range in two new (smaller) ranges.
+     *
+     * @return a pair of ranges.
+     */
+    @Override
+    public Pair<Range<Integer>, Range<Integer>> split() {
+        int mid = (low + high) >>> 1;
+        return new Pair<>(new ListRange(low, mid), new ListRange(mid, high));
+    }
+
+    /**
+     * Returns an iterator over the positions of this range.
+     *
+     * @return an iterator over the positions of this range.
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            // the next position
+            private int current = low;
+
+            @Override
+            public boolean hasNext() { return current < high; }
+
+            @Override
+            public Integer next() {
+                if (current >= high) throw new NoSuchElementException();
+                return current++;
+            }
+        };
+    }
+
+    /**
+     * The beginning of this range.
+     *
+     * @return the beginning of this range.
+     */
+    @Override
+    public Integer begin() { return low; }
+
+    /**
+     * The end of this range.
+     *
+     * @return the end of this range.
+     */
+    @Override
+    public Integer end() { return high; }
+}
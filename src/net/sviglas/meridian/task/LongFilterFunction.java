@@ -0,0 +1,24 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+/**
+ * Basic abstraction of a filtering function over unboxed long values, to be
+ * used by long filtering tasks.
+ */
+public abstract class LongFilterFunction {
+    /**
+     * Filtering function, returns true of the filtering predicate is true,
+     * false otherwise.
+     *
+     * @param t the input value.
+     * @return true if the filtering predicate is true, false otherwise.
+     */
+    public abstract boolean filter(long t);
+}
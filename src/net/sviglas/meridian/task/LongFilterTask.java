@@ -0,0 +1,73 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import java.util.PrimitiveIterator;
+
+import net.sviglas.meridian.storage.LongDataset;
+import net.sviglas.meridian.storage.LongSource;
+import net.sviglas.util.Pair;
+
+/**
+ * Filtering task over a source of long values; values are never boxed.
+ */
+public class LongFilterTask extends Task<LongDataset> {
+    // the input values
+    private LongSource input;
+    // the enumerating range
+    private Range<Long> range;
+    // the filtering function
+    private LongFilterFunction filter;
+
+    /**
+     * Constructs a new filtering task for the given parameters.
+     *
+     * @param i the input values, e.g., a dataset or a column projection.
+     * @param r the input range.
+     * @param f the filtering function.
+     */
+    public LongFilterTask(LongSource i, Range<Long> r, LongFilterFunction f) {
+        super();
+        input = i;
+        range = r;
+        filter = f;
+    }
+
+    /**
+     * Invokes the computation over the dataset by testing the filtering
+     * predicate over the dataset values.
+     *
+     * @return the filtered dataset.
+     */
+    @Override
+    protected LongDataset compute() {
+        if (range.smallEnough()) {
+            LongDataset localOutput = new LongDataset();
+            PrimitiveIterator.OfLong values =
+                    input.longCursor(range.begin(), range.end());
+            while (values.hasNext()) {
+                long v = values.nextLong();
+                if (filter.filter(v)) localOutput.addLong(v);
+            }
+            return localOutput;
+        }
+        else {
+            Pair<Range<Long>, Range<Long>> pair = range.split();
+            LongFilterTask left =
+                    new LongFilterTask(input, pair.first, filter);
+            LongFilterTask right =
+                    new LongFilterTask(input, pair.second, filter);
+            left.fork();
+            right.fork();
+            LongDataset localOutput = left.join();
+            localOutput.append(right.join());
+            return localOutput;
+        }
+    }
+}
@@ -45,6 +45,27 @@ public abstract class MapFunction<TIn, TOut> {
      */
     public Class<TOut> getOutputType() { return outputType; }
 
+    /**
+     * Returns whether this function may keep a reference to its input past
+     * the call, e.g., by returning it or storing it. Functions that do not
+     * should override this to return false; tasks can then read their input
+     * into a single reused record instance instead of allocating one record
+     * per input.
+     *
+     * @return true if the input may be retained, false otherwise.
+     */
+    public boolean retainsInput() { return true; }
+
+    /**
+     * Returns the fields of the input records this function reads. Functions
+     * that read only some fields may override this to name them; a query
+     * over a column store then only reads the columns of those fields (see
+     * {@link net.sviglas.meridian.plan.Query}).
+     *
+     * @return the names of the fields read, or null if any field may be.
+     */
+    public String [] getReadFields() { return null; }
+
     /**
      * Maps an input value to an output one.
      *
@@ -8,7 +8,15 @@
 
 package net.sviglas.meridian.task;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import net.sviglas.meridian.storage.AllocationPolicy;
+import net.sviglas.meridian.storage.CompositeDataset;
 import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.storage.RowStore;
 import net.sviglas.util.Pair;
 
 /**
@@ -69,8 +77,11 @@ public class MapTask<TIn, TOut> extends Task<Dataset<TOut>> {
             Dataset<TOut> localOutput =
                     getDatasetConstructor().constructDataset(
                             mapper.getOutputType());
-            for (long index = range.begin(); index < range.end(); index++) {
-                localOutput.add(mapper.map(input.get(index)));
+            Iterator<TIn> records = mapper.retainsInput()
+                    ? input.cursor(range.begin(), range.end())
+                    : input.cursor(range.begin(), range.end(), null);
+            while (records.hasNext()) {
+                localOutput.add(mapper.map(records.next()));
             }
             return localOutput;
         }
@@ -82,9 +93,72 @@ public class MapTask<TIn, TOut> extends Task<Dataset<TOut>> {
                     mapper, getDatasetConstructor());
             left.fork();
             right.fork();
-            Dataset<TOut> localOutput = left.join();
-            localOutput.append(right.join());
-            return localOutput;
+            return CompositeDataset.concat(left.join(), right.join());
+        }
+    }
+
+    /**
+     * Debug main: runs several parallel scans over the same row store of
+     * many containers at once, half of them reading into reused records,
+     * and checks every output value; reads that disturbed each other, e.g.,
+     * through the position of a shared buffer, would fail the checks.
+     *
+     * @param args parameters: the number of records, 500 thousand by
+     * default, and of rounds, 10 by default.
+     */
+    public static void main(String [] args) {
+        class Row {
+            private int key;
+            private long value;
+            private double weight;
+            public Row() { this(0); }
+            public Row(int k) { key = k; value = 3L * k; weight = k / 2.0; }
+        }
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        RowStore<Row> rows = new RowStore<>(Row.class,
+                RowStore.DEFAULT_ALLOCATION, AllocationPolicy.GEOMETRIC);
+        for (int i = 0; i < n; i++) rows.add(new Row(i));
+        if (rows.containerCount() < 2) {
+            throw new IllegalStateException("Single container of " + n
+                    + " records");
+        }
+        ForkJoinPool pool = new ForkJoinPool(8);
+        for (int round = 0; round < rounds; round++) {
+            List<MapTask<Row, Long>> scans = new ArrayList<>();
+            for (int s = 0; s < 8; s++) {
+                final boolean reuse = s % 2 == 0;
+                scans.add(new MapTask<>(rows, new IndexRange(0L, n, 1000L),
+                        new MapFunction<Row, Long>(Row.class, Long.class) {
+                            @Override
+                            public boolean retainsInput() { return ! reuse; }
+
+                            @Override
+                            public Long map(Row r) {
+                                return r.key + r.value + (long) r.weight;
+                            }
+                        }));
+            }
+            for (MapTask<Row, Long> scan : scans) pool.execute(scan);
+            for (MapTask<Row, Long> scan : scans) {
+                Dataset<Long> out = scan.join();
+                if (out.size() != n) {
+                    throw new IllegalStateException("Scan returned "
+                            + out.size() + " records instead of " + n);
+                }
+                long i = 0;
+                for (Long v : out) {
+                    if (v != 4 * i + i / 2) {
+                        throw new IllegalStateException("Record " + i
+                                + " mapped to " + v);
+                    }
+                    i++;
+                }
+            }
         }
+        System.out.println(rounds + " rounds of 8 concurrent scans over "
+                + n + " records in " + rows.containerCount()
+                + " containers: ok");
+        pool.shutdown();
     }
 }
@@ -9,6 +9,7 @@
 package net.sviglas.meridian.task;
 
 import net.sviglas.meridian.storage.ArrayStore;
+import net.sviglas.meridian.storage.CompositeDataset;
 import net.sviglas.meridian.storage.Dataset;
 import net.sviglas.util.Pair;
 
@@ -88,9 +89,7 @@ public class MergeTask<T> extends Task<Dataset<T>> {
                     ranges.second, merger, getDatasetConstructor());
             left.fork();
             right.fork();
-            Dataset<T> localOutput = left.join();
-            localOutput.append(right.join());
-            return localOutput;
+            return CompositeDataset.concat(left.join(), right.join());
         }
     }
 
@@ -61,7 +61,7 @@ public class PartitionReduceJob<TIn,
      */
     public SortedMap<KIntermediate, VOut> execute(ForkJoinPool pool) {
         PartitionTask<TIn, KIntermediate, VIntermediate> partitionTask =
-            new PartitionTask<>(input, new IndexRange(0, input.size()),
+            new PartitionTask<>(input, IndexRange.over(input),
                           partitioner);
         SortedMap<KIntermediate, Dataset<VIntermediate>> partitions =
             pool.invoke(partitionTask);
@@ -8,10 +8,12 @@
 
 package net.sviglas.meridian.task;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+import net.sviglas.meridian.storage.CompositeDataset;
 import net.sviglas.meridian.storage.Dataset;
 import net.sviglas.util.Pair;
 
@@ -73,8 +75,9 @@ public class PartitionTask<TIn, KOut extends Comparable<? super KOut>, VOut>
     protected SortedMap<KOut, Dataset<VOut>> compute() {
         if (range.smallEnough()) {
             SortedMap<KOut, Dataset<VOut>> localGroup = new TreeMap<>();
-            for (long index = range.begin(); index < range.end(); index++) {
-                TIn t = input.get(index);
+            Iterator<TIn> records = input.cursor(range.begin(), range.end());
+            while (records.hasNext()) {
+                TIn t = records.next();
                 Pair<KOut, VOut> kvout = partitioner.partition(t);
                 Dataset<VOut> values = localGroup.get(kvout.first);
                 if (values != null)
@@ -118,7 +121,10 @@ public class PartitionTask<TIn, KOut extends Comparable<? super KOut>, VOut>
         for (Map.Entry<KOut, Dataset<VOut>> entry : small.entrySet()) {
             Dataset<VOut> smallList = entry.getValue();
             Dataset<VOut> bigList = big.get(entry.getKey());
-            if (bigList != null) bigList.append(smallList);
+            if (bigList != null) {
+                big.put(entry.getKey(),
+                        CompositeDataset.concat(bigList, smallList));
+            }
             else big.put(entry.getKey(), smallList);
         }
         return big;
@@ -0,0 +1,67 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import net.sviglas.meridian.storage.AbstractStore;
+import net.sviglas.meridian.storage.AllocationPolicy;
+import net.sviglas.meridian.storage.BadTypeException;
+import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.meridian.storage.PaxStore;
+
+/**
+ * Dataset constructor that returns PAX stores, so that task outputs can be
+ * both scanned field by field and read record by record without keeping a
+ * row and a column copy. As with the default constructor, the containers of
+ * the constructed stores start small and grow geometrically by default.
+ */
+public class PaxDatasetConstructor implements DatasetConstructor {
+    // the allocation policy of the constructed datasets
+    private final AllocationPolicy policy;
+
+    /**
+     * Constructs a dataset constructor whose datasets grow geometrically.
+     */
+    public PaxDatasetConstructor() {
+        this(AllocationPolicy.GEOMETRIC);
+    }
+
+    /**
+     * Constructs a dataset constructor whose datasets follow the given
+     * allocation policy.
+     *
+     * @param p the allocation policy.
+     */
+    public PaxDatasetConstructor(AllocationPolicy p) {
+        policy = p;
+    }
+
+    /**
+     * Returns the allocation policy of the constructed datasets.
+     *
+     * @return the allocation policy.
+     */
+    public AllocationPolicy getAllocationPolicy() { return policy; }
+
+    /**
+     * Given a type, construct a PAX store for that type.
+     *
+     * @param type the dataset type.
+     * @param <T> the type of dataset records.
+     * @return a PAX store for records of the given type.
+     * @throws BadTypeException if the type is not good for dataset
+     * construction, i.e., if it is not a primitive type or consists only
+     * of primitive-typed fields, or it does not have a parameter-less
+     * constructor.
+     */
+    @Override
+    public <T> Dataset<T> constructDataset(Class<T> type)
+            throws BadTypeException {
+        return new PaxStore<>(type, AbstractStore.DEFAULT_ALLOCATION, policy);
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import net.sviglas.meridian.storage.CompositeDataset;
+import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.util.Pair;
+
+/**
+ * Builder of fused pipelines: a chain of map and filter stages over a
+ * dataset, ended by a collect, fold or partition stage, all run as a single
+ * fork/join pass. Each leaf task pushes its records through every stage in
+ * turn, so the stages exchange records one at a time rather than through
+ * datasets; only the final stage materializes its output, and a fold does
+ * not even do that. For instance:
+ * <pre>
+ * Long total = pool.invoke(Pipeline.over(orders)
+ *         .filter(recent)
+ *         .map(toAmount)
+ *         .fold(sum));
+ * </pre>
+ * Pipelines are immutable: every stage returns a new pipeline, so a prefix
+ * can be shared by several pipelines.
+ *
+ * @param <TIn> the type of the records of the input dataset.
+ * @param <T> the type of the records leaving the last stage.
+ */
+public final class Pipeline<TIn, T> {
+    // the input dataset
+    private final Dataset<TIn> input;
+    // the range over the input
+    private final Range<Long> range;
+    // the stages, in order
+    private final List<Stage> stages;
+    // the type of the records leaving the last stage
+    private final Class<T> type;
+
+    /**
+     * Internal constructor.
+     *
+     * @param i the input dataset.
+     * @param r the range over the input.
+     * @param s the stages, in order.
+     * @param t the type of the records leaving the last stage.
+     */
+    private Pipeline(Dataset<TIn> i, Range<Long> r, List<Stage> s,
+                     Class<T> t) {
+        input = i;
+        range = r;
+        stages = s;
+        type = t;
+    }
+
+    /**
+     * Starts a pipeline over all the records of a dataset, split adaptively
+     * (see {@link IndexRange#over(Dataset)}).
+     *
+     * @param d the dataset.
+     * @param <T> the type of the records of the dataset.
+     * @return a pipeline with no stages.
+     */
+    public static <T> Pipeline<T, T> over(Dataset<T> d) {
+        return over(d, IndexRange.over(d));
+    }
+
+    /**
+     * Starts a pipeline over a range of the records of a dataset.
+     *
+     * @param d the dataset.
+     * @param r the range over the dataset.
+     * @param <T> the type of the records of the dataset.
+     * @return a pipeline with no stages.
+     */
+    public static <T> Pipeline<T, T> over(Dataset<T> d, Range<Long> r) {
+        return new Pipeline<>(d, r, Collections.<Stage>emptyList(),
+                d.getRecordType());
+    }
+
+    /**
+     * Appends a map stage.
+     *
+     * @param f the mapping function.
+     * @param <U> the output type of the mapping function.
+     * @return a pipeline ending in the new stage.
+     */
+    public <U> Pipeline<TIn, U> map(MapFunction<T, U> f) {
+        return new Pipeline<>(input, range, append(new MapStage(f)),
+                f.getOutputType());
+    }
+
+    /**
+     * Appends a filter stage.
+     *
+     * @param f the filtering function.
+     * @return a pipeline ending in the new stage.
+     */
+    public Pipeline<TIn, T> filter(FilterFunction<T> f) {
+        return new Pipeline<>(input, range, append(new FilterStage(f)), type);
+    }
+
+    /**
+     * Internal method to copy the stages with a new one at the end.
+     *
+     * @param s the new stage.
+     * @return the stages.
+     */
+    private List<Stage> append(Stage s) {
+        List<Stage> ss = new ArrayList<>(stages);
+        ss.add(s);
+        return Collections.unmodifiableList(ss);
+    }
+
+    /**
+     * Ends the pipeline by collecting its records into a dataset, with the
+     * default dataset constructor.
+     *
+     * @return the task running the pipeline.
+     */
+    public Task<Dataset<T>> collect() {
+        return collect(new DefaultDatasetConstructor());
+    }
+
+    /**
+     * Ends the pipeline by collecting its records into a dataset.
+     *
+     * @param ctor the dataset constructor.
+     * @return the task running the pipeline.
+     */
+    public Task<Dataset<T>> collect(DatasetConstructor ctor) {
+        return new PipelineTask<>(input, range, stages,
+                new Collect<>(type), ctor);
+    }
+
+    /**
+     * Ends the pipeline by folding its records.
+     *
+     * @param f the folding function.
+     * @param <R> the output type of the folding function.
+     * @return the task running the pipeline.
+     */
+    public <R> Task<R> fold(FoldFunction<T, R> f) {
+        return new PipelineTask<>(input, range, stages, new Fold<>(f),
+                new DefaultDatasetConstructor());
+    }
+
+    /**
+     * Ends the pipeline by partitioning its records, with the default
+     * dataset constructor.
+     *
+     * @param f the partitioning function.
+     * @param <K> the output key type.
+     * @param <V> the output value type.
+     * @return the task running the pipeline.
+     */
+    public <K extends Comparable<? super K>, V>
+            Task<SortedMap<K, Dataset<V>>> partition(
+                    PartitionFunction<T, K, V> f) {
+        return partition(f, new DefaultDatasetConstructor());
+    }
+
+    /**
+     * Ends the pipeline by partitioning its records.
+     *
+     * @param f the partitioning function.
+     * @param ctor the dataset constructor of the partitions.
+     * @param <K> the output key type.
+     * @param <V> the output value type.
+     * @return the task running the pipeline.
+     */
+    public <K extends Comparable<? super K>, V>
+            Task<SortedMap<K, Dataset<V>>> partition(
+                    PartitionFunction<T, K, V> f, DatasetConstructor ctor) {
+        return new PipelineTask<>(input, range, stages, new Partition<>(f),
+                ctor);
+    }
+
+    /**
+     * A map or filter stage, which passes records on to the next stage.
+     */
+    abstract static class Stage {
+        /**
+         * Returns whether the stage may keep references to its input
+         * records, which then cannot be reused.
+         *
+         * @return true if the stage retains its input, false otherwise.
+         */
+        abstract boolean retainsInput();
+
+        /**
+         * Returns whether the stage passes on new records rather than its
+         * input records.
+         *
+         * @return true if the stage passes on new records, false otherwise.
+         */
+        abstract boolean transforms();
+
+        /**
+         * Wraps the next stage into this one.
+         *
+         * @param next the consumer of the records this stage passes on.
+         * @return the consumer of the records of this stage.
+         */
+        abstract Consumer<Object> wrap(Consumer<Object> next);
+    }
+
+    /**
+     * A map stage.
+     */
+    static final class MapStage extends Stage {
+        // the mapping function
+        private final MapFunction<Object, Object> mapper;
+
+        /**
+         * Constructs a new map stage.
+         *
+         * @param f the mapping function.
+         */
+        @SuppressWarnings("unchecked")
+        MapStage(MapFunction<?, ?> f) {
+            mapper = (MapFunction<Object, Object>) f;
+        }
+
+        @Override
+        boolean retainsInput() { return mapper.retainsInput(); }
+
+        @Override
+        boolean transforms() { return true; }
+
+        @Override
+        Consumer<Object> wrap(Consumer<Object> next) {
+            return t -> next.accept(mapper.map(t));
+        }
+    }
+
+    /**
+     * A filter stage.
+     */
+    static final class FilterStage extends Stage {
+        // the filtering function
+        private final FilterFunction<Object> filter;
+
+        /**
+         * Constructs a new filter stage.
+         *
+         * @param f the filtering function.
+         */
+        @SuppressWarnings("unchecked")
+        FilterStage(FilterFunction<?> f) {
+            filter = (FilterFunction<Object>) f;
+        }
+
+        /**
+         * Returns the filtering function of this stage.
+         *
+         * @return the filtering function.
+         */
+        FilterFunction<Object> getFilter() { return filter; }
+
+        @Override
+        boolean retainsInput() { return filter.retainsInput(); }
+
+        @Override
+        boolean transforms() { return false; }
+
+        @Override
+        Consumer<Object> wrap(Consumer<Object> next) {
+            return t -> {
+                if (filter.filter(t)) next.accept(t);
+            };
+        }
+    }
+
+    /**
+     * The final stage of a pipeline: it turns the records of a leaf task
+     * into a result, and combines the results of sibling tasks.
+     *
+     * @param <A> the type of the result.
+     */
+    abstract static class Terminal<A> {
+        /**
+         * Creates the sink of the records of a leaf task.
+         *
+         * @param ctor the dataset constructor.
+         * @return the sink.
+         */
+        abstract Sink<A> sink(DatasetConstructor ctor);
+
+        /**
+         * Combines the results of two sibling tasks.
+         *
+         * @param left the result of the left task.
+         * @param right the result of the right task.
+         * @return the combined result.
+         */
+        abstract A combine(A left, A right);
+    }
+
+    /**
+     * The consumer of the records of a leaf task, which builds its result.
+     *
+     * @param <A> the type of the result.
+     */
+    abstract static class Sink<A> implements Consumer<Object> {
+        /**
+         * Returns whether the sink may keep references to the records it
+         * consumes, which then cannot be reused.
+         *
+         * @return true if the sink retains its input, false otherwise.
+         */
+        abstract boolean retainsInput();
+
+        /**
+         * Returns the result built from the consumed records.
+         *
+         * @return the result.
+         */
+        abstract A result();
+    }
+
+    /**
+     * Collects records into a dataset.
+     *
+     * @param <T> the type of the records.
+     */
+    static final class Collect<T> extends Terminal<Dataset<T>> {
+        // the type of the records
+        private final Class<T> type;
+
+        /**
+         * Constructs a new collect stage.
+         *
+         * @param t the type of the records.
+         */
+        Collect(Class<T> t) { type = t; }
+
+        @Override
+        Sink<Dataset<T>> sink(DatasetConstructor ctor) {
+            Dataset<T> output = ctor.constructDataset(type);
+            return new Sink<Dataset<T>>() {
+                @Override
+                boolean retainsInput() { return ! output.copiesRecords(); }
+
+                @Override
+                Dataset<T> result() { return output; }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void accept(Object t) { output.add((T) t); }
+            };
+        }
+
+        @Override
+        Dataset<T> combine(Dataset<T> left, Dataset<T> right) {
+            return CompositeDataset.concat(left, right);
+        }
+    }
+
+    /**
+     * Folds records.
+     *
+     * @param <T> the type of the records.
+     * @param <R> the type of the result.
+     */
+    static final class Fold<T, R> extends Terminal<R> {
+        // the folding function
+        private final FoldFunction<T, R> folder;
+
+        /**
+         * Constructs a new fold stage.
+         *
+         * @param f the folding function.
+         */
+        Fold(FoldFunction<T, R> f) { folder = f; }
+
+        @Override
+        Sink<R> sink(DatasetConstructor ctor) {
+            return new Sink<R>() {
+                // the accumulated result
+                private R result = folder.noop();
+
+                @Override
+                boolean retainsInput() { return folder.retainsInput(); }
+
+                @Override
+                R result() { return result; }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void accept(Object t) {
+                    result = folder.accumulate(result, (T) t);
+                }
+            };
+        }
+
+        @Override
+        R combine(R left, R right) { return folder.combine(left, right); }
+    }
+
+    /**
+     * Partitions records by key.
+     *
+     * @param <T> the type of the records.
+     * @param <K> the type of the keys.
+     * @param <V> the type of the values.
+     */
+    static final class Partition<T, K extends Comparable<? super K>, V>
+            extends Terminal<SortedMap<K, Dataset<V>>> {
+        // the partitioning function
+        private final PartitionFunction<T, K, V> partitioner;
+
+        /**
+         * Constructs a new partition stage.
+         *
+         * @param f the partitioning function.
+         */
+        Partition(PartitionFunction<T, K, V> f) { partitioner = f; }
+
+        @Override
+        Sink<SortedMap<K, Dataset<V>>> sink(DatasetConstructor ctor) {
+            SortedMap<K, Dataset<V>> groups = new TreeMap<>();
+            return new Sink<SortedMap<K, Dataset<V>>>() {
+                @Override
+                boolean retainsInput() { return true; }
+
+                @Override
+                SortedMap<K, Dataset<V>> result() { return groups; }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void accept(Object t) {
+                    Pair<K, V> kv = partitioner.partition((T) t);
+                    Dataset<V> values = groups.get(kv.first);
+                    if (values == null) {
+                        values = ctor.constructDataset(
+                                partitioner.getOutputValueType());
+                        groups.put(kv.first, values);
+                    }
+                    values.add(kv.second);
+                }
+            };
+        }
+
+        @Override
+        SortedMap<K, Dataset<V>> combine(SortedMap<K, Dataset<V>> left,
+                                         SortedMap<K, Dataset<V>> right) {
+            // the values of each key stay in input order
+            for (Map.Entry<K, Dataset<V>> entry : right.entrySet()) {
+                Dataset<V> values = left.get(entry.getKey());
+                left.put(entry.getKey(), values == null ? entry.getValue()
+                        : CompositeDataset.concat(values, entry.getValue()));
+            }
+            return left;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import net.sviglas.meridian.storage.AbstractStore;
+import net.sviglas.meridian.storage.Dataset;
+import net.sviglas.util.Pair;
+
+/**
+ * The task running a fused pipeline (see {@link Pipeline}): each leaf reads
+ * its range of the input once and pushes every record through all the
+ * stages, into the sink of the final stage; the results of the leaves are
+ * combined by the final stage. Input records are read into a reused
+ * instance unless a stage may retain them. If the first stage is a
+ * {@link RangeFilterFunction} over a store, containers are skipped and
+ * records selected as by a {@link FilterTask}.
+ *
+ * @param <TIn> the type of the records of the input dataset.
+ * @param <A> the type of the result.
+ */
+public class PipelineTask<TIn, A> extends Task<A> {
+    // the input dataset
+    private final Dataset<TIn> input;
+    // the range over the input
+    private final Range<Long> range;
+    // the map and filter stages, in order
+    private final List<Pipeline.Stage> stages;
+    // the final stage
+    private final Pipeline.Terminal<A> terminal;
+
+    /**
+     * Constructs a new pipeline task.
+     *
+     * @param i the input dataset.
+     * @param r the range over the input.
+     * @param s the map and filter stages, in order.
+     * @param t the final stage.
+     * @param ctor the dataset constructor.
+     */
+    PipelineTask(Dataset<TIn> i, Range<Long> r, List<Pipeline.Stage> s,
+                 Pipeline.Terminal<A> t, DatasetConstructor ctor) {
+        super(ctor);
+        input = i;
+        range = r;
+        stages = s;
+        terminal = t;
+    }
+
+    /**
+     * Runs the pipeline over the range, splitting it while it is large.
+     *
+     * @return the result of the final stage.
+     */
+    @Override
+    protected A compute() {
+        if (range.smallEnough()) {
+            Pipeline.Sink<A> sink = terminal.sink(getDatasetConstructor());
+            Consumer<Object> head = sink;
+            for (int s = stages.size() - 1; s >= 0; s--) {
+                head = stages.get(s).wrap(head);
+            }
+            boolean reuse = reusesInput(sink);
+            RangeFilterFunction<TIn> f = leadingRanges();
+            if (f != null && input instanceof AbstractStore) {
+                pushSelected((AbstractStore<TIn>) input, f, reuse, head);
+            }
+            else {
+                Iterator<TIn> records = reuse
+                        ? input.cursor(range.begin(), range.end(), null)
+                        : input.cursor(range.begin(), range.end());
+                while (records.hasNext()) head.accept(records.next());
+            }
+            return sink.result();
+        }
+        else {
+            Pair<Range<Long>, Range<Long>> ranges = range.split();
+            PipelineTask<TIn, A> left = new PipelineTask<>(input,
+                    ranges.first, stages, terminal, getDatasetConstructor());
+            PipelineTask<TIn, A> right = new PipelineTask<>(input,
+                    ranges.second, stages, terminal, getDatasetConstructor());
+            left.fork();
+            right.fork();
+            return terminal.combine(left.join(), right.join());
+        }
+    }
+
+    /**
+     * Internal method to decide whether input records can be read into a
+     * reused instance: the stages an input record reaches, up to the first
+     * map stage or else the final stage, must not retain it.
+     *
+     * @param sink the sink of the final stage.
+     * @return true if input records can be reused, false otherwise.
+     */
+    private boolean reusesInput(Pipeline.Sink<A> sink) {
+        for (Pipeline.Stage s : stages) {
+            if (s.retainsInput()) return false;
+            if (s.transforms()) return true;
+        }
+        return ! sink.retainsInput();
+    }
+
+    /**
+     * Internal method to retrieve the filtering function of the first stage
+     * if it filters on ranges.
+     *
+     * @return the range filtering function, or null.
+     */
+    @SuppressWarnings("unchecked")
+    private RangeFilterFunction<TIn> leadingRanges() {
+        if (stages.isEmpty()
+                || ! (stages.get(0) instanceof Pipeline.FilterStage)) {
+            return null;
+        }
+        FilterFunction<Object> f =
+                ((Pipeline.FilterStage) stages.get(0)).getFilter();
+        return f instanceof RangeFilterFunction
+                ? (RangeFilterFunction<TIn>) (FilterFunction<?>) f : null;
+    }
+
+    /**
+     * Internal method to push the records of the range that the store
+     * selects into the stages, skipping the containers whose statistics rule
+     * out a match. The first stage still tests the records it is given.
+     *
+     * @param store the input store.
+     * @param f the range filtering function of the first stage.
+     * @param reuse whether to read into a reused record instance.
+     * @param head the consumer of the first stage.
+     */
+    private void pushSelected(AbstractStore<TIn> store,
+                              RangeFilterFunction<TIn> f, boolean reuse,
+                              Consumer<Object> head) {
+        AbstractStore<TIn>.Layout layout = store.getLayout();
+        long begin = range.begin();
+        while (begin < range.end()) {
+            int c = layout.containerOf(begin);
+            long first = layout.containerBegin(c);
+            long end = Math.min(range.end(), first + layout.containerSize(c));
+            if (f.mayMatch(layout.containerStatistics(c))) {
+                int [] selected = new int [(int) (end - begin)];
+                int n = store.select(layout, c, (int) (begin - first),
+                        (int) (end - first), f.getRanges(), selected);
+                TIn t = null;
+                for (int k = 0; k < n; k++) {
+                    t = store.get(first + selected[k], reuse ? t : null);
+                    head.accept(t);
+                }
+            }
+            begin = end;
+        }
+    }
+
+    /**
+     * Debug main: runs a map, filter and fold pipeline fused and as separate
+     * tasks, and checks that both produce the same records and result.
+     *
+     * @param args parameters: the number of records, 200 thousand by
+     * default.
+     */
+    public static void main(String [] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Dataset<Long> input = new net.sviglas.meridian.storage.RowStore<>(
+                Long.class);
+        for (long i = 0; i < n; i++) input.add(i);
+        MapFunction<Long, Long> square =
+                new MapFunction<Long, Long>(Long.class, Long.class) {
+                    @Override
+                    public Long map(Long t) { return t * t % 1000; }
+                };
+        FilterFunction<Long> even = new FilterFunction<Long>(Long.class) {
+            @Override
+            public boolean filter(Long t) { return t % 2 == 0; }
+        };
+        FoldFunction<Long, Long> sum =
+                new FoldFunction<Long, Long>(Long.class, Long.class) {
+                    @Override
+                    public Long noop() { return 0L; }
+
+                    @Override
+                    public Long accumulate(Long in, Long t) {
+                        return in + t;
+                    }
+
+                    @Override
+                    public Long combine(Long l, Long r) { return l + r; }
+                };
+        java.util.concurrent.ForkJoinPool pool =
+                new java.util.concurrent.ForkJoinPool();
+        Dataset<Long> mapped = pool.invoke(new MapTask<>(input,
+                IndexRange.over(input), square));
+        Dataset<Long> filtered = pool.invoke(new FilterTask<>(mapped,
+                IndexRange.over(mapped), even));
+        long staged = pool.invoke(new FoldTask<>(filtered,
+                IndexRange.over(filtered), sum));
+        long fused = pool.invoke(Pipeline.over(input).map(square)
+                .filter(even).fold(sum));
+        if (fused != staged) {
+            throw new IllegalStateException("Fused " + fused + " but staged "
+                    + staged);
+        }
+        Dataset<Long> collected = pool.invoke(Pipeline.over(input)
+                .map(square).filter(even)
+                .collect(new DefaultDatasetConstructor()));
+        if (collected.size() != filtered.size()) {
+            throw new IllegalStateException("Fused " + collected.size()
+                    + " records but staged " + filtered.size());
+        }
+        Iterator<Long> expected = filtered.iterator();
+        for (Long t : collected) {
+            if (! expected.hasNext() || ! t.equals(expected.next())) {
+                throw new IllegalStateException("Fused record " + t
+                        + " differs from the staged one");
+            }
+        }
+        System.out.println("sum " + fused + " over " + collected.size()
+                + " records: ok");
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sviglas.meridian.storage.BadAccessException;
+import net.sviglas.meridian.storage.BadTypeException;
+import net.sviglas.meridian.storage.FieldRange;
+import net.sviglas.meridian.storage.ZoneMap;
+
+/**
+ * A filtering function given as a conjunction of field ranges rather than
+ * as code. As the predicate is declared, filtering tasks over stores test
+ * the ranges against each container's statistics first and skip the
+ * containers that cannot hold a match without reading their records.
+ *
+ * @param <T> the input type.
+ */
+public class RangeFilterFunction<T> extends FilterFunction<T> {
+    // the ranges, all of which must hold
+    private final List<FieldRange> ranges;
+
+    /**
+     * Constructs a new range filtering function; with no ranges it accepts
+     * every record.
+     *
+     * @param t the input type.
+     */
+    public RangeFilterFunction(Class<T> t) {
+        super(t);
+        ranges = new ArrayList<>();
+    }
+
+    /**
+     * Adds a range with integral bounds over a field of the input type.
+     *
+     * @param field the name of the field.
+     * @param low the lower bound (inclusive).
+     * @param high the upper bound (inclusive).
+     * @return this function.
+     * @throws BadTypeException if the input type is not supported.
+     * @throws BadAccessException if there is no such field.
+     */
+    public RangeFilterFunction<T> between(String field, long low, long high)
+            throws BadTypeException, BadAccessException {
+        ranges.add(FieldRange.between(getInputType(), field, low, high));
+        return this;
+    }
+
+    /**
+     * Adds a range with floating-point bounds over a field of the input
+     * type.
+     *
+     * @param field the name of the field.
+     * @param low the lower bound (inclusive).
+     * @param high the upper bound (inclusive).
+     * @return this function.
+     * @throws BadTypeException if the input type is not supported.
+     * @throws BadAccessException if there is no such field.
+     */
+    public RangeFilterFunction<T> between(String field, double low,
+                                          double high)
+            throws BadTypeException, BadAccessException {
+        ranges.add(FieldRange.between(getInputType(), field, low, high));
+        return this;
+    }
+
+    /**
+     * Returns the ranges of this function.
+     *
+     * @return the ranges, all of which must hold for a record to pass.
+     */
+    public List<FieldRange> getRanges() { return ranges; }
+
+    /**
+     * Combines this function with another over the same input type into a
+     * new function whose ranges are those of both.
+     *
+     * @param o the other function.
+     * @return the conjunction of the two functions.
+     */
+    public RangeFilterFunction<T> and(RangeFilterFunction<T> o) {
+        RangeFilterFunction<T> f = new RangeFilterFunction<>(getInputType());
+        f.ranges.addAll(ranges);
+        f.ranges.addAll(o.ranges);
+        return f;
+    }
+
+    /**
+     * Ranges only read the fields they bound.
+     *
+     * @return the names of the bounded fields.
+     */
+    @Override
+    public String [] getReadFields() {
+        String [] fields = new String [ranges.size()];
+        for (int r = 0; r < fields.length; r++) {
+            fields[r] = ranges.get(r).getName();
+        }
+        return fields;
+    }
+
+    /**
+     * Tests whether a container may hold records that pass this filter.
+     *
+     * @param z the statistics of the container.
+     * @return false if no record of the container can pass, true otherwise.
+     */
+    public boolean mayMatch(ZoneMap z) {
+        for (FieldRange r : ranges) {
+            if (! r.overlaps(z)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ranges only look at the input, so it is never retained.
+     *
+     * @return always false.
+     */
+    @Override
+    public boolean retainsInput() { return false; }
+
+    /**
+     * Filtering function, returns true if the record lies within all ranges.
+     *
+     * @param t the input value.
+     * @return true if the record lies within all ranges, false otherwise.
+     */
+    @Override
+    public boolean filter(T t) {
+        for (FieldRange r : ranges) {
+            if (! r.test(t)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This is part of the Meridian code base, licensed under the
+ * Apache License 2.0 (see also
+ * http://www.apache.org/licenses/LICENSE-2.0).
+ * <p>
+ * Created by sviglas on 18/10/26.
+ */
+
+package net.sviglas.meridian.task;
+
+import net.sviglas.meridian.storage.BadTypeException;
+import net.sviglas.meridian.storage.Dataset;
+
+/**
+ * A dataset constructor that hands out the same dataset every time, so that
+ * the leaves of a task write straight into one shared output instead of
+ * building private outputs that are appended on the way up. The shared
+ * dataset must accept concurrent additions, e.g., a
+ * {@link net.sviglas.meridian.storage.ConcurrentStore}; the output records
+ * are not in input order. It suits tasks whose leaves construct nothing but
+ * their output, i.e., mapping, filtering, splitting and merging tasks.
+ */
+public class SharedDatasetConstructor implements DatasetConstructor {
+    // the shared dataset
+    private final Dataset<?> output;
+
+    /**
+     * Constructs a dataset constructor over the given shared dataset.
+     *
+     * @param d the shared dataset.
+     */
+    public SharedDatasetConstructor(Dataset<?> d) {
+        output = d;
+    }
+
+    /**
+     * Returns the shared dataset.
+     *
+     * @param type the dataset type, which must be that of the shared dataset.
+     * @param <T> the type of dataset records.
+     * @return the shared dataset.
+     * @throws BadTypeException if the type is not that of the shared
+     * dataset.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Dataset<T> constructDataset(Class<T> type)
+            throws BadTypeException {
+        if (! type.equals(output.getRecordType())) {
+            throw new BadTypeException("Shared dataset hosts "
+                    + output.getRecordType() + ", not " + type);
+        }
+        return (Dataset<T>) output;
+    }
+}
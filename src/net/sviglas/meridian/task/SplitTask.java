@@ -8,9 +8,11 @@
 
 package net.sviglas.meridian.task;
 
+import net.sviglas.meridian.storage.CompositeDataset;
 import net.sviglas.meridian.storage.Dataset;
 import net.sviglas.util.Pair;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.RecursiveTask;
 
@@ -69,8 +71,9 @@ public class SplitTask<T> extends Task<Dataset<T>> {
         if (range.smallEnough()) {
             Dataset<T> localOutput =
                     getDatasetConstructor().constructDataset(type);
-            for (long idx = range.begin(); idx < range.end(); idx++) {
-                localOutput.add(input.get(idx));
+            Iterator<T> records = input.cursor(range.begin(), range.end());
+            while (records.hasNext()) {
+                localOutput.add(records.next());
             }
             return localOutput;
         }
@@ -82,9 +85,7 @@ public class SplitTask<T> extends Task<Dataset<T>> {
                     ranges.second, getDatasetConstructor());
             left.fork();
             right.fork();
-            Dataset<T> localOutput = left.join();
-            localOutput.append(right.join());
-            return localOutput;
+            return CompositeDataset.concat(left.join(), right.join());
         }
     }
 }